@@ -317,6 +317,10 @@ public final class StudioFlags {
   public static final Flag<Boolean> COMPOUND_SYNC_ENABLED = Flag.create(
     GRADLE_IDE, "compound.sync", "Enable new \"Compound Sync\"",
     "Turns on Compound Sync.", false);
+  public static final Flag<Boolean> PARTIAL_CACHED_SYNC_ENABLED = Flag.create(
+    GRADLE_IDE, "partial.cached.sync", "Enable partial reuse of cached Gradle models",
+    "When only the build files of some modules changed, reuse the cached models of the other modules and only sync the changed " +
+    "modules with a Variant-Only Sync.", false);
   public static final Flag<Boolean> SHIPPED_SYNC_ENABLED = Flag.create(
     GRADLE_IDE, "shipped.sync", "Enable \"Shipped Sync\"",
     "Use shipped Gradle Sync when possible e.g. in freshly created projects. Allows to avoid running an actual Gradle Sync.",
@@ -407,6 +411,16 @@ public final class StudioFlags {
     "Use ResourceRepository to resolve references, not ResourceManager.",
     false);
 
+  private static final FlagGroup LINT = new FlagGroup(FLAGS, "lint", "Lint");
+
+  public static final Flag<Boolean> LINT_PROFILE_DETECTORS = Flag.create(
+    LINT,
+    "profile.detectors",
+    "Measure the time of every lint detector",
+    "If enabled, batch inspections analyze every lint detector on its own and report the time it took. The analysis is slower, " +
+    "since files are visited once per detector instead of once per type of file.",
+    false);
+
   private static final FlagGroup ANALYZER = new FlagGroup(FLAGS, "analyzer", "Apk/Bundle Analyzer");
   public static final Flag<Boolean> ENABLE_APP_SIZE_OPTIMIZER = Flag.create(
     ANALYZER, "enable.app.size.optimizer", "Enable size optimization suggestions in apk analyzer",
@@ -296,6 +296,12 @@ public class LayoutInspectorContext implements Disposable, DataProvider, ViewNod
     mySubtreePreviewMenuItem.setEnabled(myModel.isConnected());
   }
 
+  @VisibleForTesting
+  @Nullable
+  Client getClient() {
+    return myModel.getClient();
+  }
+
   public static boolean isDumpDisplayListEnabled() {
     return DUMP_DISPLAYLIST_ENABLED;
   }
@@ -367,7 +373,7 @@ public class LayoutInspectorContext implements Disposable, DataProvider, ViewNod
       node.setForcedState(myNodeVisibleMenuItem.getState() ? ViewNode.ForcedState.VISIBLE : ViewNode.ForcedState.INVISIBLE);
       getRoot().updateNodeDrawn();
       if (myPreview != null) {
-        myPreview.repaint();
+        myPreview.updateNodeOutlines();
       }
       myNodeTree.repaint();
     }
@@ -15,31 +15,45 @@
  */
 package com.android.tools.idea.editors.layoutInspector;
 
+import com.android.annotations.VisibleForTesting;
 import com.android.ddmlib.Client;
 import com.android.layoutinspector.model.ClientWindow;
+import com.android.layoutinspector.model.LayoutFileData;
 import com.android.layoutinspector.parser.LayoutFileDataParser;
 import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
 import com.intellij.ide.structureView.StructureViewBuilder;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.components.JBLoadingPanel;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import java.awt.*;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
 
 import static com.intellij.openapi.vfs.VfsUtilCore.virtualToIoFile;
 
+/**
+ * Editor of layout inspector captures. The capture is parsed on a pooled thread, while a loading panel is shown, so opening a large
+ * capture does not block the UI.
+ */
 public class LayoutInspectorEditor extends UserDataHolderBase implements FileEditor {
   private final VirtualFile myVirtualFile;
   private final Project myProject;
+  private JBLoadingPanel myLoadingPanel;
   private LayoutInspectorEditorPanel myPanel;
   private LayoutInspectorContext myContext;
+  // Sources set before the capture is loaded.
+  @Nullable private Client myClient;
+  @Nullable private ClientWindow myWindow;
+  private volatile boolean myDisposed;
 
   public LayoutInspectorEditor(@NotNull Project project, @NotNull VirtualFile file) {
     myVirtualFile = file;
@@ -49,22 +63,47 @@ public class LayoutInspectorEditor extends UserDataHolderBase implements FileEdi
   @NotNull
   @Override
   public JComponent getComponent() {
-    if (myPanel == null) {
-      try {
-        myContext = new LayoutInspectorContext(LayoutFileDataParser.parseFromFile(virtualToIoFile(myVirtualFile)), this);
-      }
-      catch (IOException e) {
-        return new JLabel(e.getLocalizedMessage(), SwingConstants.CENTER);
-      }
+    if (myLoadingPanel == null) {
+      myLoadingPanel = new JBLoadingPanel(new BorderLayout(), this);
+      myLoadingPanel.startLoading();
+      ApplicationManager.getApplication().executeOnPooledThread(this::loadCapture);
+    }
 
-      myPanel = new LayoutInspectorEditorPanel(this, myProject, myContext);
+    return myLoadingPanel;
+  }
+
+  private void loadCapture() {
+    LayoutFileData data;
+    try {
+      data = LayoutFileDataParser.parseFromFile(virtualToIoFile(myVirtualFile));
+    }
+    catch (IOException e) {
+      ApplicationManager.getApplication().invokeLater(() -> {
+        if (!myDisposed) {
+          myLoadingPanel.add(new JLabel(e.getLocalizedMessage(), SwingConstants.CENTER));
+          myLoadingPanel.stopLoading();
+        }
+      });
+      return;
     }
 
-    return myPanel;
+    ApplicationManager.getApplication().invokeLater(() -> {
+      if (myDisposed) {
+        return;
+      }
+      myContext = new LayoutInspectorContext(data, this);
+      if (myClient != null || myWindow != null) {
+        myContext.setSources(myClient, myWindow);
+      }
+      myPanel = new LayoutInspectorEditorPanel(this, myProject, myContext);
+      myLoadingPanel.add(myPanel);
+      myLoadingPanel.stopLoading();
+    });
   }
 
   @Override
   public void dispose() {
+    myDisposed = true;
   }
 
   @NotNull
@@ -127,7 +166,22 @@ public class LayoutInspectorEditor extends UserDataHolderBase implements FileEdi
     return myVirtualFile.isValid();
   }
 
+  /**
+   * Returns the context of the capture, or null if the capture is not loaded yet.
+   */
+  @VisibleForTesting
+  @Nullable
+  LayoutInspectorContext getContext() {
+    return myContext;
+  }
+
   public void setSources(@Nullable Client client, @Nullable ClientWindow window) {
-    myContext.setSources(client, window);
+    if (myContext != null) {
+      myContext.setSources(client, window);
+    }
+    else {
+      myClient = client;
+      myWindow = window;
+    }
   }
 }
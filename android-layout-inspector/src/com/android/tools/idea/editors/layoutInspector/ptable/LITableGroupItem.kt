@@ -22,14 +22,10 @@ import com.android.tools.idea.editors.layoutInspector.EditHandler
 import java.util.stream.Collectors
 
 class LITableGroupItem(private val myName: String, properties: List<ViewProperty>, editHandler: EditHandler) : PTableGroupItem() {
-  private val myChildren: List<PTableItem>
+  // Items are only created for the groups that are expanded or filtered, not for every group of the selected node.
+  private val myChildren: List<PTableItem> by lazy { properties.map { prop -> LITableItem(prop, this, editHandler) }.sorted() }
   private var isExpanded: Boolean = false
 
-  init {
-    myChildren = properties.map { prop -> LITableItem(prop, this, editHandler) }.sorted()
-    isExpanded = false
-  }
-
   override fun getName(): String {
     return myName
   }
@@ -33,12 +33,18 @@ import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A component to display a {@link ViewNode} with display boxes.
  * Renders the image scaled with a zoom factor and draws display boxes over the
  * image that listens to hover/click and fires events for listeners to respond.
+ * <p>
+ * The image, grid, overlay and outlines of the nodes are rendered once per zoom level into tiles, which are cached. The hovered and
+ * selected nodes are drawn over the tiles, so hovering only repaints their boxes from the cached tiles.
  */
 public class ViewNodeActiveDisplay extends JComponent {
   private static final double SHOW_GRID_LEVEL = 3;
@@ -52,6 +58,11 @@ public class ViewNodeActiveDisplay extends JComponent {
   private static final Stroke DEFAULT_STROKE = new BasicStroke(1);
   private static final Stroke THICK_STROKE = new BasicStroke(2);
 
+  @VisibleForTesting
+  static final int TILE_SIZE = 256;
+  // Minimum number of cached tiles, 16MB at 4 bytes per pixel, or 64MB on a 2x display. More are kept if the visible area needs them.
+  private static final int MIN_MAX_TILE_COUNT = 64;
+
   @NotNull
   private ViewNode mRoot;
   @Nullable
@@ -81,6 +92,18 @@ public class ViewNodeActiveDisplay extends JComponent {
   // flag to tell next render to update bound boxes
   private boolean updateBounds = false;
 
+  // Tiles of the base layer by column and row, least recently painted first.
+  private final Map<Long, BufferedImage> mTiles = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+      return size() > mMaxTileCount;
+    }
+  };
+  // Maximum number of cached tiles, at least the number of tiles covering the visible area.
+  private int mMaxTileCount = MIN_MAX_TILE_COUNT;
+  // Scale of the device the tiles were rendered for, 2 on retina displays.
+  private double mTileScale = 1;
+
   public ViewNodeActiveDisplay(@NotNull ViewNode root, @Nullable Image preview) {
     mRoot = root;
     mPreview = preview;
@@ -118,8 +141,9 @@ public class ViewNodeActiveDisplay extends JComponent {
 
   public void setHoverNode(@Nullable ViewNode node) {
     if (!Objects.equal(node, mHoverNode)) {
+      repaintBox(mHoverNode);
       mHoverNode = node;
-      repaint();
+      repaintBox(mHoverNode);
 
       for (ViewNodeActiveDisplayListener listener : mListeners) {
         listener.onViewNodeOver(mHoverNode);
@@ -129,8 +153,9 @@ public class ViewNodeActiveDisplay extends JComponent {
 
   public void setSelectedNode(@NotNull ViewNode node) {
     if (!Objects.equal(node, mSelectedNode)) {
+      repaintBox(mSelectedNode);
       mSelectedNode = node;
-      repaint();
+      repaintBox(mSelectedNode);
 
       for (ViewNodeActiveDisplayListener listener : mListeners) {
         listener.onNodeSelected(mSelectedNode);
@@ -161,6 +186,7 @@ public class ViewNodeActiveDisplay extends JComponent {
 
       calculateNodeBounds(mRoot, info.getCopyAtOrigin(),0, 0, 1, 1, mZoomFactor);
       updateBounds = false;
+      mTiles.clear();
     }
 
     paintPreview((Graphics2D)g);
@@ -212,8 +238,90 @@ public class ViewNodeActiveDisplay extends JComponent {
     // move the coordinate so we draw in the center of the canvas instead of top left.
     g.translate(mDrawShiftX, mDrawShiftY);
 
+    paintTiles(g);
+
+    g.clipRect(0, 0, mRoot.getPreviewBox().width, mRoot.getPreviewBox().height);
+    g.setStroke(THICK_STROKE);
+    if (mHoverNode != null && mSelectedNode != mHoverNode) {
+      g.setColor(HOVER_COLOR);
+      paintBox(mHoverNode.getPreviewBox(), g);
+    }
+    if (mSelectedNode != null) {
+      g.setColor(SELECTED_COLOR);
+      paintBox(mSelectedNode.getPreviewBox(), g);
+    }
+  }
+
+  /**
+   * Paints the tiles of the base layer intersecting the clip, rendering the ones not cached yet.
+   */
+  private void paintTiles(@NotNull Graphics2D g) {
+    double scale = g.getTransform().getScaleX();
+    if (scale != mTileScale) {
+      mTileScale = scale;
+      mTiles.clear();
+    }
+    updateMaxTileCount();
+
+    // Outlines are drawn one pixel past the bottom right corner of their box.
+    Rectangle bounds = new Rectangle(0, 0, mRoot.getPreviewBox().width + 1, mRoot.getPreviewBox().height + 1);
+    Rectangle clip = g.getClipBounds();
+    Rectangle area = clip != null ? clip.intersection(bounds) : bounds;
+    if (area.isEmpty()) {
+      return;
+    }
+
+    for (int row = area.y / TILE_SIZE; row <= (area.y + area.height - 1) / TILE_SIZE; row++) {
+      for (int column = area.x / TILE_SIZE; column <= (area.x + area.width - 1) / TILE_SIZE; column++) {
+        g.drawImage(getTile(column, row), column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE, null);
+      }
+    }
+  }
+
+  /**
+   * Makes sure the cache can hold all the tiles covering the visible area, so that painting it does not evict tiles painted by the same
+   * repaint.
+   */
+  private void updateMaxTileCount() {
+    Rectangle visible = getVisibleRect();
+    // A visible area not aligned with the tiles intersects one more column and row.
+    int visibleTileCount = (visible.width / TILE_SIZE + 2) * (visible.height / TILE_SIZE + 2);
+    mMaxTileCount = Math.max(MIN_MAX_TILE_COUNT, visibleTileCount);
+    Iterator<Long> iterator = mTiles.keySet().iterator();
+    while (mTiles.size() > mMaxTileCount && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  @NotNull
+  private BufferedImage getTile(int column, int row) {
+    long key = ((long)column << 32) | row;
+    BufferedImage tile = mTiles.get(key);
+    if (tile == null) {
+      int size = (int)Math.ceil(TILE_SIZE * mTileScale);
+      // Not created with ImageUtil, whose images are already scaled for HiDPI displays.
+      //noinspection UndesirableClassUsage
+      tile = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+      Graphics2D g = tile.createGraphics();
+      try {
+        g.scale(mTileScale, mTileScale);
+        g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+        paintBaseLayer(g);
+      }
+      finally {
+        g.dispose();
+      }
+      mTiles.put(key, tile);
+    }
+    return tile;
+  }
+
+  /**
+   * Paints the image, grid, overlay and outlines of the drawn nodes, which do not change on hover or selection.
+   */
+  private void paintBaseLayer(@NotNull Graphics2D g) {
     if (mPreview != null) {
-      RenderingHints oldHints = g.getRenderingHints();
       g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
       if (Float.compare(mZoomFactor, 1.0f) < 0) {
         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
@@ -232,7 +340,7 @@ public class ViewNodeActiveDisplay extends JComponent {
 
       drawOverlay(g);
 
-      g.setRenderingHints(oldHints);
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
     }
 
     g.clipRect(0, 0, mRoot.getPreviewBox().width, mRoot.getPreviewBox().height);
@@ -240,16 +348,25 @@ public class ViewNodeActiveDisplay extends JComponent {
     g.setStroke(DEFAULT_STROKE);
 
     paintNode(mRoot, g);
+  }
 
-    g.setStroke(THICK_STROKE);
-    if (mHoverNode != null && mSelectedNode != mHoverNode) {
-      g.setColor(HOVER_COLOR);
-      paintBox(mHoverNode.getPreviewBox(), g);
-    }
-    if (mSelectedNode != null) {
-      g.setColor(SELECTED_COLOR);
-      paintBox(mSelectedNode.getPreviewBox(), g);
+  /**
+   * Repaints the area of the box of the given node, drawn with a thick stroke when the node is hovered or selected.
+   */
+  private void repaintBox(@Nullable ViewNode node) {
+    if (node == null) {
+      return;
     }
+    Rectangle box = node.getPreviewBox();
+    repaint(mDrawShiftX + box.x - 2, mDrawShiftY + box.y - 2, box.width + 4, box.height + 4);
+  }
+
+  /**
+   * Repaints the outlines of the nodes, after nodes were shown or hidden.
+   */
+  public void updateNodeOutlines() {
+    mTiles.clear();
+    repaint();
   }
 
   /**
@@ -270,10 +387,8 @@ public class ViewNodeActiveDisplay extends JComponent {
   }
 
   private void paintNode(ViewNode node, Graphics2D g) {
-    if (node != mHoverNode && node != mSelectedNode) {
-      // Hover node & selected node are drawn last
-      paintBox(node.getPreviewBox(), g);
-    }
+    // The outlines of the hover node & selected node are drawn over by paintPreview
+    paintBox(node.getPreviewBox(), g);
     if (!node.isLeaf()) {
       for (ViewNode child : node.getChildren()) {
         if (child.isDrawn()) {
@@ -348,6 +463,7 @@ public class ViewNodeActiveDisplay extends JComponent {
 
   public void setZoomFactor(float zoomFactor) {
     mZoomFactor = zoomFactor;
+    updateBounds = true;
     float rootHeight = mRoot.getDisplayInfo().getHeight();
     float rootWidth = mRoot.getDisplayInfo().getWidth();
     // when zoom factor changes, change the size. more zoomed in = bigger size and vice versa.
@@ -357,6 +473,7 @@ public class ViewNodeActiveDisplay extends JComponent {
 
   public void setGridVisible(boolean gridVisible) {
     mGridVisible = gridVisible;
+    mTiles.clear();
     repaint();
   }
 
@@ -385,6 +502,7 @@ public class ViewNodeActiveDisplay extends JComponent {
     mOverlay = overlay;
     myOverlayFileName = fileName;
     mOverlayAlpha = DEFAULT_OVERLAY_ALPHA; // reset on selecting new image
+    mTiles.clear();
     repaint();
   }
 
@@ -403,6 +521,7 @@ public class ViewNodeActiveDisplay extends JComponent {
 
   public void setOverlayAlpha(float mOverlayAlpha) {
     this.mOverlayAlpha = mOverlayAlpha;
+    mTiles.clear();
     repaint();
   }
 
@@ -410,6 +529,7 @@ public class ViewNodeActiveDisplay extends JComponent {
     mPreview = preview;
     mRoot = root;
     updateBounds = true;
+    mTiles.clear();
     repaint();
   }
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.layoutInspector;
+
+import com.android.ddmlib.Client;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.components.JBLoadingPanel;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.android.AndroidTestCase;
+
+import javax.swing.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+public class LayoutInspectorEditorTest extends AndroidTestCase {
+  private LayoutInspectorEditor myEditor;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    VirtualFile file = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(InspectorTestUtilsKt.getTestFile());
+    assertNotNull(file);
+    myEditor = new LayoutInspectorEditor(getProject(), file);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      Disposer.dispose(myEditor);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testCaptureIsLoadedInBackground() throws Exception {
+    JComponent component = myEditor.getComponent();
+    assertTrue(component instanceof JBLoadingPanel);
+    assertSame(component, myEditor.getComponent());
+
+    // The panel is only built on the UI thread once the capture is parsed, so nothing is loaded until events are dispatched.
+    JBLoadingPanel loadingPanel = (JBLoadingPanel)component;
+    assertTrue(loadingPanel.isLoading());
+    assertNull(myEditor.getContext());
+
+    waitForLoad(loadingPanel);
+    LayoutInspectorContext context = myEditor.getContext();
+    assertNotNull(context);
+    assertNotNull(context.getRoot());
+    assertNotNull(UIUtil.findComponentOfType(loadingPanel, LayoutInspectorEditorPanel.class));
+  }
+
+  public void testSourcesSetBeforeLoadAreApplied() throws Exception {
+    JBLoadingPanel loadingPanel = (JBLoadingPanel)myEditor.getComponent();
+    Client client = mock(Client.class);
+    myEditor.setSources(client, null);
+
+    waitForLoad(loadingPanel);
+    LayoutInspectorContext context = myEditor.getContext();
+    assertNotNull(context);
+    assertSame(client, context.getClient());
+
+    // Once loaded, sources are set on the context directly.
+    myEditor.setSources(null, null);
+    assertNull(context.getClient());
+  }
+
+  private static void waitForLoad(JBLoadingPanel loadingPanel) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    while (loadingPanel.isLoading()) {
+      assertTrue("Timed out waiting for the capture to load", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+      UIUtil.dispatchAllInvocationEvents();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.layoutInspector.ptable
+
+import com.android.layoutinspector.model.ViewProperty
+import com.android.layoutinspector.parser.ViewNodeParser
+import com.android.tools.idea.editors.layoutInspector.DefaultNoEditHandler
+import com.android.tools.idea.editors.layoutInspector.EditHandler
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import kotlin.test.assertSame
+
+class LITableGroupItemTest {
+  private val properties: Map<String, List<ViewProperty>> =
+    ViewNodeParser.parse("myroot@191 cow:foo=5,super cow:child=4,calf mID=3,god \nDONE.\n".toByteArray())!!.groupedProperties
+
+  @Test
+  fun testExpandBeforeChildrenAreCreated() {
+    val group = LITableGroupItem("cow", properties["cow"]!!, DefaultNoEditHandler())
+    assertThat(group.isExpanded).isFalse()
+    assertThat(group.hasChildren()).isTrue()
+
+    group.setExpanded(true)
+    assertThat(group.isExpanded).isTrue()
+
+    val children = group.children
+    assertThat(children.map { it.name }).containsExactly("child", "foo").inOrder()
+    assertThat(children.map { it.value }).containsExactly("calf", "super").inOrder()
+    children.forEach { assertSame(group, it.parent) }
+
+    // Children are created once, and kept when the group is collapsed.
+    group.setExpanded(false)
+    assertSame(children, group.children)
+  }
+
+  @Test
+  fun testChildrenUseEditHandlerOfGroup() {
+    val editHandler = mock(EditHandler::class.java)
+    val group = LITableGroupItem("cow", properties["cow"]!!, editHandler)
+
+    val child = group.children.first()
+    child.setValue("milk")
+    verify(editHandler).editProperty(properties["cow"]!!.first { it.fullName == "cow:child" }, "milk")
+  }
+}
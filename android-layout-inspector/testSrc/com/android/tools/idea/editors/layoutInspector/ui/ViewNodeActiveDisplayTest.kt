@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.editors.layoutInspector.ui
+
+import com.android.layoutinspector.model.LayoutFileData
+import com.android.layoutinspector.parser.LayoutFileDataParser
+import com.android.tools.idea.editors.layoutInspector.getTestFile
+import org.jetbrains.android.AndroidTestCase
+import java.awt.image.BufferedImage
+
+class ViewNodeActiveDisplayTest : AndroidTestCase() {
+  private lateinit var myTestData: LayoutFileData
+
+  override fun setUp() {
+    super.setUp()
+    myTestData = LayoutFileDataParser.parseFromFile(getTestFile())
+  }
+
+  fun testHoverAndSelectionArePaintedOverCachedTiles() {
+    val node = myTestData.node!!.getChildAt(0)
+
+    val display = createDisplay()
+    paint(display)
+    display.setHoverNode(node)
+    display.setSelectedNode(myTestData.node!!)
+    val cached = paint(display)
+
+    val uncached = createDisplay()
+    uncached.setHoverNode(node)
+    uncached.setSelectedNode(myTestData.node!!)
+    assertImagesEqual(paint(uncached), cached)
+  }
+
+  fun testGridInvalidatesCachedTiles() {
+    // The first paint fits the image in the display, the grid is only shown once zoomed in.
+    val display = createDisplay()
+    paint(display)
+    display.zoomFactor = 4f
+    paint(display)
+    display.isGridVisible = true
+    val cached = paint(display)
+
+    val uncached = createDisplay()
+    paint(uncached)
+    uncached.zoomFactor = 4f
+    uncached.isGridVisible = true
+    assertImagesEqual(paint(uncached), cached)
+  }
+
+  private fun createDisplay(): ViewNodeActiveDisplay {
+    val display = ViewNodeActiveDisplay(myTestData.node!!, myTestData.bufferedImage)
+    display.setSize(800, 800)
+    return display
+  }
+
+  private fun paint(display: ViewNodeActiveDisplay): BufferedImage {
+    val image = BufferedImage(display.width, display.height, BufferedImage.TYPE_INT_ARGB)
+    val graphics = image.createGraphics()
+    try {
+      display.paint(graphics)
+    }
+    finally {
+      graphics.dispose()
+    }
+    return image
+  }
+
+  private fun assertImagesEqual(expected: BufferedImage, actual: BufferedImage) {
+    for (y in 0 until expected.height) {
+      for (x in 0 until expected.width) {
+        assertEquals("Pixel at ($x, $y)", expected.getRGB(x, y), actual.getRGB(x, y))
+      }
+    }
+  }
+}
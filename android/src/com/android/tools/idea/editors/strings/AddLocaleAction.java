@@ -128,10 +128,10 @@ final class AddLocaleAction extends AnAction {
       }
     }
 
-    Optional<StringResource> optionalResource = data.getResources().stream()
-                                                    .filter(resource -> resource.getKey().getDirectory() != null)
-                                                    .findFirst();
+    Optional<StringResourceKey> optionalKey = data.getKeys().stream()
+                                                  .filter(key -> key.getDirectory() != null)
+                                                  .findFirst();
 
-    return optionalResource.orElseThrow(IllegalStateException::new);
+    return data.getStringResource(optionalKey.orElseThrow(IllegalStateException::new));
   }
 }
@@ -26,6 +26,7 @@ import com.google.common.collect.Sets;
 import com.intellij.facet.Facet;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlTag;
@@ -35,21 +36,62 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class StringResourceData {
   private static final int MAX_LOCALE_LABEL_COUNT = 3;
 
   private final Facet myFacet;
-  private final Map<StringResourceKey, StringResource> myKeyToResourceMap;
   private final StringResourceRepository myRepository;
 
-  StringResourceData(@NotNull Facet facet,
-                     @NotNull Map<StringResourceKey, StringResource> keyToResourceMap,
-                     @NotNull StringResourceRepository repository) {
+  /**
+   * The resources by key, in the order of the repository. A resource is only read from the repository the first time it is requested,
+   * so opening the editor only reads the rows it shows; keys not read yet are mapped to null.
+   */
+  private Map<StringResourceKey, StringResource> myKeyToResourceMap;
+
+  /**
+   * The modification counts of the repositories the keys and resources were read from, by resource directory.
+   */
+  private Map<VirtualFile, Long> myModificationCounts;
+
+  @Nullable
+  private List<Locale> myLocaleList;
+
+  StringResourceData(@NotNull Facet facet, @NotNull StringResourceRepository repository) {
     myFacet = facet;
-    myKeyToResourceMap = keyToResourceMap;
     myRepository = repository;
+    myModificationCounts = repository.getModificationCounts();
+    myKeyToResourceMap = new LinkedHashMap<>();
+    repository.getKeys().forEach(key -> myKeyToResourceMap.put(key, null));
+  }
+
+  /**
+   * Brings the data up to date with the repository. Only the resources of the resource directories that changed are read again, and
+   * only when they are next requested.
+   *
+   * @return whether anything changed since the data was read
+   */
+  public boolean refresh() {
+    Map<VirtualFile, Long> modificationCounts = myRepository.getModificationCounts();
+
+    if (modificationCounts.equals(myModificationCounts)) {
+      return false;
+    }
+
+    Map<StringResourceKey, StringResource> keyToResourceMap = new LinkedHashMap<>();
+
+    myRepository.getKeys().forEach(key -> {
+      VirtualFile directory = key.getDirectory();
+      boolean changed = !Objects.equals(modificationCounts.get(directory), myModificationCounts.get(directory));
+
+      keyToResourceMap.put(key, changed ? null : myKeyToResourceMap.get(key));
+    });
+
+    myKeyToResourceMap = keyToResourceMap;
+    myModificationCounts = modificationCounts;
+    myLocaleList = null;
+
+    return true;
   }
 
   public void setKeyName(@NotNull StringResourceKey key, @NotNull String name) {
@@ -85,8 +127,7 @@ public class StringResourceData {
     new RenameProcessor(project, nameAttributeValue, name, false, false).run();
 
     myKeyToResourceMap.remove(key);
-    key = new StringResourceKey(name, key.getDirectory());
-    myKeyToResourceMap.put(key, new StringResource(key, myRepository, project));
+    myKeyToResourceMap.put(new StringResourceKey(name, key.getDirectory()), null);
   }
 
   public boolean setTranslatable(@NotNull StringResourceKey key, boolean translatable) {
@@ -198,10 +239,15 @@ public class StringResourceData {
 
   @NotNull
   public StringResource getStringResource(@NotNull StringResourceKey key) {
+    if (!myKeyToResourceMap.containsKey(key)) {
+      throw new IllegalArgumentException(key.toString());
+    }
+
     StringResource resource = myKeyToResourceMap.get(key);
 
     if (resource == null) {
-      throw new IllegalArgumentException(key.toString());
+      resource = new StringResource(key, myRepository, myFacet.getModule().getProject());
+      myKeyToResourceMap.put(key, resource);
     }
 
     return resource;
@@ -209,7 +255,9 @@ public class StringResourceData {
 
   @NotNull
   public Collection<StringResource> getResources() {
-    return myKeyToResourceMap.values();
+    return getKeys().stream()
+                    .map(this::getStringResource)
+                    .collect(Collectors.toList());
   }
 
   @NotNull
@@ -219,19 +267,17 @@ public class StringResourceData {
 
   @NotNull
   public List<Locale> getLocaleList() {
-    return getTranslatedLocaleStream()
-      .distinct()
-      .sorted(Locale.LANGUAGE_NAME_COMPARATOR)
-      .collect(Collectors.toList());
-  }
+    if (myLocaleList == null) {
+      myLocaleList = myRepository.getTranslatedLocales().stream()
+                                 .sorted(Locale.LANGUAGE_NAME_COMPARATOR)
+                                 .collect(Collectors.toList());
+    }
 
-  @NotNull
-  Set<Locale> getLocaleSet() {
-    return getTranslatedLocaleStream().collect(Collectors.toSet());
+    return new ArrayList<>(myLocaleList);
   }
 
   @NotNull
-  private Stream<Locale> getTranslatedLocaleStream() {
-    return myKeyToResourceMap.values().stream().flatMap(resource -> resource.getTranslatedLocales().stream());
+  Set<Locale> getLocaleSet() {
+    return new HashSet<>(getLocaleList());
   }
 }
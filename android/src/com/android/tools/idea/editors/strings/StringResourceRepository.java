@@ -26,7 +26,6 @@ import com.android.tools.idea.res.LocalResourceRepository.EmptyRepository;
 import com.android.tools.idea.res.MultiResourceRepository;
 import com.android.tools.idea.res.ResourceFolderRepository;
 import com.google.common.collect.Maps;
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
@@ -98,20 +97,25 @@ public class StringResourceRepository {
 
   @NotNull
   public final StringResourceData getData(@NotNull AndroidFacet facet) {
-    Map<StringResourceKey, StringResource> map = new LinkedHashMap<>();
-    Project project = facet.getModule().getProject();
+    return new StringResourceData(facet, this);
+  }
 
-    myResourceDirectoryRepositoryMap.entrySet().stream()
-                                    .flatMap(StringResourceRepository::getKeys)
-                                    .forEach(key -> map.put(key, new StringResource(key, this, project)));
+  /**
+   * Returns the keys of all the string resources, in the order of the resource directories.
+   */
+  @NotNull
+  final Stream<StringResourceKey> getKeys() {
+    Stream<StringResourceKey> keys = myResourceDirectoryRepositoryMap.entrySet().stream().flatMap(StringResourceRepository::getKeys);
 
     if (myDynamicResourceRepository != null) {
-      myDynamicResourceRepository.getResources(ResourceNamespace.TODO(), ResourceType.STRING).keySet().stream()
-                                 .map(name -> new StringResourceKey(name, null))
-                                 .forEach(key -> map.put(key, new StringResource(key, this, project)));
+      Stream<StringResourceKey> dynamicKeys =
+        myDynamicResourceRepository.getResources(ResourceNamespace.TODO(), ResourceType.STRING).keySet().stream()
+                                   .map(name -> new StringResourceKey(name, null));
+
+      keys = Stream.concat(keys, dynamicKeys);
     }
 
-    return new StringResourceData(facet, map, this);
+    return keys;
   }
 
   @NotNull
@@ -122,6 +126,61 @@ public class StringResourceRepository {
                 .map(name -> new StringResourceKey(name, directory));
   }
 
+  /**
+   * Returns the locales any string resource is translated to. Unlike going through the {@link StringResource}s, this only looks at the
+   * configurations of the resource items, so it does not need to read their values.
+   */
+  @NotNull
+  final Set<Locale> getTranslatedLocales() {
+    Set<Locale> locales = new HashSet<>();
+
+    for (LocalResourceRepository repository : getRepositories()) {
+      repository.sync();
+
+      for (ResourceItem item : repository.getResources(ResourceNamespace.TODO(), ResourceType.STRING).values()) {
+        LocaleQualifier qualifier = item.getConfiguration().getLocaleQualifier();
+
+        if (qualifier != null) {
+          locales.add(Locale.create(qualifier));
+        }
+      }
+    }
+
+    return locales;
+  }
+
+  /**
+   * Returns the modification counts of the underlying repositories, by resource directory. The dynamic resource repository, if any, is
+   * mapped to null.
+   */
+  @NotNull
+  final Map<VirtualFile, Long> getModificationCounts() {
+    Map<VirtualFile, Long> modificationCounts = new HashMap<>();
+
+    myResourceDirectoryRepositoryMap.forEach((directory, repository) -> {
+      repository.sync();
+      modificationCounts.put(directory, repository.getModificationCount());
+    });
+
+    if (myDynamicResourceRepository != null) {
+      myDynamicResourceRepository.sync();
+      modificationCounts.put(null, myDynamicResourceRepository.getModificationCount());
+    }
+
+    return modificationCounts;
+  }
+
+  @NotNull
+  private Collection<LocalResourceRepository> getRepositories() {
+    if (myDynamicResourceRepository == null) {
+      return myResourceDirectoryRepositoryMap.values();
+    }
+
+    List<LocalResourceRepository> repositories = new ArrayList<>(myResourceDirectoryRepositoryMap.values());
+    repositories.add(myDynamicResourceRepository);
+    return repositories;
+  }
+
   @NotNull
   public Collection<ResourceItem> getItems(@NotNull StringResourceKey key) {
     return getItems(getRepository(key), key);
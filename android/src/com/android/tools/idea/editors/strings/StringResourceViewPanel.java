@@ -19,6 +19,8 @@ import com.android.tools.adtui.font.FontUtil;
 import com.android.tools.idea.actions.BrowserHelpAction;
 import com.android.tools.idea.editors.strings.table.*;
 import com.android.tools.idea.rendering.Locale;
+import com.android.tools.idea.res.ResourceNotificationManager;
+import com.android.tools.idea.res.ResourceNotificationManager.ResourceChangeListener;
 import com.google.common.annotations.VisibleForTesting;
 import com.intellij.icons.AllIcons;
 import com.intellij.openapi.Disposable;
@@ -58,6 +60,8 @@ public final class StringResourceViewPanel implements Disposable {
   private GoToDeclarationAction myGoToAction;
   private DeleteStringAction myDeleteAction;
 
+  private final ResourceChangeListener myResourceChangeListener = reasons -> refreshData();
+
   StringResourceViewPanel(AndroidFacet facet, Disposable parentDisposable) {
     myFacet = facet;
     Disposer.register(parentDisposable, this);
@@ -79,10 +83,13 @@ public final class StringResourceViewPanel implements Disposable {
     if (!ApplicationManager.getApplication().isUnitTestMode()) {
       new ResourceLoadingTask(this).queue();
     }
+
+    ResourceNotificationManager.getInstance(facet.getModule().getProject()).addListener(myResourceChangeListener, facet, null, null);
   }
 
   @Override
   public void dispose() {
+    ResourceNotificationManager.getInstance(myFacet.getModule().getProject()).removeListener(myResourceChangeListener, myFacet, null, null);
   }
 
   public void removeSelectedKeys() {
@@ -175,6 +182,22 @@ public final class StringResourceViewPanel implements Disposable {
     }
   }
 
+  /**
+   * Updates the table after string resources were changed, e.g. by editing strings.xml. Unlike {@link #reloadData()}, only the keys and
+   * the rows shown are read again.
+   */
+  private void refreshData() {
+    StringResourceTableModel model = myTable.getModel();
+
+    if (model.getData() == null || myLoadingPanel.isLoading() || myTable.getCellEditor() != null) {
+      return;
+    }
+
+    if (!model.refresh()) {
+      myTable.setModel(new StringResourceTableModel(model.getRepository(), myFacet));
+    }
+  }
+
   private ActionToolbar createToolbar() {
     myAddLocaleAction = new AddLocaleAction(this);
 
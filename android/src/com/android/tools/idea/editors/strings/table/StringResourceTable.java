@@ -32,6 +32,12 @@ import java.util.OptionalInt;
 import java.util.stream.IntStream;
 
 public final class StringResourceTable extends FrozenColumnTable {
+  /**
+   * The number of rows measured to compute the preferred column widths. Measuring a row reads its string resource, so the widths are
+   * computed from the first rows instead of the whole table.
+   */
+  private static final int MAX_MEASURED_ROW_COUNT = 100;
+
   private final TableCellRenderer myLocaleRenderer;
 
   @Nullable
@@ -135,7 +141,7 @@ public final class StringResourceTable extends FrozenColumnTable {
   private int getPreferredColumnWidth(int viewColumnIndex) {
     int headerWidth = getPreferredHeaderWidth(viewColumnIndex);
 
-    OptionalInt optionalMaxCellWidth = IntStream.range(0, getRowCount())
+    OptionalInt optionalMaxCellWidth = IntStream.range(0, Math.min(getRowCount(), MAX_MEASURED_ROW_COUNT))
                                                 .map(viewRowIndex -> getPreferredCellWidth(viewRowIndex, viewColumnIndex))
                                                 .max();
 
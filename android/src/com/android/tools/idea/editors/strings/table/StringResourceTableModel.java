@@ -61,6 +61,37 @@ public class StringResourceTableModel extends AbstractTableModel {
     myLocales = data.getLocaleList();
   }
 
+  /**
+   * Brings the model up to date with the string resources, after they were changed outside of the table. Only the rows shown are read
+   * again.
+   *
+   * @return false if the locales changed, in which case the columns have to be recreated with a new model
+   */
+  public boolean refresh() {
+    if (myData == null || !myData.refresh()) {
+      return true;
+    }
+
+    List<Locale> locales = myData.getLocaleList();
+
+    if (!locales.equals(myLocales)) {
+      return false;
+    }
+
+    List<StringResourceKey> keys = myData.getKeys();
+
+    if (!keys.equals(myKeys)) {
+      myKeys = keys;
+      fireTableDataChanged();
+    }
+    else if (!keys.isEmpty()) {
+      // Unlike fireTableDataChanged, this keeps the selection
+      fireTableRowsUpdated(0, keys.size() - 1);
+    }
+
+    return true;
+  }
+
   @NotNull
   public StringResourceRepository getRepository() {
     return myRepository;
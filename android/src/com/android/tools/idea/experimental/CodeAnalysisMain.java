@@ -20,13 +20,16 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiModificationTracker;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 
 public class CodeAnalysisMain {
 
@@ -36,6 +39,10 @@ public class CodeAnalysisMain {
 
   private PsiCFGScene mScene;
 
+  //The java files and the java structure modification count the scene was created for
+  private Set<PsiFile> mAnalyzedFiles;
+  private long mJavaStructureModificationCount = -1;
+
   private CodeAnalysisMain(Project project) {
     mProject = project;
   }
@@ -55,11 +62,6 @@ public class CodeAnalysisMain {
   public void analyze(@NotNull AnalysisScope scope) {
 
 //    PsiDocumentManager.getInstance(mProject).commitAllDocuments();
-    //Create a mScene for this project.
-    //Each project has its own mScene.
-    mScene = PsiCFGScene.createFreshInstance(mProject);
-    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
-
     //Get list of java files available in this project
     int fileCount = scope.getFileCount();
     //LOG.info("File count in scope " + fileCount);
@@ -67,6 +69,28 @@ public class CodeAnalysisMain {
     //LOG.info("File count in visitor " + allFilesInScope.length);
     //outputFileNames(allFilesInScope);
 
+    //If the same files are analyzed again, and no class or method was added, removed
+    //or changed its signature, the classes and the hierarchy of the previous scene are
+    //still valid. Only the CFGs of the modified files are rebuilt in stage 3.
+    long javaStructureModificationCount = PsiModificationTracker.getInstance(mProject).getJavaStructureModificationCount();
+    Set<PsiFile> analyzedFiles = Sets.newHashSet(allFilesInScope);
+    if (mScene != null && mScene == PsiCFGScene.getInstance(mProject)
+        && javaStructureModificationCount == mJavaStructureModificationCount && analyzedFiles.equals(mAnalyzedFiles)) {
+      PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
+      AnalysisUtil.performStage3();
+      AnalysisUtil.performStage4();
+      AnalysisUtil.performStage5();
+      AnalysisUtil.performStage6();
+      return;
+    }
+    mAnalyzedFiles = analyzedFiles;
+    mJavaStructureModificationCount = javaStructureModificationCount;
+
+    //Create a mScene for this project.
+    //Each project has its own mScene.
+    mScene = PsiCFGScene.createFreshInstance(mProject);
+    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
+
     //Extract all java classes from java files.
     //Consider these classes are application classes.
     //As they are written by developer
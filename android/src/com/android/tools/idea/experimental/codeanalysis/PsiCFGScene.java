@@ -19,6 +19,7 @@ import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.BlockGraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
 import com.android.tools.idea.experimental.codeanalysis.utils.CFGUtil;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
@@ -29,6 +30,7 @@ import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
@@ -37,6 +39,13 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * A class that saves all information of the interprocedural control
  * flow analysis
+ *
+ * The CFGs of the methods are built concurrently in stage 3, so the
+ * methods creating or registering classes and invocation nodes are
+ * thread safe. The scene also remembers the modification stamp of the
+ * file each CFG was built from, so a later analysis over the same
+ * scene only rebuilds the CFGs of the methods in modified files,
+ * and records the changes so the call graph can be updated.
  */
 public class PsiCFGScene {
   private static ConcurrentMap<Project, PsiCFGScene> instanceMap = Maps.newConcurrentMap();
@@ -51,7 +60,22 @@ public class PsiCFGScene {
 
   private Project mProject;
 
-  protected ArrayList<GraphNode> mInvocationNodes;
+  //Invocation nodes created outside of the construction of a method's CFG
+  protected List<GraphNode> mInvocationNodes;
+
+  //Invocation nodes by the method whose CFG construction created them,
+  //including the nodes in the lambdas declared in that method
+  protected ConcurrentMap<PsiCFGMethod, List<GraphNode>> mMethodInvocationNodes;
+
+  //Modification stamp of the file each CFG was built from
+  protected ConcurrentMap<PsiCFGMethod, Long> mMethodGraphStamps;
+
+  private final ThreadLocal<PsiCFGMethod> mMethodUnderConstruction = new ThreadLocal<>();
+
+  //Changes since the call graph was set, so it can be updated instead of built again
+  protected Set<GraphNode> mRemovedInvocationNodes;
+  protected Set<PsiCFGMethod> mRebuiltMethods;
+  protected volatile boolean mClassesChanged;
 
   public PsiCFGAnalysisUtil analysisUtil;
 
@@ -72,19 +96,30 @@ public class PsiCFGScene {
   }
 
   private PsiCFGScene(Project proj) {
-    mAppClassNamePsiMap = Maps.newHashMap();
-    mLibraryClassNamePsiMap = Maps.newHashMap();
+    mAppClassNamePsiMap = Maps.newConcurrentMap();
+    mLibraryClassNamePsiMap = Maps.newConcurrentMap();
     mProject = proj;
     analysisUtil = new PsiCFGAnalysisUtil(this);
-    mAppPsiClassPsiCFGClassMap = Maps.newHashMap();
-    mLibraryPsiClassPsiCFGClassMap = Maps.newHashMap();
-    mLambdaPsiCFGClassMap = Maps.newHashMap();
-    mInvocationNodes = Lists.newArrayList();
+    mAppPsiClassPsiCFGClassMap = Maps.newConcurrentMap();
+    mLibraryPsiClassPsiCFGClassMap = Maps.newConcurrentMap();
+    mLambdaPsiCFGClassMap = Maps.newConcurrentMap();
+    mInvocationNodes = Collections.synchronizedList(Lists.newArrayList());
+    mMethodInvocationNodes = Maps.newConcurrentMap();
+    mMethodGraphStamps = Maps.newConcurrentMap();
+    mRemovedInvocationNodes = Sets.newConcurrentHashSet();
+    mRebuiltMethods = Sets.newConcurrentHashSet();
     workingList = Queues.newArrayDeque();
   }
 
+  /**
+   * Set the call graph of the scene. The changes to the CFGs recorded
+   * until now are considered to be part of it.
+   */
   public void setCallGraph(Callgraph callGraph) {
     mCallGraph = callGraph;
+    mRemovedInvocationNodes.clear();
+    mRebuiltMethods.clear();
+    mClassesChanged = false;
   }
 
   public Callgraph getCallGraph() {
@@ -92,11 +127,157 @@ public class PsiCFGScene {
   }
 
   public void addInvocationNode(GraphNode node) {
-    mInvocationNodes.add(node);
+    PsiCFGMethod method = mMethodUnderConstruction.get();
+    if (method != null) {
+      mMethodInvocationNodes.computeIfAbsent(method, m -> Collections.synchronizedList(Lists.newArrayList())).add(node);
+    }
+    else {
+      mInvocationNodes.add(node);
+    }
   }
 
   public GraphNode[] getAllInvocationNode() {
-    return mInvocationNodes.toArray(GraphNode.EMPTY_ARRAY);
+    List<GraphNode> allNodes;
+    synchronized (mInvocationNodes) {
+      allNodes = Lists.newArrayList(mInvocationNodes);
+    }
+    for (List<GraphNode> methodNodes : mMethodInvocationNodes.values()) {
+      synchronized (methodNodes) {
+        allNodes.addAll(methodNodes);
+      }
+    }
+    return allNodes.toArray(GraphNode.EMPTY_ARRAY);
+  }
+
+  /**
+   * Return the invocation nodes created by the construction of the method's CFG.
+   */
+  @NotNull
+  public GraphNode[] getInvocationNodes(@NotNull PsiCFGMethod method) {
+    List<GraphNode> methodNodes = mMethodInvocationNodes.get(method);
+    if (methodNodes == null) {
+      return GraphNode.EMPTY_ARRAY;
+    }
+    synchronized (methodNodes) {
+      return methodNodes.toArray(GraphNode.EMPTY_ARRAY);
+    }
+  }
+
+  /**
+   * Return the invocation nodes discarded with their CFG since the
+   * call graph was set.
+   */
+  @NotNull
+  public Set<GraphNode> getRemovedInvocationNodes() {
+    return Collections.unmodifiableSet(mRemovedInvocationNodes);
+  }
+
+  /**
+   * Return the methods whose CFG was discarded or built since the
+   * call graph was set.
+   */
+  @NotNull
+  public Set<PsiCFGMethod> getRebuiltMethods() {
+    return Collections.unmodifiableSet(mRebuiltMethods);
+  }
+
+  /**
+   * Return true if a class or a lambda was created or discarded since
+   * the call graph was set, in which case the targets of any
+   * virtual call may have changed.
+   */
+  public boolean isClassesChanged() {
+    return mClassesChanged;
+  }
+
+  /**
+   * Return true if the method has a CFG built from the current
+   * version of its file.
+   */
+  public boolean isControlFlowGraphUpToDate(@NotNull PsiCFGMethod method) {
+    Long stamp = mMethodGraphStamps.get(method);
+    return stamp != null && method.getControlFlowGraph() != null && stamp == getModificationStamp(method);
+  }
+
+  /**
+   * Discard the CFG of the method, the invocation nodes it created,
+   * and the classes and lambdas declared in it, so it can be built again.
+   * The classes declared in the method are discarded with their own CFGs.
+   *
+   * @return The discarded classes declared in the method.
+   */
+  @NotNull
+  public synchronized Set<PsiCFGClass> invalidateControlFlowGraph(@NotNull PsiCFGMethod method) {
+    Set<PsiCFGClass> removedClasses = Sets.newHashSet();
+    Deque<PsiCFGMethod> methods = Queues.newArrayDeque();
+    methods.add(method);
+    while (!methods.isEmpty()) {
+      PsiCFGMethod curMethod = methods.removeFirst();
+      curMethod.setControlFlowGraph(null);
+      mMethodGraphStamps.remove(curMethod);
+      List<GraphNode> removedNodes = mMethodInvocationNodes.remove(curMethod);
+      if (removedNodes != null) {
+        mRemovedInvocationNodes.addAll(removedNodes);
+      }
+      mRebuiltMethods.add(curMethod);
+
+      PsiMethod methodRef = curMethod.getMethodRef();
+      Iterator<Map.Entry<PsiLambdaExpression, PsiCFGClass>> lambdaIterator = mLambdaPsiCFGClassMap.entrySet().iterator();
+      while (lambdaIterator.hasNext()) {
+        Map.Entry<PsiLambdaExpression, PsiCFGClass> lambdaEntry = lambdaIterator.next();
+        PsiLambdaExpression lambda = lambdaEntry.getKey();
+        if (!lambda.isValid() || (methodRef != null && PsiTreeUtil.isAncestor(methodRef, lambda, true))) {
+          lambdaIterator.remove();
+          mClassesChanged = true;
+          //Classes declared in the lambda body belong to the wrapper method
+          PsiCFGClass wrapperClass = lambdaEntry.getValue();
+          methods.addAll(Arrays.asList(wrapperClass.getAllMethods()));
+          PsiCFGClass declaringClass = wrapperClass.getLambdaDeclaringClass();
+          if (declaringClass != null) {
+            declaringClass.removeLambda(wrapperClass);
+          }
+        }
+      }
+
+      Iterator<PsiCFGClass> classIterator = mAppPsiClassPsiCFGClassMap.values().iterator();
+      while (classIterator.hasNext()) {
+        PsiCFGClass curClass = classIterator.next();
+        if (curClass.isNested() && curMethod.equals(curClass.getDeclaringCFGMethod())) {
+          classIterator.remove();
+          mAppClassNamePsiMap.remove(curClass.getQualifiedClassName(), curClass);
+          curMethod.getDeclaringClass().removeNestedInnerClass(curClass);
+          removedClasses.add(curClass);
+          mClassesChanged = true;
+          methods.addAll(Arrays.asList(curClass.getAllMethods()));
+        }
+      }
+    }
+    return removedClasses;
+  }
+
+  /**
+   * Build the CFG of a method. Invocation nodes created on this thread
+   * until the CFG is built are attributed to the method.
+   * Can be called concurrently for different methods.
+   */
+  public void buildControlFlowGraph(@NotNull PsiCFGMethod method, @NotNull PsiCodeBlock codeBlock) {
+    long stamp = getModificationStamp(method);
+    mMethodUnderConstruction.set(method);
+    try {
+      MethodGraph cfg = CFGUtil.constructMethodGraph(this, codeBlock, method);
+      method.setControlFlowGraph(cfg);
+      mMethodGraphStamps.put(method, stamp);
+      mRebuiltMethods.add(method);
+    }
+    finally {
+      mMethodUnderConstruction.remove();
+    }
+  }
+
+  private static long getModificationStamp(@NotNull PsiCFGMethod method) {
+    PsiMethod methodRef = method.getMethodRef();
+    PsiFile file = methodRef == null ? null : methodRef.getContainingFile();
+    return file == null ? -1 : file.getModificationStamp();
   }
 
   /**
@@ -104,8 +285,8 @@ public class PsiCFGScene {
    * The original idea is that the CFG does not need be recreated each time it is used.
    * So the the instance of the PsiCFGScene is saved into a Project, PsiCFGSCene map.
    *
-   * However, in the entry of the analysis, the CFG and call graph is still recreated each
-   * time the analysis is invoked.
+   * The entry of the analysis reuses the scene as long as the analyzed classes did not change,
+   * and only rebuilds the CFGs of the methods in modified files.
    *
    * This may raise a memory leak issue.
    * @param proj The current project instance
@@ -212,6 +393,9 @@ public class PsiCFGScene {
    * @return The PsiCFGClass instance.
    */
   public PsiCFGClass getPsiCFGClass(String name) {
+    if (name == null) {
+      return null;
+    }
     if (mAppClassNamePsiMap.containsKey(name)) {
       return mAppClassNamePsiMap.get(name);
     }
@@ -231,6 +415,9 @@ public class PsiCFGScene {
    * @return The PsiCFGClass instance.
    */
   public PsiCFGClass getPsiCFGClass(PsiClass psiClazz) {
+    if (psiClazz == null) {
+      return null;
+    }
     if (mAppPsiClassPsiCFGClassMap.containsKey(psiClazz)) {
       return mAppPsiClassPsiCFGClassMap.get(psiClazz);
     }
@@ -243,7 +430,7 @@ public class PsiCFGScene {
     }
   }
 
-  public PsiCFGClass getOrCreateCFGClass(PsiClass psiClazz) {
+  public synchronized PsiCFGClass getOrCreateCFGClass(PsiClass psiClazz) {
     PsiCFGClass retClass = getPsiCFGClass(psiClazz);
     if (retClass == null) {
       retClass = createAndParsePsiCFGClassOnTheFly(psiClazz);
@@ -251,7 +438,7 @@ public class PsiCFGScene {
     return retClass;
   }
 
-  public PsiCFGClass createPsiCFGClass(PsiClass psiClass,
+  public synchronized PsiCFGClass createPsiCFGClass(PsiClass psiClass,
                                        PsiFile declaringFile,
                                        boolean bAppClass) {
     String fullClassName = psiClass.getQualifiedName();
@@ -262,6 +449,7 @@ public class PsiCFGScene {
       throw new RuntimeException(String.format("Class %s does not have a full name",
                                                psiClass.getText()));
     }
+    mClassesChanged = true;
     if (!psiClass.isInterface()) {
       PsiCFGClass newClass = new PsiCFGClass(psiClass, declaringFile);
       if (bAppClass) {
@@ -304,7 +492,7 @@ public class PsiCFGScene {
    * @param psiClass
    * @return
    */
-  public PsiCFGClass createAndParsePsiCFGClassOnTheFly(PsiClass psiClass) {
+  public synchronized PsiCFGClass createAndParsePsiCFGClassOnTheFly(PsiClass psiClass) {
     //Sanity check. Make sure the psiClass param is really not in side the App classes.
     if (mAppPsiClassPsiCFGClassMap.containsKey(psiClass)) {
       //Not expected. Print a log
@@ -329,7 +517,7 @@ public class PsiCFGScene {
    * @param clazz
    * @return
    */
-  public PsiCFGClass createLibraryCFGClassesWInnerClasses(PsiClass clazz) {
+  public synchronized PsiCFGClass createLibraryCFGClassesWInnerClasses(PsiClass clazz) {
     ArrayList<PsiClass> classList = Lists.newArrayList();
     retriveClassAndInnerClass(classList, clazz);
     classList.remove(clazz);
@@ -358,13 +546,14 @@ public class PsiCFGScene {
   }
 
 
-  public PsiCFGClass getOrCreateNestedClass(PsiClass nestedClass,
+  public synchronized PsiCFGClass getOrCreateNestedClass(PsiClass nestedClass,
                                             PsiCFGClass parentCFGClass,
                                             PsiCFGMethod declaringMethod,
                                             BlockGraph declaringBlock) {
     PsiCFGClass currentNestedCFGClass =
       new PsiCFGClass(nestedClass, parentCFGClass.getDeclearingFile());
 
+    mClassesChanged = true;
     currentNestedCFGClass.setNested();
     currentNestedCFGClass.setDeclaringCFGMethod(declaringMethod);
     currentNestedCFGClass.setDeclaringBlock(declaringBlock);
@@ -403,13 +592,17 @@ public class PsiCFGScene {
     PsiCFGClass wrapperClass = new PsiCFGClass(null, declearingClass.getDeclearingFile());
     wrapperClass.setAnonlymous();
     wrapperClass.setLambdaRef(lambdaExpress);
-    //parentInterfaceCFGClass.addLambda(wrapperClass);
-    declearingClass.addLambda(wrapperClass);
-    wrapperClass.setDirectOverride(parentInterfaceCFGClass);
-
     PsiCFGMethod wrapperMethod = new PsiCFGMethod(lambdaExpress, overridedMethod, wrapperClass);
     wrapperClass.addMethod(wrapperMethod);
-    mLambdaPsiCFGClassMap.put(lambdaExpress, wrapperClass);
+    wrapperClass.setDirectOverride(parentInterfaceCFGClass);
+    synchronized (this) {
+      //parentInterfaceCFGClass.addLambda(wrapperClass);
+      declearingClass.addLambda(wrapperClass);
+      mLambdaPsiCFGClassMap.put(lambdaExpress, wrapperClass);
+      mClassesChanged = true;
+    }
+
+    //The graph is built outside the lock, on the thread building the enclosing method
     CFGUtil.constructMethodGraphForLambda(this, wrapperMethod);
     return wrapperClass;
   }
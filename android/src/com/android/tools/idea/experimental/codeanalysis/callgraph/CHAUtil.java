@@ -17,18 +17,27 @@ package com.android.tools.idea.experimental.codeanalysis.callgraph;
 
 import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGPartialMethodSignature;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
 
-import java.util.BitSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * The class hierarchy analysis class
- * Currently reserved. As it requires the class set
- * information computed from the intraprocedural data
- * flow analysis.
+ * The class hierarchy analysis class.
+ * After {@link #buildBitSetIndex()}, every class in the scene has an index, the set of
+ * subtypes of a class (its cone) is a BitSet over those indices, and every method signature
+ * is interned to an int id, with the BitSet of the classes that declare a concrete method
+ * with that signature. The concrete targets of a virtual call are then the intersection of
+ * the two sets, instead of a walk over the hierarchy for every call site.
+ *
+ * Once the index is built, the queries are safe to call from multiple threads.
  */
 public class CHAUtil {
   protected PsiCFGScene mScene;
@@ -37,6 +46,14 @@ public class CHAUtil {
   protected PsiCFGClass[] mClassIndexArray;
   protected Map<PsiCFGClass, Integer> mClassIndexMap;
 
+  //Interned method signatures, and for each signature id, the classes declaring a concrete method with it.
+  protected Map<PsiCFGPartialMethodSignature, Integer> mSignatureIdMap;
+  protected List<BitSet> mConcreteDeclaringClasses;
+
+  //Lazily computed cones, by class index.
+  protected AtomicReferenceArray<BitSet> mConeCache;
+  //Resolved concrete targets, keyed by class index in the high bits and signature id in the low bits.
+  protected ConcurrentMap<Long, PsiCFGMethod[]> mConcreteMethodCache;
 
   public CHAUtil(PsiCFGScene scene) {
     this.mScene = scene;
@@ -44,41 +61,122 @@ public class CHAUtil {
   }
 
   public void buildBitSetIndex() {
-    PsiCFGClass[] applicationClassArray = mScene.getAllApplicationClasses();
-    PsiCFGClass[] libraryClassArray = mScene.getAllLibraryClasses();
-    int numofBits = applicationClassArray.length + libraryClassArray.length;
-    if (numofBits < 0) {
-      throw new RuntimeException("Number of classes in this project is larger than 2G.");
-    }
-    mClassIndexArray = new PsiCFGClass[numofBits];
-    mClassIndexMap = Maps.newHashMapWithExpectedSize(numofBits);
-    int i = 0;
-    for (; i < applicationClassArray.length; i++) {
-      mClassIndexArray[i] = applicationClassArray[i];
-      mClassIndexMap.put(applicationClassArray[i], i);
+    //Classes only reachable as sub classes (e.g. lambdas and nested classes) are indexed too
+    List<PsiCFGClass> classList = Lists.newArrayList();
+    mClassIndexMap = Maps.newHashMap();
+    Deque<PsiCFGClass> workList = new ArrayDeque<>();
+    workList.addAll(Arrays.asList(mScene.getAllApplicationClasses()));
+    workList.addAll(Arrays.asList(mScene.getAllLibraryClasses()));
+    workList.addAll(Arrays.asList(mScene.getAllLambdaClass()));
+    while (!workList.isEmpty()) {
+      PsiCFGClass clazz = workList.removeFirst();
+      if (mClassIndexMap.containsKey(clazz)) {
+        continue;
+      }
+      mClassIndexMap.put(clazz, classList.size());
+      classList.add(clazz);
+      workList.addAll(clazz.getSubClassSet());
     }
-    for (; i < numofBits; i++) {
-      mClassIndexArray[i] = libraryClassArray[i - applicationClassArray.length];
-      mClassIndexMap.put(libraryClassArray[i - applicationClassArray.length], i);
+    mClassIndexArray = classList.toArray(PsiCFGClass.EMPTY_ARRAY);
+
+    mSignatureIdMap = Maps.newHashMap();
+    mConcreteDeclaringClasses = Lists.newArrayList();
+    for (int i = 0; i < mClassIndexArray.length; i++) {
+      for (PsiCFGMethod method : mClassIndexArray[i].getAllMethods()) {
+        if (method.isAbstract()) {
+          continue;
+        }
+        int signatureId = internSignature(method.getSignature());
+        mConcreteDeclaringClasses.get(signatureId).set(i);
+      }
     }
+
+    mConeCache = new AtomicReferenceArray<>(mClassIndexArray.length);
+    mConcreteMethodCache = new ConcurrentHashMap<>();
+  }
+
+  public int getClassCount() {
+    return mClassIndexArray.length;
+  }
+
+  public boolean isIndexed(PsiCFGClass clazz) {
+    return mClassIndexMap.containsKey(clazz);
   }
 
+  /**
+   * Returns the set of indices of the class and all its sub classes and sub interfaces.
+   * The returned BitSet is shared, and must not be modified.
+   */
   public BitSet bitSetCone(PsiCFGClass clazz) {
-    BitSet coneSet = new BitSet(mClassIndexArray.length);
-    dfsSetConeBits(coneSet, clazz);
-    return coneSet;
+    Integer index = mClassIndexMap.get(clazz);
+    if (index == null) {
+      throw new RuntimeException("class is not found in IndexMap: " + clazz.getQualifiedClassName());
+    }
+    BitSet cone = mConeCache.get(index);
+    if (cone == null) {
+      cone = new BitSet(mClassIndexArray.length);
+      setConeBits(cone, clazz);
+      mConeCache.set(index, cone);
+    }
+    return cone;
   }
 
-  private void dfsSetConeBits(BitSet bitSet, PsiCFGClass clazz) {
-    if (!mClassIndexMap.containsKey(clazz)) {
+  /**
+   * Returns the concrete methods with the given signature declared in the class
+   * or any of its sub classes.
+   */
+  @NotNull
+  public PsiCFGMethod[] getConcreteMethodsInCone(PsiCFGClass clazz, PsiCFGPartialMethodSignature signature) {
+    Integer signatureId = mSignatureIdMap.get(signature);
+    if (signatureId == null) {
+      //No concrete method has this signature
+      return PsiCFGMethod.EMPTY_ARRAY;
+    }
+    Integer classIndex = mClassIndexMap.get(clazz);
+    if (classIndex == null) {
       throw new RuntimeException("class is not found in IndexMap: " + clazz.getQualifiedClassName());
     }
-    int index = mClassIndexMap.get(clazz);
-    bitSet.set(index);
-    Set<PsiCFGClass> subClassSet = clazz.getSubClassSet();
-    for (PsiCFGClass subClazz : subClassSet) {
-      dfsSetConeBits(bitSet, subClazz);
+    long key = ((long)classIndex << 32) | signatureId;
+    PsiCFGMethod[] methods = mConcreteMethodCache.get(key);
+    if (methods == null) {
+      BitSet targets = (BitSet)bitSetCone(clazz).clone();
+      targets.and(mConcreteDeclaringClasses.get(signatureId));
+      List<PsiCFGMethod> methodList = Lists.newArrayListWithCapacity(targets.cardinality());
+      for (int i = targets.nextSetBit(0); i >= 0; i = targets.nextSetBit(i + 1)) {
+        PsiCFGMethod method = mClassIndexArray[i].getMethod(signature);
+        if (method != null) {
+          methodList.add(method);
+        }
+      }
+      methods = methodList.toArray(PsiCFGMethod.EMPTY_ARRAY);
+      mConcreteMethodCache.put(key, methods);
     }
+    return methods;
   }
 
+  private int internSignature(PsiCFGPartialMethodSignature signature) {
+    Integer id = mSignatureIdMap.get(signature);
+    if (id == null) {
+      id = mConcreteDeclaringClasses.size();
+      mSignatureIdMap.put(signature, id);
+      mConcreteDeclaringClasses.add(new BitSet(mClassIndexArray.length));
+    }
+    return id;
+  }
+
+  private void setConeBits(BitSet bitSet, PsiCFGClass clazz) {
+    //Iterative, and each class is visited once even if it is reachable
+    //through several interfaces
+    Deque<PsiCFGClass> workList = new ArrayDeque<>();
+    workList.add(clazz);
+    while (!workList.isEmpty()) {
+      PsiCFGClass current = workList.removeFirst();
+      int index = mClassIndexMap.get(current);
+      if (bitSet.get(index)) {
+        continue;
+      }
+      bitSet.set(index);
+      workList.addAll(current.getSubClassSet());
+    }
+  }
 }
@@ -100,6 +100,61 @@ public class Callgraph {
     return GraphNode.EMPTY_ARRAY;
   }
 
+  /**
+   * Remove all the edges of an invocation node, e.g. when the CFG
+   * of the method containing it has been recreated.
+   * The method level edges are only removed if no other invocation
+   * node of the caller method still targets the callee.
+   *
+   * @param node The node that contains the invocation statement
+   */
+  public void removeInvocationNode(GraphNode node) {
+    Collection<PsiCFGMethod> calleeMethods = callerNodeToMethodsMap.removeAll(node);
+    callerNodeToCalleeNodeMap.removeAll(node);
+    PsiCFGMethod callerMethod = getNodesParentMethod(node);
+    for (PsiCFGMethod calleeMethod : calleeMethods) {
+      calleeMethodToCallerGraphNodeMap.remove(calleeMethod, node);
+      if (calleeMethod.getControlFlowGraph() != null) {
+        calleeNodeToCallerNodeMap.remove(calleeMethod.getControlFlowGraph().getExitNode(), node);
+      }
+      if (callerMethod == null) {
+        continue;
+      }
+
+      boolean stillCalled = false;
+      for (GraphNode otherNode : calleeMethodToCallerGraphNodeMap.get(calleeMethod)) {
+        if (callerMethod.equals(getNodesParentMethod(otherNode))) {
+          stillCalled = true;
+          break;
+        }
+      }
+      if (!stillCalled) {
+        callerMethodToCalleeMethodMap.remove(callerMethod, calleeMethod);
+        calleeMethodToCallerMethodReturnMap.remove(calleeMethod, callerMethod);
+      }
+    }
+  }
+
+  /**
+   * Bind the invocation nodes targeting a method to the entry and
+   * exit nodes of its current CFG, after the CFG has been recreated.
+   * The edges to the nodes of the discarded CFG are removed.
+   *
+   * @param calleeMethod The method whose CFG has been recreated
+   */
+  public void rebindCalleeMethod(PsiCFGMethod calleeMethod) {
+    MethodGraph cfg = calleeMethod.getControlFlowGraph();
+    calleeNodeToCallerNodeMap.keySet().removeIf(
+      exitNode -> calleeMethod.equals(getNodesParentMethod(exitNode)) && (cfg == null || exitNode != cfg.getExitNode()));
+    for (GraphNode callerNode : calleeMethodToCallerGraphNodeMap.get(calleeMethod)) {
+      callerNodeToCalleeNodeMap.get(callerNode).removeIf(entryNode -> calleeMethod.equals(getNodesParentMethod(entryNode)));
+      if (cfg != null) {
+        callerNodeToCalleeNodeMap.put(callerNode, cfg.getEntryNode());
+        calleeNodeToCallerNodeMap.put(cfg.getExitNode(), callerNode);
+      }
+    }
+  }
+
   public Set<PsiCFGMethod> allMethodsInGraph;
 
   protected Callgraph() {
@@ -27,23 +27,27 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.stmt.Stmt;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.value.*;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGDebugUtil;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.intellij.openapi.util.Pair;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiClassType;
 import com.intellij.psi.PsiType;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A call graph builder.
  * It based on the results of the intraprocedural CFG
  * generated in stage 3.
+ *
+ * Virtual calls are resolved with the class hierarchy index
+ * in {@link CHAUtil}. Resolving a call site only reads the CFG
+ * and the index, so call sites are resolved in parallel, and
+ * the edges are then added to the call graph on the calling thread.
  */
 public class CallgraphBuilder {
 
@@ -53,14 +57,13 @@ public class CallgraphBuilder {
 
   protected Callgraph mCallGraphInstance;
 
-  protected Map<Pair<PsiCFGClass, PsiCFGPartialMethodSignature>, Set<PsiCFGMethod>> mMethodOrderTreeMap;
+  protected CHAUtil mCHAUtil;
 
   public PsiCFGClass JAVA_LANG_OBJECT;
 
   public CallgraphBuilder(@NotNull PsiCFGScene scene, @NotNull PsiCFGAnalysisUtil analysisUtil) {
     this.mScene = scene;
     this.mAnalysisUtil = analysisUtil;
-    this.mMethodOrderTreeMap = Maps.newHashMap();
     JAVA_LANG_OBJECT = mScene.getPsiCFGClass("java.lang.Object");
   }
 
@@ -68,13 +71,58 @@ public class CallgraphBuilder {
     //Initiate
 
     this.mCallGraphInstance = new Callgraph();
+    this.mCHAUtil = new CHAUtil(mScene);
+    mCHAUtil.buildBitSetIndex();
 
     //Retrive all callsites
+    addInvocationNodes(Arrays.asList(mScene.getAllInvocationNode()));
+  }
 
-    GraphNode[] invocationNodes = mScene.getAllInvocationNode();
-    for (GraphNode invocationNode : invocationNodes) {
+  /**
+   * Update the call graph after the CFGs of some methods were recreated,
+   * without resolving the other call sites again.
+   * The class hierarchy is expected to be unchanged, otherwise
+   * {@link #build()} has to be called instead.
+   *
+   * @param removedInvocationNodes The invocation nodes that no longer exist
+   * @param rebuiltMethods         The methods whose CFG was recreated
+   */
+  public void update(@NotNull Collection<GraphNode> removedInvocationNodes,
+                     @NotNull Collection<PsiCFGMethod> rebuiltMethods) {
+    if (mCallGraphInstance == null) {
+      build();
+      return;
+    }
+    for (GraphNode removedNode : removedInvocationNodes) {
+      mCallGraphInstance.removeInvocationNode(removedNode);
+    }
+    List<GraphNode> addedInvocationNodes = new ArrayList<>();
+    for (PsiCFGMethod rebuiltMethod : rebuiltMethods) {
+      mCallGraphInstance.rebindCalleeMethod(rebuiltMethod);
+      Collections.addAll(addedInvocationNodes, mScene.getInvocationNodes(rebuiltMethod));
+    }
+    addInvocationNodes(addedInvocationNodes);
+  }
 
-      processSingleInvocation(invocationNode);
+  /**
+   * Resolve the targets of the invocation nodes in parallel,
+   * and add them to the call graph in the order of the nodes.
+   */
+  protected void addInvocationNodes(@NotNull List<GraphNode> invocationNodes) {
+    List<Set<PsiCFGMethod>> targets = new ArrayList<>(Collections.nCopies(invocationNodes.size(), null));
+    List<Integer> workList = IntStream.range(0, invocationNodes.size()).boxed().collect(Collectors.toList());
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+      workList, ProgressManager.getInstance().getProgressIndicator(), index -> {
+        Set<PsiCFGMethod> nodeTargets = Sets.newLinkedHashSet();
+        resolveSingleInvocation(invocationNodes.get(index), nodeTargets);
+        targets.set(index, nodeTargets);
+        return true;
+      });
+
+    for (int i = 0; i < invocationNodes.size(); i++) {
+      for (PsiCFGMethod target : targets.get(i)) {
+        addToCallGraph(invocationNodes.get(i), target);
+      }
     }
   }
 
@@ -85,6 +133,21 @@ public class CallgraphBuilder {
    *             statement.
    */
   public void processSingleInvocation(GraphNode node) {
+    Set<PsiCFGMethod> targets = Sets.newLinkedHashSet();
+    resolveSingleInvocation(node, targets);
+    for (PsiCFGMethod target : targets) {
+      addToCallGraph(node, target);
+    }
+  }
+
+  /**
+   * Find the target methods of a single invocation site
+   *
+   * @param node    The node in CFG that contains an invocation
+   *                statement.
+   * @param targets The collection the target methods are added to
+   */
+  public void resolveSingleInvocation(GraphNode node, Collection<PsiCFGMethod> targets) {
     Stmt[] stmtWithInvocationArray = node.getStatements();
 
     if (stmtWithInvocationArray.length != 1) {
@@ -101,11 +164,11 @@ public class CallgraphBuilder {
       Value Rop = ((AssignStmt)stmtWithInvocation).getROp();
       if (Rop instanceof InvokeExpr) {
         //It is a invokeExpr
-        processSingleInvocationWithInvokeWxpr(node, (InvokeExpr)Rop);
+        processSingleInvocationWithInvokeWxpr((InvokeExpr)Rop, targets);
       }
       else if (Rop instanceof NewExpr) {
         //It is a constructor invocation
-        processSingleInvocationWithConstructorInvoke(node, (NewExpr)Rop);
+        processSingleInvocationWithConstructorInvoke((NewExpr)Rop, targets);
       }
       else {
         //Unhandled invocation
@@ -162,7 +225,7 @@ public class CallgraphBuilder {
     }
   }
 
-  public void performCHAForInvocationSite(GraphNode node, PsiType receiverType, PsiCFGMethod targetMethod) {
+  public void performCHAForInvocationSite(PsiType receiverType, PsiCFGMethod targetMethod, Collection<PsiCFGMethod> targets) {
     //Only Object can perform instance invoke
     if (!(receiverType instanceof PsiClassType)) {
       //The reciever type is not an object
@@ -185,52 +248,32 @@ public class CallgraphBuilder {
       PsiCFGPartialMethodSignature methodSignature = targetMethod.getSignature();
       PsiCFGMethod nearestConcreteMethodFromTop = getNearestConcreteMethod(receiverClass, methodSignature);
       if (nearestConcreteMethodFromTop != null) {
-        addToCallGraph(node, nearestConcreteMethodFromTop);
+        targets.add(nearestConcreteMethodFromTop);
       }
 
       //Find concrete method to the leaf
-      ArrayList<PsiCFGMethod> methodList = Lists.newArrayList();
-      recursivelyQueryConcreteMethodFromChildrenWithCache(methodList, receiverClass, methodSignature);
-      for (PsiCFGMethod concreteMethodFromSubClass : methodList) {
-        addToCallGraph(node, concreteMethodFromSubClass);
-      }
+      addConcreteMethodsFromSubClasses(receiverClass, methodSignature, targets);
     }
   }
 
-  public void recursivelyQueryConcreteMethodFromChildrenWithCache(
-    ArrayList<PsiCFGMethod> methodList, PsiCFGClass receiverClass, PsiCFGPartialMethodSignature signature) {
-    Pair<PsiCFGClass, PsiCFGPartialMethodSignature> keyPair = new Pair<>(receiverClass, signature);
-    if (mMethodOrderTreeMap.containsKey(keyPair)) {
-      methodList.addAll(mMethodOrderTreeMap.get(keyPair));
-    }
-    else {
-      recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, receiverClass, signature);
-      mMethodOrderTreeMap.put(keyPair, Sets.newHashSet(methodList));
-    }
-  }
-
-  public void recursivelyQueryConcreteMethodFromChildrenWithOutCache(
-    ArrayList<PsiCFGMethod> methodList, PsiCFGClass receiverClass, PsiCFGPartialMethodSignature signature) {
-    Pair<PsiCFGClass, PsiCFGPartialMethodSignature> keyPair = new Pair<>(receiverClass, signature);
-    PsiCFGMethod method = receiverClass.getMethod(signature);
-    if (method != null && (!method.isAbstract())) {
-      methodList.add(method);
-    }
-
-    //Go through sub classes and interfaces
-    for (PsiCFGClass subClass : receiverClass.getSubClassSet()) {
-      if (mMethodOrderTreeMap.containsKey(keyPair)) {
-        methodList.addAll(mMethodOrderTreeMap.get(keyPair));
-      }
-      else {
-        recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, subClass, signature);
-      }
+  /**
+   * Add the concrete methods with the signature declared in the receiver class
+   * or any of its sub classes and sub interfaces.
+   */
+  public void addConcreteMethodsFromSubClasses(PsiCFGClass receiverClass,
+                                               PsiCFGPartialMethodSignature signature,
+                                               Collection<PsiCFGMethod> targets) {
+    if (!mCHAUtil.isIndexed(receiverClass)) {
+      PsiCFGDebugUtil.LOG.warning("Class is not in the class hierarchy index: "
+                                  + receiverClass.getQualifiedClassName());
+      return;
     }
+    Collections.addAll(targets, mCHAUtil.getConcreteMethodsInCone(receiverClass, signature));
   }
 
-  public void addInvokeExprWithThisRef(GraphNode node, PsiType thisBaseType, PsiCFGMethod method) {
+  public void addInvokeExprWithThisRef(PsiType thisBaseType, PsiCFGMethod method, Collection<PsiCFGMethod> targets) {
     if (!method.isAbstract()) {
-      addToCallGraph(node, method);
+      targets.add(method);
     }
     else {
       PsiClassType classType = null;
@@ -247,10 +290,10 @@ public class CallgraphBuilder {
       if (cfgClass == null) {
         PsiCFGDebugUtil.LOG.warning("PsiType of ThisRef cannot be resolved to cfgClass :"
                                     + thisBaseType.getClass().getSimpleName());
+        return;
       }
 
-      ArrayList<PsiCFGMethod> methodsList = Lists.newArrayList();
-      recursivelyQueryConcreteMethodFromChildrenWithCache(methodsList, cfgClass, method.getSignature());
+      addConcreteMethodsFromSubClasses(cfgClass, method.getSignature(), targets);
     }
   }
 
@@ -265,11 +308,11 @@ public class CallgraphBuilder {
     return null;
   }
 
-  public void processSingleInvocationWithInvokeWxpr(GraphNode node, InvokeExpr invokeExpr) {
+  public void processSingleInvocationWithInvokeWxpr(InvokeExpr invokeExpr, Collection<PsiCFGMethod> targets) {
 
     if (invokeExpr instanceof StaticInvokeExpr) {
       //Only 1 target
-      addToCallGraph(node, invokeExpr.getMethod());
+      targets.add(invokeExpr.getMethod());
     }
     else if (invokeExpr instanceof InstanceInvokeExpr) {
       InstanceInvokeExpr instanceInvokeExpr = (InstanceInvokeExpr)invokeExpr;
@@ -285,18 +328,18 @@ public class CallgraphBuilder {
       }
 
       if (base instanceof ThisRef) {
-        addInvokeExprWithThisRef(node, baseType, targetMethod);
+        addInvokeExprWithThisRef(baseType, targetMethod, targets);
       }
       else {
-        performCHAForInvocationSite(node, baseType, targetMethod);
+        performCHAForInvocationSite(baseType, targetMethod, targets);
       }
     }
   }
 
-  public void processSingleInvocationWithConstructorInvoke(GraphNode node, NewExpr newExpr) {
+  public void processSingleInvocationWithConstructorInvoke(NewExpr newExpr, Collection<PsiCFGMethod> targets) {
     PsiCFGMethod constructorMethod = newExpr.getConstructorInvocation();
     if (constructorMethod != null) {
-      addToCallGraph(node, constructorMethod);
+      targets.add(constructorMethod);
     }
     else {
       PsiCFGDebugUtil.LOG.warning("Constructor in New Expr is null: " + newExpr.getSimpleName());
@@ -20,14 +20,18 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
 
 public class PsiCFGClass implements PsiAnnotationOwner {
 
@@ -78,6 +82,10 @@ public class PsiCFGClass implements PsiAnnotationOwner {
   //For AnonymousClass and Lambda only
   protected PsiCFGClass mDirectOverriddenInterface;
 
+  //For Lambda only
+  //The class whose code declares the lambda
+  protected PsiCFGClass mLambdaDeclaringClass;
+
 
   /**
    * Constructor of a wrapper class for PsiClass
@@ -211,6 +219,15 @@ public class PsiCFGClass implements PsiAnnotationOwner {
     this.mIsLambda = true;
   }
 
+  /**
+   * @return The class the lambda was added to with {@link #addLambda(PsiCFGClass)},
+   * or null if this class is not a lambda.
+   */
+  @Nullable
+  public PsiCFGClass getLambdaDeclaringClass() {
+    return mLambdaDeclaringClass;
+  }
+
   /**
    * @return Return the PsiClass reference of this class. It can be null if it is a lambda
    */
@@ -343,13 +360,33 @@ public class PsiCFGClass implements PsiAnnotationOwner {
       nestedInnerClassMap.put(name, currentCFGClassSet);
     }
 
-    int indexNumber = currentCFGClassSet.size() + 1;
+    //The CFGs of the methods are built concurrently, so the index is the
+    //position of the class in the source rather than the order it is added in.
+    String className = name;
+    int indexNumber = nestedClass.mRef == null ? 1 : getIndexInSourceOrder(
+      nestedClass.mRef, PsiClass.class,
+      candidate -> PsiUtil.isLocalOrAnonymousClass(candidate) && className.equals(nullToEmpty(candidate.getName())));
     String qualifiedName = String.format("%s.$%d%s", this.qualifiedClassName, indexNumber, name);
+    while (containsClassNamed(currentCFGClassSet, qualifiedName)) {
+      indexNumber++;
+      qualifiedName = String.format("%s.$%d%s", this.qualifiedClassName, indexNumber, name);
+    }
     nestedClass.qualifiedClassName = qualifiedName;
     currentCFGClassSet.add(nestedClass);
     return nestedClass;
   }
 
+  /**
+   * Remove a class added with {@link #addNestedInnerClass(PsiCFGClass, String)},
+   * e.g. when the CFG of the method declaring it is recreated.
+   * @param nestedClass The CFGClass of nested class
+   */
+  public void removeNestedInnerClass(PsiCFGClass nestedClass) {
+    for (Set<PsiCFGClass> cfgClassSet : nestedInnerClassMap.values()) {
+      cfgClassSet.remove(nestedClass);
+    }
+  }
+
   /**
    * The purpose of this method is to assign the lambda expression a proper name.
    * For a lambda expression declared within a class.
@@ -365,13 +402,70 @@ public class PsiCFGClass implements PsiAnnotationOwner {
    * @return The modified PsiCFGClass
    */
   public PsiCFGClass addLambda(PsiCFGClass lambdaClass) {
-    int curCount = declaredLambda.size() + 1;
+    //As for nested classes, the index is the position of the lambda in the source
+    int curCount = lambdaClass.mLambdaExpressionRef == null ? 1 : getIndexInSourceOrder(
+      lambdaClass.mLambdaExpressionRef, PsiLambdaExpression.class, candidate -> true);
+    while (containsClassNamed(declaredLambda, this.qualifiedClassName + "$lambda$" + curCount)) {
+      curCount++;
+    }
     lambdaClass.qualifiedClassName = this.qualifiedClassName + "$lambda$" + curCount;
+    lambdaClass.mLambdaDeclaringClass = this;
     this.declaredLambda.add(lambdaClass);
     //lambdaClass.mDirectOverridenInterface = this;
     return lambdaClass;
   }
 
+  /**
+   * Remove a lambda added with {@link #addLambda(PsiCFGClass)},
+   * e.g. when the CFG of the method declaring it is recreated.
+   * @param lambdaClass The lambda class
+   */
+  public void removeLambda(PsiCFGClass lambdaClass) {
+    if (this.declaredLambda.remove(lambdaClass)) {
+      lambdaClass.mLambdaDeclaringClass = null;
+    }
+  }
+
+  /**
+   * Return the 1-based position of the element in the source of this class,
+   * among the elements of the same type declared directly in it (i.e. not in a
+   * nested class) that match the filter. The names of the local classes and the
+   * lambdas are based on it, so they do not depend on the order in which the
+   * CFGs of the methods are built.
+   * Return 1 if the element is not declared directly in this class; the caller
+   * then falls back to the first free index.
+   */
+  private <T extends PsiElement> int getIndexInSourceOrder(@NotNull T element,
+                                                           @NotNull Class<T> type,
+                                                           @NotNull Predicate<T> filter) {
+    if (mRef == null || PsiTreeUtil.getParentOfType(element, PsiClass.class, true) != mRef) {
+      return 1;
+    }
+    int offset = element.getTextRange().getStartOffset();
+    int index = 1;
+    for (T candidate : PsiTreeUtil.findChildrenOfType(mRef, type)) {
+      if (candidate != element && filter.test(candidate)
+          && PsiTreeUtil.getParentOfType(candidate, PsiClass.class, true) == mRef
+          && candidate.getTextRange().getStartOffset() < offset) {
+        index++;
+      }
+    }
+    return index;
+  }
+
+  private static String nullToEmpty(@Nullable String name) {
+    return name == null ? "" : name;
+  }
+
+  private static boolean containsClassNamed(Collection<PsiCFGClass> cfgClasses, String qualifiedName) {
+    for (PsiCFGClass cfgClass : cfgClasses) {
+      if (qualifiedName.equals(cfgClass.qualifiedClassName)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * For anonymos Class and lambda expression only.
    * @param cfgClass The Super class or interface
@@ -21,18 +21,23 @@ import com.android.tools.idea.experimental.codeanalysis.callgraph.CallgraphBuild
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGField;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
-import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 public class PsiCFGAnalysisUtil {
   private PsiCFGScene mScene;
   private PsiClass mLangOjectClass;
+  private CallgraphBuilder mCallgraphBuilder;
 
   public PsiCFGAnalysisUtil(PsiCFGScene scene) {
     this.mScene = scene;
@@ -79,6 +84,13 @@ public class PsiCFGAnalysisUtil {
    * The purpose of the Stage3 is create IntraProcedural
    * CFG for the methods and lambdas inside the app
    * class, including the constructor and the init code
+   *
+   * The CFGs are built concurrently, one round per level of
+   * nested classes, as the classes declared inside a method are
+   * only known once the CFG of that method is built.
+   * Methods with a CFG built from the current version of their
+   * file are skipped, so running this stage again on the same
+   * scene only rebuilds the CFGs of the modified files.
    */
   public void performStage3() {
     PsiCFGClass[] appClasses = mScene.getAllApplicationClasses();
@@ -88,31 +100,47 @@ public class PsiCFGAnalysisUtil {
 
     while (!mScene.workingList.isEmpty()) {
       //While the working list is not empty
-      //Process the working list
-      PsiCFGClass currentClass = mScene.workingList.removeFirst();
-      PsiCFGMethod[] allMethods = currentClass.getAllMethods();
-
-      for (PsiCFGMethod currentMethod : allMethods) {
-        //Abstract method does not have a body
-        //Lambda methods' CFG is created by the time it is decleared
-        if (currentMethod.isAbstract() || currentMethod.isLambda()) {
-          continue;
+      //Collect the methods of the classes in it
+      List<PsiCFGMethod> outdatedMethods = Lists.newArrayList();
+      while (!mScene.workingList.isEmpty()) {
+        PsiCFGClass currentClass = mScene.workingList.removeFirst();
+        PsiCFGMethod[] allMethods = currentClass.getAllMethods();
+
+        for (PsiCFGMethod currentMethod : allMethods) {
+          //Abstract method does not have a body
+          //Lambda methods' CFG is created by the time it is decleared
+          if (currentMethod.isAbstract() || currentMethod.isLambda() || currentMethod.getMethodRef() == null) {
+            continue;
+          }
+          if (!mScene.isControlFlowGraphUpToDate(currentMethod)) {
+            outdatedMethods.add(currentMethod);
+          }
+        }
+      }
+
+      //Classes declared in an outdated method are discarded with it,
+      //and created again when the method's CFG is rebuilt
+      Set<PsiCFGClass> removedClasses = Sets.newHashSet();
+      for (PsiCFGMethod outdatedMethod : outdatedMethods) {
+        if (!removedClasses.contains(outdatedMethod.getDeclaringClass())) {
+          removedClasses.addAll(mScene.invalidateControlFlowGraph(outdatedMethod));
         }
+      }
+      outdatedMethods.removeIf(method -> removedClasses.contains(method.getDeclaringClass()));
 
-        PsiMethod methodRef = currentMethod.getMethodRef();
-        if (methodRef != null) {
-          PsiCodeBlock codeBlock = methodRef.getBody();
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+        outdatedMethods, ProgressManager.getInstance().getProgressIndicator(), currentMethod -> {
+          PsiCodeBlock codeBlock = currentMethod.getMethodRef().getBody();
 
           if (codeBlock == null) {
-            PsiCFGDebugUtil.LOG.info("In " + currentClass.getQualifiedClassName() + "."
+            PsiCFGDebugUtil.LOG.info("In " + currentMethod.getDeclaringClass().getQualifiedClassName() + "."
                                      + currentMethod.getName() + "Code block is null");
-            continue;
+            return true;
           }
 
-          MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, currentMethod);
-          currentMethod.setControlFlowGraph(cfg);
-        }
-      }
+          mScene.buildControlFlowGraph(currentMethod, codeBlock);
+          return true;
+        });
     }
   }
 
@@ -146,11 +174,20 @@ public class PsiCFGAnalysisUtil {
    * In this stage, callgraph is being built.
    * The callgraph will be saved in current
    * scene.
+   *
+   * If the scene already has a call graph, and no class was created
+   * or discarded since, only the call sites of the methods whose CFG
+   * was rebuilt in stage 3 are resolved again.
    */
   public void performStage5() {
-    CallgraphBuilder cgBuilder = new CallgraphBuilder(mScene, this);
-    cgBuilder.build();
-    Callgraph cg = cgBuilder.getCallGraph();
+    if (mCallgraphBuilder == null || mScene.getCallGraph() == null || mScene.isClassesChanged()) {
+      mCallgraphBuilder = new CallgraphBuilder(mScene, this);
+      mCallgraphBuilder.build();
+    }
+    else {
+      mCallgraphBuilder.update(mScene.getRemovedInvocationNodes(), mScene.getRebuiltMethods());
+    }
+    Callgraph cg = mCallgraphBuilder.getCallGraph();
 
     mScene.setCallGraph(cg);
     CFGUtil.outputCallGraphDotFile(cg);
@@ -74,7 +74,8 @@ public interface ProjectBuildModel {
   void resetState();
 
   /**
-   * Reparses all {@link GradleBuildModel}s and the {@link GradleSettingsModel}  that have been created by this model.
+   * Reparses all {@link GradleBuildModel}s and the {@link GradleSettingsModel}  that have been created by this model. Only the files that
+   * changed since they were last parsed, and the files depending on them, are parsed again.
    */
   void reparse();
 }
@@ -185,6 +185,18 @@ public class GradleBuildModelImpl extends GradleFileModelImpl implements GradleB
     return buildDslFile;
   }
 
+  /**
+   * Parses the given build file again, in place, so the models already created for it see its new contents. The properties inherited from
+   * the "subprojects" block of the parent module are populated again as well.
+   */
+  public static void reparseBuildFile(@NotNull GradleBuildFile buildDslFile, @NotNull BuildModelContext context) {
+    ApplicationManager.getApplication().runReadAction(() -> {
+      buildDslFile.clearParsedElements();
+      populateWithParentModuleSubProjectsProperties(buildDslFile, context);
+      buildDslFile.parse();
+    });
+  }
+
   public static void populateWithParentModuleSubProjectsProperties(@NotNull GradleBuildFile buildDslFile,
                                                                     @NotNull BuildModelContext context) {
     GradleSettingsFile settingsFile = context.getOrCreateSettingsFile(buildDslFile.getProject());
@@ -123,8 +123,7 @@ public class ProjectBuildModelImpl implements ProjectBuildModel {
 
   @Override
   public void reparse() {
-    myBuildModelContext.reset();
-    runOverProjectTree(GradleDslFile::reparse);
+    myBuildModelContext.reparseChangedFiles();
   }
 
   private void runOverProjectTree(@NotNull Consumer<GradleDslFile> func) {
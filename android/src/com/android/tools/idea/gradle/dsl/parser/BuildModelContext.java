@@ -123,6 +123,13 @@ public final class BuildModelContext {
     return myFileCache.getOrCreateSettingsFile(project, this);
   }
 
+  /**
+   * Parses again the requested files that changed since they were last parsed, and the files depending on them.
+   */
+  public void reparseChangedFiles() {
+    myFileCache.reparseChangedFiles(this);
+  }
+
   // This should normally not be used. Please use getOrCreateBuildFile
   public void putBuildFile(@NotNull String name, @NotNull GradleDslFile buildFile) {
     myFileCache.putBuildFile(name, buildFile);
@@ -64,6 +64,9 @@ public abstract class GradleDslFile extends GradlePropertiesDslElement {
   @Nullable private ApplyDslElement myApplyDslElement;
   @NotNull private final BuildModelContext myBuildModelContext;
 
+  // Modification stamp of the PSI file when this file was last parsed.
+  private long myParsedModificationStamp = -1L;
+
   protected GradleDslFile(@NotNull VirtualFile file,
                           @NotNull Project project,
                           @NotNull String moduleName,
@@ -99,11 +102,23 @@ public abstract class GradleDslFile extends GradlePropertiesDslElement {
    * (for example, after making changes to the PSI elements.)
    */
   public void reparse() {
-    clear();
+    clearParsedElements();
     parse();
   }
 
+  /**
+   * Discards the elements obtained from parsing this file, so it can be populated and parsed again.
+   */
+  public void clearParsedElements() {
+    clear();
+    myApplyDslElement = null;
+  }
+
   public void parse() {
+    PsiElement element = getPsiElement();
+    if (element instanceof PsiFile) {
+      myParsedModificationStamp = ((PsiFile)element).getModificationStamp();
+    }
     myGradleDslParser.parse();
     // Attempt to resolve all the remaining dependencies. Ideally we would not have to do this here, but when elements
     // are created there parents are not necessarily attached to the tree. This means references to their siblings will not
@@ -118,6 +133,19 @@ public abstract class GradleDslFile extends GradlePropertiesDslElement {
     getContext().getDependencyManager().resolveAll();
   }
 
+  /**
+   * Returns whether this file changed since it was last parsed, either through its PSI (e.g. edited in an editor, or changes applied by
+   * a build model) or through changes made to its elements that have not been applied yet.
+   */
+  public boolean isChangedSinceParse() {
+    PsiElement element = getPsiElement();
+    // Properties files do not have PsiElements, their contents are read when they are created.
+    if (!(element instanceof PsiFile)) {
+      return false;
+    }
+    return isModified() || ((PsiFile)element).getModificationStamp() != myParsedModificationStamp;
+  }
+
   @NotNull
   public Project getProject() {
     return myProject;
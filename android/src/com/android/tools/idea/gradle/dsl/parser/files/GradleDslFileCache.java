@@ -17,15 +17,14 @@ package com.android.tools.idea.gradle.dsl.parser.files;
 
 import com.android.tools.idea.gradle.dsl.model.GradleBuildModelImpl;
 import com.android.tools.idea.gradle.dsl.parser.BuildModelContext;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static com.android.tools.idea.Projects.getBaseDirPath;
 import static com.android.tools.idea.gradle.util.GradleUtil.getGradleSettingsFile;
@@ -91,6 +90,91 @@ public class GradleDslFileCache {
     return (GradleSettingsFile)dslFile;
   }
 
+  /**
+   * Parses again the files that changed since they were last parsed, together with the files depending on them: the files applying them
+   * ("apply from"), the build files of their child modules and, if the settings file changed, every file. Files are parsed in place, so
+   * existing models see the new contents, and only after the files they depend on, so their references resolve against up-to-date
+   * elements. Files that did not change keep their parsed elements.
+   */
+  public void reparseChangedFiles(@NotNull BuildModelContext context) {
+    // Properties files are only read when they are created, parsing them again is a no-op.
+    List<GradleDslFile> files =
+      myParsedBuildFiles.values().stream().filter(file -> !(file instanceof GradlePropertiesFile)).collect(Collectors.toList());
+    Set<GradleDslFile> filesToParse = files.stream().filter(GradleDslFile::isChangedSinceParse).collect(Collectors.toSet());
+    if (filesToParse.isEmpty()) {
+      return;
+    }
+
+    if (filesToParse.stream().anyMatch(file -> file instanceof GradleSettingsFile)) {
+      // The settings file determines the parent of each module.
+      filesToParse.addAll(files);
+    }
+    else {
+      boolean added;
+      do {
+        added = false;
+        for (GradleDslFile file : files) {
+          if (!filesToParse.contains(file) && dependsOnAny(file, filesToParse)) {
+            filesToParse.add(file);
+            added = true;
+          }
+        }
+      }
+      while (added);
+    }
+
+    ApplicationManager.getApplication().runReadAction(() -> {
+      Set<GradleDslFile> parsedFiles = new HashSet<>();
+      // Module parents are looked up through the settings file, so it needs to be up to date first.
+      for (GradleDslFile file : filesToParse) {
+        if (file instanceof GradleSettingsFile) {
+          reparse(file, filesToParse, parsedFiles, context);
+        }
+      }
+      for (GradleDslFile file : filesToParse) {
+        reparse(file, filesToParse, parsedFiles, context);
+      }
+    });
+  }
+
+  private static boolean dependsOnAny(@NotNull GradleDslFile file, @NotNull Set<GradleDslFile> files) {
+    GradleDslFile parentFile = file.getParentModuleDslFile();
+    if (parentFile != null && files.contains(parentFile)) {
+      return true;
+    }
+    for (GradleDslFile appliedFile : file.getApplyDslElement()) {
+      if (files.contains(appliedFile)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void reparse(@NotNull GradleDslFile file,
+                              @NotNull Set<GradleDslFile> filesToParse,
+                              @NotNull Set<GradleDslFile> parsedFiles,
+                              @NotNull BuildModelContext context) {
+    if (!parsedFiles.add(file)) {
+      return;
+    }
+    GradleDslFile parentFile = file.getParentModuleDslFile();
+    if (parentFile != null && filesToParse.contains(parentFile)) {
+      reparse(parentFile, filesToParse, parsedFiles, context);
+    }
+    for (GradleDslFile appliedFile : file.getApplyDslElement()) {
+      if (filesToParse.contains(appliedFile)) {
+        reparse(appliedFile, filesToParse, parsedFiles, context);
+      }
+    }
+
+    if (file instanceof GradleBuildFile) {
+      GradleBuildModelImpl.reparseBuildFile((GradleBuildFile)file, context);
+    }
+    else {
+      file.reparse();
+    }
+  }
+
   @NotNull
   public List<GradleDslFile> getAllFiles() {
     return new ArrayList<>(myParsedBuildFiles.values());
@@ -33,9 +33,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.android.SdkConstants.*;
 import static com.android.tools.idea.Projects.getBaseDirPath;
@@ -50,9 +50,24 @@ import static com.intellij.util.ArrayUtilRt.EMPTY_BYTE_ARRAY;
  * The Project data that needs to be persisted to check whether it is possible to reload the Project without the need of calling Gradle.
  */
 public class ProjectBuildFileChecksums implements Serializable {
+  // Increase the value when adding/removing fields or when changing the serialization/deserialization mechanism.
+  private static final long serialVersionUID = 1L;
+
+  // Default location of the version catalog, shared by all the modules of the project.
+  private static final String VERSION_CATALOG_PATH = "gradle" + File.separator + "libs.versions.toml";
+
+  // Matches "apply from: 'file'" and "apply(from = "file")", to find the script files applied by a build file.
+  private static final Pattern APPLY_FROM_PATTERN = Pattern.compile("apply\\s*\\(?\\s*from\\s*[:=]\\s*['\"]([^'\"]+)['\"]");
+
   // Key: build file path (relative if inside project). Value: MD5 hash of file.
   private Map<String, byte[]> myFileChecksums = new HashMap<>();
 
+  // Keys of the files that affect every module in the project (e.g. settings and properties files of the root project).
+  private Set<String> myProjectFiles = new HashSet<>();
+
+  // Key: module name. Value: keys of the files that only affect that module (its build file, properties file and applied scripts).
+  private Map<String, Set<String>> myModuleFiles = new HashMap<>();
+
   /**
    * The last time a sync was done.
    */
@@ -156,8 +171,10 @@ public class ProjectBuildFileChecksums implements Serializable {
   static ProjectBuildFileChecksums createFrom(@NotNull Project project) throws IOException {
     ProjectBuildFileChecksums buildFileChecksums = new ProjectBuildFileChecksums();
     File rootFolderPath = getBaseDirPath(project);
+    buildFileChecksums.myRootFolderPath = rootFolderPath;
 
     for (Module module : ModuleManager.getInstance(project).getModules()) {
+      String moduleName = module.getName();
       GradleFacet gradleFacet = GradleFacet.getInstance(module);
       if (gradleFacet != null) {
         GradleModuleModel gradleModel = gradleFacet.getGradleModuleModel();
@@ -165,21 +182,36 @@ public class ProjectBuildFileChecksums implements Serializable {
           getLog().warn(String.format("Trying to create project data from a not initialized project '%1$s'. Abort.", project.getName()));
           return null;
         }
-        buildFileChecksums.addFileChecksum(rootFolderPath, gradleModel.getBuildFile());
+        File buildFilePath = gradleModel.getBuildFilePath();
+        if (buildFilePath != null) {
+          buildFileChecksums.addModuleFileChecksum(rootFolderPath, moduleName, buildFilePath);
+          buildFileChecksums.addModuleFileChecksum(rootFolderPath, moduleName, new File(buildFilePath.getParentFile(), FN_GRADLE_PROPERTIES));
+          for (File appliedFile : findAppliedFiles(buildFilePath)) {
+            buildFileChecksums.addModuleFileChecksum(rootFolderPath, moduleName, appliedFile);
+          }
+        }
       }
 
       if (isGradleProjectModule(module)) {
-        buildFileChecksums.addFileChecksum(rootFolderPath, getGradleBuildFile(module));
-        buildFileChecksums.addFileChecksum(rootFolderPath, getGradleSettingsFile(rootFolderPath));
-        buildFileChecksums.addFileChecksum(rootFolderPath, new File(rootFolderPath, FN_GRADLE_PROPERTIES));
-        buildFileChecksums.addFileChecksum(rootFolderPath, new File(rootFolderPath, FN_LOCAL_PROPERTIES));
-        buildFileChecksums.addFileChecksum(rootFolderPath, getGradleUserSettingsFile());
+        VirtualFile rootBuildFile = getGradleBuildFile(module);
+        buildFileChecksums.addProjectFileChecksum(rootFolderPath, rootBuildFile);
+        if (rootBuildFile != null) {
+          // Scripts applied from the root build file usually configure all the modules of the project.
+          for (File appliedFile : findAppliedFiles(virtualToIoFile(rootBuildFile))) {
+            buildFileChecksums.addProjectFileChecksum(rootFolderPath, appliedFile);
+          }
+        }
+        buildFileChecksums.addProjectFileChecksum(rootFolderPath, getGradleSettingsFile(rootFolderPath));
+        buildFileChecksums.addProjectFileChecksum(rootFolderPath, new File(rootFolderPath, FN_GRADLE_PROPERTIES));
+        buildFileChecksums.addProjectFileChecksum(rootFolderPath, new File(rootFolderPath, FN_LOCAL_PROPERTIES));
+        buildFileChecksums.addProjectFileChecksum(rootFolderPath, new File(rootFolderPath, VERSION_CATALOG_PATH));
+        buildFileChecksums.addProjectFileChecksum(rootFolderPath, getGradleUserSettingsFile());
       }
 
       NdkModuleModel ndkModel = NdkModuleModel.get(module);
       if (ndkModel != null) {
         for (File externalBuildFile : ndkModel.getAndroidProject().getBuildFiles()) {
-          buildFileChecksums.addFileChecksum(rootFolderPath, externalBuildFile);
+          buildFileChecksums.addModuleFileChecksum(rootFolderPath, moduleName, externalBuildFile);
         }
       }
     }
@@ -194,16 +226,31 @@ public class ProjectBuildFileChecksums implements Serializable {
     return new File(getCacheFolderRootPath(project), "build_file_checksums.ser");
   }
 
-  private void addFileChecksum(@NotNull File rootFolderPath, @Nullable VirtualFile file) throws IOException {
+  private void addProjectFileChecksum(@NotNull File rootFolderPath, @Nullable VirtualFile file) throws IOException {
     if (file == null) {
       return;
     }
-    addFileChecksum(rootFolderPath, virtualToIoFile(file));
+    addProjectFileChecksum(rootFolderPath, virtualToIoFile(file));
   }
 
-  private void addFileChecksum(@NotNull File rootFolderPath, @Nullable File file) throws IOException {
+  private void addProjectFileChecksum(@NotNull File rootFolderPath, @Nullable File file) throws IOException {
+    String key = addFileChecksum(rootFolderPath, file);
+    if (key != null) {
+      myProjectFiles.add(key);
+    }
+  }
+
+  private void addModuleFileChecksum(@NotNull File rootFolderPath, @NotNull String moduleName, @Nullable File file) throws IOException {
+    String key = addFileChecksum(rootFolderPath, file);
+    if (key != null) {
+      myModuleFiles.computeIfAbsent(moduleName, name -> new HashSet<>()).add(key);
+    }
+  }
+
+  @Nullable
+  private String addFileChecksum(@NotNull File rootFolderPath, @Nullable File file) throws IOException {
     if (file == null) {
-      return;
+      return null;
     }
     String key;
     if (isAncestor(rootFolderPath, file, true)) {
@@ -212,7 +259,39 @@ public class ProjectBuildFileChecksums implements Serializable {
     else {
       key = file.getAbsolutePath();
     }
-    myFileChecksums.put(key, createChecksum(file));
+    if (key != null && !myFileChecksums.containsKey(key)) {
+      myFileChecksums.put(key, createChecksum(file));
+    }
+    return key;
+  }
+
+  /**
+   * Returns the local script files applied by the given build file (e.g. {@code apply from: 'signing.gradle'}). Remote scripts are
+   * ignored, since they cannot be checked without network access.
+   */
+  @NotNull
+  private static List<File> findAppliedFiles(@NotNull File buildFile) {
+    if (!buildFile.isFile()) {
+      return Collections.emptyList();
+    }
+    String text;
+    try {
+      text = loadFile(buildFile);
+    }
+    catch (IOException e) {
+      return Collections.emptyList();
+    }
+    List<File> appliedFiles = new ArrayList<>();
+    Matcher matcher = APPLY_FROM_PATTERN.matcher(text);
+    while (matcher.find()) {
+      String path = matcher.group(1);
+      if (path.contains("://")) {
+        continue;
+      }
+      File file = new File(toSystemDependentName(path));
+      appliedFiles.add(file.isAbsolute() ? file : new File(buildFile.getParentFile(), file.getPath()));
+    }
+    return appliedFiles;
   }
 
   /**
@@ -254,23 +333,53 @@ public class ProjectBuildFileChecksums implements Serializable {
    * @throws IOException if there is a problem accessing these files.
    */
   public boolean canUseCachedData() {
-    for (Map.Entry<String, byte[]> entry : myFileChecksums.entrySet()) {
-      File file = new File(entry.getKey());
-      if (!file.isAbsolute()) {
-        file = new File(myRootFolderPath, file.getPath());
-      }
-      try {
-        if (!Arrays.equals(entry.getValue(), createChecksum(file))) {
-          return false;
-        }
-      }
-      catch (Throwable e) {
+    for (String key : myFileChecksums.keySet()) {
+      if (hasChanged(key)) {
         return false;
       }
     }
     return true;
   }
 
+  /**
+   * Returns the names of the modules whose own build files (build file, properties file, applied scripts and external native build
+   * files) changed since the data was persisted. Models of the other modules can still be reused from the cache.
+   *
+   * @return the names of the modules with changed build files, or {@code null} if a file affecting the whole project changed, in which
+   * case the whole project needs to be synced.
+   */
+  @Nullable
+  public Set<String> findModulesWithChangedBuildFiles() {
+    for (String key : myProjectFiles) {
+      if (hasChanged(key)) {
+        return null;
+      }
+    }
+    Set<String> changedModules = new HashSet<>();
+    for (Map.Entry<String, Set<String>> entry : myModuleFiles.entrySet()) {
+      for (String key : entry.getValue()) {
+        if (hasChanged(key)) {
+          changedModules.add(entry.getKey());
+          break;
+        }
+      }
+    }
+    return changedModules;
+  }
+
+  private boolean hasChanged(@NotNull String key) {
+    File file = new File(key);
+    if (!file.isAbsolute()) {
+      file = new File(myRootFolderPath, file.getPath());
+    }
+    try {
+      return !Arrays.equals(myFileChecksums.get(key), createChecksum(file));
+    }
+    catch (Throwable e) {
+      return true;
+    }
+  }
+
   @NotNull
   private static byte[] createChecksum(@NotNull File file) throws IOException {
     // For files tracked by the IDE we get the content from the virtual files, otherwise we revert to io.
@@ -287,4 +396,16 @@ public class ProjectBuildFileChecksums implements Serializable {
   Map<String, byte[]> getFileChecksums() {
     return myFileChecksums;
   }
+
+  @VisibleForTesting
+  @NotNull
+  Set<String> getProjectFiles() {
+    return myProjectFiles;
+  }
+
+  @VisibleForTesting
+  @NotNull
+  Map<String, Set<String>> getModuleFiles() {
+    return myModuleFiles;
+  }
 }
@@ -41,6 +41,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static com.intellij.openapi.util.text.StringUtil.isNotEmpty;
@@ -87,7 +88,7 @@ class CachedProjectModelsSetup extends ModuleSetup<CachedProjectModels> {
 
     myCompositeBuildDataSetup.setupCompositeBuildData(projectModels, myProject);
     List<Module> modules = Arrays.asList(ModuleManager.getInstance(myProject).getModules());
-    List<GradleFacet> gradleFacets = new ArrayList<>();
+    List<GradleFacet> gradleFacets = Collections.synchronizedList(new ArrayList<>());
 
     ModuleFinder moduleFinder = myModuleFinderFactory.create(myProject);
 
@@ -99,6 +100,8 @@ class CachedProjectModelsSetup extends ModuleSetup<CachedProjectModels> {
         if (isNotEmpty(gradlePath)) {
           moduleFinder.addModule(module, gradlePath);
           gradleFacets.add(gradleFacet);
+          // Cached models are loaded from disk on first access, so load them here to do it concurrently.
+          projectModels.findCacheForModule(module.getName());
         }
       }
       return true;
@@ -112,6 +115,9 @@ class CachedProjectModelsSetup extends ModuleSetup<CachedProjectModels> {
       if (moduleModelsCache != null) {
         getModuleModelFromCache(gradleFacet, moduleModelsCache, moduleFinder, setupContextByModuleModel);
       }
+      else if (projectModels.containsModule(moduleName)) {
+        throw new ModelNotFoundInCacheException(moduleName);
+      }
     }
     setupModuleModels(setupContextByModuleModel, myGradleModuleSetup, myNdkModuleSetup, myAndroidModuleSetup, myJavaModuleSetup,
                       myExtraModelsManager, true /* sync skipped*/);
@@ -41,18 +41,22 @@ import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.externalSystem.model.task.ExternalSystemTaskId;
 import com.intellij.openapi.externalSystem.service.execution.ProgressExecutionMode;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.progress.EmptyProgressIndicator;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import org.gradle.tooling.model.GradleProject;
 import org.gradle.tooling.model.gradle.GradleScript;
+import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import static com.android.tools.idea.gradle.project.sync.setup.post.PostSyncProjectSetup.createProjectSetupFromCacheTaskWithStartMessage;
 
@@ -200,15 +204,29 @@ public class NewGradleSync implements GradleSync {
     // Use models from the disk cache.
     ProjectBuildFileChecksums buildFileChecksums = myBuildFileChecksumsLoader.loadFromDisk(myProject);
 
-    if (buildFileChecksums == null || !buildFileChecksums.canUseCachedData()) {
+    if (buildFileChecksums == null) {
       return false;
     }
 
+    Set<String> modulesToSync = Collections.emptySet();
+    if (!buildFileChecksums.canUseCachedData()) {
+      modulesToSync = findModulesToSyncAfterSetup(buildFileChecksums);
+      if (modulesToSync == null) {
+        return false;
+      }
+    }
+
     CachedProjectModels projectModelsCache = myProjectModelsCacheLoader.loadFromDisk(myProject);
 
     if (projectModelsCache == null) {
       return false;
     }
+    for (String moduleName : modulesToSync) {
+      if (!projectModelsCache.containsModule(moduleName)) {
+        return false;
+      }
+    }
+    setupRequest.modulesToSyncAfterSetup = modulesToSync;
 
     setupRequest.generateSourcesAfterSync = false;
     setupRequest.lastSyncTimestamp = buildFileChecksums.getLastGradleSyncTimestamp();
@@ -226,6 +244,30 @@ public class NewGradleSync implements GradleSync {
     return true;
   }
 
+  /**
+   * Returns the modules that need to be synced after setting up the project from the cache, because their own build files changed. Returns
+   * {@code null} if the cache cannot be partially reused: files affecting the whole project changed, or some of the changed modules are
+   * not Android modules, which cannot be synced with a Variant-Only Sync.
+   */
+  @Nullable
+  private Set<String> findModulesToSyncAfterSetup(@NotNull ProjectBuildFileChecksums buildFileChecksums) {
+    if (!StudioFlags.PARTIAL_CACHED_SYNC_ENABLED.get()) {
+      return null;
+    }
+    Set<String> changedModules = buildFileChecksums.findModulesWithChangedBuildFiles();
+    if (changedModules == null || changedModules.isEmpty()) {
+      return null;
+    }
+    ModuleManager moduleManager = ModuleManager.getInstance(myProject);
+    for (String moduleName : changedModules) {
+      Module module = moduleManager.findModuleByName(moduleName);
+      if (module == null || AndroidFacet.getInstance(module) == null) {
+        return null;
+      }
+    }
+    return changedModules;
+  }
+
   private static PostSyncProjectSetup.Request createPostSyncRequest(@NotNull GradleSyncInvoker.Request request) {
     PostSyncProjectSetup.Request setupRequest = new PostSyncProjectSetup.Request();
 
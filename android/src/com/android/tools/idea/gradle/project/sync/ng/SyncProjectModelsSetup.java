@@ -40,18 +40,24 @@ import com.intellij.openapi.externalSystem.service.project.IdeModifiableModelsPr
 import com.intellij.openapi.externalSystem.util.DisposeAwareProjectChange;
 import com.intellij.openapi.externalSystem.util.ExternalSystemApiUtil;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ex.ProjectEx;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.gradle.tooling.model.GradleProject;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import org.jetbrains.plugins.gradle.util.GradleConstants;
 
@@ -80,6 +86,9 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
   @NotNull private final ModuleFinder.Factory myModuleFinderFactory;
   @NotNull private final CompositeBuildDataSetup myCompositeBuildDataSetup;
 
+  // Creating the IDE models of a module is mostly copying Gradle models, which does not scale well beyond a few threads.
+  private static final int MAX_TRANSLATION_THREADS = 4;
+
   @NotNull private final List<Module> myAndroidModules = new ArrayList<>();
 
   SyncProjectModelsSetup(@NotNull Project project,
@@ -194,9 +203,11 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
     }
 
     SetupContextByModuleModel setupContextByModuleModel = new SetupContextByModuleModel();
-    // First, create all ModuleModels based on GradleModuleModels.
-    for (ModuleSetupInfo moduleSetupInfo : moduleSetupInfos) {
-      createModuleModel(moduleSetupInfo, moduleFinder, setupContextByModuleModel);
+    // First, create all ModuleModels based on GradleModuleModels. Creating the models of a module does not depend on other modules and
+    // does not modify the project, so it is done concurrently. The results are then applied to the modules one at a time.
+    List<TranslatedModels> translatedModels = translateModuleModels(moduleSetupInfos);
+    for (int i = 0; i < moduleSetupInfos.size(); i++) {
+      applyModuleModels(moduleSetupInfos.get(i), translatedModels.get(i), moduleFinder, setupContextByModuleModel);
     }
     // Then, setup the ModuleModels based on the module types.
     setupModuleModels(setupContextByModuleModel, myGradleModuleSetup, myNdkModuleSetup, myAndroidModuleSetup, myJavaModuleSetup,
@@ -230,25 +241,62 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
     }
   }
 
-  private void createModuleModel(@NotNull ModuleSetupInfo setupInfo,
-                                 @NotNull ModuleFinder moduleFinder,
-                                 @NotNull SetupContextByModuleModel setupContextByModuleModel) {
+  @NotNull
+  private List<TranslatedModels> translateModuleModels(@NotNull List<ModuleSetupInfo> moduleSetupInfos) {
+    int maxThreads = Math.min(MAX_TRANSLATION_THREADS, Runtime.getRuntime().availableProcessors());
+    if (moduleSetupInfos.size() < 2 || maxThreads < 2) {
+      return moduleSetupInfos.stream().map(this::translateModels).collect(Collectors.toList());
+    }
+
+    ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Module Models Translation", maxThreads);
+    try {
+      List<Future<TranslatedModels>> jobs = new ArrayList<>();
+      for (ModuleSetupInfo setupInfo : moduleSetupInfos) {
+        jobs.add(executor.submit(() -> translateModels(setupInfo)));
+      }
+      List<TranslatedModels> translatedModels = new ArrayList<>();
+      for (Future<TranslatedModels> job : jobs) {
+        translatedModels.add(job.get());
+      }
+      return translatedModels;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Creates the IDE models of the given module from its Gradle models. This method may be called concurrently for different modules, so
+   * it must not modify the module or the project.
+   */
+  @NotNull
+  private TranslatedModels translateModels(@NotNull ModuleSetupInfo setupInfo) {
     Module module = setupInfo.module;
     GradleModuleModels moduleModels = setupInfo.moduleModels;
-    CachedModuleModels cachedModels = setupInfo.cachedModels;
-
-    module.putUserData(MODULE_GRADLE_MODELS_KEY, moduleModels);
+    TranslatedModels translatedModels = new TranslatedModels();
 
     File moduleRootFolderPath = findModuleRootFolderPath(module);
     assert moduleRootFolderPath != null;
 
-    ModuleSetupContext context = myModuleSetupFactory.create(module, myModelsProvider, moduleFinder, moduleModels);
-
     AndroidProject androidProject = moduleModels.findModel(AndroidProject.class);
     if (androidProject != null) {
-      AndroidModuleModel androidModel = myAndroidModelFactory.createAndroidModel(module, androidProject, moduleModels);
-      setupContextByModuleModel.androidSetupContexts.put(androidModel, context);
-      if (androidModel != null) {
+      translatedModels.isAndroidProject = true;
+      translatedModels.androidModel = myAndroidModelFactory.createAndroidModel(module, androidProject, moduleModels);
+      if (translatedModels.androidModel != null) {
         // "Native" projects also both AndroidProject and AndroidNativeProject
         NativeAndroidProject nativeAndroidProject = moduleModels.findModel(NativeAndroidProject.class);
         if (nativeAndroidProject != null) {
@@ -258,7 +306,56 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
           if (nativeVariantAbi != null) {
             ideNativeVariantAbi.addAll(nativeVariantAbi.stream().map(IdeNativeVariantAbi::new).collect(Collectors.toList()));
           }
-          NdkModuleModel ndkModel = new NdkModuleModel(module.getName(), moduleRootFolderPath, copy, ideNativeVariantAbi);
+          translatedModels.ndkModel = new NdkModuleModel(module.getName(), moduleRootFolderPath, copy, ideNativeVariantAbi);
+        }
+      }
+      else {
+        // This is an Android module without variants. Treat as a non-buildable Java module.
+        GradleProject gradleProject = moduleModels.findModel(GradleProject.class);
+        assert gradleProject != null;
+
+        Collection<SyncIssue> issues = androidProject.getSyncIssues();
+        translatedModels.javaModel = myJavaModuleModelFactory.create(gradleProject, androidProject, issues);
+      }
+      return translatedModels;
+    }
+
+    // This is a Java module.
+    JavaProject javaProject = moduleModels.findModel(JavaProject.class);
+    GradleProject gradleProject = moduleModels.findModel(GradleProject.class);
+    if (gradleProject != null && javaProject != null) {
+      translatedModels.javaModel = myJavaModuleModelFactory.create(moduleRootFolderPath, gradleProject,
+                                                                   javaProject /* regular Java module */);
+      translatedModels.isJavaProject = true;
+      return translatedModels;
+    }
+
+    // This is a Jar/Aar module or root module.
+    ArtifactModel jarAarProject = moduleModels.findModel(ArtifactModel.class);
+    if (gradleProject != null && jarAarProject != null) {
+      translatedModels.javaModel = myJavaModuleModelFactory.create(moduleRootFolderPath, gradleProject, jarAarProject);
+    }
+    return translatedModels;
+  }
+
+  private void applyModuleModels(@NotNull ModuleSetupInfo setupInfo,
+                                 @NotNull TranslatedModels translatedModels,
+                                 @NotNull ModuleFinder moduleFinder,
+                                 @NotNull SetupContextByModuleModel setupContextByModuleModel) {
+    Module module = setupInfo.module;
+    GradleModuleModels moduleModels = setupInfo.moduleModels;
+    CachedModuleModels cachedModels = setupInfo.cachedModels;
+
+    module.putUserData(MODULE_GRADLE_MODELS_KEY, moduleModels);
+
+    ModuleSetupContext context = myModuleSetupFactory.create(module, myModelsProvider, moduleFinder, moduleModels);
+
+    if (translatedModels.isAndroidProject) {
+      AndroidModuleModel androidModel = translatedModels.androidModel;
+      setupContextByModuleModel.androidSetupContexts.put(androidModel, context);
+      if (androidModel != null) {
+        NdkModuleModel ndkModel = translatedModels.ndkModel;
+        if (ndkModel != null) {
           setupContextByModuleModel.ndkSetupContexts.put(ndkModel, context);
           cachedModels.addModel(ndkModel);
         }
@@ -272,11 +369,7 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
       else {
         // This is an Android module without variants. Treat as a non-buildable Java module.
         removeAndroidFacetFrom(module);
-        GradleProject gradleProject = moduleModels.findModel(GradleProject.class);
-        assert gradleProject != null;
-
-        Collection<SyncIssue> issues = androidProject.getSyncIssues();
-        JavaModuleModel javaModel = myJavaModuleModelFactory.create(gradleProject, androidProject, issues);
+        JavaModuleModel javaModel = translatedModels.javaModel;
         setupContextByModuleModel.javaSetupContexts.put(javaModel, context);
         cachedModels.addModel(javaModel);
       }
@@ -287,24 +380,13 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
     // This is not an Android module. Remove any AndroidFacet set in a previous sync operation.
     removeAllFacets(myModelsProvider.getModifiableFacetModel(module), NdkFacet.getFacetTypeId());
 
-    // This is a Java module.
-    JavaProject javaProject = moduleModels.findModel(JavaProject.class);
-    GradleProject gradleProject = moduleModels.findModel(GradleProject.class);
-    if (gradleProject != null && javaProject != null) {
-      JavaModuleModel javaModel = myJavaModuleModelFactory.create(moduleRootFolderPath, gradleProject,
-                                                                  javaProject /* regular Java module */);
-      setupContextByModuleModel.javaSetupContexts.put(javaModel, context);
-      cachedModels.addModel(javaModel);
-      myExtraModelsManager.addJavaModelsToCache(module, cachedModels);
-      return;
-    }
-
-    // This is a Jar/Aar module or root module.
-    ArtifactModel jarAarProject = moduleModels.findModel(ArtifactModel.class);
-    if (gradleProject != null && jarAarProject != null) {
-      JavaModuleModel javaModel = myJavaModuleModelFactory.create(moduleRootFolderPath, gradleProject, jarAarProject);
+    JavaModuleModel javaModel = translatedModels.javaModel;
+    if (javaModel != null) {
       setupContextByModuleModel.javaSetupContexts.put(javaModel, context);
       cachedModels.addModel(javaModel);
+      if (translatedModels.isJavaProject) {
+        myExtraModelsManager.addJavaModelsToCache(module, cachedModels);
+      }
     }
   }
 
@@ -316,4 +398,16 @@ class SyncProjectModelsSetup extends ModuleSetup<SyncProjectModels> {
   private void removeNdkFacetFrom(@NotNull Module module) {
     removeAllFacets(myModelsProvider.getModifiableFacetModel(module), NdkFacet.getFacetTypeId());
   }
+
+  /**
+   * The IDE models created from the Gradle models of a module, before they are applied to the module.
+   */
+  private static class TranslatedModels {
+    boolean isAndroidProject;
+    // Whether this is a regular Java module, as opposed to a Jar/Aar or root module.
+    boolean isJavaProject;
+    @Nullable AndroidModuleModel androidModel;
+    @Nullable NdkModuleModel ndkModel;
+    @Nullable JavaModuleModel javaModel;
+  }
 }
@@ -16,6 +16,8 @@
 package com.android.tools.idea.gradle.project.sync.ng.caching;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
@@ -25,15 +27,26 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.plugins.gradle.model.data.BuildParticipant;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
 import static com.android.tools.idea.gradle.util.GradleUtil.getCacheFolderRootPath;
-import static com.intellij.openapi.util.io.FileUtil.ensureExists;
+import static com.intellij.openapi.util.io.FileUtil.*;
 
-public class CachedProjectModels implements Serializable {
-  // Increase the value when adding/removing fields or when changing the serialization/deserialization mechanism.
-  private static final long serialVersionUID = 2L;
+/**
+ * Gradle models of the modules in a project, cached on disk so a project can be set up without syncing.
+ * <p>
+ * The cache is a folder with one file per module and an index file listing the modules along with a hash of their serialized models.
+ * Module files are only read when their models are first requested, and only rewritten when their models change.
+ */
+public class CachedProjectModels {
+  // Increase the value when changing the format of the index file.
+  private static final int INDEX_FORMAT_VERSION = 1;
+  private static final String INDEX_FILE_NAME = "index.bin";
+  private static final String LEGACY_CACHE_FILE_NAME = "gradle_models.ser";
 
   public static class Factory {
     @NotNull
@@ -47,16 +60,21 @@ public class CachedProjectModels implements Serializable {
     public CachedProjectModels loadFromDisk(@NotNull Project project) {
       File cacheFilePath = getCacheFilePath(project);
       if (cacheFilePath.isFile()) {
-        try (FileInputStream fis = new FileInputStream(cacheFilePath)) {
-          try (ObjectInputStream ois = new ObjectInputStream(fis)) {
-            return (CachedProjectModels)ois.readObject();
-          }
-          catch (Throwable e) {
-            getLog().warn(String.format("Failed to load Gradle models from '%1$s'", cacheFilePath.getPath()), e);
+        try {
+          Index index = Index.read(cacheFilePath);
+          CachedProjectModels cache = new CachedProjectModels(cacheFilePath.getParentFile());
+          cache.myBuildParticipants.addAll(index.buildParticipants);
+          for (ModuleEntry entry : index.modules.values()) {
+            if (!new File(cache.myCacheFolderPath, entry.fileName).isFile()) {
+              getLog().warn(String.format("Missing Gradle models of module '%1$s' in '%2$s'", entry.moduleName, cacheFilePath.getPath()));
+              return null;
+            }
+            cache.myModuleEntries.put(entry.moduleName, entry);
           }
+          return cache;
         }
         catch (Throwable e) {
-          getLog().warn(String.format("Failed to access '%1$s' while loading Gradle models", cacheFilePath.getPath()), e);
+          getLog().warn(String.format("Failed to load Gradle models from '%1$s'", cacheFilePath.getPath()), e);
         }
       }
       return null;
@@ -64,11 +82,20 @@ public class CachedProjectModels implements Serializable {
   }
 
   // Key: module name.
-  @NotNull private final Map<String, CachedModuleModels> myModelsByModuleName = new HashMap<>();
+  @NotNull private final Map<String, ModuleEntry> myModuleEntries = new ConcurrentHashMap<>();
   @NotNull private final List<BuildParticipant> myBuildParticipants = new ArrayList<>();
+  // Folder the module files are lazily loaded from, or null if this cache was not loaded from disk.
+  @Nullable private final File myCacheFolderPath;
+  // Shared by all the modules loaded from disk, so equal strings in different modules are kept in memory only once.
+  @NotNull private final Interner<String> myStrings = Interners.newWeakInterner();
 
   @VisibleForTesting
   CachedProjectModels() {
+    this(null);
+  }
+
+  private CachedProjectModels(@Nullable File cacheFolderPath) {
+    myCacheFolderPath = cacheFolderPath;
   }
 
   @NotNull
@@ -83,13 +110,25 @@ public class CachedProjectModels implements Serializable {
   @NotNull
   public CachedModuleModels addModule(@NotNull Module module) {
     CachedModuleModels cache = new CachedModuleModels(module);
-    myModelsByModuleName.put(module.getName(), cache);
+    myModuleEntries.put(module.getName(), new ModuleEntry(cache));
     return cache;
   }
 
+  /**
+   * Returns the cached models of the given module, loading them from disk if needed. This method can be called concurrently for different
+   * modules. Returns null if the module is not in the cache, or if its models could not be loaded (see {@link #containsModule(String)}).
+   */
   @Nullable
   public CachedModuleModels findCacheForModule(@NotNull String moduleName) {
-    return myModelsByModuleName.get(moduleName);
+    ModuleEntry entry = myModuleEntries.get(moduleName);
+    return entry != null ? entry.getModels(myCacheFolderPath, myStrings) : null;
+  }
+
+  /**
+   * Returns whether the given module is in the cache, regardless of whether its models have been (or can be) loaded from disk.
+   */
+  public boolean containsModule(@NotNull String moduleName) {
+    return myModuleEntries.containsKey(moduleName);
   }
 
   @NotNull
@@ -98,38 +137,84 @@ public class CachedProjectModels implements Serializable {
     return saveToDisk(cacheFilePath);
   }
 
+  /**
+   * Returns the path of the index file of the cache. Module files are stored in the same folder.
+   */
   @NotNull
   public static File getCacheFilePath(@NotNull Project project) {
-    return new File(getCacheFolderRootPath(project), "gradle_models.ser");
+    return new File(getCacheFolderPath(project), INDEX_FILE_NAME);
+  }
+
+  @NotNull
+  private static File getCacheFolderPath(@NotNull Project project) {
+    return new File(getCacheFolderRootPath(project), "gradle_models");
   }
 
   @NotNull
   private Future<?> saveToDisk(@NotNull File path) {
     return ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      File folderPath = path.getParentFile();
       try {
-        ensureExists(path.getParentFile());
+        ensureExists(folderPath);
       }
       catch (IOException e) {
         getLog().warn(String.format("Failed to create folders for path '%1$s'", path.getPath()), e);
       }
-      try (FileOutputStream fos = new FileOutputStream(path)) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-          oos.writeObject(this);
+      try {
+        Index previousIndex = null;
+        if (path.isFile()) {
+          try {
+            previousIndex = Index.read(path);
+          }
+          catch (Throwable e) {
+            // The previous index is only used to avoid rewriting unchanged modules.
+            getLog().info(String.format("Ignoring unreadable Gradle models index '%1$s'", path.getPath()), e);
+          }
         }
-        catch (Throwable e) {
-          getLog().warn(String.format("Failed to save Gradle models to path '%1$s'", path.getPath()), e);
+
+        Index index = new Index(myBuildParticipants);
+        for (ModuleEntry entry : myModuleEntries.values()) {
+          ModuleEntry previousEntry = previousIndex != null ? previousIndex.modules.get(entry.moduleName) : null;
+          index.modules.put(entry.moduleName, entry.save(folderPath, previousEntry));
         }
+
+        // Write the index last, and atomically, so it never refers to module files that have not been written.
+        File tempIndexPath = createTempFile(folderPath, "index", ".tmp", true);
+        index.write(tempIndexPath);
+        Files.move(tempIndexPath.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        deleteUnusedModuleFiles(folderPath, index);
+        // Caches written before the per-module format was introduced are no longer used.
+        delete(new File(folderPath.getParentFile(), LEGACY_CACHE_FILE_NAME));
       }
       catch (Throwable e) {
-        getLog().warn(String.format("Failed to open path '%1$s'", path.getPath()), e);
+        getLog().warn(String.format("Failed to save Gradle models to path '%1$s'", path.getPath()), e);
       }
     });
   }
 
+  private static void deleteUnusedModuleFiles(@NotNull File folderPath, @NotNull Index index) {
+    Set<String> usedFileNames = new HashSet<>();
+    usedFileNames.add(INDEX_FILE_NAME);
+    index.modules.values().forEach(entry -> usedFileNames.add(entry.fileName));
+    File[] files = folderPath.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (!usedFileNames.contains(file.getName())) {
+          delete(file);
+        }
+      }
+    }
+  }
+
   public static void eraseDiskCache(@NotNull Project project) {
-    File cache = getCacheFilePath(project);
+    File cache = getCacheFolderPath(project);
     if (cache.exists()) {
-      cache.delete();
+      delete(cache);
+    }
+    File legacyCache = new File(getCacheFolderRootPath(project), LEGACY_CACHE_FILE_NAME);
+    if (legacyCache.exists()) {
+      legacyCache.delete();
     }
   }
 
@@ -138,6 +223,13 @@ public class CachedProjectModels implements Serializable {
     return Logger.getInstance(CachedProjectModels.class);
   }
 
+  @NotNull
+  private Map<String, CachedModuleModels> loadAllModules() {
+    Map<String, CachedModuleModels> modelsByModuleName = new HashMap<>();
+    myModuleEntries.keySet().forEach(moduleName -> modelsByModuleName.put(moduleName, findCacheForModule(moduleName)));
+    return modelsByModuleName;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -147,20 +239,128 @@ public class CachedProjectModels implements Serializable {
       return false;
     }
     CachedProjectModels cache = (CachedProjectModels)o;
-    return Objects.equals(myModelsByModuleName, cache.myModelsByModuleName)
+    return Objects.equals(loadAllModules(), cache.loadAllModules())
            && Objects.equals(myBuildParticipants, cache.myBuildParticipants);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(myModelsByModuleName, myBuildParticipants);
+    return Objects.hash(loadAllModules(), myBuildParticipants);
   }
 
   @Override
   public String toString() {
     return "CachedProjectModels{" +
-           "myModelsByModuleName=" + myModelsByModuleName +
+           "myModelsByModuleName=" + loadAllModules() +
            "myBuildParticipants=" + myBuildParticipants +
            '}';
   }
+
+  /**
+   * The cache entry of a module: the name and hash of its file, and its models once they have been loaded or added.
+   */
+  private static class ModuleEntry {
+    @NotNull final String moduleName;
+    @NotNull final String fileName;
+    @Nullable final String hash;
+    @Nullable private CachedModuleModels myModels;
+    private boolean myLoadFailed;
+
+    ModuleEntry(@NotNull CachedModuleModels models) {
+      this(models.getModuleName(), null);
+      myModels = models;
+    }
+
+    ModuleEntry(@NotNull String moduleName, @Nullable String hash) {
+      this.moduleName = moduleName;
+      // Module names are unique, but sanitizing them is not, so the file name also includes a hash of the original name.
+      fileName = sanitizeFileName(moduleName) + "_" + Integer.toHexString(moduleName.hashCode()) + ".bin";
+      this.hash = hash;
+    }
+
+    @Nullable
+    synchronized CachedModuleModels getModels(@Nullable File cacheFolderPath, @NotNull Interner<String> strings) {
+      if (myModels == null && !myLoadFailed && cacheFolderPath != null) {
+        File file = new File(cacheFolderPath, fileName);
+        try {
+          myModels = ModuleModelsSerializer.deserialize(file, strings);
+        }
+        catch (Throwable e) {
+          myLoadFailed = true;
+          getLog().warn(String.format("Failed to load Gradle models of module '%1$s' from '%2$s'", moduleName, file.getPath()), e);
+        }
+      }
+      return myModels;
+    }
+
+    /**
+     * Writes the models of this module to its file, unless they are identical to the ones already there, and returns the entry to
+     * write to the index.
+     */
+    @NotNull
+    synchronized ModuleEntry save(@NotNull File cacheFolderPath, @Nullable ModuleEntry previousEntry) throws IOException {
+      File file = new File(cacheFolderPath, fileName);
+      if (myModels == null) {
+        // Never loaded, so the file has not changed since it was read.
+        return this;
+      }
+      byte[] serialized = ModuleModelsSerializer.serialize(myModels);
+      String newHash = ModuleModelsSerializer.hash(serialized);
+      if (previousEntry == null || !newHash.equals(previousEntry.hash) || !file.isFile()) {
+        File tempFile = createTempFile(cacheFolderPath, fileName, ".tmp", true);
+        writeToFile(tempFile, serialized);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      return new ModuleEntry(moduleName, newHash);
+    }
+  }
+
+  /**
+   * The index file of the cache: the build participants, and the entry of each module.
+   */
+  private static class Index {
+    @NotNull final List<BuildParticipant> buildParticipants;
+    @NotNull final Map<String, ModuleEntry> modules = new HashMap<>();
+
+    Index(@NotNull List<BuildParticipant> buildParticipants) {
+      this.buildParticipants = buildParticipants;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    static Index read(@NotNull File path) throws IOException, ClassNotFoundException {
+      try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+        int version = dis.readInt();
+        if (version != INDEX_FORMAT_VERSION || dis.readInt() != ModuleModelsSerializer.FORMAT_VERSION) {
+          throw new IOException(String.format("Unsupported version in '%1$s'", path.getPath()));
+        }
+        int moduleCount = dis.readInt();
+        Map<String, ModuleEntry> modules = new HashMap<>();
+        for (int i = 0; i < moduleCount; i++) {
+          ModuleEntry entry = new ModuleEntry(dis.readUTF(), dis.readUTF());
+          modules.put(entry.moduleName, entry);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(dis)) {
+          Index index = new Index((List<BuildParticipant>)ois.readObject());
+          index.modules.putAll(modules);
+          return index;
+        }
+      }
+    }
+
+    void write(@NotNull File path) throws IOException {
+      try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+        dos.writeInt(INDEX_FORMAT_VERSION);
+        dos.writeInt(ModuleModelsSerializer.FORMAT_VERSION);
+        dos.writeInt(modules.size());
+        for (ModuleEntry entry : modules.values()) {
+          dos.writeUTF(entry.moduleName);
+          dos.writeUTF(entry.hash != null ? entry.hash : "");
+        }
+        try (ObjectOutputStream oos = new ObjectOutputStream(dos)) {
+          oos.writeObject(new ArrayList<>(buildParticipants));
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.project.sync.ng.caching;
+
+import com.google.common.collect.Interner;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serializes the models of a single module to and from the per-module files of the Gradle models cache.
+ * <p>
+ * Module models contain many equal strings (paths, artifact coordinates, variant names) held by different instances. Java serialization
+ * only writes back-references for identical instances, so equal strings are canonicalized before they are written, and interned when
+ * they are read back so modules loaded from the same cache share them in memory.
+ */
+final class ModuleModelsSerializer {
+  // Increase the value when changing the format of module files.
+  static final int FORMAT_VERSION = 1;
+
+  private ModuleModelsSerializer() {
+  }
+
+  @NotNull
+  static byte[] serialize(@NotNull CachedModuleModels models) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream dos = new DataOutputStream(bytes)) {
+      dos.writeInt(FORMAT_VERSION);
+      try (ObjectOutputStream oos = new StringDeduplicatingOutputStream(dos)) {
+        oos.writeObject(models);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  @NotNull
+  static CachedModuleModels deserialize(@NotNull File file, @NotNull Interner<String> strings) throws IOException, ClassNotFoundException {
+    try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = dis.readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException(String.format("Unsupported version %1$d in '%2$s'", version, file.getPath()));
+      }
+      try (ObjectInputStream ois = new StringInterningInputStream(dis, strings)) {
+        return (CachedModuleModels)ois.readObject();
+      }
+    }
+  }
+
+  @NotNull
+  static String hash(@NotNull byte[] serialized) {
+    return Hashing.md5().hashBytes(serialized).toString();
+  }
+
+  private static class StringDeduplicatingOutputStream extends ObjectOutputStream {
+    @NotNull private final Map<String, String> myStrings = new HashMap<>();
+
+    StringDeduplicatingOutputStream(@NotNull OutputStream out) throws IOException {
+      super(out);
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      if (obj instanceof String) {
+        return myStrings.computeIfAbsent((String)obj, string -> string);
+      }
+      return obj;
+    }
+  }
+
+  private static class StringInterningInputStream extends ObjectInputStream {
+    @NotNull private final Interner<String> myStrings;
+
+    StringInterningInputStream(@NotNull InputStream in, @NotNull Interner<String> strings) throws IOException {
+      super(in);
+      myStrings = strings;
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      if (obj instanceof String) {
+        return myStrings.intern((String)obj);
+      }
+      return obj;
+    }
+  }
+}
@@ -56,6 +56,9 @@ public class VariantOnlyProjectModels implements Serializable {
 
   public void populate(@NotNull BuildController controller) {
     populateModelsForModule(controller, mySyncOptions.myBuildId, mySyncOptions.myGradlePath, mySyncOptions.myVariantName);
+    for (VariantOnlySyncOptions otherModule : mySyncOptions.myOtherModules) {
+      populateModelsForModule(controller, otherModule.myBuildId, otherModule.myGradlePath, otherModule.myVariantName);
+    }
     // Request for GlobalLibraryMap model at last, when all of other models have been built.
     populateGlobalLibraryMap(controller);
   }
@@ -20,6 +20,8 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 public class VariantOnlySyncOptions implements Serializable {
@@ -30,6 +32,10 @@ public class VariantOnlySyncOptions implements Serializable {
 
   public final boolean myShouldGenerateSources;
 
+  // Other modules to sync in the same Gradle invocation (e.g. modules whose build files changed since their models were cached). Only
+  // their build id, Gradle path and variant name are used.
+  @NotNull public final List<VariantOnlySyncOptions> myOtherModules;
+
   public VariantOnlySyncOptions(@NotNull File buildId,
                                 @NotNull String gradlePath,
                                 @NotNull String variantName) {
@@ -41,11 +47,21 @@ public class VariantOnlySyncOptions implements Serializable {
                                 @NotNull String variantName,
                                 @Nullable String abiName,
                                 boolean shouldGenerateSources) {
+    this(buildId, gradlePath, variantName, abiName, shouldGenerateSources, Collections.emptyList());
+  }
+
+  public VariantOnlySyncOptions(@NotNull File buildId,
+                                @NotNull String gradlePath,
+                                @NotNull String variantName,
+                                @Nullable String abiName,
+                                boolean shouldGenerateSources,
+                                @NotNull List<VariantOnlySyncOptions> otherModules) {
     myBuildId = buildId;
     myGradlePath = gradlePath;
     myVariantName = variantName;
     myAbiName = abiName;
     myShouldGenerateSources = shouldGenerateSources;
+    myOtherModules = otherModules;
   }
 
   @Override
@@ -61,12 +77,13 @@ public class VariantOnlySyncOptions implements Serializable {
            Objects.equals(myGradlePath, options.myGradlePath) &&
            Objects.equals(myVariantName, options.myVariantName) &&
            Objects.equals(myAbiName, options.myAbiName) &&
-           Objects.equals(myShouldGenerateSources, options.myShouldGenerateSources);
+           Objects.equals(myShouldGenerateSources, options.myShouldGenerateSources) &&
+           Objects.equals(myOtherModules, options.myOtherModules);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(myBuildId, myGradlePath, myVariantName, myAbiName, myShouldGenerateSources);
+    return Objects.hash(myBuildId, myGradlePath, myVariantName, myAbiName, myShouldGenerateSources, myOtherModules);
   }
 
   @Override
@@ -77,6 +94,7 @@ public class VariantOnlySyncOptions implements Serializable {
            ", myVariantName='" + myVariantName + '\'' +
            ", myAbiName='" + myAbiName + '\'' +
            ", myShouldGenerateSources='" + myShouldGenerateSources + '\'' +
+           ", myOtherModules=" + myOtherModules +
            '}';
   }
 }
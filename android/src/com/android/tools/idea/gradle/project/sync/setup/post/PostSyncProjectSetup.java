@@ -23,11 +23,15 @@ import com.android.tools.idea.gradle.project.ProjectStructure.AndroidPluginVersi
 import com.android.tools.idea.gradle.project.build.GradleBuildState;
 import com.android.tools.idea.gradle.project.build.GradleProjectBuilder;
 import com.android.tools.idea.gradle.project.build.output.AndroidGradleSyncTextConsoleView;
+import com.android.tools.idea.gradle.project.facet.gradle.GradleFacet;
 import com.android.tools.idea.gradle.project.model.AndroidModuleModel;
+import com.android.tools.idea.gradle.project.model.GradleModuleModel;
+import com.android.tools.idea.gradle.project.model.NdkModuleModel;
 import com.android.tools.idea.gradle.project.sync.GradleSyncInvoker;
 import com.android.tools.idea.gradle.project.sync.GradleSyncState;
 import com.android.tools.idea.gradle.project.sync.compatibility.VersionCompatibilityChecker;
 import com.android.tools.idea.gradle.project.sync.messages.GradleSyncMessages;
+import com.android.tools.idea.gradle.project.sync.ng.variantonly.VariantOnlySyncOptions;
 import com.android.tools.idea.gradle.project.sync.setup.module.common.DependencySetupIssues;
 import com.android.tools.idea.gradle.project.sync.setup.post.project.DisposedModules;
 import com.android.tools.idea.gradle.project.sync.validation.common.CommonModuleValidator;
@@ -80,10 +84,12 @@ import java.util.*;
 import static com.android.tools.idea.Projects.getBaseDirPath;
 import static com.android.tools.idea.gradle.project.build.BuildStatus.SKIPPED;
 import static com.android.tools.idea.gradle.project.sync.ModuleSetupContext.removeSyncContextDataFrom;
+import static com.android.tools.idea.gradle.project.sync.ng.NewGradleSync.isCompoundSync;
 import static com.android.tools.idea.gradle.project.sync.setup.post.EnableDisableSingleVariantSyncStep.setSingleVariantSyncState;
 import static com.android.tools.idea.gradle.util.GradleUtil.GRADLE_SYSTEM_ID;
 import static com.android.tools.idea.gradle.variant.conflict.ConflictSet.findConflicts;
 import static com.google.wireless.android.sdk.stats.GradleSyncStats.Trigger.TRIGGER_PROJECT_LOADED;
+import static com.google.wireless.android.sdk.stats.GradleSyncStats.Trigger.TRIGGER_PROJECT_MODIFIED;
 import static com.intellij.openapi.util.io.FileUtil.toCanonicalPath;
 import static java.lang.System.currentTimeMillis;
 
@@ -218,6 +224,8 @@ public final class PostSyncProjectSetup {
       finishSuccessfulSync(taskId);
       // Update single-variant state, the eligibility can be changed from last sync if kotlin is added/removed, or AGP version is changed.
       setSingleVariantSyncState(myProject);
+
+      syncModulesWithChangedBuildFiles(request);
     }
     catch (Throwable t) {
       mySyncState.syncFailed("setup project failed: " + t.getMessage());
@@ -226,6 +234,54 @@ public final class PostSyncProjectSetup {
     }
   }
 
+  /**
+   * Syncs the modules whose build files changed since their models were cached, in a single Variant-Only Sync. The rest of the project
+   * has already been set up from the cached models.
+   */
+  private void syncModulesWithChangedBuildFiles(@NotNull Request request) {
+    if (!request.usingCachedGradleModels || request.modulesToSyncAfterSetup.isEmpty()) {
+      return;
+    }
+    ModuleManager moduleManager = ModuleManager.getInstance(myProject);
+    List<VariantOnlySyncOptions> modulesToSync = new ArrayList<>();
+    for (String moduleName : request.modulesToSyncAfterSetup) {
+      Module module = moduleManager.findModuleByName(moduleName);
+      VariantOnlySyncOptions options = module != null ? createVariantOnlySyncOptions(module) : null;
+      if (options == null) {
+        // The module was not set up as an Android module, sync the whole project instead.
+        mySyncInvoker.requestProjectSyncAndSourceGeneration(myProject, TRIGGER_PROJECT_MODIFIED);
+        return;
+      }
+      modulesToSync.add(options);
+    }
+
+    VariantOnlySyncOptions first = modulesToSync.get(0);
+    GradleSyncInvoker.Request syncRequest = new GradleSyncInvoker.Request(TRIGGER_PROJECT_MODIFIED);
+    syncRequest.variantOnlySyncOptions =
+      new VariantOnlySyncOptions(first.myBuildId, first.myGradlePath, first.myVariantName, first.myAbiName, isCompoundSync(myProject),
+                                 new ArrayList<>(modulesToSync.subList(1, modulesToSync.size())));
+    mySyncInvoker.requestProjectSync(myProject, syncRequest);
+  }
+
+  @Nullable
+  private static VariantOnlySyncOptions createVariantOnlySyncOptions(@NotNull Module module) {
+    GradleFacet gradleFacet = GradleFacet.getInstance(module);
+    GradleModuleModel gradleModel = gradleFacet != null ? gradleFacet.getGradleModuleModel() : null;
+    AndroidModuleModel androidModel = AndroidModuleModel.get(module);
+    if (gradleModel == null || androidModel == null) {
+      return null;
+    }
+    String variantName = androidModel.getSelectedVariant().getName();
+    String abiName = null;
+    NdkModuleModel ndkModel = NdkModuleModel.get(module);
+    if (ndkModel != null) {
+      String ndkVariantName = ndkModel.getSelectedVariant().getName();
+      variantName = ndkModel.getVariantName(ndkVariantName);
+      abiName = ndkModel.getAbiName(ndkVariantName);
+    }
+    return new VariantOnlySyncOptions(gradleModel.getRootFolderPath(), gradleModel.getGradlePath(), variantName, abiName, false);
+  }
+
   private void finishSuccessfulSync(@Nullable ExternalSystemTaskId taskId) {
     if (taskId == null) {
       return;
@@ -426,6 +482,8 @@ public final class PostSyncProjectSetup {
     public boolean generateSourcesAfterSync = true;
     public boolean skipAndroidPluginUpgrade;
     public long lastSyncTimestamp = -1L;
+    // Modules whose build files changed since their models were cached. Only used when setting up the project from the cache.
+    @NotNull public Set<String> modulesToSyncAfterSetup = Collections.emptySet();
 
     @Override
     public boolean equals(Object o) {
@@ -439,12 +497,14 @@ public final class PostSyncProjectSetup {
       return usingCachedGradleModels == request.usingCachedGradleModels &&
              cleanProjectAfterSync == request.cleanProjectAfterSync &&
              generateSourcesAfterSync == request.generateSourcesAfterSync &&
-             lastSyncTimestamp == request.lastSyncTimestamp;
+             lastSyncTimestamp == request.lastSyncTimestamp &&
+             Objects.equals(modulesToSyncAfterSetup, request.modulesToSyncAfterSetup);
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(usingCachedGradleModels, cleanProjectAfterSync, generateSourcesAfterSync, lastSyncTimestamp);
+      return Objects.hash(usingCachedGradleModels, cleanProjectAfterSync, generateSourcesAfterSync, lastSyncTimestamp,
+                          modulesToSyncAfterSetup);
     }
   }
 }
@@ -29,6 +29,7 @@ import com.android.tools.lint.detector.api.Severity
 import com.android.utils.NullLogger
 import com.google.wireless.android.sdk.stats.*
 import com.google.wireless.android.sdk.stats.LintIssueId.LintSeverity
+import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.module.Module
 import com.intellij.openapi.module.ModuleManager
 import org.jetbrains.android.inspections.lint.ProblemData
@@ -37,6 +38,8 @@ import java.io.IOException
 import java.nio.file.Path
 import java.nio.file.Paths
 
+private val LOG = Logger.getInstance(LintIdeAnalytics::class.java)
+
 /** Helper for submitting analytics for IDE usage of lint (for users who have opted in) */
 class LintIdeAnalytics(private val project: com.intellij.openapi.project.Project) {
   /** Logs feedback from user on an individual issue */
@@ -61,13 +64,53 @@ class LintIdeAnalytics(private val project: com.intellij.openapi.project.Project
     severityModule: Module?,
     warnings1: List<ProblemData>?,
     warnings2: Map<Issue, Map<File, List<ProblemData>>>?
+  ) = logSession(type, driver, listOf(listOf(driver)), severityModule, warnings1, warnings2)
+
+  /**
+   * Logs a full inspection run split into several drivers, as done by the batch runner. [driversByModule] has the drivers of every
+   * module; the drivers of a module may visit the same files, so each count is the largest of the drivers of the module, summed over
+   * the modules. The timing and configuration of the session are taken from [driver].
+   *
+   * [detectorTimes] has the time taken by every detector in milliseconds, by detector name, when detectors were profiled. The
+   * [LintPerformance] message has no field for them, so they are written to the IDE log with the session instead of being uploaded.
+   */
+  fun logSession(
+    type: LintSession.AnalysisType,
+    driver: LintDriver,
+    driversByModule: Collection<List<LintDriver>>,
+    severityModule: Module?,
+    warnings: Map<Issue, Map<File, List<ProblemData>>>?,
+    detectorTimes: Map<String, Long>
+  ) {
+    logSession(type, driver, driversByModule, severityModule, null, warnings)
+    if (detectorTimes.isNotEmpty()) {
+      logDetectorTimes(type, detectorTimes)
+    }
+  }
+
+  private fun logDetectorTimes(type: LintSession.AnalysisType, detectorTimes: Map<String, Long>) {
+    val message = StringBuilder("Lint detector times for $type session (${detectorTimes.size} detectors, " +
+                                "${detectorTimes.values.sum()} ms):")
+    for ((detector, timeMs) in detectorTimes.entries.sortedByDescending { it.value }) {
+      message.append("\n  ").append(timeMs).append(" ms: ").append(detector)
+    }
+    LOG.info(message.toString())
+  }
+
+  private fun logSession(
+    type: LintSession.AnalysisType,
+    driver: LintDriver,
+    driversByModule: Collection<List<LintDriver>>,
+    severityModule: Module?,
+    warnings1: List<ProblemData>?,
+    warnings2: Map<Issue, Map<File, List<ProblemData>>>?
   ) {
     if (project.isDisposed) return
 
     val session = LintSession.newBuilder().apply {
       analysisType = type
       projectId = computeProjectId(project)
-      lintPerformance = computePerformance(driver, type == LintSession.AnalysisType.IDE_FILE)
+      lintPerformance = computePerformance(driver, driversByModule, type == LintSession.AnalysisType.IDE_FILE)
       baselineEnabled = driver.baseline != null
       includingGeneratedSources = driver.checkGeneratedSources
       includingTestSources = driver.checkTestSources
@@ -87,22 +130,29 @@ class LintIdeAnalytics(private val project: com.intellij.openapi.project.Project
     UsageTracker.log(event)
   }
 
-  private fun computePerformance(driver: LintDriver, singleFileAnalysis: Boolean): LintPerformance =
+  private fun computePerformance(
+    driver: LintDriver,
+    driversByModule: Collection<List<LintDriver>>,
+    singleFileAnalysis: Boolean
+  ): LintPerformance =
     LintPerformance.newBuilder().apply {
       analysisTimeMs = System.currentTimeMillis() - driver.analysisStartTime
-      fileCount = driver.fileCount.toLong()
+      fileCount = driversByModule.sumOfLargest { it.fileCount }
 
       // When doing single file analysis we don't have an accurate module count for
       // the project etc; the below statistics aren't interesting and are misleading
       if (!singleFileAnalysis) {
-        moduleCount = driver.moduleCount.toLong()
-        javaSourceCount = driver.javaFileCount.toLong()
-        kotlinSourceCount = driver.kotlinFileCount.toLong()
-        resourceFileCount = driver.resourceFileCount.toLong()
-        testSourceCount = driver.testSourceCount.toLong()
+        moduleCount = driversByModule.sumOfLargest { it.moduleCount }
+        javaSourceCount = driversByModule.sumOfLargest { it.javaFileCount }
+        kotlinSourceCount = driversByModule.sumOfLargest { it.kotlinFileCount }
+        resourceFileCount = driversByModule.sumOfLargest { it.resourceFileCount }
+        testSourceCount = driversByModule.sumOfLargest { it.testSourceCount }
       }
     }.build()
 
+  private fun Collection<List<LintDriver>>.sumOfLargest(count: (LintDriver) -> Int): Long =
+    sumBy { drivers -> drivers.map(count).max() ?: 0 }.toLong()
+
   private fun recordSeverityOverride(
     map: HashMap<String, LintIssueId.Builder>,
     id: String,
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.utils.SdkUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.tools.idea.rendering.ClassConverter.isValidClassFile;
+
+/**
+ * A cache of the classes rewritten by {@link ClassConverter#rewriteClass(byte[])}, shared by the render class loaders of all modules
+ * and projects.
+ * <p>
+ * Rewritten classes are keyed by the SHA-1 of the original class file. They are kept in memory until there is memory pressure, and
+ * written to disk so that recreating a class loader, or restarting the IDE, does not rewrite the same library classes again. Files are
+ * written on a background thread, because classes are loaded on the render thread, where {@link RenderSecurityManager} only allows
+ * reading ".class" files.
+ * <p>
+ * {@link #preloadJars(List)} rewrites the classes of the jars not seen before in the background and in parallel, so that the first
+ * render after opening a project finds most library classes already rewritten.
+ */
+public class ClassConverterCache {
+  private static final Logger LOG = Logger.getInstance(ClassConverterCache.class);
+
+  // Increase the value when changing how ClassConverter rewrites classes, so classes rewritten by an older version are not used.
+  private static final int REWRITE_VERSION = 1;
+  @VisibleForTesting static final long MAX_CACHE_SIZE_BYTES = 256L * 1024 * 1024;
+  // Number of classes rewritten by a single preloading task.
+  private static final int PRELOAD_BATCH_SIZE = 64;
+
+  private static final ClassConverterCache ourInstance = new ClassConverterCache(
+    new File(PathManager.getSystemPath(), "render-classes"),
+    ClassConverter.getCurrentClassVersion(),
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("ClassConverterCache writer", 1),
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("ClassConverterCache preloader",
+                                                          Math.max(1, Runtime.getRuntime().availableProcessors() - 1)));
+
+  @NotNull private final File myRootDirectory;
+  @NotNull private final File myCacheDirectory;
+  private final int myClassVersion;
+  @NotNull private final Executor myWriteExecutor;
+  @NotNull private final Executor myPreloadExecutor;
+  @NotNull private final Cache<String, byte[]> myRewrittenClasses = CacheBuilder.newBuilder().softValues().build();
+  // Jars already preloaded, by path, size and modification time.
+  @NotNull private final Set<String> myPreloadedJars = ContainerUtil.newConcurrentSet();
+  // Bytes written since the size of the cache directory was last checked.
+  @NotNull private final AtomicLong myWrittenBytes = new AtomicLong();
+
+  @NotNull
+  public static ClassConverterCache getInstance() {
+    return ourInstance;
+  }
+
+  /**
+   * @param rootDirectory   the directory the rewritten classes are written to, in a sub directory per rewrite and class file version.
+   * @param classVersion    the class file version classes are rewritten for.
+   * @param writeExecutor   the executor files are written on.
+   * @param preloadExecutor the executor classes are preloaded on.
+   */
+  @VisibleForTesting
+  ClassConverterCache(@NotNull File rootDirectory,
+                      int classVersion,
+                      @NotNull Executor writeExecutor,
+                      @NotNull Executor preloadExecutor) {
+    myRootDirectory = rootDirectory;
+    myCacheDirectory = new File(rootDirectory, "v" + REWRITE_VERSION + "-" + classVersion);
+    myClassVersion = classVersion;
+    myWriteExecutor = writeExecutor;
+    myPreloadExecutor = preloadExecutor;
+    myWriteExecutor.execute(this::deleteStaleFiles);
+  }
+
+  /**
+   * Returns the given class rewritten to a version runnable on the current JDK, the same as {@link ClassConverter#rewriteClass(byte[])}.
+   * The returned array may be shared, and must not be modified.
+   */
+  @NotNull
+  public byte[] rewriteClass(@NotNull byte[] classData) {
+    String key = Hashing.sha1().hashBytes(classData).toString();
+    byte[] rewritten = myRewrittenClasses.getIfPresent(key);
+    if (rewritten != null) {
+      return rewritten;
+    }
+
+    File file = getFile(key);
+    rewritten = read(file);
+    if (rewritten == null) {
+      rewritten = ClassConverter.rewriteClass(classData, myClassVersion, 0);
+      write(file, rewritten);
+    }
+    myRewrittenClasses.put(key, rewritten);
+    return rewritten;
+  }
+
+  /**
+   * Rewrites, in the background, the classes of the given jars that were not preloaded before (or changed since).
+   */
+  public void preloadJars(@NotNull List<URL> jars) {
+    for (URL url : jars) {
+      File jar;
+      try {
+        jar = SdkUtils.urlToFile(url);
+      }
+      catch (MalformedURLException e) {
+        continue;
+      }
+      if (myPreloadedJars.add(jar.getPath() + '@' + jar.length() + '@' + jar.lastModified())) {
+        myPreloadExecutor.execute(() -> preloadJar(jar));
+      }
+    }
+  }
+
+  private void preloadJar(@NotNull File jar) {
+    List<byte[]> batch = new ArrayList<>(PRELOAD_BATCH_SIZE);
+    try (ZipFile zipFile = new ZipFile(jar)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory() || !entry.getName().endsWith(DOT_CLASS)) {
+          continue;
+        }
+        try (InputStream input = zipFile.getInputStream(entry)) {
+          batch.add(ByteStreams.toByteArray(input));
+        }
+        if (batch.size() == PRELOAD_BATCH_SIZE) {
+          preloadClasses(batch);
+          batch = new ArrayList<>(PRELOAD_BATCH_SIZE);
+        }
+      }
+    }
+    catch (IOException e) {
+      // The jar will be read again by the class loader, which reports the errors.
+      LOG.debug("Unable to preload classes from " + jar, e);
+    }
+    if (!batch.isEmpty()) {
+      preloadClasses(batch);
+    }
+  }
+
+  private void preloadClasses(@NotNull List<byte[]> classes) {
+    myPreloadExecutor.execute(() -> {
+      for (byte[] classData : classes) {
+        if (!isValidClassFile(classData)) {
+          continue;
+        }
+        try {
+          rewriteClass(classData);
+        }
+        catch (RuntimeException e) {
+          // Classes that can not be rewritten fail again, and are reported, when they are loaded.
+          LOG.debug(e);
+        }
+      }
+    });
+  }
+
+  @NotNull
+  private File getFile(@NotNull String key) {
+    return new File(new File(myCacheDirectory, key.substring(0, 2)), key + DOT_CLASS);
+  }
+
+  @Nullable
+  private static byte[] read(@NotNull File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      byte[] data = Files.toByteArray(file);
+      return isValidClassFile(data) ? data : null;
+    }
+    catch (IOException e) {
+      LOG.debug("Unable to read rewritten class " + file, e);
+      return null;
+    }
+  }
+
+  private void write(@NotNull File file, @NotNull byte[] rewritten) {
+    myWriteExecutor.execute(() -> {
+      if (file.isFile()) {
+        return;
+      }
+      try {
+        File directory = file.getParentFile();
+        directory.mkdirs();
+        // Write to a temporary file first, so a partially written class can never be read back.
+        File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+          Files.write(rewritten, tempFile);
+          Files.move(tempFile, file);
+        }
+        catch (IOException e) {
+          tempFile.delete();
+          throw e;
+        }
+      }
+      catch (IOException e) {
+        LOG.debug("Unable to cache rewritten class in " + file, e);
+        return;
+      }
+      if (myWrittenBytes.addAndGet(rewritten.length) > MAX_CACHE_SIZE_BYTES / 4) {
+        myWrittenBytes.set(0);
+        deleteOldestFiles();
+      }
+    });
+  }
+
+  /**
+   * Deletes the classes rewritten by other versions of the converter or for other JDKs, and trims the cache to its maximum size.
+   */
+  private void deleteStaleFiles() {
+    File[] directories = myRootDirectory.listFiles();
+    if (directories != null) {
+      for (File directory : directories) {
+        if (!directory.equals(myCacheDirectory)) {
+          FileUtil.delete(directory);
+        }
+      }
+    }
+    deleteOldestFiles();
+  }
+
+  /**
+   * Keeps the cache from growing without bound, by deleting the least recently written classes once it exceeds its maximum size.
+   */
+  private void deleteOldestFiles() {
+    List<File> files = new ArrayList<>();
+    File[] directories = myCacheDirectory.listFiles();
+    if (directories == null) {
+      return;
+    }
+    long totalSize = 0;
+    for (File directory : directories) {
+      File[] directoryFiles = directory.listFiles();
+      if (directoryFiles != null) {
+        for (File file : directoryFiles) {
+          files.add(file);
+          totalSize += file.length();
+        }
+      }
+    }
+    if (totalSize <= MAX_CACHE_SIZE_BYTES) {
+      return;
+    }
+
+    // Delete down to 3/4 of the maximum size, so this does not happen again after the next few writes.
+    files.sort(Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (totalSize <= MAX_CACHE_SIZE_BYTES * 3 / 4) {
+        break;
+      }
+      totalSize -= file.length();
+      file.delete();
+    }
+  }
+}
@@ -17,85 +17,266 @@ package com.android.tools.idea.rendering;
 
 import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.rendering.api.RenderResources;
-import com.google.common.collect.Maps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
-import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.ui.scale.JBUIScale;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.ui.UIUtil;
 import icons.AndroidArtworkIcons;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
 
 import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
+import static com.android.SdkConstants.DOT_XML;
+
+/**
+ * Cache of the thumbnails shown in the gutter (and in completion) for drawable resources.
+ * <p>
+ * Icons are decoded on a background executor, so computing line markers for a file referencing many drawables does not wait for them:
+ * until an icon is decoded, {@link #getIcon} returns a placeholder which paints nothing and repaints its component once the icon is
+ * available. The XML of vector drawables is read, and its references resolved, by the caller before decoding. Entries are invalidated when
+ * the image file changes, on disk or in an editor, and the least recently used ones are evicted once the decoded images exceed
+ * {@link #MAX_CACHE_SIZE_BYTES}.
+ */
 public class GutterIconCache {
   private static final Logger LOG = Logger.getInstance(GutterIconCache.class);
   private static final Icon NONE = AndroidArtworkIcons.Icons.Android; // placeholder
 
   @VisibleForTesting static final int MAX_WIDTH = JBUIScale.scale(16);
   @VisibleForTesting static final int MAX_HEIGHT = JBUIScale.scale(16);
+  @VisibleForTesting static final long MAX_CACHE_SIZE_BYTES = 8L * 1024 * 1024;
 
-  private static final GutterIconCache ourInstance = new GutterIconCache();
+  private static class InstanceHolder {
+    private static final GutterIconCache INSTANCE = new GutterIconCache();
+  }
 
-  private Map<String, Icon> myThumbnailCache = Maps.newHashMap();
+  private final Cache<String, Icon> myThumbnailCache = CacheBuilder.newBuilder()
+    .maximumWeight(MAX_CACHE_SIZE_BYTES)
+    .weigher((String path, Icon icon) -> icon == NONE ? 0 : 4 * icon.getIconWidth() * icon.getIconHeight())
+    .build();
 
   /**
-   * Stores timestamps for the last modification time of image files using the
-   * path as a key.
+   * Placeholders of the icons being decoded, by path. Invalidating a path removes its placeholder, so that an icon decoded from the
+   * previous contents of the file is not cached.
    */
-  private Map<String, Long> myModificationStampCache = Maps.newHashMap();
-  private boolean myRetina;
+  private final Map<String, PendingIcon> myPendingIcons = ContainerUtil.newConcurrentMap();
+  @NotNull private final Executor myExecutor;
+  private volatile boolean myRetina;
 
   public GutterIconCache() {
+    this(createExecutor(), ApplicationManager.getApplication());
+  }
+
+  /**
+   * @param executor         the executor icons are decoded on.
+   * @param parentDisposable the disposable the file and document listeners are registered with.
+   */
+  @VisibleForTesting
+  GutterIconCache(@NotNull Executor executor, @NotNull Disposable parentDisposable) {
+    myExecutor = executor;
+
+    ApplicationManager.getApplication().getMessageBus().connect(parentDisposable).subscribe(VirtualFileManager.VFS_CHANGES,
+                                                                                           new BulkFileListener() {
+      @Override
+      public void before(@NotNull List<? extends VFileEvent> events) {
+        // Paths of moved, renamed and deleted files are only known before the change.
+        invalidate(events);
+      }
+
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        invalidate(events);
+      }
+    });
+
+    EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentListener() {
+      @Override
+      public void documentChanged(@NotNull DocumentEvent event) {
+        VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+        if (file != null) {
+          invalidate(file.getPath());
+        }
+      }
+    }, parentDisposable);
+  }
+
+  @NotNull
+  private static Executor createExecutor() {
+    if (ApplicationManager.getApplication().isUnitTestMode()) {
+      // Decode icons synchronously, so tests see the decoded icon right away.
+      return Runnable::run;
+    }
+    return AppExecutorUtil.createBoundedApplicationPoolExecutor("GutterIconCache",
+                                                                Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
   }
 
   @NotNull
   public static GutterIconCache getInstance() {
-    return ourInstance;
+    return InstanceHolder.INSTANCE;
   }
 
   @VisibleForTesting
   boolean isIconUpToDate(@NotNull String path) {
-    if (myModificationStampCache.containsKey(path)) {
-      // Entry is valid if image resource has not been modified since the entry was cached
-      VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
-      if (file != null) {
-        return myModificationStampCache.get(path) == file.getModificationStamp()
-               && !FileDocumentManager.getInstance().isFileModified(file);
-      }
-    }
-
-    return false;
+    return myThumbnailCache.getIfPresent(path) != null;
   }
 
+  /**
+   * Returns the icon for the image at the given path, a placeholder if it is still being decoded, or null if it can not be decoded.
+   */
   @Nullable
   public Icon getIcon(@NotNull String path, @Nullable RenderResources resolver) {
     boolean isRetina = UIUtil.isRetina();
     if (myRetina != isRetina) {
       myRetina = isRetina;
-      myThumbnailCache.clear();
+      invalidateAll();
     }
-    Icon myIcon = myThumbnailCache.get(path);
-    if (myIcon == null || !isIconUpToDate(path)) {
-      myIcon = GutterIconFactory.createIcon(path, resolver, MAX_WIDTH, MAX_HEIGHT);
 
-      if (myIcon == null) {
-        myIcon = NONE;
+    Icon icon = myThumbnailCache.getIfPresent(path);
+    if (icon != null) {
+      return icon != NONE ? icon : null;
+    }
+
+    PendingIcon placeholder = myPendingIcons.get(path);
+    if (placeholder == null) {
+      PendingIcon newPlaceholder = new PendingIcon(path, resolver);
+      placeholder = myPendingIcons.putIfAbsent(path, newPlaceholder);
+      if (placeholder == null) {
+        placeholder = newPlaceholder;
+        // The resolver and the document of the file can only be used here, so the XML is read and resolved before decoding.
+        Document resolvedXml = path.endsWith(DOT_XML) ? GutterIconFactory.readResolvedXml(path, resolver) : null;
+        myExecutor.execute(() -> decodeIcon(path, resolvedXml, newPlaceholder));
       }
+    }
 
-      myThumbnailCache.put(path, myIcon);
+    // The icon may have been decoded synchronously, or by another thread in the meantime.
+    icon = myThumbnailCache.getIfPresent(path);
+    if (icon != null) {
+      return icon != NONE ? icon : null;
+    }
+    return placeholder;
+  }
 
-      // Record timestamp of image resource at the time of caching
-      VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
-      if (file != null) {
-        myModificationStampCache.put(path, file.getModificationStamp());
+  private void decodeIcon(@NotNull String path, @Nullable Document resolvedXml, @NotNull PendingIcon placeholder) {
+    Icon icon = null;
+    try {
+      icon = GutterIconFactory.decodeIcon(path, resolvedXml, MAX_WIDTH, MAX_HEIGHT);
+    }
+    catch (RuntimeException e) {
+      LOG.warn("Unable to create icon for " + path, e);
+    }
+    synchronized (myPendingIcons) {
+      if (myPendingIcons.remove(path, placeholder)) {
+        myThumbnailCache.put(path, icon != null ? icon : NONE);
       }
     }
+    placeholder.done();
+  }
 
-    return myIcon != NONE ? myIcon : null;
+  private void invalidate(@NotNull List<? extends VFileEvent> events) {
+    for (VFileEvent event : events) {
+      invalidate(event.getPath());
+    }
+  }
+
+  private void invalidate(@NotNull String path) {
+    synchronized (myPendingIcons) {
+      myPendingIcons.remove(path);
+      myThumbnailCache.invalidate(path);
+    }
   }
 
+  private void invalidateAll() {
+    synchronized (myPendingIcons) {
+      myPendingIcons.clear();
+      myThumbnailCache.invalidateAll();
+    }
+  }
+
+  /**
+   * Icon returned while the icon of an image is being decoded. It paints the decoded icon once available, and repaints the components
+   * it was painted on when the decoding finishes.
+   */
+  private class PendingIcon implements Icon {
+    @NotNull private final String myPath;
+    @Nullable private final RenderResources myResolver;
+    private final Set<Component> myComponents = ContainerUtil.createWeakSet();
+    private boolean myDone;
+
+    private PendingIcon(@NotNull String path, @Nullable RenderResources resolver) {
+      myPath = path;
+      myResolver = resolver;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+      // Once decoded, the cached icon is painted. If the file changed in the meantime, this requests it again.
+      Icon icon = getIcon(myPath, myResolver);
+      if (icon instanceof PendingIcon) {
+        ((PendingIcon)icon).repaintWhenDone(c);
+      }
+      else if (icon != null) {
+        icon.paintIcon(c, g, x, y);
+      }
+    }
+
+    private void repaintWhenDone(@Nullable Component component) {
+      if (component == null) {
+        return;
+      }
+      synchronized (myComponents) {
+        if (!myDone) {
+          myComponents.add(component);
+          return;
+        }
+      }
+      repaint(Collections.singletonList(component));
+    }
+
+    private void done() {
+      List<Component> components;
+      synchronized (myComponents) {
+        myDone = true;
+        components = new ArrayList<>(myComponents);
+        myComponents.clear();
+      }
+      repaint(components);
+    }
+
+    private void repaint(@NotNull List<Component> components) {
+      if (!components.isEmpty()) {
+        ApplicationManager.getApplication().invokeLater(() -> components.forEach(Component::repaint));
+      }
+    }
+
+    @Override
+    public int getIconWidth() {
+      return MAX_WIDTH;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return MAX_HEIGHT;
+    }
+  }
 }
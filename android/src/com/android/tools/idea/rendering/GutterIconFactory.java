@@ -25,6 +25,7 @@ import com.android.tools.idea.res.ResourceHelper;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
+import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -67,8 +68,18 @@ public class GutterIconFactory {
    */
   @Nullable
   public static Icon createIcon(@NotNull String path, @Nullable RenderResources resolver, int maxWidth, int maxHeight) {
+    return decodeIcon(path, path.endsWith(DOT_XML) ? readResolvedXml(path, resolver) : null, maxWidth, maxHeight);
+  }
+
+  /**
+   * Returns an Icon for the image resource at the given path, like {@link #createIcon(String, RenderResources, int, int)}, but taking the
+   * contents of an XML resource as returned by {@link #readResolvedXml}. It does not use the resource resolver or read the document of
+   * the file, so it can be called on any thread.
+   */
+  @Nullable
+  static Icon decodeIcon(@NotNull String path, @Nullable Document resolvedXml, int maxWidth, int maxHeight) {
     if (path.endsWith(DOT_XML)) {
-      return createXmlIcon(path, resolver, maxWidth);
+      return resolvedXml != null ? createXmlIcon(path, resolvedXml, maxWidth) : null;
     }
     else {
       return createBitmapIcon(path, maxWidth, maxHeight);
@@ -86,23 +97,25 @@ public class GutterIconFactory {
       return Files.toString(new File(path), Charsets.UTF_8);
     }
 
-    com.intellij.openapi.editor.Document document =
-      FileDocumentManager.getInstance().getCachedDocument(file);
+    String text = ReadAction.compute(() -> {
+      com.intellij.openapi.editor.Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+      return document != null ? document.getText() : null;
+    });
 
-    if  (document == null) {
+    if (text == null) {
       return new String(file.contentsToByteArray(), StandardCharsets.UTF_8);
     }
 
-    return document.getText();
+    return text;
   }
 
-
+  /**
+   * Reads the vector drawable at the given path, and replaces its resource and theme references with the values resolved by
+   * {@code resolver}. Returns null if the file is not a vector drawable, or can not be read.
+   */
   @Nullable
-  private static Icon createXmlIcon(@NotNull String path, @Nullable RenderResources resolver, int maxWidth) {
+  static Document readResolvedXml(@NotNull String path, @Nullable RenderResources resolver) {
     try {
-      VdPreview.TargetSize imageTargetSize =
-        VdPreview.TargetSize.createFromMaxDimension(isRetinaEnabled() ? ImageUtils.RETINA_SCALE * maxWidth : maxWidth);
-
       String xml = getXmlContent(path);
       // See if this drawable is a vector; we can't render other drawables yet.
       // TODO: Consider resolving selectors to render for example the default image!
@@ -116,21 +129,37 @@ public class GutterIconFactory {
           return null;
         }
         if (resolver != null) {
-          replaceResourceReferences(root, resolver);
-        }
-        StringBuilder builder = new StringBuilder(100);
-        BufferedImage image = VdPreview.getPreviewFromVectorDocument(imageTargetSize, document, builder);
-        if (builder.length() > 0) {
-          LOG.warn("Problems rendering " + path + ": " + builder);
+          // Resolved values may come from PSI.
+          ReadAction.run(() -> replaceResourceReferences(root, resolver));
         }
-        if (isRetinaEnabled()) {
-          RetinaImageIcon retinaIcon = getRetinaIcon(image);
-          if (retinaIcon != null) {
-            return retinaIcon;
-          }
+        return document;
+      }
+    }
+    catch (Throwable e) {
+      LOG.warn(String.format("Could not read icon image %1$s", path), e);
+    }
+
+    return null;
+  }
+
+  @Nullable
+  private static Icon createXmlIcon(@NotNull String path, @NotNull Document document, int maxWidth) {
+    try {
+      VdPreview.TargetSize imageTargetSize =
+        VdPreview.TargetSize.createFromMaxDimension(isRetinaEnabled() ? ImageUtils.RETINA_SCALE * maxWidth : maxWidth);
+
+      StringBuilder builder = new StringBuilder(100);
+      BufferedImage image = VdPreview.getPreviewFromVectorDocument(imageTargetSize, document, builder);
+      if (builder.length() > 0) {
+        LOG.warn("Problems rendering " + path + ": " + builder);
+      }
+      if (isRetinaEnabled()) {
+        RetinaImageIcon retinaIcon = getRetinaIcon(image);
+        if (retinaIcon != null) {
+          return retinaIcon;
         }
-        return new ImageIcon(image);
       }
+      return new ImageIcon(image);
     }
     catch (Throwable e) {
       LOG.warn(String.format("Could not read/render icon image %1$s", path), e);
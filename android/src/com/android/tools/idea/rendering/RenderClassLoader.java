@@ -114,6 +114,9 @@ public abstract class RenderClassLoader extends ClassLoader {
   }
 
   protected UrlClassLoader createClassLoader(List<URL> externalJars) {
+    // Start rewriting the library classes in the background, so most of them are already rewritten when they are loaded.
+    ClassConverterCache.getInstance().preloadJars(externalJars);
+
     UrlClassLoader.Builder builder = UrlClassLoader.build()
       .parent(this)
       .urls(externalJars);
@@ -181,7 +184,7 @@ public abstract class RenderClassLoader extends ClassLoader {
 
   @NotNull
   protected byte[] convertClass(@NotNull byte[] data) {
-    return ClassConverter.rewriteClass(data);
+    return ClassConverterCache.getInstance().rewriteClass(data);
   }
 
   @NotNull
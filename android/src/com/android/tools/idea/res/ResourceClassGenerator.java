@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.res;
 
+import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.rendering.api.ResourceNamespace;
 import com.android.ide.common.rendering.api.ResourceReference;
 import com.android.ide.common.rendering.api.ResourceValue;
@@ -22,11 +23,13 @@ import com.android.ide.common.rendering.api.StyleableResourceValue;
 import com.android.ide.common.resources.ResourceItem;
 import com.android.ide.common.resources.ResourceRepository;
 import com.android.resources.ResourceType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.ModificationTracker;
 import gnu.trove.TIntArrayList;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.android.util.AndroidResourceUtil;
@@ -37,6 +40,8 @@ import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Type;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.android.tools.idea.LogAnonymizerUtil.anonymizeClassName;
 import static com.android.tools.idea.LogAnonymizerUtil.isPublicClass;
@@ -71,14 +76,14 @@ import static org.jetbrains.org.objectweb.asm.Opcodes.*;
  */
 public class ResourceClassGenerator {
   private static final Logger LOG = Logger.getInstance(ResourceClassGenerator.class);
+  private static final int MAX_CACHED_CLASSES = 200;
 
   interface NumericIdProvider {
     int getOrGenerateId(@NotNull ResourceReference resourceReference);
   }
 
-  private Map<ResourceType, TObjectIntHashMap<String>> myCache;
-  /** For int[] in styleables. The ints in styleables are stored in {@link #myCache}. */
-  private Map<String, TIntArrayList> myStyleableCache;
+  /** The fields and classes generated from the current version of {@link #myResources}. */
+  @Nullable private Generation myGeneration;
   @NotNull private final ResourceRepository myResources;
   @NotNull private final NumericIdProvider myIdProvider;
   @NotNull private final ResourceNamespace myNamespace;
@@ -102,10 +107,56 @@ public class ResourceClassGenerator {
   }
 
   /**
+   * Returns the bytecode of the given R class. Classes are generated once per version of the resource repository, and shared by all the
+   * class loaders that load them, so the returned array must not be modified.
+   * <p>
+   * Classes can be generated concurrently. The field values are computed once per version of the repository and shared by all the
+   * classes, so concurrent calls generate the same bytecode.
+   *
    * @param fqcn Fully qualified class name (as accepted by ClassLoader, or as returned by Class.getName())
    */
   @Nullable
   public byte[] generate(String fqcn) {
+    Generation generation = getGeneration();
+    byte[] data = generation.classes.getIfPresent(fqcn);
+    if (data == null) {
+      data = generateClass(fqcn, generation);
+      if (data != null) {
+        generation.classes.put(fqcn, data);
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Generates the R class of the given package and all its inner classes, so that class loaders find them already generated.
+   */
+  public void pregenerate(@NotNull String packageName) {
+    String rClassName = packageName + ".R";
+    generate(rClassName);
+    for (ResourceType type : myResources.getResourceTypes(myNamespace)) {
+      if (type.getHasInnerClass()) {
+        generate(rClassName + "$" + type.getName());
+      }
+    }
+  }
+
+  @VisibleForTesting
+  boolean isCached(@NotNull String fqcn) {
+    return getGeneration().classes.getIfPresent(fqcn) != null;
+  }
+
+  @NotNull
+  private synchronized Generation getGeneration() {
+    long modificationCount = myResources instanceof ModificationTracker ? ((ModificationTracker)myResources).getModificationCount() : 0;
+    if (myGeneration == null || myGeneration.modificationCount != modificationCount) {
+      myGeneration = new Generation(modificationCount);
+    }
+    return myGeneration;
+  }
+
+  @Nullable
+  private byte[] generateClass(@NotNull String fqcn, @NotNull Generation generation) {
     String className = fqcn.replace('.', '/');
 
     if (LOG.isDebugEnabled()) {
@@ -126,31 +177,24 @@ public class ResourceClassGenerator {
       }
 
       cw.visitInnerClass(className, className.substring(0, index), typeName, ACC_PUBLIC + ACC_FINAL + ACC_STATIC);
-      if (myCache == null) {
-        myCache = Maps.newHashMap();
-      }
       if (type == ResourceType.STYLEABLE) {
-        if (myStyleableCache == null) {
-          myCache.put(ResourceType.STYLEABLE, new TObjectIntHashMap<>());
-          myStyleableCache = Maps.newHashMap();
-          generateStyleable(cw, className);
-        }
-        else {
-          TObjectIntHashMap<String> indexFieldsCache = myCache.get(ResourceType.STYLEABLE);
-          assert indexFieldsCache != null;
-          generateFields(cw, indexFieldsCache);
-          generateIntArraysFromCache(cw, className);
+        Styleables styleables = generation.styleables;
+        if (styleables == null) {
+          styleables = computeStyleables(className);
+          generation.styleables = styleables;
         }
+        generateFields(cw, styleables.indexFields);
+        generateIntArrays(cw, className, styleables.arrays);
       } else {
-        TObjectIntHashMap<String> typeCache = myCache.get(type);
-        if (typeCache == null) {
-          typeCache = new TObjectIntHashMap<>();
-          myCache.put(type, typeCache);
-          generateValuesForType(cw, type, typeCache);
-        }
-        else {
-          generateFields(cw, typeCache);
+        TObjectIntHashMap<String> values = generation.fields.get(type);
+        if (values == null) {
+          TObjectIntHashMap<String> computedValues = computeValuesForType(type);
+          values = generation.fields.putIfAbsent(type, computedValues);
+          if (values == null) {
+            values = computedValues;
+          }
         }
+        generateFields(cw, values);
       }
     } else {
       // Default R class.
@@ -166,14 +210,15 @@ public class ResourceClassGenerator {
     return cw.toByteArray();
   }
 
-  private void generateValuesForType(@NotNull ClassWriter cw, @NotNull ResourceType resType, @NotNull TObjectIntHashMap<String> cache) {
+  @NotNull
+  private TObjectIntHashMap<String> computeValuesForType(@NotNull ResourceType resType) {
+    TObjectIntHashMap<String> values = new TObjectIntHashMap<>();
     Collection<String> resourceNames = myResources.getResources(myNamespace, resType).keySet();
     for (String name : resourceNames) {
       int initialValue = myIdProvider.getOrGenerateId(new ResourceReference(myNamespace, resType, name));
-      name = AndroidResourceUtil.getFieldNameByResourceName(name);
-      generateField(cw, name, initialValue);
-      cache.put(name, initialValue);
+      values.put(AndroidResourceUtil.getFieldNameByResourceName(name), initialValue);
     }
+    return values;
   }
 
   /**
@@ -188,17 +233,21 @@ public class ResourceClassGenerator {
     return Lists.transform(dv.getAllAttributes(), ResourceValue::asReference);
   }
 
-  private void generateStyleable(@NotNull ClassWriter cw, String className) {
+  /**
+   * Computes the styleable arrays and the fields for the indices into them. Only reading the styleable values needs read access, which
+   * is taken for each of them.
+   */
+  @NotNull
+  private Styleables computeStyleables(String className) {
     if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("generateStyleable(%s)", anonymizeClassName(className)));
+      LOG.debug(String.format("computeStyleables(%s)", anonymizeClassName(className)));
     }
     boolean debug = LOG.isDebugEnabled() && isPublicClass(className);
 
-    TObjectIntHashMap<String> indexFieldsCache = myCache.get(ResourceType.STYLEABLE);
+    TObjectIntHashMap<String> indexFields = new TObjectIntHashMap<>();
+    Map<String, TIntArrayList> arrays = new LinkedHashMap<>();
     Collection<String> styleableNames = myResources.getResources(myNamespace, ResourceType.STYLEABLE).keySet();
-    List<MergedStyleable> mergedStyleables = new ArrayList<>(styleableNames.size());
 
-    // Generate all declarations - both int[] and int for the indices into the array.
     for (String styleableName : styleableNames) {
       List<ResourceItem> items = myResources.getResources(myNamespace, ResourceType.STYLEABLE, styleableName);
       if (items.isEmpty()) {
@@ -208,7 +257,6 @@ public class ResourceClassGenerator {
         continue;
       }
       String fieldName = AndroidResourceUtil.getFieldNameByResourceName(styleableName);
-      cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_STATIC, fieldName, "[I", null, null);
       if (debug) {
         LOG.debug("  Defined styleable " + fieldName);
       }
@@ -219,35 +267,19 @@ public class ResourceClassGenerator {
         mergedAttributes.addAll(getStyleableAttributes(item));
       }
 
-      mergedStyleables.add(new MergedStyleable(styleableName, mergedAttributes));
-
+      TIntArrayList values = new TIntArrayList();
       int idx = 0;
       for (ResourceReference attr : mergedAttributes) {
         String styleableEntryName = getResourceName(fieldName, attr);
-        int fieldValue = idx++;
-        cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_STATIC, styleableEntryName, "I", null, fieldValue);
-        indexFieldsCache.put(styleableEntryName, fieldValue);
+        indexFields.put(styleableEntryName, idx++);
+        values.add(myIdProvider.getOrGenerateId(attr));
         if (debug) {
           LOG.debug("  Defined styleable " + styleableEntryName);
         }
       }
+      arrays.put(fieldName, values);
     }
-
-    // Generate class initializer block to initialize the arrays declared above.
-    MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
-    mv.visitCode();
-    for (MergedStyleable mergedStyleable : mergedStyleables) {
-      String fieldName = AndroidResourceUtil.getFieldNameByResourceName(mergedStyleable.name);
-      TIntArrayList values = new TIntArrayList();
-      for (ResourceReference attr : mergedStyleable.attrs) {
-        values.add(myIdProvider.getOrGenerateId(attr));
-      }
-      myStyleableCache.put(fieldName, values);
-      generateArrayInitialization(mv, className, fieldName, values);
-    }
-    mv.visitInsn(RETURN);
-    mv.visitMaxs(4, 0);
-    mv.visitEnd();
+    return new Styleables(indexFields, arrays);
   }
 
   private static void generateFields(@NotNull final ClassWriter cw, @NotNull TObjectIntHashMap<String> values) {
@@ -261,16 +293,16 @@ public class ResourceClassGenerator {
     cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_STATIC, name, "I", null, value).visitEnd();
   }
 
-  private void generateIntArraysFromCache(@NotNull ClassWriter cw, String className) {
+  private static void generateIntArrays(@NotNull ClassWriter cw, String className, @NotNull Map<String, TIntArrayList> arrays) {
     // Generate the field declarations.
-    for (String name : myStyleableCache.keySet()) {
+    for (String name : arrays.keySet()) {
       cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_STATIC, name, "[I", null, null);
     }
 
     // Generate class initializer block to initialize the arrays declared above.
     MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
     mv.visitCode();
-    myStyleableCache.forEach((arrayName, values) -> {
+    arrays.forEach((arrayName, values) -> {
       generateArrayInitialization(mv, className, arrayName, values);
     });
     mv.visitInsn(RETURN);
@@ -351,13 +383,35 @@ public class ResourceClassGenerator {
     }
   }
 
-  private static class MergedStyleable {
-    @NotNull final String name;
-    @NotNull final LinkedHashSet<ResourceReference> attrs;
+  /**
+   * The fields and classes generated from one version of the resource repository. The field values are computed when the first class
+   * that needs them is generated, and are not modified after that.
+   */
+  private static class Generation {
+    final long modificationCount;
+    /** Values of the int fields, by resource type and field name. The styleable fields are in {@link #styleables}. */
+    final ConcurrentMap<ResourceType, TObjectIntHashMap<String>> fields = new ConcurrentHashMap<>();
+    @Nullable volatile Styleables styleables;
+    /**
+     * Bytecode of the generated classes, by class name. In non-namespaced projects the same repository is used for the R classes of all
+     * the libraries, so the cache is bounded, and its values can be collected.
+     */
+    final Cache<String, byte[]> classes = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_CLASSES).softValues().build();
+
+    Generation(long modificationCount) {
+      this.modificationCount = modificationCount;
+    }
+  }
+
+  private static class Styleables {
+    /** Indices into the styleable arrays, by field name. */
+    @NotNull final TObjectIntHashMap<String> indexFields;
+    /** Attribute ids of the styleable arrays, by field name. */
+    @NotNull final Map<String, TIntArrayList> arrays;
 
-    private MergedStyleable(@NotNull String name, @NotNull LinkedHashSet<ResourceReference> attrs) {
-      this.name = name;
-      this.attrs = attrs;
+    private Styleables(@NotNull TObjectIntHashMap<String> indexFields, @NotNull Map<String, TIntArrayList> arrays) {
+      this.indexFields = indexFields;
+      this.arrays = arrays;
     }
   }
 }
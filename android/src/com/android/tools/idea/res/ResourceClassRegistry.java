@@ -19,18 +19,29 @@ import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.rendering.api.ResourceNamespace;
 import com.android.ide.common.resources.ResourceRepository;
 import com.intellij.openapi.components.ProjectComponent;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.Executor;
 
 /**
  * A project-wide registry for class lookup of resource classes (R classes).
+ * <p>
+ * The generated classes are cached by their {@link ResourceClassGenerator}, so they are shared by the render class loaders of all
+ * modules using the same repository. When a library is added, its R classes are generated in the background, so the first render after
+ * the resource repositories change does not have to wait for them.
  */
 public class ResourceClassRegistry implements ProjectComponent {
+  private static final Logger LOG = Logger.getInstance(ResourceClassRegistry.class);
+
   private final Map<ResourceRepository, ResourceClassGenerator> myGeneratorMap = new HashMap<>();
+  private final Executor myPregenerationExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("ResourceClassRegistry pre-generation", 1);
   private Set<String> myPackages;
 
   /**
@@ -51,13 +62,27 @@ public class ResourceClassRegistry implements ProjectComponent {
         myPackages = new HashSet<>();
       }
       myPackages.add(aarPackageName);
-      if (!myGeneratorMap.containsKey(repo)) {
-        ResourceClassGenerator generator = ResourceClassGenerator.create(idManager, repo, namespace);
+      ResourceClassGenerator generator = myGeneratorMap.get(repo);
+      if (generator == null) {
+        generator = ResourceClassGenerator.create(idManager, repo, namespace);
         myGeneratorMap.put(repo, generator);
       }
+      pregenerate(generator, aarPackageName);
     }
   }
 
+  private void pregenerate(@NotNull ResourceClassGenerator generator, @NotNull String packageName) {
+    myPregenerationExecutor.execute(() -> {
+      try {
+        generator.pregenerate(packageName);
+      }
+      catch (RuntimeException e) {
+        // The class is generated again, and the error reported, when it is loaded.
+        LOG.debug("Unable to generate R classes for " + packageName, e);
+      }
+    });
+  }
+
   /** Looks up a class definition for the given name, if possible */
   @Nullable
   public byte[] findClassDefinition(@NotNull String className, @NotNull ResourceRepositoryManager repositoryManager) {
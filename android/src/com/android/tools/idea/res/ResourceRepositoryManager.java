@@ -37,6 +37,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Disposer;
@@ -50,6 +51,8 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.jetbrains.android.dom.manifest.AndroidManifestUtils;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.sdk.AndroidPlatform;
@@ -561,9 +564,11 @@ public class ResourceRepositoryManager implements Disposable {
   @NotNull
   private Map<ExternalLibrary, AarSourceResourceRepository> computeLibraryResourceMap() {
     Collection<ExternalLibrary> libraries = AndroidProjectModelUtils.findDependenciesWithResources(myFacet.getModule()).values();
-    Map<ExternalLibrary, AarSourceResourceRepository> result = new LinkedHashMap<>(libraries.size());
+    AarResourceRepositoryCache aarCache = AarResourceRepositoryCache.getInstance();
+
+    // Start loading all the repositories first, so that they are loaded in parallel.
+    Map<ExternalLibrary, Future<? extends AarSourceResourceRepository>> futures = new LinkedHashMap<>(libraries.size());
     for (ExternalLibrary library: libraries) {
-      AarSourceResourceRepository aarRepository;
       if (myNamespacing == AaptOptions.Namespacing.DISABLED) {
         if (library.getResFolder() == null) {
           continue;
@@ -573,7 +578,7 @@ public class ResourceRepositoryManager implements Disposable {
           LOG.warn("Cannot find res folder for " + library.getAddress());
           continue;
         }
-        aarRepository = AarResourceRepositoryCache.getInstance().getSourceRepository(resFolder, library.getAddress());
+        futures.put(library, aarCache.getSourceRepositoryAsync(resFolder, library.getAddress()));
       } else {
         PathString resApkPath = library.getResApkFile();
         if (resApkPath == null) {
@@ -587,10 +592,33 @@ public class ResourceRepositoryManager implements Disposable {
           continue;
         }
 
-        aarRepository = AarResourceRepositoryCache.getInstance().getProtoRepository(resApkFile, library.getAddress());
+        futures.put(library, aarCache.getProtoRepositoryAsync(resApkFile, library.getAddress()));
       }
-      result.put(library, aarRepository);
     }
+
+    Map<ExternalLibrary, AarSourceResourceRepository> result = new LinkedHashMap<>(futures.size());
+    futures.forEach((library, future) -> result.put(library, getLoadedRepository(future)));
     return Collections.unmodifiableMap(result);
   }
+
+  @NotNull
+  private static AarSourceResourceRepository getLoadedRepository(@NotNull Future<? extends AarSourceResourceRepository> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
 }
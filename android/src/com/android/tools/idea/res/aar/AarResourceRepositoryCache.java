@@ -20,19 +20,28 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 /**
  * Cache of AAR resource repositories. This class is thread-safe.
+ * <p>
+ * A repository is loaded only once, even when it is requested by several modules at the same time. The asynchronous methods load the
+ * repositories on a bounded pool, so the libraries of a module are loaded in parallel.
  */
 public final class AarResourceRepositoryCache {
   private final Cache<File, AarProtoResourceRepository> myProtoRepositories = CacheBuilder.newBuilder().softValues().build();
   private final Cache<File, AarSourceResourceRepository> mySourceRepositories = CacheBuilder.newBuilder().softValues().build();
+  private final Executor myLoadingExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("AarResourceRepositoryCache",
+                                                         Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
 
   /**
    * Returns the cache.
@@ -71,6 +80,39 @@ public final class AarResourceRepositoryCache {
                          () -> AarProtoResourceRepository.createProtoRepository(resApkFile, libraryName));
   }
 
+  /**
+   * Returns a future for the cached or a newly created source resource repository. If the repository is not in the cache, it is loaded
+   * on a background thread.
+   *
+   * @see #getSourceRepository(File, String)
+   */
+  @NotNull
+  public CompletableFuture<AarSourceResourceRepository> getSourceRepositoryAsync(@NotNull File aarDirectory, @Nullable String libraryName) {
+    return getRepositoryAsync(aarDirectory, mySourceRepositories, () -> getSourceRepository(aarDirectory, libraryName));
+  }
+
+  /**
+   * Returns a future for the cached or a newly created proto resource repository. If the repository is not in the cache, it is loaded
+   * on a background thread.
+   *
+   * @see #getProtoRepository(File, String)
+   */
+  @NotNull
+  public CompletableFuture<AarProtoResourceRepository> getProtoRepositoryAsync(@NotNull File resApkFile, @Nullable String libraryName) {
+    return getRepositoryAsync(resApkFile, myProtoRepositories, () -> getProtoRepository(resApkFile, libraryName));
+  }
+
+  @NotNull
+  private <T extends AarSourceResourceRepository> CompletableFuture<T> getRepositoryAsync(@NotNull File file,
+                                                                                          @NotNull Cache<File, T> cache,
+                                                                                          @NotNull Supplier<T> getter) {
+    if (cache.getIfPresent(file) != null) {
+      // Repositories already loaded are returned right away. The getter still checks the library name.
+      return CompletableFuture.completedFuture(getter.get());
+    }
+    return CompletableFuture.supplyAsync(getter, myLoadingExecutor);
+  }
+
   @NotNull
   private static <T extends AarSourceResourceRepository> T getRepository(@NotNull File file,
                                                                          @Nullable String libraryName,
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.idea.flags.StudioFlags;
+import com.android.tools.idea.lint.LintIdeClient;
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.idea.lint.LintIdeRequest;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressWrapper;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.util.AndroidUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch lint analysis on a thread pool.
+ * <p>
+ * The work is partitioned by module and by the type of files the detectors look at (XML resources, Java and Kotlin sources, other
+ * resources, the manifest, and everything else, such as detectors looking at several types of files), and every partition is analyzed by
+ * its own {@link LintDriver}. Since each driver creates its own client and detectors, detector state is confined to the thread analyzing
+ * the partition, and the problems found are merged once all the partitions are done.
+ * <p>
+ * Modules are partitioned the same way {@link LintIdeRequest} groups them: a module included by another one as a library is analyzed as
+ * part of that module, not on its own.
+ * <p>
+ * The time taken by every partition is logged at debug level. Lint visits every file once for all of its detectors, so the time of a
+ * single detector can't be measured within a partition: when {@link StudioFlags#LINT_PROFILE_DETECTORS} is enabled, detectors are
+ * partitioned one by one instead of by file type, and the time of every detector is available from {@link #getDetectorTimes()}.
+ */
+class AndroidLintBatchRunner {
+  private static final Logger LOG = Logger.getInstance(AndroidLintBatchRunner.class);
+
+  private static final ExecutorService ourExecutor =
+    AppExecutorUtil.createBoundedApplicationPoolExecutor("AndroidLintBatchRunner", Runtime.getRuntime().availableProcessors());
+
+  /** Types of files detectors are partitioned by, depending on the scope of their issues. */
+  @VisibleForTesting
+  enum FileType {
+    XML(EnumSet.of(Scope.RESOURCE_FILE, Scope.ALL_RESOURCE_FILES)),
+    SOURCE(EnumSet.of(Scope.JAVA_FILE, Scope.ALL_JAVA_FILES, Scope.TEST_SOURCES)),
+    RESOURCE(EnumSet.of(Scope.BINARY_RESOURCE_FILE, Scope.RESOURCE_FOLDER)),
+    MANIFEST(EnumSet.of(Scope.MANIFEST)),
+    OTHER(Scope.ALL);
+
+    @NotNull private final EnumSet<Scope> myScope;
+
+    FileType(@NotNull EnumSet<Scope> scope) {
+      myScope = scope;
+    }
+
+    @NotNull
+    static FileType of(@NotNull EnumSet<Scope> scope) {
+      for (FileType type : values()) {
+        if (type.myScope.containsAll(scope)) {
+          return type;
+        }
+      }
+      return OTHER;
+    }
+  }
+
+  @NotNull private final Project myProject;
+  @NotNull private final AnalysisScope myScope;
+  @NotNull private final Set<Issue> myIssues;
+  @NotNull private final List<Module> myModules;
+  @NotNull private final EnumSet<Scope> myLintScope;
+  private final boolean myProfileDetectors = StudioFlags.LINT_PROFILE_DETECTORS.get();
+  @NotNull private final Map<String, Long> myDetectorTimes = new HashMap<>();
+
+  /**
+   * @param project   the project being analyzed.
+   * @param scope     the scope of the inspection; problems outside of it are not reported.
+   * @param issues    the issues to check.
+   * @param modules   the modules to analyze.
+   * @param lintScope the scope lint runs with; the scope of every partition is a subset of it.
+   */
+  AndroidLintBatchRunner(@NotNull Project project,
+                         @NotNull AnalysisScope scope,
+                         @NotNull Set<Issue> issues,
+                         @NotNull List<Module> modules,
+                         @NotNull EnumSet<Scope> lintScope) {
+    myProject = project;
+    myScope = scope;
+    myIssues = issues;
+    myModules = modules;
+    myLintScope = lintScope;
+  }
+
+  /**
+   * Analyzes all the partitions and adds the problems found to the given map. Waits for the analysis to finish, so it must not be called
+   * while holding a read lock: partitions would not be able to start read actions while a write action is pending.
+   *
+   * @return the drivers that analyzed the partitions, grouped by module. The drivers of a module may have visited the same files.
+   */
+  @NotNull
+  Collection<List<LintDriver>> analyze(@NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap) {
+    long startTime = System.currentTimeMillis();
+    List<Partition> partitions = createPartitions();
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+
+    List<Future<?>> futures = new ArrayList<>(partitions.size());
+    try {
+      for (Partition partition : partitions) {
+        futures.add(ourExecutor.submit(() -> analyze(partition, indicator)));
+      }
+      for (Future<?> future : futures) {
+        waitFor(future);
+      }
+    }
+    finally {
+      // Don't start the remaining partitions after a failure or a cancellation.
+      for (Future<?> future : futures) {
+        future.cancel(false);
+      }
+    }
+
+    Map<Module, List<LintDriver>> drivers = new LinkedHashMap<>();
+    for (Partition partition : partitions) {
+      merge(partition.myProblemMap, problemMap);
+      drivers.computeIfAbsent(partition.myModule, key -> new ArrayList<>()).add(partition.myDriver);
+      if (myProfileDetectors) {
+        myDetectorTimes.merge(partition.myName, partition.myTimeMs, Long::sum);
+      }
+    }
+
+    if (LOG.isDebugEnabled()) {
+      logTimes(partitions, System.currentTimeMillis() - startTime);
+    }
+    return drivers.values();
+  }
+
+  /**
+   * Returns the time taken by every detector, summed over all the modules, by detector name. Only measured when
+   * {@link StudioFlags#LINT_PROFILE_DETECTORS} is enabled, otherwise empty.
+   */
+  @NotNull
+  Map<String, Long> getDetectorTimes() {
+    return myDetectorTimes;
+  }
+
+  @NotNull
+  private List<Partition> createPartitions() {
+    // Issues are grouped by detector, since all the issues of a detector are reported by the same detector instance.
+    Map<Class<? extends Detector>, Set<Issue>> issuesByDetector = new LinkedHashMap<>();
+    Map<Class<? extends Detector>, EnumSet<Scope>> scopeByDetector = new HashMap<>();
+    for (Issue issue : myIssues) {
+      Class<? extends Detector> detectorClass = issue.getImplementation().getDetectorClass();
+      issuesByDetector.computeIfAbsent(detectorClass, key -> new HashSet<>()).add(issue);
+      scopeByDetector.computeIfAbsent(detectorClass, key -> EnumSet.noneOf(Scope.class)).addAll(issue.getImplementation().getScope());
+    }
+
+    Map<String, Set<Issue>> issuesByGroup = new LinkedHashMap<>();
+    Map<String, EnumSet<Scope>> scopeByGroup = new HashMap<>();
+    issuesByDetector.forEach((detectorClass, issues) -> {
+      FileType fileType = FileType.of(scopeByDetector.get(detectorClass));
+      String group = myProfileDetectors ? detectorClass.getSimpleName() : fileType.name();
+      issuesByGroup.computeIfAbsent(group, key -> new HashSet<>()).addAll(issues);
+      scopeByGroup.putIfAbsent(group, fileType.myScope);
+    });
+
+    List<Partition> partitions = new ArrayList<>();
+    for (Module module : getRootModules()) {
+      issuesByGroup.forEach((group, issues) -> {
+        EnumSet<Scope> scope = EnumSet.copyOf(scopeByGroup.get(group));
+        scope.retainAll(myLintScope);
+        if (!scope.isEmpty()) {
+          partitions.add(new Partition(module, group, issues, scope));
+        }
+      });
+    }
+    return partitions;
+  }
+
+  /**
+   * Returns the modules to analyze that are not included by another module to analyze as a library.
+   */
+  @NotNull
+  private List<Module> getRootModules() {
+    return ReadAction.compute(() -> {
+      Set<Module> roots = new LinkedHashSet<>(myModules);
+      for (Module module : myModules) {
+        for (AndroidFacet dependency : AndroidUtils.getAllAndroidDependencies(module, true)) {
+          roots.remove(dependency.getModule());
+        }
+      }
+      return new ArrayList<>(roots);
+    });
+  }
+
+  private void analyze(@NotNull Partition partition, @Nullable ProgressIndicator indicator) {
+    Runnable task = () -> {
+      long startTime = System.currentTimeMillis();
+      LintIdeClient client = LintIdeClient.forBatch(myProject, partition.myProblemMap, myScope, partition.myIssues);
+      LintIdeRequest request = new LintIdeRequest(client, myProject, null, Collections.singletonList(partition.myModule), false);
+      request.setScope(partition.myScope);
+      partition.myDriver = new LintDriver(new LintIdeIssueRegistry(), client, request);
+      partition.myDriver.setAnalysisStartTime(startTime);
+      partition.myDriver.analyze();
+      partition.myTimeMs = System.currentTimeMillis() - startTime;
+    };
+
+    if (indicator != null) {
+      ProgressManager.getInstance().runProcess(task, ProgressWrapper.wrap(indicator));
+    }
+    else {
+      task.run();
+    }
+  }
+
+  private static void waitFor(@NotNull Future<?> future) {
+    try {
+      future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Adds the problems of a partition to the given map. A library module included by several modules is analyzed in each of their
+   * partitions, so problems already found by another partition are skipped.
+   */
+  @VisibleForTesting
+  static void merge(@NotNull Map<Issue, Map<File, List<ProblemData>>> from, @NotNull Map<Issue, Map<File, List<ProblemData>>> to) {
+    from.forEach((issue, problemsByFile) -> {
+      Map<File, List<ProblemData>> toProblemsByFile = to.computeIfAbsent(issue, key -> new HashMap<>());
+      problemsByFile.forEach((file, problems) -> {
+        List<ProblemData> toProblems = toProblemsByFile.computeIfAbsent(file, key -> new ArrayList<>());
+        int previousCount = toProblems.size();
+        for (ProblemData problem : problems) {
+          if (!containsProblem(toProblems.subList(0, previousCount), problem)) {
+            toProblems.add(problem);
+          }
+        }
+      });
+    });
+  }
+
+  private static boolean containsProblem(@NotNull List<ProblemData> problems, @NotNull ProblemData problem) {
+    for (ProblemData other : problems) {
+      if (other.getTextRange().equals(problem.getTextRange()) && other.getMessage().equals(problem.getMessage())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void logTimes(@NotNull List<Partition> partitions, long totalTimeMs) {
+    StringBuilder message = new StringBuilder();
+    message.append("Android Lint analyzed ").append(partitions.size()).append(" partitions in ").append(totalTimeMs).append(" ms");
+    List<Partition> sortedPartitions = new ArrayList<>(partitions);
+    sortedPartitions.sort(Comparator.comparingLong((Partition partition) -> partition.myTimeMs).reversed());
+    for (Partition partition : sortedPartitions) {
+      message.append("\n  ").append(partition.myTimeMs).append(" ms: ").append(partition.myModule.getName()).append(", ")
+        .append(partition.myName);
+    }
+    LOG.debug(message.toString());
+  }
+
+  /**
+   * A module and the issues of a group of detectors. Fields are only written by the thread analyzing the partition.
+   */
+  private static class Partition {
+    @NotNull private final Module myModule;
+    @NotNull private final String myName;
+    @NotNull private final Set<Issue> myIssues;
+    @NotNull private final EnumSet<Scope> myScope;
+    @NotNull private final Map<Issue, Map<File, List<ProblemData>>> myProblemMap = new HashMap<>();
+    private LintDriver myDriver;
+    private long myTimeMs;
+
+    private Partition(@NotNull Module module, @NotNull String name, @NotNull Set<Issue> issues, @NotNull EnumSet<Scope> scope) {
+      myModule = module;
+      myName = name;
+      myIssues = issues;
+      myScope = scope;
+    }
+  }
+}
@@ -279,7 +279,22 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
       }
     }
 
-    lint.analyze();
+    LintDriver sessionDriver = lint;
+    Collection<List<LintDriver>> driversByModule = Collections.singletonList(Collections.singletonList(lint));
+    Map<String, Long> detectorTimes = Collections.emptyMap();
+    if (myBaseline == null && files == null && lintScope != null) {
+      // Baselines are shared by all the drivers, and are not thread safe, so only analyses without a baseline run in parallel.
+      AndroidLintBatchRunner runner = new AndroidLintBatchRunner(project, scope, issues, modules, lintScope);
+      driversByModule = runner.analyze(problemMap);
+      detectorTimes = runner.getDetectorTimes();
+      if (!driversByModule.isEmpty()) {
+        // The partition drivers share the configuration of the session; their file counts are combined by the analytics.
+        sessionDriver = driversByModule.iterator().next().get(0);
+      }
+    }
+    else {
+      lint.analyze();
+    }
 
     List<Tools> tools = AndroidLintInspectionBase.getDynamicTools();
     AndroidLintInspectionBase.resetDynamicTools();
@@ -303,9 +318,9 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
 
     AndroidLintLintBaselineInspection.clearNextRunState();
 
-    lint.setAnalysisStartTime(startTime);
+    sessionDriver.setAnalysisStartTime(startTime);
     LintIdeAnalytics analytics = new LintIdeAnalytics(project);
-    analytics.logSession(AnalysisType.IDE_BATCH, lint, severityModule, null, problemMap);
+    analytics.logSession(AnalysisType.IDE_BATCH, sessionDriver, driversByModule, severityModule, problemMap, detectorTimes);
 
     myResults = problemMap;
   }
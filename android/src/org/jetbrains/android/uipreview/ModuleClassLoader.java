@@ -1,51 +1,25 @@
 package org.jetbrains.android.uipreview;
 
-import com.android.builder.model.AaptOptions;
-import com.android.ide.common.rendering.api.ResourceNamespace;
-import com.android.ide.common.resources.ResourceRepository;
-import com.android.ide.common.resources.SingleNamespaceResourceRepository;
-import com.android.ide.common.util.PathString;
-import com.android.projectmodel.ExternalLibrary;
-import com.android.projectmodel.Library;
 import com.android.sdklib.IAndroidTarget;
-import com.android.tools.idea.editors.theme.ThemeEditorUtils;
-import com.android.tools.idea.flags.StudioFlags;
 import com.android.tools.idea.layoutlib.LayoutLibrary;
-import com.android.tools.idea.model.AndroidModel;
-import com.android.tools.idea.projectsystem.AndroidModuleSystem;
 import com.android.tools.idea.projectsystem.ProjectSystemUtil;
 import com.android.tools.idea.rendering.RenderClassLoader;
 import com.android.tools.idea.rendering.RenderSecurityManager;
-import com.android.tools.idea.res.LocalResourceRepository;
-import com.android.tools.idea.res.ResourceClassRegistry;
-import com.android.tools.idea.res.ResourceIdManager;
-import com.android.tools.idea.res.ResourceRepositoryManager;
-import com.android.tools.idea.util.DependencyManagementUtil;
-import com.android.utils.SdkUtils;
-import com.google.common.io.Files;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
-import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.containers.ContainerUtil;
-import org.jetbrains.android.dom.manifest.AndroidManifestUtils;
 import org.jetbrains.android.facet.AndroidFacet;
-import org.jetbrains.android.facet.AndroidRootUtil;
 import org.jetbrains.android.sdk.AndroidPlatform;
 import org.jetbrains.android.sdk.AndroidTargetData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
 
-import static com.android.SdkConstants.*;
 import static com.android.tools.idea.LogAnonymizerUtil.anonymize;
 import static com.android.tools.idea.LogAnonymizerUtil.anonymizeClassName;
 
@@ -53,6 +27,9 @@ import static com.android.tools.idea.LogAnonymizerUtil.anonymizeClassName;
  * Render class loader responsible for loading classes in custom views and local and library classes
  * used by those custom views (other than the framework itself, which is loaded by a parent class
  * loader via layout library.)
+ * <p>
+ * This is the project layer, which loads the classes compiled from the project. Its parent is a {@link ModuleLibraryClassLoader},
+ * which loads the library classes and is kept when the project classes are rebuilt.
  */
 public final class ModuleClassLoader extends RenderClassLoader {
   private static final Logger LOG = Logger.getInstance(ModuleClassLoader.class);
@@ -61,8 +38,8 @@ public final class ModuleClassLoader extends RenderClassLoader {
    * of this class as well to find classes */
   private final WeakReference<Module> myModuleReference;
 
-  /** The layout library to use as a root class loader (e.g. the place to obtain the layoutlib Android SDK view classes from */
-  private final LayoutLibrary myLayoutLibrary;
+  /** The library layer, parent of this class loader */
+  private final ModuleLibraryClassLoader myLibraryClassLoader;
 
   /** Map from fully qualified class name to the corresponding .class file for each class loaded by this class loader */
   private Map<String, VirtualFile> myClassFiles;
@@ -79,70 +56,73 @@ public final class ModuleClassLoader extends RenderClassLoader {
     }
   }
 
-  private ModuleClassLoader(@NotNull LayoutLibrary layoutLibrary, @NotNull Module module) {
-    super(layoutLibrary.getClassLoader(), layoutLibrary.getApiLevel());
-    myLayoutLibrary = layoutLibrary;
+  private ModuleClassLoader(@NotNull ModuleLibraryClassLoader libraryClassLoader, @NotNull Module module) {
+    super(libraryClassLoader, libraryClassLoader.getLayoutLibrary().getApiLevel());
+    myLibraryClassLoader = libraryClassLoader;
     myModuleReference = new WeakReference<>(module);
 
-    registerResources(module);
+    libraryClassLoader.setProjectClassLoader(this);
   }
 
   @Override
   @NotNull
-  protected Class<?> findClass(String name) throws ClassNotFoundException {
+  protected Class<?> loadClass(@NotNull String name, boolean resolve) throws ClassNotFoundException {
+    // Both layers use the lock of the library layer, which calls into this layer for the project classes referenced by library classes.
+    synchronized (myLibraryClassLoader) {
+      Class<?> aClass = findLoadedClass(name);
+      if (aClass == null) {
+        aClass = findModuleClass(name);
+      }
+      if (resolve) {
+        resolveClass(aClass);
+      }
+      return aClass;
+    }
+  }
+
+  /**
+   * Looks up a class in the same order as a single class loader for the module would: the layout library classes first, then the R
+   * classes generated for the libraries, the project classes and finally the library classes.
+   */
+  @NotNull
+  private Class<?> findModuleClass(@NotNull String name) throws ClassNotFoundException {
     if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("findClass(%s)", name));
+      LOG.debug(String.format("findModuleClass(%s)", anonymizeClassName(name)));
     }
 
-    Module module = myModuleReference.get();
-    try {
-      if (!myInsideJarClassLoader) {
-        if (module != null) {
-          if (isResourceClassName(name)) {
-            AndroidFacet facet = AndroidFacet.getInstance(module);
-            if (facet != null) {
-              ResourceRepositoryManager repositoryManager = ResourceRepositoryManager.getOrCreateInstance(facet);
-              byte[] data = ResourceClassRegistry.get(module.getProject()).findClassDefinition(name, repositoryManager);
-              if (data != null) {
-                data = convertClass(data);
-                if (LOG.isDebugEnabled()) {
-                  LOG.debug("  Defining class from AAR registry");
-                }
-                return defineClassAndPackage(name, data, 0, data.length);
-              }
-            }
-            else if (LOG.isDebugEnabled()) {
-              LOG.debug("  LocalResourceRepositoryInstance not found");
-            }
-          }
-        }
+    boolean isSolverClass = ModuleLibraryClassLoader.isSolverClassName(name);
+    Class<?> aClass = isSolverClass ? null : myLibraryClassLoader.findParentClass(name);
+    if (aClass == null) {
+      aClass = myLibraryClassLoader.findResourceClass(name);
+    }
+    if (aClass == null) {
+      Module module = myModuleReference.get();
+      if (module != null) {
+        aClass = loadClassFromModuleOrDependency(module, name);
       }
+    }
+    if (aClass == null) {
+      aClass = myLibraryClassLoader.findLibraryClass(name);
+    }
+    if (aClass == null && isSolverClass) {
+      aClass = myLibraryClassLoader.findParentClass(name);
+    }
 
+    if (aClass == null) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug(String.format("  super.findClass(%s)", anonymizeClassName(name)));
-      }
-      return super.findClass(name);
-    } catch (ClassNotFoundException e) {
-      byte[] clazz = null;
-      if (RecyclerViewHelper.CN_CUSTOM_ADAPTER.equals(name)) {
-        clazz = RecyclerViewHelper.getAdapterClass(DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_V7),
-                                                   DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_VIEW_HOLDER),
-                                                   DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_ADAPTER));
+        LOG.debug(String.format("  ClassNotFoundException(%s)", anonymizeClassName(name)));
       }
-      if (RecyclerViewHelper.CN_CUSTOM_VIEW_HOLDER.equals(name)) {
-        clazz = RecyclerViewHelper.getViewHolder(DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_V7),
-                                                 DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_VIEW_HOLDER),
-                                                 DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_ADAPTER));
-      }
-      if (clazz != null) {
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("  Defining RecyclerView helper class");
-        }
-        return defineClassAndPackage(name, clazz, 0, clazz.length);
-      }
-      LOG.debug(e);
-      throw e;
+      throw new ClassNotFoundException(name);
     }
+    return aClass;
+  }
+
+  /**
+   * Returns true if the project has a class file for the given class.
+   */
+  boolean hasProjectClass(@NotNull String name) {
+    Module module = myModuleReference.get();
+    return module != null && !module.isDisposed() && ProjectSystemUtil.getModuleSystem(module).findClassFile(name) != null;
   }
 
   @Nullable
@@ -160,70 +140,6 @@ public final class ModuleClassLoader extends RenderClassLoader {
     return get(library, module);
   }
 
-  @Override
-  @NotNull
-  protected Class<?> load(@NotNull String name) throws ClassNotFoundException {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("load(%s)", anonymizeClassName(name)));
-    }
-
-    Module module = myModuleReference.get();
-    if (module == null) {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(String.format("  ClassNotFoundException(%s)", name));
-      }
-      throw new ClassNotFoundException(name);
-    }
-    Class<?> aClass = loadClassFromModuleOrDependency(module, name);
-
-    if (aClass == null) {
-      aClass = loadClassFromJar(name);
-    }
-
-    if (aClass != null) {
-      return aClass;
-    }
-
-    if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("  ClassNotFoundException(%s)", anonymizeClassName(name)));
-    }
-    throw new ClassNotFoundException(name);
-  }
-
-  @Override
-  @NotNull
-  public Class<?> loadClass(@NotNull String name) throws ClassNotFoundException {
-    // We overload loadClass() to load a class defined in a project
-    // rather than a version of it that may already be present in Studio.
-    // This is an issue if Studio shares a library or classes with some android code
-    // we are trying to preview; the class loaded would be the one already used by
-    // Studio rather than the one packaged with the library.
-    // If they end up being different (say the lib is more recent than the Studio version),
-    // it will likely result in broken preview as functions would be different / not present.
-    // The only known case of this at this point is ConstraintLayout (a solver library
-    // is used both by the android implementation and by Android Studio).
-
-    // FIXME: While testing this approach, we found an issue on some Windows machine where
-    // class loading would be broken. Thus, we limit the fix to the impacted solver classes
-    // for now, until we can investigate the problem more in depth on Windows.
-    boolean loadFromProject = name.startsWith("android.support.constraint.solver");
-    if (loadFromProject) {
-      try {
-        // Give priority to loading class from this Class Loader.
-        // This avoids leaking classes from the plugin into the project.
-        Class<?> loadedClass = findLoadedClass(name);
-        if (loadedClass != null) {
-          return loadedClass;
-        }
-        return load(name);
-      }
-      catch (Exception ignore) {
-        // Catch-all, defer to the parent implementation
-      }
-    }
-    return super.loadClass(name);
-  }
-
   @Nullable
   private Class<?> loadClassFromModuleOrDependency(@NotNull Module module, @NotNull String name) {
     if (module.isDisposed()) {
@@ -284,7 +200,7 @@ public final class ModuleClassLoader extends RenderClassLoader {
   // matches foo.bar.R or foo.bar.R$baz
   private static final Pattern RESOURCE_CLASS_NAME = Pattern.compile(".+\\.R(\\$[^.]+)?$");
 
-  private static boolean isResourceClassName(@NotNull String className) {
+  static boolean isResourceClassName(@NotNull String className) {
     return RESOURCE_CLASS_NAME.matcher(className).matches();
   }
 
@@ -301,120 +217,13 @@ public final class ModuleClassLoader extends RenderClassLoader {
     return super.loadClassFile(name, classFile);
   }
 
-  private static void registerResources(@NotNull Module module) {
-    AndroidModuleSystem moduleSystem = ProjectSystemUtil.getModuleSystem(module);
-    for (Library library : moduleSystem.getResolvedDependentLibraries()) {
-      if (library instanceof ExternalLibrary && ((ExternalLibrary)library).hasResources()) {
-        registerLibraryResources(module, (ExternalLibrary)library);
-      }
-    }
-  }
-
-  private static void registerLibraryResources(@NotNull Module module, @NotNull ExternalLibrary library) {
-    AndroidFacet facet = AndroidFacet.getInstance(module);
-    if (facet == null) {
-      return;
-    }
-
-    ResourceRepositoryManager repositoryManager = ResourceRepositoryManager.getOrCreateInstance(facet);
-    LocalResourceRepository appResources = repositoryManager.getAppResources(true);
-
-    ResourceClassRegistry registry = ResourceClassRegistry.get(module.getProject());
-
-    // Choose which resources should be in the generated R class. This is described in the JavaDoc of ResourceClassGenerator.
-    ResourceRepository rClassContents;
-    ResourceNamespace resourcesNamespace;
-    String packageName;
-    if (repositoryManager.getNamespacing() == AaptOptions.Namespacing.DISABLED) {
-      packageName = getPackageName(library);
-      if (packageName == null) {
-        return;
-      }
-      rClassContents = appResources;
-      resourcesNamespace = ResourceNamespace.RES_AUTO;
-    }
-    else {
-      ResourceRepository aarResources = repositoryManager.findLibraryResources(library);
-      if (!(aarResources instanceof SingleNamespaceResourceRepository)) {
-        return;
-      }
-
-      rClassContents = aarResources;
-      SingleNamespaceResourceRepository resources = (SingleNamespaceResourceRepository)aarResources;
-      resourcesNamespace = resources.getNamespace();
-      packageName = resources.getPackageName();
-    }
-
-    registry.addLibrary(rClassContents, ResourceIdManager.get(module), packageName, resourcesNamespace);
-  }
-
-  @Nullable
-  private static String getPackageName(@NotNull ExternalLibrary library) {
-    if (library.getPackageName() != null) {
-      return library.getPackageName();
-    }
-    PathString manifestFile = library.getManifestFile();
-    if (manifestFile != null) {
-      try {
-        return AndroidManifestUtils.getPackageNameFromManifestFile(manifestFile);
-      }
-      catch (IOException ignore) {
-        // Ignore to return null.
-      }
-    }
-    return null;
-  }
-
   /**
-   * Returns the list of external JAR files referenced by the class loader.
+   * The library jars are loaded by the library layer.
    */
   @Override
   @NotNull
   protected List<URL> getExternalJars() {
-    Module module = myModuleReference.get();
-    if (module == null) {
-      return Collections.emptyList();
-    }
-
-    List<URL> result = new ArrayList<>();
-
-    if (StudioFlags.THEME_EDITOR_ENABLED.get()) {
-      URL customWidgetsUrl = ThemeEditorUtils.getCustomWidgetsJarUrl();
-      if (customWidgetsUrl != null) {
-        result.add(customWidgetsUrl);
-      }
-    }
-
-    getExternalLibraryJars(module)
-        .filter(file -> EXT_JAR.equals(Files.getFileExtension(file.getName())) && file.exists())
-        .forEach(jarFile -> addFileUrl(jarFile, result));
-
-    return result;
-  }
-
-  /**
-   * Returns a stream of JAR files of the referenced libraries for the {@link Module} of this class loader.
-   */
-  @NotNull
-  private static Stream<File> getExternalLibraryJars(@NotNull Module module) {
-    AndroidFacet facet = AndroidFacet.getInstance(module);
-    if (facet != null && facet.requiresAndroidModel()) {
-      AndroidModel model = facet.getConfiguration().getModel();
-      if (model != null) {
-        return model.getClassJarProvider().getModuleExternalLibraries(module).stream();
-      }
-    }
-
-    return AndroidRootUtil.getExternalLibraries(module).stream().map(VfsUtilCore::virtualToIoFile);
-  }
-
-  private static void addFileUrl(@NotNull File file, @NotNull List<URL> result) {
-    try {
-      result.add(SdkUtils.fileToUrl(file));
-    }
-    catch (MalformedURLException e) {
-      LOG.error(e);
-    }
+    return Collections.emptyList();
   }
 
   /** Returns the path to a class file loaded for the given class, if any */
@@ -469,43 +278,50 @@ public final class ModuleClassLoader extends RenderClassLoader {
     synchronized (ourCache) {
       loader = ourCache.get(module);
     }
+    ModuleLibraryClassLoader libraryClassLoader = null;
     if (loader != null) {
-      if (library != loader.myLayoutLibrary) {
+      libraryClassLoader = loader.myLibraryClassLoader;
+      if (library != libraryClassLoader.getLayoutLibrary()) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("  Discarding loader because the layout library has changed");
         }
         loader = null;
-      } else if (!loader.isUpToDate()) {
+        libraryClassLoader = null;
+      } else if (!libraryClassLoader.isUpToDate(module)) {
         if (LOG.isDebugEnabled()) {
-          LOG.debug("  Discarding loader because some files have changed");
+          LOG.debug("  Discarding loader because the library dependencies have changed");
         }
         loader = null;
-      } else {
-        List<URL> updatedJarDependencies = loader.getExternalJars();
-        if (loader.myJarClassLoader != null && !updatedJarDependencies.equals(loader.myJarClassLoader.getUrls())) {
+        libraryClassLoader = null;
+      } else if (!loader.isUpToDate()) {
+        if (libraryClassLoader.dependsOnProjectClasses()) {
           if (LOG.isDebugEnabled()) {
-            LOG.debug("  Recreating jar class loader because dependencies have changed.");
+            LOG.debug("  Discarding loader because some files have changed and library classes use them");
           }
-          loader.myJarClassLoader = loader.createClassLoader(updatedJarDependencies);
+          libraryClassLoader = null;
+        } else if (LOG.isDebugEnabled()) {
+          LOG.debug("  Discarding project classes because some files have changed");
         }
+        loader = null;
       }
 
-      // To be correct we should also check that the dependencies have not changed. It's not
-      // a problem when you add a new dependency with classes that haven't yet been resolved,
-      // but if for some reason a class is defined in multiple dependencies, and we've already
-      // resolved that class, changing the order could change the particular class that should
-      // be loaded, and we would need to recreate the loader - but this won't detect that.
-      // To solve this correctly we'd need to store a key in the cache recording the project
-      // dependencies when the loader was created, and compare it to the current one. However,
-      // that's a pretty unusual scenario so we won't worry about it until the loader situation
-      // is solved more generally (e.g. separating out .jar loading from .class loading etc).
+      // To be correct we should also check that the order of the dependencies has not changed. If a class is defined in
+      // multiple dependencies, and we've already resolved that class, changing the order could change the particular class
+      // that should be loaded, and we would need to recreate the loader - but this won't detect that. That's a pretty unusual
+      // scenario so we won't worry about it.
     }
 
     if (loader == null) {
+      if (libraryClassLoader == null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("  New library class loader");
+        }
+        libraryClassLoader = new ModuleLibraryClassLoader(library, module);
+      }
       if (LOG.isDebugEnabled()) {
         LOG.debug("  New class loader");
       }
-      loader = new ModuleClassLoader(library, module);
+      loader = new ModuleClassLoader(libraryClassLoader, module);
       synchronized (ourCache) {
         ourCache.put(module, loader);
       }
@@ -531,7 +347,7 @@ public final class ModuleClassLoader extends RenderClassLoader {
   }
 
   public boolean isClassLoaded(@NotNull String className) {
-    return findLoadedClass(className) != null;
+    return findLoadedClass(className) != null || myLibraryClassLoader.isClassLoaded(className);
   }
 
   // TODO: move this into a proper persistent render service.
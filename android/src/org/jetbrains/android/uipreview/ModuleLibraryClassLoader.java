@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.uipreview;
+
+import com.android.builder.model.AaptOptions;
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.ide.common.resources.ResourceRepository;
+import com.android.ide.common.resources.SingleNamespaceResourceRepository;
+import com.android.ide.common.util.PathString;
+import com.android.projectmodel.ExternalLibrary;
+import com.android.projectmodel.Library;
+import com.android.tools.idea.editors.theme.ThemeEditorUtils;
+import com.android.tools.idea.flags.StudioFlags;
+import com.android.tools.idea.layoutlib.LayoutLibrary;
+import com.android.tools.idea.model.AndroidModel;
+import com.android.tools.idea.projectsystem.AndroidModuleSystem;
+import com.android.tools.idea.projectsystem.ProjectSystemUtil;
+import com.android.tools.idea.rendering.RenderClassLoader;
+import com.android.tools.idea.res.LocalResourceRepository;
+import com.android.tools.idea.res.ResourceClassRegistry;
+import com.android.tools.idea.res.ResourceIdManager;
+import com.android.tools.idea.res.ResourceRepositoryManager;
+import com.android.tools.idea.util.DependencyManagementUtil;
+import com.android.utils.SdkUtils;
+import com.google.common.io.Files;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import org.jetbrains.android.dom.manifest.AndroidManifestUtils;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.facet.AndroidRootUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.android.SdkConstants.*;
+import static com.android.tools.idea.LogAnonymizerUtil.anonymizeClassName;
+
+/**
+ * The library layer of a {@link ModuleClassLoader}: loads the classes of the external libraries of a module, and the R classes generated
+ * for them by {@link ResourceClassRegistry}. The layer is kept when the project classes are rebuilt, so the library classes do not need
+ * to be loaded and initialized again.
+ * <p>
+ * Library classes can still reference classes compiled from the project (e.g. the data binding library instantiating the generated
+ * DataBinderMapperImpl), and a project class takes priority over a library class with the same name. These references are resolved
+ * through the current project layer, after which this layer {@link #dependsOnProjectClasses() depends on the project classes} and is
+ * recreated together with the project layer.
+ * <p>
+ * The layer is not shared between modules, even with the same dependencies, because library classes reference the R classes, whose
+ * contents depend on the resources of the module.
+ */
+final class ModuleLibraryClassLoader extends RenderClassLoader {
+  private static final Logger LOG = Logger.getInstance(ModuleLibraryClassLoader.class);
+
+  private final WeakReference<Module> myModuleReference;
+
+  /** The layout library to use as a root class loader (e.g. the place to obtain the layoutlib Android SDK view classes from */
+  private final LayoutLibrary myLayoutLibrary;
+
+  /** The jars this layer loads classes from */
+  private final List<URL> myExternalJars;
+
+  /** The project layer used to resolve the project classes referenced by library classes */
+  @Nullable private ModuleClassLoader myProjectClassLoader;
+
+  /** Whether a library class has been linked to a class of the project layer */
+  private boolean myDependsOnProjectClasses;
+
+  ModuleLibraryClassLoader(@NotNull LayoutLibrary layoutLibrary, @NotNull Module module) {
+    super(layoutLibrary.getClassLoader(), layoutLibrary.getApiLevel());
+    myLayoutLibrary = layoutLibrary;
+    myModuleReference = new WeakReference<>(module);
+    myExternalJars = computeExternalJars(module);
+
+    registerResources(module);
+  }
+
+  @NotNull
+  LayoutLibrary getLayoutLibrary() {
+    return myLayoutLibrary;
+  }
+
+  /**
+   * Checks whether the external libraries of the module are still the ones this layer was created for.
+   */
+  boolean isUpToDate(@NotNull Module module) {
+    return myExternalJars.equals(computeExternalJars(module));
+  }
+
+  synchronized void setProjectClassLoader(@NotNull ModuleClassLoader projectClassLoader) {
+    myProjectClassLoader = projectClassLoader;
+  }
+
+  /**
+   * Returns true if classes of this layer have been linked to classes of the current project layer, so this layer can't be used with
+   * a new project layer.
+   */
+  synchronized boolean dependsOnProjectClasses() {
+    return myDependsOnProjectClasses;
+  }
+
+  synchronized boolean isClassLoaded(@NotNull String className) {
+    return findLoadedClass(className) != null;
+  }
+
+  /**
+   * Loads a class from the parent of this layer, the layout library, or from the bootstrap class loader if there is none.
+   */
+  @Nullable
+  Class<?> findParentClass(@NotNull String name) {
+    try {
+      ClassLoader parent = getParent();
+      return parent != null ? parent.loadClass(name) : Class.forName(name, false, null);
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the R class with the given name generated by {@link ResourceClassRegistry} for a library, if any.
+   */
+  @Nullable
+  synchronized Class<?> findResourceClass(@NotNull String name) {
+    if (myInsideJarClassLoader || !ModuleClassLoader.isResourceClassName(name)) {
+      return null;
+    }
+    Class<?> loadedClass = findLoadedClass(name);
+    if (loadedClass != null) {
+      return loadedClass;
+    }
+
+    Module module = myModuleReference.get();
+    if (module == null) {
+      return null;
+    }
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    if (facet == null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("  LocalResourceRepositoryInstance not found");
+      }
+      return null;
+    }
+    ResourceRepositoryManager repositoryManager = ResourceRepositoryManager.getOrCreateInstance(facet);
+    byte[] data = ResourceClassRegistry.get(module.getProject()).findClassDefinition(name, repositoryManager);
+    if (data == null) {
+      return null;
+    }
+    data = convertClass(data);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("  Defining class from AAR registry");
+    }
+    return defineClassAndPackage(name, data, 0, data.length);
+  }
+
+  /**
+   * Returns the class with the given name from the library jars, or the RecyclerView helper classes, without looking at the project
+   * classes.
+   */
+  @Nullable
+  synchronized Class<?> findLibraryClass(@NotNull String name) {
+    Class<?> loadedClass = findLoadedClass(name);
+    if (loadedClass != null) {
+      return loadedClass;
+    }
+    loadedClass = loadClassFromJar(name);
+    if (loadedClass != null) {
+      return loadedClass;
+    }
+
+    Module module = myModuleReference.get();
+    byte[] clazz = null;
+    if (RecyclerViewHelper.CN_CUSTOM_ADAPTER.equals(name)) {
+      clazz = RecyclerViewHelper.getAdapterClass(DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_V7),
+                                                 DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_VIEW_HOLDER),
+                                                 DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_ADAPTER));
+    }
+    if (RecyclerViewHelper.CN_CUSTOM_VIEW_HOLDER.equals(name)) {
+      clazz = RecyclerViewHelper.getViewHolder(DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_V7),
+                                               DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_VIEW_HOLDER),
+                                               DependencyManagementUtil.mapAndroidxName(module, CLASS_RECYCLER_VIEW_ADAPTER));
+    }
+    if (clazz != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("  Defining RecyclerView helper class");
+      }
+      return defineClassAndPackage(name, clazz, 0, clazz.length);
+    }
+    return null;
+  }
+
+  @Override
+  @NotNull
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("findClass(%s)", anonymizeClassName(name)));
+    }
+
+    Class<?> aClass = findResourceClass(name);
+    if (aClass != null) {
+      return aClass;
+    }
+
+    // Project classes take priority over the library classes, also when referenced from a library class.
+    ModuleClassLoader projectClassLoader = myProjectClassLoader;
+    if (projectClassLoader != null && projectClassLoader.hasProjectClass(name)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("  Resolving project class %s from a library class", anonymizeClassName(name)));
+      }
+      myDependsOnProjectClasses = true;
+      return projectClassLoader.loadClass(name);
+    }
+
+    aClass = findLibraryClass(name);
+    if (aClass != null) {
+      return aClass;
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(String.format("  ClassNotFoundException(%s)", anonymizeClassName(name)));
+    }
+    throw new ClassNotFoundException(name);
+  }
+
+  @Override
+  @NotNull
+  public Class<?> loadClass(@NotNull String name) throws ClassNotFoundException {
+    if (isSolverClassName(name)) {
+      // Give priority to loading class from this Class Loader.
+      // This avoids leaking classes from the plugin into the project.
+      try {
+        Class<?> aClass = findLibraryClass(name);
+        if (aClass != null) {
+          return aClass;
+        }
+      }
+      catch (Exception ignore) {
+        // Catch-all, defer to the parent implementation
+      }
+    }
+    return super.loadClass(name);
+  }
+
+  /**
+   * Returns true for the classes that should be loaded from the library jars even if the layout library has them.
+   */
+  static boolean isSolverClassName(@NotNull String name) {
+    // We overload loadClass() to load a class defined in a project
+    // rather than a version of it that may already be present in Studio.
+    // This is an issue if Studio shares a library or classes with some android code
+    // we are trying to preview; the class loaded would be the one already used by
+    // Studio rather than the one packaged with the library.
+    // If they end up being different (say the lib is more recent than the Studio version),
+    // it will likely result in broken preview as functions would be different / not present.
+    // The only known case of this at this point is ConstraintLayout (a solver library
+    // is used both by the android implementation and by Android Studio).
+
+    // FIXME: While testing this approach, we found an issue on some Windows machine where
+    // class loading would be broken. Thus, we limit the fix to the impacted solver classes
+    // for now, until we can investigate the problem more in depth on Windows.
+    return name.startsWith("android.support.constraint.solver");
+  }
+
+  /**
+   * Returns the list of external JAR files referenced by the class loader.
+   */
+  @Override
+  @NotNull
+  protected List<URL> getExternalJars() {
+    return myExternalJars;
+  }
+
+  @NotNull
+  private static List<URL> computeExternalJars(@NotNull Module module) {
+    if (module.isDisposed()) {
+      return Collections.emptyList();
+    }
+
+    List<URL> result = new ArrayList<>();
+
+    if (StudioFlags.THEME_EDITOR_ENABLED.get()) {
+      URL customWidgetsUrl = ThemeEditorUtils.getCustomWidgetsJarUrl();
+      if (customWidgetsUrl != null) {
+        result.add(customWidgetsUrl);
+      }
+    }
+
+    getExternalLibraryJars(module)
+        .filter(file -> EXT_JAR.equals(Files.getFileExtension(file.getName())) && file.exists())
+        .forEach(jarFile -> addFileUrl(jarFile, result));
+
+    return result;
+  }
+
+  /**
+   * Returns a stream of JAR files of the referenced libraries for the {@link Module} of this class loader.
+   */
+  @NotNull
+  private static Stream<File> getExternalLibraryJars(@NotNull Module module) {
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    if (facet != null && facet.requiresAndroidModel()) {
+      AndroidModel model = facet.getConfiguration().getModel();
+      if (model != null) {
+        return model.getClassJarProvider().getModuleExternalLibraries(module).stream();
+      }
+    }
+
+    return AndroidRootUtil.getExternalLibraries(module).stream().map(VfsUtilCore::virtualToIoFile);
+  }
+
+  private static void addFileUrl(@NotNull File file, @NotNull List<URL> result) {
+    try {
+      result.add(SdkUtils.fileToUrl(file));
+    }
+    catch (MalformedURLException e) {
+      LOG.error(e);
+    }
+  }
+
+  private static void registerResources(@NotNull Module module) {
+    AndroidModuleSystem moduleSystem = ProjectSystemUtil.getModuleSystem(module);
+    for (Library library : moduleSystem.getResolvedDependentLibraries()) {
+      if (library instanceof ExternalLibrary && ((ExternalLibrary)library).hasResources()) {
+        registerLibraryResources(module, (ExternalLibrary)library);
+      }
+    }
+  }
+
+  private static void registerLibraryResources(@NotNull Module module, @NotNull ExternalLibrary library) {
+    AndroidFacet facet = AndroidFacet.getInstance(module);
+    if (facet == null) {
+      return;
+    }
+
+    ResourceRepositoryManager repositoryManager = ResourceRepositoryManager.getOrCreateInstance(facet);
+    LocalResourceRepository appResources = repositoryManager.getAppResources(true);
+
+    ResourceClassRegistry registry = ResourceClassRegistry.get(module.getProject());
+
+    // Choose which resources should be in the generated R class. This is described in the JavaDoc of ResourceClassGenerator.
+    ResourceRepository rClassContents;
+    ResourceNamespace resourcesNamespace;
+    String packageName;
+    if (repositoryManager.getNamespacing() == AaptOptions.Namespacing.DISABLED) {
+      packageName = getPackageName(library);
+      if (packageName == null) {
+        return;
+      }
+      rClassContents = appResources;
+      resourcesNamespace = ResourceNamespace.RES_AUTO;
+    }
+    else {
+      ResourceRepository aarResources = repositoryManager.findLibraryResources(library);
+      if (!(aarResources instanceof SingleNamespaceResourceRepository)) {
+        return;
+      }
+
+      rClassContents = aarResources;
+      SingleNamespaceResourceRepository resources = (SingleNamespaceResourceRepository)aarResources;
+      resourcesNamespace = resources.getNamespace();
+      packageName = resources.getPackageName();
+    }
+
+    registry.addLibrary(rClassContents, ResourceIdManager.get(module), packageName, resourcesNamespace);
+  }
+
+  @Nullable
+  private static String getPackageName(@NotNull ExternalLibrary library) {
+    if (library.getPackageName() != null) {
+      return library.getPackageName();
+    }
+    PathString manifestFile = library.getManifestFile();
+    if (manifestFile != null) {
+      try {
+        return AndroidManifestUtils.getPackageNameFromManifestFile(manifestFile);
+      }
+      catch (IOException ignore) {
+        // Ignore to return null.
+      }
+    }
+    return null;
+  }
+}
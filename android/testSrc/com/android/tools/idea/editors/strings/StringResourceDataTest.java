@@ -253,6 +253,23 @@ public class StringResourceDataTest extends AndroidTestCase {
     assertEquals("Hello", tag.getValue().getText());
   }
 
+  public void testRefresh() {
+    StringResource resource = data.getStringResource(newStringResourceKey("key1"));
+    StringResource dynamicResource = data.getStringResource(new StringResourceKey("dynamic_key1", null));
+    assertFalse(data.refresh());
+    assertSame(resource, data.getStringResource(newStringResourceKey("key1")));
+
+    assertTrue(resource.putTranslation(Locale.create("hi"), "Key 1 hi"));
+    assertTrue(data.refresh());
+
+    // Only the resources of the changed resource directory are read again.
+    StringResource refreshedResource = data.getStringResource(newStringResourceKey("key1"));
+    assertNotSame(resource, refreshedResource);
+    assertEquals("Key 1 hi", refreshedResource.getTranslationAsString(Locale.create("hi")));
+    assertSame(dynamicResource, data.getStringResource(new StringResourceKey("dynamic_key1", null)));
+    assertFalse(data.refresh());
+  }
+
   @NotNull
   private StringResourceKey newStringResourceKey(@NotNull String name) {
     return new StringResourceKey(name, resourceDirectory);
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental;
+
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CodeAnalysisMainTest extends LightJavaCodeInsightFixtureTestCase {
+  private PsiFile myLambdasFile;
+  private PsiFile myValuesFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myLambdasFile = myFixture.addFileToProject("p/Lambdas.java", "" +
+                                                                 "package p;\n" +
+                                                                 "public class Lambdas {\n" +
+                                                                 "  void run() {\n" +
+                                                                 "    Runnable first = () -> helper();\n" +
+                                                                 "    class Local {\n" +
+                                                                 "      void apply() { }\n" +
+                                                                 "    }\n" +
+                                                                 "    new Local().apply();\n" +
+                                                                 "    Runnable anonymous = new Runnable() {\n" +
+                                                                 "      public void run() { }\n" +
+                                                                 "    };\n" +
+                                                                 "    Runnable second = () -> anonymous.run();\n" +
+                                                                 "    second.run();\n" +
+                                                                 "  }\n" +
+                                                                 "  static void helper() { }\n" +
+                                                                 "}\n");
+    myValuesFile = myFixture.addFileToProject("p/Values.java", "" +
+                                                               "package p;\n" +
+                                                               "public class Values {\n" +
+                                                               "  int value() {\n" +
+                                                               "    int x = 1;\n" +
+                                                               "    return x;\n" +
+                                                               "  }\n" +
+                                                               "}\n");
+  }
+
+  public void testSceneIsReusedUntilClassesChange() {
+    CodeAnalysisMain analysis = CodeAnalysisMain.getInstance(getProject());
+    analysis.analyze(createScope());
+    PsiCFGScene scene = PsiCFGScene.getInstance(getProject());
+    MethodGraph runGraph = findMethod(scene, "p.Lambdas", "run").getControlFlowGraph();
+    MethodGraph valueGraph = findMethod(scene, "p.Values", "value").getControlFlowGraph();
+    assertNotNull(runGraph);
+    assertNotNull(valueGraph);
+    assertNotNull(scene.getCallGraph());
+
+    // Nothing changed: the scene and all the CFGs are reused.
+    analysis.analyze(createScope());
+    assertSame(scene, PsiCFGScene.getInstance(getProject()));
+    assertSame(runGraph, findMethod(scene, "p.Lambdas", "run").getControlFlowGraph());
+    assertSame(valueGraph, findMethod(scene, "p.Values", "value").getControlFlowGraph());
+
+    // A method body changed: only the CFGs of the modified file are rebuilt.
+    editFile(myValuesFile, "int x = 1;", "int x = 2;");
+    analysis.analyze(createScope());
+    assertSame(scene, PsiCFGScene.getInstance(getProject()));
+    assertSame(runGraph, findMethod(scene, "p.Lambdas", "run").getControlFlowGraph());
+    MethodGraph newValueGraph = findMethod(scene, "p.Values", "value").getControlFlowGraph();
+    assertNotNull(newValueGraph);
+    assertNotSame(valueGraph, newValueGraph);
+
+    // A method was added: the classes of the scene are outdated, so a new scene is created.
+    editFile(myValuesFile, "int value() {", "int other() { return 0; }\n  int value() {");
+    analysis.analyze(createScope());
+    PsiCFGScene newScene = PsiCFGScene.getInstance(getProject());
+    assertNotSame(scene, newScene);
+    assertNotNull(findMethod(newScene, "p.Values", "other").getControlFlowGraph());
+  }
+
+  public void testLocalClassesAndLambdasAreNamedInSourceOrder() {
+    CodeAnalysisMain analysis = CodeAnalysisMain.getInstance(getProject());
+    analysis.analyze(createScope());
+    Map<String, String> names = getLocalClassesAndLambdas(PsiCFGScene.getInstance(getProject()));
+    assertThat(names).containsEntry("p.Lambdas$lambda$1", "() -> helper()");
+    assertThat(names).containsEntry("p.Lambdas$lambda$2", "() -> anonymous.run()");
+    assertThat(names).containsKey("p.Lambdas.$1Local");
+    assertThat(names).containsKey("p.Lambdas.$1");
+
+    // Rebuilding the CFG of the declaring method discards its classes and lambdas, and gives the new ones the same names.
+    editFile(myLambdasFile, "second.run();", "second.run();\n    first.run();");
+    analysis.analyze(createScope());
+    assertEquals(names, getLocalClassesAndLambdas(PsiCFGScene.getInstance(getProject())));
+  }
+
+  @NotNull
+  private AnalysisScope createScope() {
+    return new AnalysisScope(getProject(), Arrays.asList(myLambdasFile.getVirtualFile(), myValuesFile.getVirtualFile()));
+  }
+
+  private void editFile(@NotNull PsiFile file, @NotNull String oldText, @NotNull String newText) {
+    Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      int offset = document.getText().indexOf(oldText);
+      document.replaceString(offset, offset + oldText.length(), newText);
+    });
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+  }
+
+  /**
+   * Returns the text of the local classes and lambdas of the scene, by qualified name.
+   */
+  @NotNull
+  private static Map<String, String> getLocalClassesAndLambdas(@NotNull PsiCFGScene scene) {
+    Map<String, String> names = new TreeMap<>();
+    for (PsiCFGClass lambdaClass : scene.getAllLambdaClass()) {
+      names.put(lambdaClass.getQualifiedClassName(), lambdaClass.getPsiLambdaRef().getText());
+    }
+    for (PsiCFGClass appClass : scene.getAllApplicationClasses()) {
+      if (appClass.isNested()) {
+        names.put(appClass.getQualifiedClassName(), appClass.getPsiClass().getText());
+      }
+    }
+    return names;
+  }
+
+  @NotNull
+  private static PsiCFGMethod findMethod(@NotNull PsiCFGScene scene, @NotNull String className, @NotNull String methodName) {
+    for (PsiCFGMethod method : scene.getPsiCFGClass(className).getAllMethods()) {
+      if (methodName.equals(method.getName())) {
+        return method;
+      }
+    }
+    throw new AssertionError(className + "." + methodName + " not found");
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGPartialMethodSignature;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class CallgraphBuilderTest extends LightJavaCodeInsightFixtureTestCase {
+  private PsiFile myMainFile;
+  private PsiCFGScene myScene;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    PsiFile shapesFile = myFixture.addFileToProject("p/Shapes.java", "" +
+                                                                      "package p;\n" +
+                                                                      "interface Shape {\n" +
+                                                                      "  double area();\n" +
+                                                                      "}\n" +
+                                                                      "class Circle implements Shape {\n" +
+                                                                      "  public double area() { return 3; }\n" +
+                                                                      "}\n" +
+                                                                      "class Square implements Shape {\n" +
+                                                                      "  public double area() { return 4; }\n" +
+                                                                      "}\n" +
+                                                                      "abstract class Task {\n" +
+                                                                      "  abstract void run();\n" +
+                                                                      "  void start() { run(); }\n" +
+                                                                      "}\n" +
+                                                                      "class PrintTask extends Task {\n" +
+                                                                      "  void run() { }\n" +
+                                                                      "}\n");
+    myMainFile = myFixture.addFileToProject("p/Main.java", "" +
+                                                           "package p;\n" +
+                                                           "public class Main {\n" +
+                                                           "  double measure(Shape shape) {\n" +
+                                                           "    helper();\n" +
+                                                           "    new PrintTask().start();\n" +
+                                                           "    return shape.area() + new Circle().area();\n" +
+                                                           "  }\n" +
+                                                           "  static void helper() { }\n" +
+                                                           "  static void other() { }\n" +
+                                                           "}\n");
+
+    myScene = PsiCFGScene.createFreshInstance(getProject());
+    for (PsiFile file : Arrays.asList(shapesFile, myMainFile)) {
+      for (PsiClass psiClass : ((PsiJavaFile)file).getClasses()) {
+        myScene.createPsiCFGClass(psiClass, file, true);
+      }
+    }
+    PsiCFGAnalysisUtil analysisUtil = myScene.analysisUtil;
+    analysisUtil.performStage1();
+    analysisUtil.performStage2();
+    analysisUtil.performStage3();
+    analysisUtil.performStage4();
+  }
+
+  public void testParallelBuildMatchesSerialBuild() {
+    CallgraphBuilder builder = new CallgraphBuilder(myScene, myScene.analysisUtil);
+    builder.build();
+    Callgraph parallel = builder.getCallGraph();
+
+    assertSameEdges(buildSerially(), parallel);
+
+    // The virtual call on the interface resolves to both implementations, and the this-call of the abstract method to its override.
+    PsiCFGMethod measure = findMethod("p.Main", "measure");
+    assertThat(parallel.callerMethodToCalleeMethodMap.get(measure))
+      .containsAllOf(findMethod("p.Main", "helper"), findMethod("p.Task", "start"), findMethod("p.Circle", "area"),
+                     findMethod("p.Square", "area"));
+    assertThat(parallel.callerMethodToCalleeMethodMap.get(findMethod("p.Task", "start"))).containsExactly(findMethod("p.PrintTask", "run"));
+  }
+
+  public void testConcurrentConeQueriesMatchSerialTraversal() {
+    CHAUtil chaUtil = new CHAUtil(myScene);
+    chaUtil.buildBitSetIndex();
+    List<PsiCFGClass> classes = Arrays.asList(chaUtil.mClassIndexArray);
+    Set<PsiCFGPartialMethodSignature> signatures = new HashSet<>();
+    for (PsiCFGClass clazz : classes) {
+      for (PsiCFGMethod method : clazz.getAllMethods()) {
+        signatures.add(method.getSignature());
+      }
+    }
+
+    Map<List<Object>, Set<PsiCFGMethod>> concurrentResults = new ConcurrentHashMap<>();
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(classes, null, clazz -> {
+      for (PsiCFGPartialMethodSignature signature : signatures) {
+        concurrentResults.put(Arrays.asList(clazz, signature),
+                              new HashSet<>(Arrays.asList(chaUtil.getConcreteMethodsInCone(clazz, signature))));
+      }
+      return true;
+    });
+
+    for (PsiCFGClass clazz : classes) {
+      for (PsiCFGPartialMethodSignature signature : signatures) {
+        assertEquals(findConcreteMethodsInCone(clazz, signature), concurrentResults.get(Arrays.asList(clazz, signature)));
+      }
+    }
+  }
+
+  public void testUpdateMatchesBuild() {
+    PsiCFGAnalysisUtil analysisUtil = myScene.analysisUtil;
+    analysisUtil.performStage5();
+    Callgraph callgraph = myScene.getCallGraph();
+
+    Document document = PsiDocumentManager.getInstance(getProject()).getDocument(myMainFile);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      int offset = document.getText().indexOf("helper();");
+      document.replaceString(offset, offset + "helper".length(), "other");
+    });
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+
+    // Only the CFGs of the methods in the edited file are rebuilt, so the call graph is updated in place.
+    analysisUtil.performStage3();
+    analysisUtil.performStage4();
+    assertThat(myScene.getRebuiltMethods())
+      .containsExactly(findMethod("p.Main", "measure"), findMethod("p.Main", "helper"), findMethod("p.Main", "other"));
+    assertFalse(myScene.isClassesChanged());
+    analysisUtil.performStage5();
+    assertSame(callgraph, myScene.getCallGraph());
+
+    PsiCFGMethod measure = findMethod("p.Main", "measure");
+    assertThat(callgraph.callerMethodToCalleeMethodMap.get(measure)).contains(findMethod("p.Main", "other"));
+    assertThat(callgraph.callerMethodToCalleeMethodMap.get(measure)).doesNotContain(findMethod("p.Main", "helper"));
+
+    CallgraphBuilder builder = new CallgraphBuilder(myScene, analysisUtil);
+    builder.build();
+    assertSameEdges(builder.getCallGraph(), callgraph);
+  }
+
+  @NotNull
+  private Callgraph buildSerially() {
+    CallgraphBuilder builder = new CallgraphBuilder(myScene, myScene.analysisUtil);
+    builder.mCallGraphInstance = new Callgraph();
+    builder.mCHAUtil = new CHAUtil(myScene);
+    builder.mCHAUtil.buildBitSetIndex();
+    for (GraphNode node : myScene.getAllInvocationNode()) {
+      builder.processSingleInvocation(node);
+    }
+    return builder.getCallGraph();
+  }
+
+  @NotNull
+  private PsiCFGMethod findMethod(@NotNull String className, @NotNull String methodName) {
+    for (PsiCFGMethod method : myScene.getPsiCFGClass(className).getAllMethods()) {
+      if (methodName.equals(method.getName())) {
+        return method;
+      }
+    }
+    throw new AssertionError(className + "." + methodName + " not found");
+  }
+
+  @NotNull
+  private static Set<PsiCFGMethod> findConcreteMethodsInCone(@NotNull PsiCFGClass clazz, @NotNull PsiCFGPartialMethodSignature signature) {
+    Set<PsiCFGMethod> methods = new HashSet<>();
+    Set<PsiCFGClass> visited = new HashSet<>();
+    Deque<PsiCFGClass> workList = new ArrayDeque<>();
+    workList.add(clazz);
+    while (!workList.isEmpty()) {
+      PsiCFGClass current = workList.removeFirst();
+      if (!visited.add(current)) {
+        continue;
+      }
+      PsiCFGMethod method = current.getMethod(signature);
+      if (method != null && !method.isAbstract()) {
+        methods.add(method);
+      }
+      workList.addAll(current.getSubClassSet());
+    }
+    return methods;
+  }
+
+  private static void assertSameEdges(@NotNull Callgraph expected, @NotNull Callgraph actual) {
+    assertEquals(expected.callerNodeToMethodsMap, actual.callerNodeToMethodsMap);
+    assertEquals(expected.calleeMethodToCallerGraphNodeMap, actual.calleeMethodToCallerGraphNodeMap);
+    assertEquals(expected.callerNodeToCalleeNodeMap, actual.callerNodeToCalleeNodeMap);
+    assertEquals(expected.calleeNodeToCallerNodeMap, actual.calleeNodeToCallerNodeMap);
+    assertEquals(expected.callerMethodToCalleeMethodMap, actual.callerMethodToCalleeMethodMap);
+    assertEquals(expected.calleeMethodToCallerMethodReturnMap, actual.calleeMethodToCallerMethodReturnMap);
+  }
+}
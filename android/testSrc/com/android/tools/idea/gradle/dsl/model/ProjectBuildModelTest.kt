@@ -288,4 +288,47 @@ class ProjectBuildModelTest : GradleFileModelTestCase() {
     assertNotNull(buildModel)
     verifyPropertyModel(buildModel.android().compileSdkVersion(), STRING_TYPE, "28", STRING, REGULAR, 0)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun testReparseUpdatesFilesDependingOnChangedFile() {
+    val appliedText = """
+                      ext {
+                        greeting = "hello"
+                      }""".trimIndent()
+    val parentText = """
+                     apply from: "b.gradle"
+
+                     ext {
+                       parentProp = "zero"
+                     }""".trimIndent()
+    val childText = """
+                    apply from: "../b.gradle"
+
+                    ext {
+                      childProperty = greeting
+                    }""".trimIndent()
+    writeToNewProjectFile("b.gradle", appliedText)
+    writeToBuildFile(parentText)
+    writeToSubModuleBuildFile(childText)
+    writeToSettingsFile("include ':${SUB_MODULE_NAME}'")
+
+    val projectModel = ProjectBuildModel.get(myProject)
+    val parentBuildModel = projectModel.projectBuildModel!!
+    val childBuildModel = projectModel.getModuleBuildModel(mySubModule)!!
+    val appliedFile = LocalFileSystem.getInstance().findFileByIoFile(File(myProjectBasePath, "b.gradle"))!!
+    val appliedBuildModel = projectModel.getModuleBuildModel(appliedFile)
+
+    verifyPropertyModel(childBuildModel.ext().findProperty("childProperty").resolve(), STRING_TYPE, "hello", STRING, REGULAR, 1)
+
+    // Only the applied file is changed, the files depending on it need to be parsed again to see the new value.
+    appliedBuildModel.ext().findProperty("greeting").setValue("goodbye")
+    applyChangesAndReparse(projectModel)
+
+    verifyPropertyModel(childBuildModel.ext().findProperty("childProperty").resolve(), STRING_TYPE, "goodbye", STRING, REGULAR, 1)
+    verifyPropertyModel(parentBuildModel.ext().findProperty("parentProp"), STRING_TYPE, "zero", STRING, REGULAR, 0)
+
+    // Reparsing without changes keeps the same values.
+    projectModel.reparse()
+    verifyPropertyModel(childBuildModel.ext().findProperty("childProperty").resolve(), STRING_TYPE, "goodbye", STRING, REGULAR, 1)
+  }
+}
@@ -25,7 +25,9 @@ import java.util.Map;
 
 import static com.android.tools.idea.testing.TestProjectPaths.PROJECT_WITH_APPAND_LIB;
 import static com.google.common.truth.Truth.assertThat;
+import static com.intellij.openapi.util.io.FileUtil.appendToFile;
 import static com.intellij.openapi.util.io.FileUtil.toSystemDependentName;
+import static com.intellij.openapi.util.io.FileUtil.writeToFile;
 
 public class ProjectBuildFileChecksumsTest extends AndroidGradleTestCase {
   public void testEndToEnd() throws Exception {
@@ -52,13 +54,44 @@ public class ProjectBuildFileChecksumsTest extends AndroidGradleTestCase {
     verifyGradleProjectSyncData(newData, previousSyncTime);
   }
 
+  public void testChangedModuleBuildFiles() throws Exception {
+    loadProject(PROJECT_WITH_APPAND_LIB);
+
+    Project project = myAndroidFacet.getModule().getProject();
+    File projectFolderPath = getProjectFolderPath();
+    File libBuildFile = new File(projectFolderPath, toSystemDependentName("lib/build.gradle"));
+    File appliedFile = new File(projectFolderPath, toSystemDependentName("lib/extra.gradle"));
+    writeToFile(appliedFile, "");
+    appendToFile(libBuildFile, "\napply from: 'extra.gradle'\n");
+
+    ProjectBuildFileChecksums data = ProjectBuildFileChecksums.createFrom(project);
+    assertNotNull(data);
+    assertTrue(data.canUseCachedData());
+    assertThat(data.findModulesWithChangedBuildFiles()).isEmpty();
+
+    // A script applied by a module only invalidates that module.
+    writeToFile(appliedFile, "ext.extra = true\n");
+    assertFalse(data.canUseCachedData());
+    assertThat(data.findModulesWithChangedBuildFiles()).containsExactly("lib");
+
+    // A file shared by all modules invalidates the whole project.
+    appendToFile(new File(projectFolderPath, "gradle.properties"), "\nextra=true\n");
+    assertNull(data.findModulesWithChangedBuildFiles());
+  }
+
   private static void verifyGradleProjectSyncData(@NotNull ProjectBuildFileChecksums data, long previousSyncTime) {
     assertNotNull(data);
 
     Map<String, byte[]> checksums = data.getFileChecksums();
-    assertEquals(7, checksums.size());
+    assertEquals(10, checksums.size());
     assertThat(checksums.keySet()).containsAllOf("gradle.properties", "local.properties", "build.gradle", "settings.gradle",
-                                                 toSystemDependentName("app/build.gradle"), toSystemDependentName("lib/build.gradle"));
+                                                 toSystemDependentName("gradle/libs.versions.toml"),
+                                                 toSystemDependentName("app/build.gradle"), toSystemDependentName("lib/build.gradle"),
+                                                 toSystemDependentName("app/gradle.properties"),
+                                                 toSystemDependentName("lib/gradle.properties"));
+    assertThat(data.getProjectFiles()).containsAllOf("gradle.properties", "local.properties", "build.gradle", "settings.gradle");
+    assertThat(data.getModuleFiles().get("lib")).containsExactly(toSystemDependentName("lib/build.gradle"),
+                                                                 toSystemDependentName("lib/gradle.properties"));
     String home = System.getProperty("user.home");
     if (home != null) {
       File userProperties = new File(new File(home), toSystemDependentName(".gradle/gradle.properties"));
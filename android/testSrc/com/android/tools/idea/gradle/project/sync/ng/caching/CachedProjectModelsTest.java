@@ -16,12 +16,11 @@
 package com.android.tools.idea.gradle.project.sync.ng.caching;
 
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.testFramework.JavaProjectTestCase;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Objects;
 import java.util.concurrent.Future;
@@ -59,7 +58,8 @@ public class CachedProjectModelsTest extends JavaProjectTestCase {
     File cacheFilePath = CachedProjectModels.getCacheFilePath(project);
     assertAbout(file()).that(cacheFilePath).isFile();
 
-    CachedProjectModels deserialized = deserialize(cacheFilePath);
+    CachedProjectModels deserialized = new CachedProjectModels.Loader().loadFromDisk(project);
+    assertNotNull(deserialized);
     assertEquals(myCache, deserialized);
     assertThat(deserialized).isNotSameAs(myCache);
 
@@ -72,13 +72,71 @@ public class CachedProjectModelsTest extends JavaProjectTestCase {
     assertEquals(p2, deserializedP2);
   }
 
-  @NotNull
-  private static CachedProjectModels deserialize(@NotNull File path) throws Exception {
-    try (FileInputStream fis = new FileInputStream(path)) {
-      try (ObjectInputStream ois = new ObjectInputStream(fis)) {
-        return (CachedProjectModels)ois.readObject();
+  public void testEqualStringsAreSharedAfterLoading() throws Exception {
+    myCache.addModule(createModule("module1")).addModel(new Person(new String("Han")));
+    myCache.addModule(createModule("module2")).addModel(new Person(new String("Han")));
+
+    Project project = getProject();
+    myCache.saveToDisk(project).get(10, SECONDS);
+
+    CachedProjectModels loaded = new CachedProjectModels.Loader().loadFromDisk(project);
+    assertNotNull(loaded);
+    Person person1 = loaded.findCacheForModule("module1").findModel(Person.class);
+    Person person2 = loaded.findCacheForModule("module2").findModel(Person.class);
+    assertEquals("Han", person1.getName());
+    assertThat(person1.getName()).isSameAs(person2.getName());
+  }
+
+  public void testOnlyChangedModulesAreRewritten() throws Exception {
+    myCache.addModule(createModule("module1")).addModel(new Person("Luke"));
+    myCache.addModule(createModule("module2")).addModel(new Person("Leia"));
+
+    Project project = getProject();
+    myCache.saveToDisk(project).get(10, SECONDS);
+
+    File cacheFolderPath = CachedProjectModels.getCacheFilePath(project).getParentFile();
+    File[] moduleFiles = cacheFolderPath.listFiles((dir, name) -> name.startsWith("module"));
+    assertThat(moduleFiles).hasLength(2);
+    for (File moduleFile : moduleFiles) {
+      assertTrue(moduleFile.setLastModified(1000));
+    }
+
+    // Load the cache, change the models of one module and save it again.
+    CachedProjectModels loaded = new CachedProjectModels.Loader().loadFromDisk(project);
+    assertNotNull(loaded);
+    loaded.findCacheForModule("module2").addModel(new Person("Rey"));
+    loaded.saveToDisk(project).get(10, SECONDS);
+
+    for (File moduleFile : moduleFiles) {
+      if (moduleFile.getName().startsWith("module1")) {
+        assertEquals(1000, moduleFile.lastModified());
+      }
+      else {
+        assertThat(moduleFile.lastModified()).isNotEqualTo(1000L);
       }
     }
+
+    CachedProjectModels reloaded = new CachedProjectModels.Loader().loadFromDisk(project);
+    assertNotNull(reloaded);
+    assertEquals(new Person("Luke"), reloaded.findCacheForModule("module1").findModel(Person.class));
+    assertEquals(new Person("Rey"), reloaded.findCacheForModule("module2").findModel(Person.class));
+  }
+
+  public void testCorruptModuleFileIsReported() throws Exception {
+    myCache.addModule(createModule("module1")).addModel(new Person("Luke"));
+
+    Project project = getProject();
+    myCache.saveToDisk(project).get(10, SECONDS);
+
+    File cacheFolderPath = CachedProjectModels.getCacheFilePath(project).getParentFile();
+    File[] moduleFiles = cacheFolderPath.listFiles((dir, name) -> name.startsWith("module1"));
+    assertThat(moduleFiles).hasLength(1);
+    FileUtil.writeToFile(moduleFiles[0], "corrupt");
+
+    CachedProjectModels loaded = new CachedProjectModels.Loader().loadFromDisk(project);
+    assertNotNull(loaded);
+    assertTrue(loaded.containsModule("module1"));
+    assertNull(loaded.findCacheForModule("module1"));
   }
 
   public static class Person implements Serializable {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.utils.SdkUtils;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.org.objectweb.asm.ClassWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static com.android.tools.idea.rendering.ClassConverter.getMajorVersion;
+import static org.jetbrains.org.objectweb.asm.Opcodes.*;
+
+public class ClassConverterCacheTest extends TestCase {
+  private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+  private File myCacheDirectory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDirectory = FileUtil.createTempDirectory("render-classes", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myCacheDirectory);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRewrittenClassesAreSharedThroughDisk() {
+    byte[] data = createClass("Test", V1_8);
+    byte[] rewritten = new ClassConverterCache(myCacheDirectory, 50, DIRECT_EXECUTOR, DIRECT_EXECUTOR).rewriteClass(data);
+    assertEquals(50, getMajorVersion(rewritten));
+    assertEquals(1, listCachedFiles().size());
+
+    // A new cache, e.g. after a restart, reads the class written by the first one.
+    byte[] reread = new ClassConverterCache(myCacheDirectory, 50, DIRECT_EXECUTOR, DIRECT_EXECUTOR).rewriteClass(data);
+    assertTrue(Arrays.equals(rewritten, reread));
+    assertEquals(1, listCachedFiles().size());
+  }
+
+  public void testClassesRewrittenForAnotherVersionAreDiscarded() {
+    byte[] data = createClass("Test", V1_8);
+    new ClassConverterCache(myCacheDirectory, 50, DIRECT_EXECUTOR, DIRECT_EXECUTOR).rewriteClass(data);
+
+    byte[] rewritten = new ClassConverterCache(myCacheDirectory, 49, DIRECT_EXECUTOR, DIRECT_EXECUTOR).rewriteClass(data);
+    assertEquals(49, getMajorVersion(rewritten));
+    File[] versionDirectories = myCacheDirectory.listFiles();
+    assertNotNull(versionDirectories);
+    assertEquals(1, versionDirectories.length);
+  }
+
+  public void testPreloadJars() throws Exception {
+    File jar = new File(myCacheDirectory.getParentFile(), getName() + ".jar");
+    try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (int i = 0; i < 100; i++) {
+        output.putNextEntry(new ZipEntry("p/Test" + i + ".class"));
+        output.write(createClass("p/Test" + i, V1_8));
+        output.closeEntry();
+      }
+      output.putNextEntry(new ZipEntry("p/resource.txt"));
+      output.write(new byte[]{1, 2, 3});
+      output.closeEntry();
+    }
+
+    try {
+      ClassConverterCache cache = new ClassConverterCache(myCacheDirectory, 50, DIRECT_EXECUTOR, DIRECT_EXECUTOR);
+      cache.preloadJars(Collections.singletonList(SdkUtils.fileToUrl(jar)));
+      assertEquals(100, listCachedFiles().size());
+
+      // Jars are only preloaded once.
+      FileUtil.delete(myCacheDirectory);
+      cache.preloadJars(Collections.singletonList(SdkUtils.fileToUrl(jar)));
+      assertEquals(0, listCachedFiles().size());
+    }
+    finally {
+      FileUtil.delete(jar);
+    }
+  }
+
+  @NotNull
+  private List<File> listCachedFiles() {
+    List<File> result = new ArrayList<>();
+    FileUtil.processFilesRecursively(myCacheDirectory, file -> {
+      if (file.isFile()) {
+        result.add(file);
+      }
+      return true;
+    });
+    return result;
+  }
+
+  @NotNull
+  private static byte[] createClass(@NotNull String name, int version) {
+    ClassWriter cw = new ClassWriter(0);
+    cw.visit(version, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+}
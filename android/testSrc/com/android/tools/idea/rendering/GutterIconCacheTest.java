@@ -15,6 +15,11 @@
  */
 package com.android.tools.idea.rendering;
 
+import com.android.ide.common.rendering.api.ResourceNamespace;
+import com.android.ide.common.rendering.api.ResourceValueImpl;
+import com.android.ide.common.resources.ResourceResolver;
+import com.android.ide.common.resources.ResourceValueMap;
+import com.android.resources.ResourceType;
 import com.android.tools.idea.io.TestFileUtils;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.Document;
@@ -22,10 +27,15 @@ import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.vfs.*;
 import org.jetbrains.android.AndroidTestCase;
 
+import java.awt.image.BufferedImage;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.Icon;
 
 import static com.google.common.truth.Truth.assertThat;
 
@@ -99,4 +109,55 @@ public class GutterIconCacheTest extends AndroidTestCase {
     // Modifying the image should have invalidated the cache entry.
     assertThat(GutterIconCache.getInstance().isIconUpToDate(mySampleSvgPath.toString())).isFalse();
   }
+
+  public void testIconsAreDecodedInBackground() {
+    List<Runnable> tasks = new ArrayList<>();
+    GutterIconCache cache = new GutterIconCache(tasks::add, getTestRootDisposable());
+
+    // Until the icon is decoded, a placeholder of the maximum size is returned.
+    Icon placeholder = cache.getIcon(mySampleSvgPath.toString(), null);
+    assertThat(placeholder).isNotNull();
+    assertThat(placeholder.getIconWidth()).isEqualTo(GutterIconCache.MAX_WIDTH);
+    assertThat(cache.isIconUpToDate(mySampleSvgPath.toString())).isFalse();
+
+    // Requesting the icon again does not decode it twice.
+    assertThat(cache.getIcon(mySampleSvgPath.toString(), null)).isSameAs(placeholder);
+    assertThat(tasks).hasSize(1);
+
+    tasks.get(0).run();
+    assertThat(cache.isIconUpToDate(mySampleSvgPath.toString())).isTrue();
+    Icon icon = cache.getIcon(mySampleSvgPath.toString(), null);
+    assertThat(icon).isNotNull();
+    assertThat(icon).isNotSameAs(placeholder);
+  }
+
+  public void testResourcesAreResolvedBeforeDecoding() throws Exception {
+    Path vectorPath = FileSystems.getDefault().getPath(myModule.getProject().getBasePath(),
+                                                       "app", "src", "main", "res", "drawable", "GutterIconCacheTest_vector.xml");
+    TestFileUtils.writeFileAndRefreshVfs(vectorPath, "" +
+      "<vector xmlns:android=\"http://schemas.android.com/apk/res/android\" android:height=\"50px\" android:width=\"50px\"" +
+      " android:viewportWidth=\"50.0\" android:viewportHeight=\"50.0\">" +
+      "<path android:fillColor=\"@color/fill\" android:pathData=\"M0,0 L50,0 L50,50 L0,50 z\"/>" +
+      "</vector>");
+    ResourceResolver resolver = ResourceResolver.create(
+      Collections.singletonMap(ResourceNamespace.RES_AUTO, Collections.singletonMap(ResourceType.COLOR, ResourceValueMap.create())), null);
+    ResourceValueMap colors = resolver.getProjectResources().get(ResourceType.COLOR);
+    colors.put("fill", new ResourceValueImpl(ResourceNamespace.RES_AUTO, ResourceType.COLOR, "fill", "#00ff00"));
+
+    List<Runnable> tasks = new ArrayList<>();
+    GutterIconCache cache = new GutterIconCache(tasks::add, getTestRootDisposable());
+    cache.getIcon(vectorPath.toString(), resolver);
+    assertThat(tasks).hasSize(1);
+
+    // The decoding task does not use the resolver, which may have changed by the time it runs.
+    colors.put("fill", new ResourceValueImpl(ResourceNamespace.RES_AUTO, ResourceType.COLOR, "fill", "#0000ff"));
+    Thread decodingThread = new Thread(tasks.get(0));
+    decodingThread.start();
+    decodingThread.join();
+
+    Icon icon = cache.getIcon(vectorPath.toString(), resolver);
+    assertThat(icon).isNotNull();
+    BufferedImage image = TestRenderingUtils.getImageFromIcon(icon);
+    assertThat(image.getRGB(image.getWidth() / 2, image.getHeight() / 2)).isEqualTo(0xff00ff00);
+  }
 }
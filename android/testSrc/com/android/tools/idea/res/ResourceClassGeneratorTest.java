@@ -33,10 +33,11 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.android.ide.common.rendering.api.ResourceNamespace.RES_AUTO;
 import static java.io.File.separatorChar;
@@ -309,6 +310,96 @@ public class ResourceClassGeneratorTest extends AndroidTestCase {
     assertEquals(1000, iArray.length);
   }
 
+  public void testGeneratedClassesAreCachedUntilResourcesChange() throws Exception {
+    TestResourceRepository repository = resourceFixture.createTestResources(RES_AUTO, new Object[] {
+      "values/strings.xml", "" +
+                            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                            "<resources>\n" +
+                            "    <string name=\"show_all_apps\">All</string>\n" +
+                            "</resources>\n"});
+    LocalResourceRepositoryDelegate resources = new LocalResourceRepositoryDelegate("resources", repository);
+    ResourceClassGenerator generator = ResourceClassGenerator.create(ResourceIdManager.get(myModule), resources, RES_AUTO);
+
+    byte[] data = generator.generate("my.test.pkg.R$string");
+    assertNotNull(data);
+    assertSame(data, generator.generate("my.test.pkg.R$string"));
+
+    resources.setModificationCount(resources.getModificationCount() + 1);
+    byte[] regenerated = generator.generate("my.test.pkg.R$string");
+    assertNotSame(data, regenerated);
+    assertTrue(Arrays.equals(data, regenerated));
+    assertNotNull(generateClass(generator, "my.test.pkg.R$string").getField("show_all_apps"));
+  }
+
+  public void testConcurrentGenerationMatchesSerialGeneration() throws Exception {
+    TestResourceRepository repository = resourceFixture.createTestResources(RES_AUTO, new Object[] {
+      "values/styles.xml", "" +
+                           "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                           "<resources>\n" +
+                           "    <attr name=\"some_attr\" format=\"color\" />\n" +
+                           "    <declare-styleable name=\"AppStyleable\">\n" +
+                           "        <attr name=\"some_attr\"/>\n" +
+                           "        <attr name=\"android:colorForeground\" />\n" +
+                           "    </declare-styleable>\n" +
+                           "    <string name=\"show_all_apps\">All</string>\n" +
+                           "</resources>\n"});
+    LocalResourceRepository resources = new LocalResourceRepositoryDelegate("resources", repository);
+    List<String> classNames = ImmutableList.of("my.test.pkg.R", "my.test.pkg.R$styleable", "my.test.pkg.R$attr", "my.test.pkg.R$string",
+                                               "other.pkg.R$styleable", "other.pkg.R$string");
+
+    ResourceClassGenerator serialGenerator = ResourceClassGenerator.create(ResourceIdManager.get(myModule), resources, RES_AUTO);
+    List<byte[]> expected = new ArrayList<>();
+    for (String className : classNames) {
+      expected.add(serialGenerator.generate(className));
+    }
+
+    // The classes of all the packages share the field values, so concurrent callers get the same bytecode.
+    ResourceClassGenerator generator = ResourceClassGenerator.create(ResourceIdManager.get(myModule), resources, RES_AUTO);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<byte[]>>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(executor.submit(() -> {
+          List<byte[]> generated = new ArrayList<>();
+          for (String className : classNames) {
+            generated.add(generator.generate(className));
+          }
+          return generated;
+        }));
+      }
+      for (Future<List<byte[]>> future : futures) {
+        List<byte[]> generated = future.get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < classNames.size(); i++) {
+          assertTrue(classNames.get(i), Arrays.equals(expected.get(i), generated.get(i)));
+        }
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    int[] styleable = (int[])generateClass(generator, "other.pkg.R$styleable").getDeclaredField("AppStyleable").get(null);
+    assertEquals(2, styleable.length);
+  }
+
+  public void testPregenerate() throws Exception {
+    TestResourceRepository repository = resourceFixture.createTestResources(RES_AUTO, new Object[] {
+      "values/strings.xml", "" +
+                            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                            "<resources>\n" +
+                            "    <string name=\"show_all_apps\">All</string>\n" +
+                            "</resources>\n"});
+    LocalResourceRepository resources = new LocalResourceRepositoryDelegate("resources", repository);
+    ResourceClassGenerator generator = ResourceClassGenerator.create(ResourceIdManager.get(myModule), resources, RES_AUTO);
+    ResourceClassGenerator otherGenerator = ResourceClassGenerator.create(ResourceIdManager.get(myModule), resources, RES_AUTO);
+
+    assertFalse(generator.isCached("my.test.pkg.R$string"));
+    generator.pregenerate("my.test.pkg");
+    assertTrue(generator.isCached("my.test.pkg.R"));
+    assertTrue(generator.isCached("my.test.pkg.R$string"));
+    assertFalse(generator.isCached("other.pkg.R$string"));
+    assertTrue(Arrays.equals(otherGenerator.generate("my.test.pkg.R$string"), generator.generate("my.test.pkg.R$string")));
+  }
+
   private static class LocalResourceRepositoryDelegate extends LocalResourceRepository {
     private final TestResourceRepository myDelegate;
 
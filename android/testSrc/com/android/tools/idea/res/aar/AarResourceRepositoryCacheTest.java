@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.res.aar;
+
+import com.android.resources.ResourceType;
+import com.android.tools.idea.projectsystem.FilenameConstants;
+import com.android.tools.idea.res.ResourceRepositoryManager;
+import com.android.tools.idea.res.ResourcesTestsUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import kotlin.Unit;
+import org.jetbrains.android.AndroidTestBase;
+import org.jetbrains.android.AndroidTestCase;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static com.android.ide.common.rendering.api.ResourceNamespace.RES_AUTO;
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Tests for {@link AarResourceRepositoryCache}.
+ */
+public class AarResourceRepositoryCacheTest extends AndroidTestCase {
+  private File myAarDirectory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myAarDirectory =
+      Paths.get(AndroidTestBase.getTestDataPath(), "rendering", FilenameConstants.EXPLODED_AAR, "my_aar_lib", "res").toFile();
+    AarResourceRepositoryCache.getInstance().clear();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      AarResourceRepositoryCache.getInstance().clear();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testConcurrentRequestsLoadTheRepositoryOnce() throws Exception {
+    AarResourceRepositoryCache cache = AarResourceRepositoryCache.getInstance();
+    int threadCount = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<AarSourceResourceRepository>> futures = new ArrayList<>();
+      for (int i = 0; i < threadCount; i++) {
+        boolean async = i % 2 == 0;
+        futures.add(executor.submit(() -> {
+          start.await();
+          return async ? cache.getSourceRepositoryAsync(myAarDirectory, ResourcesTestsUtil.AAR_LIBRARY_NAME).get()
+                       : cache.getSourceRepository(myAarDirectory, ResourcesTestsUtil.AAR_LIBRARY_NAME);
+        }));
+      }
+      start.countDown();
+
+      AarSourceResourceRepository repository = futures.get(0).get(30, TimeUnit.SECONDS);
+      for (Future<AarSourceResourceRepository> future : futures) {
+        assertThat(future.get(30, TimeUnit.SECONDS)).isSameAs(repository);
+      }
+      assertThat(cache.getSourceRepository(myAarDirectory, ResourcesTestsUtil.AAR_LIBRARY_NAME)).isSameAs(repository);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testAsyncGetterReturnsCachedRepository() throws Exception {
+    AarResourceRepositoryCache cache = AarResourceRepositoryCache.getInstance();
+    AarSourceResourceRepository repository = cache.getSourceRepository(myAarDirectory, ResourcesTestsUtil.AAR_LIBRARY_NAME);
+
+    CompletableFuture<AarSourceResourceRepository> future =
+      cache.getSourceRepositoryAsync(myAarDirectory, ResourcesTestsUtil.AAR_LIBRARY_NAME);
+    assertThat(future.isDone()).isTrue();
+    assertThat(future.get()).isSameAs(repository);
+
+    // A removed repository is loaded again.
+    cache.remove(myAarDirectory);
+    AarSourceResourceRepository reloaded =
+      cache.getSourceRepositoryAsync(myAarDirectory, ResourcesTestsUtil.AAR_LIBRARY_NAME).get(30, TimeUnit.SECONDS);
+    assertThat(reloaded).isNotSameAs(repository);
+    assertThat(reloaded.getResources(RES_AUTO, ResourceType.STRING).keySet())
+      .containsExactlyElementsIn(repository.getResources(RES_AUTO, ResourceType.STRING).keySet());
+  }
+
+  public void testLibraryRepositoriesOfModuleAreLoadedThroughCache() {
+    List<String> packageNames = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      String packageName = "com.example.lib" + i;
+      packageNames.add(packageName);
+      String stringName = "lib" + i + "_string";
+      ResourcesTestsUtil.addAarDependency(myModule, "lib" + i, packageName, resDir -> {
+        FileUtil.writeToFile(new File(resDir, "values/strings.xml"),
+                             "<resources><string name=\"" + stringName + "\">value</string></resources>");
+        return Unit.INSTANCE;
+      });
+    }
+
+    List<AarSourceResourceRepository> repositories = ResourceRepositoryManager.getOrCreateInstance(myFacet).getLibraryResources();
+    assertThat(repositories).hasSize(packageNames.size());
+    List<String> stringNames = new ArrayList<>();
+    AarResourceRepositoryCache cache = AarResourceRepositoryCache.getInstance();
+    for (AarSourceResourceRepository repository : repositories) {
+      stringNames.addAll(repository.getResources(RES_AUTO, ResourceType.STRING).keySet());
+      // The repositories loaded in parallel are the cached ones.
+      assertThat(cache.getSourceRepository(repository.getResourceDirectory(), repository.getLibraryName())).isSameAs(repository);
+    }
+    assertThat(stringNames).containsExactly("lib0_string", "lib1_string", "lib2_string", "lib3_string");
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.intellij.openapi.util.TextRange;
+import junit.framework.TestCase;
+import org.jetbrains.android.inspections.lint.AndroidLintBatchRunner.FileType;
+
+import java.io.File;
+import java.util.*;
+
+import static com.android.tools.lint.checks.CheckResultDetector.CHECK_RESULT;
+
+public class AndroidLintBatchRunnerTest extends TestCase {
+  public void testFileTypeOf() {
+    assertEquals(FileType.XML, FileType.of(Scope.RESOURCE_FILE_SCOPE));
+    assertEquals(FileType.XML, FileType.of(EnumSet.of(Scope.RESOURCE_FILE, Scope.ALL_RESOURCE_FILES)));
+    assertEquals(FileType.SOURCE, FileType.of(Scope.JAVA_FILE_SCOPE));
+    assertEquals(FileType.SOURCE, FileType.of(EnumSet.of(Scope.JAVA_FILE, Scope.TEST_SOURCES)));
+    assertEquals(FileType.RESOURCE, FileType.of(EnumSet.of(Scope.BINARY_RESOURCE_FILE)));
+    assertEquals(FileType.MANIFEST, FileType.of(EnumSet.of(Scope.MANIFEST)));
+
+    // Detectors looking at several types of files are not split.
+    assertEquals(FileType.OTHER, FileType.of(EnumSet.of(Scope.JAVA_FILE, Scope.RESOURCE_FILE)));
+    assertEquals(FileType.OTHER, FileType.of(EnumSet.of(Scope.MANIFEST, Scope.RESOURCE_FILE)));
+    assertEquals(FileType.OTHER, FileType.of(EnumSet.of(Scope.CLASS_FILE)));
+    assertEquals(FileType.OTHER, FileType.of(Scope.ALL));
+  }
+
+  public void testMergeSkipsProblemsFoundByOtherPartitions() {
+    File file = new File("Library.java");
+    ProblemData problem = new ProblemData(CHECK_RESULT, "Result not used", new TextRange(10, 20), null, null);
+    ProblemData sameProblem = new ProblemData(CHECK_RESULT, "Result not used", new TextRange(10, 20), null, null);
+    ProblemData otherMessage = new ProblemData(CHECK_RESULT, "Other result not used", new TextRange(10, 20), null, null);
+    ProblemData otherRange = new ProblemData(CHECK_RESULT, "Result not used", new TextRange(30, 40), null, null);
+
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = new HashMap<>();
+    AndroidLintBatchRunner.merge(createProblemMap(file, problem), problemMap);
+    // A library module analyzed as part of two modules reports the same problem twice.
+    AndroidLintBatchRunner.merge(createProblemMap(file, sameProblem, otherMessage, otherRange), problemMap);
+
+    assertEquals(Arrays.asList(problem, otherMessage, otherRange), problemMap.get(CHECK_RESULT).get(file));
+  }
+
+  public void testMergeKeepsProblemsReportedTwiceByOnePartition() {
+    File file = new File("Library.java");
+    ProblemData problem = new ProblemData(CHECK_RESULT, "Result not used", new TextRange(10, 20), null, null);
+    ProblemData sameProblem = new ProblemData(CHECK_RESULT, "Result not used", new TextRange(10, 20), null, null);
+
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = new HashMap<>();
+    AndroidLintBatchRunner.merge(createProblemMap(file, problem, sameProblem), problemMap);
+
+    assertEquals(Arrays.asList(problem, sameProblem), problemMap.get(CHECK_RESULT).get(file));
+  }
+
+  private static Map<Issue, Map<File, List<ProblemData>>> createProblemMap(File file, ProblemData... problems) {
+    Map<File, List<ProblemData>> problemsByFile = new HashMap<>();
+    problemsByFile.put(file, new ArrayList<>(Arrays.asList(problems)));
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = new HashMap<>();
+    problemMap.put(CHECK_RESULT, problemsByFile);
+    return problemMap;
+  }
+}
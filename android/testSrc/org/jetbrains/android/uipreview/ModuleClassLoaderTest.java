@@ -47,9 +47,12 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.tools.*;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 import static com.android.tools.idea.io.FilePaths.pathToIdeaUrl;
 import static com.google.common.truth.Truth.assertThat;
@@ -215,4 +218,137 @@ public class ModuleClassLoaderTest extends AndroidTestCase {
     assertThat(loader.isSourceModified("com.google.example.Modified", null)).isFalse();
     assertThat(loader.isSourceModified("com.google.example.NotModified", null)).isFalse();
   }
+
+  /**
+   * Verifies that classes from the library jars can use the classes compiled from the project (e.g. the data binding library
+   * instantiating the generated DataBinderMapperImpl), and that the project classes take priority over the jar classes with the
+   * same name.
+   */
+  public void testLibraryClassesResolveProjectClasses() throws Exception {
+    File srcDir = FileUtil.createTempDirectory("src", null);
+    File projectSrc = new File(srcDir, "com/google/example/Mapper.java");
+    FileUtil.writeToFile(projectSrc, "package com.google.example; public class Mapper { public static String name() { return \"project\"; } }");
+    // The library ships its own copy of the project class, which must not be used.
+    File libraryMapperSrc = new File(srcDir, "library/com/google/example/Mapper.java");
+    FileUtil.writeToFile(libraryMapperSrc, "package com.google.example; public class Mapper { public static String name() { return \"library\"; } }");
+    File librarySrc = new File(srcDir, "library/com/google/library/Util.java");
+    FileUtil.writeToFile(librarySrc, "package com.google.library; " +
+                                     "public class Util { public static String mapperName() { return com.google.example.Mapper.name(); } }");
+
+    File tmpDir = Files.createTempDir();
+    File outputDir = new File(tmpDir, CompilerModuleExtension.PRODUCTION + "/" + myModule.getName());
+    File libraryClassesDir = new File(tmpDir, "library");
+    assertTrue(FileUtil.createDirectory(outputDir));
+    assertTrue(FileUtil.createDirectory(libraryClassesDir));
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, javac.run(null, null, null, "-d", outputDir.getPath(), projectSrc.getPath()));
+    assertEquals(0, javac.run(null, null, null, "-d", libraryClassesDir.getPath(), libraryMapperSrc.getPath(), librarySrc.getPath()));
+
+    File libraryJar = new File(tmpDir, "library.jar");
+    try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(libraryJar))) {
+      for (String className : ImmutableList.of("com/google/example/Mapper.class", "com/google/library/Util.class")) {
+        jar.putNextEntry(new JarEntry(className));
+        jar.write(FileUtil.loadFileBytes(new File(libraryClassesDir, className)));
+        jar.closeEntry();
+      }
+    }
+    CompilerProjectExtension.getInstance(getProject()).setCompilerOutputUrl(pathToIdeaUrl(tmpDir));
+    VfsUtil.markDirtyAndRefresh(false, true, true, tmpDir);
+    PsiTestUtil.addLibrary(myModule, libraryJar.getPath());
+
+    ApplicationManager.getApplication().runReadAction(() -> {
+      ModuleClassLoader loader = ModuleClassLoader.get(new LayoutLibrary() {
+      }, myModule);
+      try {
+        Class<?> utilClass = loader.loadClass("com.google.library.Util");
+        assertThat(utilClass.getMethod("mapperName").invoke(null)).isEqualTo("project");
+
+        Class<?> mapperClass = loader.loadClass("com.google.example.Mapper");
+        assertThat(mapperClass.getMethod("name").invoke(null)).isEqualTo("project");
+        assertThat(mapperClass.getClassLoader()).isSameAs(loader);
+      }
+      catch (ReflectiveOperationException e) {
+        fail("Unexpected exception " + e.getLocalizedMessage());
+      }
+    });
+  }
+
+  /**
+   * Verifies that the library layer is kept when the project classes are rebuilt, unless library classes have been linked to the
+   * project classes.
+   */
+  public void testLibraryLayerIsKeptWhenProjectClassesChange() throws Exception {
+    File srcDir = FileUtil.createTempDirectory("src", null);
+    File projectSrc = new File(srcDir, "com/google/example/Mapper.java");
+    FileUtil.writeToFile(projectSrc, getMapperSource("project"));
+    File plainSrc = new File(srcDir, "library/com/google/library/Plain.java");
+    FileUtil.writeToFile(plainSrc, "package com.google.library; public class Plain {}");
+    File utilSrc = new File(srcDir, "library/com/google/library/Util.java");
+    FileUtil.writeToFile(utilSrc, "package com.google.library; " +
+                                  "public class Util { public static String mapperName() { return com.google.example.Mapper.name(); } }");
+
+    File tmpDir = Files.createTempDir();
+    File outputDir = new File(tmpDir, CompilerModuleExtension.PRODUCTION + "/" + myModule.getName());
+    File libraryClassesDir = new File(tmpDir, "library");
+    assertTrue(FileUtil.createDirectory(outputDir));
+    assertTrue(FileUtil.createDirectory(libraryClassesDir));
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, javac.run(null, null, null, "-d", outputDir.getPath(), projectSrc.getPath()));
+    assertEquals(0, javac.run(null, null, null, "-d", libraryClassesDir.getPath(), "-cp", outputDir.getPath(), plainSrc.getPath(),
+                              utilSrc.getPath()));
+
+    File libraryJar = new File(tmpDir, "library.jar");
+    try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(libraryJar))) {
+      for (String className : ImmutableList.of("com/google/library/Plain.class", "com/google/library/Util.class")) {
+        jar.putNextEntry(new JarEntry(className));
+        jar.write(FileUtil.loadFileBytes(new File(libraryClassesDir, className)));
+        jar.closeEntry();
+      }
+    }
+    CompilerProjectExtension.getInstance(getProject()).setCompilerOutputUrl(pathToIdeaUrl(tmpDir));
+    VfsUtil.markDirtyAndRefresh(false, true, true, tmpDir);
+    PsiTestUtil.addLibrary(myModule, libraryJar.getPath());
+
+    LayoutLibrary layoutLibrary = new LayoutLibrary() {
+    };
+    ModuleClassLoader loader = ModuleClassLoader.get(layoutLibrary, myModule);
+    Class<?> plainClass = loader.loadClass("com.google.library.Plain");
+    Class<?> mapperClass = loader.loadClass("com.google.example.Mapper");
+    assertThat(mapperClass.getClassLoader()).isSameAs(loader);
+    assertThat(plainClass.getClassLoader()).isSameAs(loader.getParent());
+    assertThat(ModuleClassLoader.get(layoutLibrary, myModule)).isSameAs(loader);
+
+    // Rebuilding a project class only recreates the project layer.
+    FileUtil.writeToFile(projectSrc, getMapperSource("rebuilt project"));
+    assertEquals(0, javac.run(null, null, null, "-d", outputDir.getPath(), projectSrc.getPath()));
+    VfsUtil.markDirtyAndRefresh(false, true, true, tmpDir);
+    ModuleClassLoader newLoader = ModuleClassLoader.get(layoutLibrary, myModule);
+    assertThat(newLoader).isNotSameAs(loader);
+    assertThat(newLoader.getParent()).isSameAs(loader.getParent());
+    assertThat(newLoader.loadClass("com.google.library.Plain")).isSameAs(plainClass);
+
+    // A library class resolves the project classes of the new project layer, which ties the library layer to it.
+    Class<?> utilClass = newLoader.loadClass("com.google.library.Util");
+    assertThat(utilClass.getMethod("mapperName").invoke(null)).isEqualTo("rebuilt project");
+    assertThat(newLoader.loadClass("com.google.example.Mapper").getClassLoader()).isSameAs(newLoader);
+
+    FileUtil.writeToFile(projectSrc, getMapperSource("rebuilt again"));
+    assertEquals(0, javac.run(null, null, null, "-d", outputDir.getPath(), projectSrc.getPath()));
+    VfsUtil.markDirtyAndRefresh(false, true, true, tmpDir);
+    ModuleClassLoader lastLoader = ModuleClassLoader.get(layoutLibrary, myModule);
+    assertThat(lastLoader.getParent()).isNotSameAs(newLoader.getParent());
+    Class<?> newUtilClass = lastLoader.loadClass("com.google.library.Util");
+    assertThat(newUtilClass).isNotSameAs(utilClass);
+    assertThat(newUtilClass.getMethod("mapperName").invoke(null)).isEqualTo("rebuilt again");
+
+    // A different layout library recreates both layers.
+    ModuleClassLoader otherLoader = ModuleClassLoader.get(new LayoutLibrary() {
+    }, myModule);
+    assertThat(otherLoader.getParent()).isNotSameAs(lastLoader.getParent());
+  }
+
+  @NotNull
+  private static String getMapperSource(@NotNull String name) {
+    return "package com.google.example; public class Mapper { public static String name() { return \"" + name + "\"; } }";
+  }
 }
@@ -134,7 +134,7 @@ public class ApkEditor extends UserDataHolderBase implements FileEditor, ApkView
       Path copyOfApk = Files.createTempFile(apkVirtualFile.getNameWithoutExtension(), "." + apkVirtualFile.getExtension());
       Files.copy(VfsUtilCore.virtualToIoFile(apkVirtualFile).toPath(), copyOfApk, StandardCopyOption.REPLACE_EXISTING);
       myArchiveContext = Archives.open(copyOfApk);
-      myApkViewPanel = new ApkViewPanel(myProject, new ApkParser(myArchiveContext, ApkSizeCalculator.getDefault()));
+      myApkViewPanel = new ApkViewPanel(myProject, new ApkParser(myArchiveContext, CachingApkSizeCalculator.getInstance()));
       myApkViewPanel.setListener(this);
       mySplitter.setFirstComponent(myApkViewPanel.getContainer());
       selectionChanged(null);
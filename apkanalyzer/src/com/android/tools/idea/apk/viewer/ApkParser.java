@@ -39,6 +39,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 public class ApkParser {
   private static final ListeningExecutorService ourExecutorService = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
@@ -87,10 +88,17 @@ public class ApkParser {
   @NotNull
   public synchronized ListenableFuture<ArchiveNode> updateTreeWithDownloadSizes() {
     if (myTreeStructureWithDownloadSizes == null) {
-      myTreeStructureWithDownloadSizes = Futures.transform(constructTreeStructure(), input -> {
-        ArchiveTreeStructure.updateDownloadFileSizes(input, myApkSizeCalculator);
-        return input;
-      }, PooledThreadExecutor.INSTANCE);
+      // Compute the download sizes while the tree is being constructed, rather than after, and hand them over to the tree update so
+      // they are not computed again.
+      ListenableFuture<Map<String, Long>> downloadSizes =
+        ourExecutorService.submit(() -> myApkSizeCalculator.getDownloadSizePerFile(myArchiveContext.getArchive().getPath()));
+      myTreeStructureWithDownloadSizes = Futures.transformAsync(
+        constructTreeStructure(),
+        input -> Futures.transform(downloadSizes, sizes -> {
+          ArchiveTreeStructure.updateDownloadFileSizes(input, new PrecomputedDownloadSizeCalculator(myApkSizeCalculator, sizes));
+          return input;
+        }, PooledThreadExecutor.INSTANCE),
+        PooledThreadExecutor.INSTANCE);
     }
     return myTreeStructureWithDownloadSizes;
   }
@@ -182,4 +190,39 @@ public class ApkParser {
     List<String> xmlTree = invoker.getXmlTree(archiveFile, entryPath);
     return AndroidApplicationInfo.parse(xmlTree);
   }
+
+  /**
+   * Answers {@link #getDownloadSizePerFile} with sizes that were already computed, and delegates everything else.
+   */
+  private static class PrecomputedDownloadSizeCalculator implements ApkSizeCalculator {
+    @NotNull private final ApkSizeCalculator myDelegate;
+    @NotNull private final Map<String, Long> myDownloadSizePerFile;
+
+    PrecomputedDownloadSizeCalculator(@NotNull ApkSizeCalculator delegate, @NotNull Map<String, Long> downloadSizePerFile) {
+      myDelegate = delegate;
+      myDownloadSizePerFile = downloadSizePerFile;
+    }
+
+    @Override
+    public long getFullApkDownloadSize(@NotNull Path apk) {
+      return myDelegate.getFullApkDownloadSize(apk);
+    }
+
+    @Override
+    public long getFullApkRawSize(@NotNull Path apk) {
+      return myDelegate.getFullApkRawSize(apk);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Long> getDownloadSizePerFile(@NotNull Path apk) {
+      return myDownloadSizePerFile;
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Long> getRawSizePerFile(@NotNull Path apk) {
+      return myDelegate.getRawSizePerFile(apk);
+    }
+  }
 }
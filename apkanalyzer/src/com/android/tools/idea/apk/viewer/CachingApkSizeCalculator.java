@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.apk.analyzer.ApkSizeCalculator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * An {@link ApkSizeCalculator} that remembers the sizes computed by another calculator, in memory and on disk, so that opening the same
+ * archive again does not compute them again. Computing download sizes means compressing the whole archive, which takes a long time for
+ * large APKs.
+ * <p>
+ * Sizes are keyed by the SHA-256 of the archive's contents, so a rebuilt archive never gets stale sizes. The hash itself is only
+ * computed once per session for the same file, size and modification time.
+ */
+public class CachingApkSizeCalculator implements ApkSizeCalculator {
+  // Increase the value when changing the format of the cache files.
+  private static final int FORMAT_VERSION = 1;
+  @VisibleForTesting static final int MAX_CACHED_FILE_COUNT = 200;
+  // Each archive has four kinds of sizes, so this keeps the sizes of the last few archives opened in memory.
+  private static final int MAX_SIZES_IN_MEMORY = 32;
+  private static final int MAX_HASHES_IN_MEMORY = 64;
+
+  private static final String FULL_DOWNLOAD_SIZE = "download";
+  private static final String FULL_RAW_SIZE = "raw";
+  private static final String DOWNLOAD_SIZE_PER_FILE = "download-per-file";
+  private static final String RAW_SIZE_PER_FILE = "raw-per-file";
+
+  @NotNull private final ApkSizeCalculator myDelegate;
+  @NotNull private final File myCacheDirectory;
+  // Archive hashes, by path, size and modification time.
+  @NotNull private final Cache<String, String> myHashes = CacheBuilder.newBuilder().maximumSize(MAX_HASHES_IN_MEMORY).build();
+  // Sizes already read or computed in this session, by archive hash and kind of size. Evicted ones are read back from disk.
+  @NotNull private final Cache<String, Map<String, Long>> mySizes =
+    CacheBuilder.newBuilder().maximumSize(MAX_SIZES_IN_MEMORY).softValues().build();
+
+  @NotNull
+  public static ApkSizeCalculator getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  @VisibleForTesting
+  CachingApkSizeCalculator(@NotNull ApkSizeCalculator delegate, @NotNull File cacheDirectory) {
+    myDelegate = delegate;
+    myCacheDirectory = cacheDirectory;
+  }
+
+  @Override
+  public long getFullApkDownloadSize(@NotNull Path apk) {
+    return getLong(apk, FULL_DOWNLOAD_SIZE, () -> myDelegate.getFullApkDownloadSize(apk));
+  }
+
+  @Override
+  public long getFullApkRawSize(@NotNull Path apk) {
+    return getLong(apk, FULL_RAW_SIZE, () -> myDelegate.getFullApkRawSize(apk));
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Long> getDownloadSizePerFile(@NotNull Path apk) {
+    return getMap(apk, DOWNLOAD_SIZE_PER_FILE, () -> myDelegate.getDownloadSizePerFile(apk));
+  }
+
+  @NotNull
+  @Override
+  public Map<String, Long> getRawSizePerFile(@NotNull Path apk) {
+    return getMap(apk, RAW_SIZE_PER_FILE, () -> myDelegate.getRawSizePerFile(apk));
+  }
+
+  private long getLong(@NotNull Path apk, @NotNull String kind, @NotNull Supplier<Long> compute) {
+    Map<String, Long> sizes = getMap(apk, kind, () -> Collections.singletonMap(kind, compute.get()));
+    return sizes.get(kind);
+  }
+
+  @NotNull
+  private Map<String, Long> getMap(@NotNull Path apk, @NotNull String kind, @NotNull Supplier<Map<String, Long>> compute) {
+    String hash = getHash(apk);
+    if (hash == null) {
+      return compute.get();
+    }
+    String key = hash + '-' + kind;
+    Map<String, Long> sizes = mySizes.getIfPresent(key);
+    if (sizes == null) {
+      File file = new File(myCacheDirectory, key);
+      sizes = read(file);
+      if (sizes == null) {
+        sizes = compute.get();
+        write(file, sizes);
+      }
+      mySizes.put(key, sizes);
+    }
+    return sizes;
+  }
+
+  @Nullable
+  private String getHash(@NotNull Path apk) {
+    File file = apk.toFile();
+    String fileKey = file.getAbsolutePath() + '@' + file.length() + '@' + file.lastModified();
+    String hash = myHashes.getIfPresent(fileKey);
+    if (hash == null) {
+      try {
+        hash = Files.asByteSource(file).hash(Hashing.sha256()).toString();
+      }
+      catch (IOException | UnsupportedOperationException e) {
+        // The archive is not a regular file (e.g. it is in a zip file system): do not cache its sizes.
+        return null;
+      }
+      myHashes.put(fileKey, hash);
+    }
+    return hash;
+  }
+
+  @Nullable
+  private static Map<String, Long> read(@NotNull File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != FORMAT_VERSION) {
+        return null;
+      }
+      int count = input.readInt();
+      Map<String, Long> sizes = new HashMap<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        sizes.put(input.readUTF(), input.readLong());
+      }
+      return sizes;
+    }
+    catch (IOException e) {
+      Logger.getInstance(CachingApkSizeCalculator.class).warn("Unable to read cached APK sizes from " + file, e);
+      return null;
+    }
+  }
+
+  private void write(@NotNull File file, @NotNull Map<String, Long> sizes) {
+    try {
+      myCacheDirectory.mkdirs();
+      // Write to a temporary file first, so a partially written file can never be read back.
+      File tempFile = File.createTempFile(file.getName(), ".tmp", myCacheDirectory);
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(sizes.size());
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue());
+        }
+      }
+      catch (IOException e) {
+        tempFile.delete();
+        throw e;
+      }
+      Files.move(tempFile, file);
+    }
+    catch (IOException e) {
+      Logger.getInstance(CachingApkSizeCalculator.class).warn("Unable to cache APK sizes in " + file, e);
+      return;
+    }
+    deleteOldestFiles();
+  }
+
+  /**
+   * Keeps the cache directory from growing without bound, by deleting the least recently written files.
+   */
+  private void deleteOldestFiles() {
+    File[] files = myCacheDirectory.listFiles();
+    if (files == null || files.length <= MAX_CACHED_FILE_COUNT) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (int i = 0; i < files.length - MAX_CACHED_FILE_COUNT; i++) {
+      files[i].delete();
+    }
+  }
+
+  private static class InstanceHolder {
+    static final CachingApkSizeCalculator INSTANCE =
+      new CachingApkSizeCalculator(ApkSizeCalculator.getDefault(), new File(PathManager.getSystemPath(), "apk-analyzer/sizes"));
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import com.android.tools.apk.analyzer.dex.DexFiles;
+import com.android.tools.apk.analyzer.dex.DexReferences;
+import com.android.utils.concurrency.CacheUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.intellij.openapi.components.ServiceManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.ide.PooledThreadExecutor;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache of the dex files opened in the APK Analyzer and of the references between their classes and members, so that reopening a dex
+ * file, or showing its bytecode or references, does not parse it again. Entries are keyed by the SHA-1 signature stored in the header of
+ * each dex file, which identifies its contents regardless of the APK it was read from. This class is thread-safe.
+ */
+public final class DexFileCache {
+  // See https://source.android.com/devices/tech/dalvik/dex-format#header-item
+  private static final int SIGNATURE_OFFSET = 12;
+  private static final int SIGNATURE_LENGTH = 20;
+
+  private final Cache<String, DexBackedDexFile> myDexFiles = CacheBuilder.newBuilder().softValues().build();
+  private final Cache<String, DexReferences> myReferences = CacheBuilder.newBuilder().softValues().build();
+  private final ListeningExecutorService myExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
+
+  @NotNull
+  public static DexFileCache getInstance() {
+    return ServiceManager.getService(DexFileCache.class);
+  }
+
+  /**
+   * Returns the parsed contents of the given dex file, parsing it on a pooled thread if it is not in the cache.
+   */
+  @NotNull
+  public ListenableFuture<DexBackedDexFile> getDexFile(@NotNull Path dexFile) {
+    return myExecutor.submit(() -> CacheUtils.getAndUnwrap(myDexFiles, readSignature(dexFile), () -> DexFiles.getDexFile(dexFile)));
+  }
+
+  /**
+   * Returns the parsed contents of the given dex files, in the same order. Dex files not in the cache are parsed in parallel.
+   */
+  @NotNull
+  public ListenableFuture<DexBackedDexFile[]> getDexFiles(@NotNull Path[] dexFiles) {
+    List<ListenableFuture<DexBackedDexFile>> futures = new ArrayList<>(dexFiles.length);
+    for (Path dexFile : dexFiles) {
+      futures.add(getDexFile(dexFile));
+    }
+    return Futures.transform(Futures.allAsList(futures), files -> files.toArray(new DexBackedDexFile[0]), myExecutor);
+  }
+
+  /**
+   * Returns the references between the classes and members of the given dex files. They are only computed once for the same set of
+   * dex files, no matter how many editors they are opened in.
+   */
+  @NotNull
+  public ListenableFuture<DexReferences> getReferences(@NotNull Path[] dexFiles) {
+    ListenableFuture<String> key = myExecutor.submit(() -> {
+      StringBuilder signatures = new StringBuilder();
+      for (Path dexFile : dexFiles) {
+        signatures.append(readSignature(dexFile)).append(',');
+      }
+      return signatures.toString();
+    });
+    return Futures.transformAsync(key, signatures -> {
+      assert signatures != null;
+      DexReferences references = myReferences.getIfPresent(signatures);
+      if (references != null) {
+        return Futures.immediateFuture(references);
+      }
+      return Futures.transform(getDexFiles(dexFiles), files -> {
+        DexReferences computed = new DexReferences(files);
+        myReferences.put(signatures, computed);
+        return computed;
+      }, myExecutor);
+    }, myExecutor);
+  }
+
+  /**
+   * Returns the SHA-1 signature of the contents of the given dex file, as stored in its header.
+   */
+  @NotNull
+  static String readSignature(@NotNull Path dexFile) throws IOException {
+    byte[] header = new byte[SIGNATURE_OFFSET + SIGNATURE_LENGTH];
+    try (InputStream input = Files.newInputStream(dexFile); DataInputStream dataInput = new DataInputStream(input)) {
+      dataInput.readFully(header);
+    }
+    catch (EOFException e) {
+      throw new IOException(dexFile + " is not a valid dex file", e);
+    }
+    return BaseEncoding.base16().encode(header, SIGNATURE_OFFSET, SIGNATURE_LENGTH);
+  }
+}
@@ -277,13 +277,20 @@ public class DexFileViewer implements ApkFileEditorComponent {
 
   public void initDex() {
     ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
-    ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture = pooledThreadExecutor.submit(() -> {
-      Map<Path, DexBackedDexFile> dexFiles = Maps.newHashMapWithExpectedSize(myDexFiles.length);
-      for (int i = 0; i < myDexFiles.length; i++) {
-        dexFiles.put(myDexFiles[i], DexFiles.getDexFile(myDexFiles[i]));
-      }
-      return dexFiles;
-    });
+    ListenableFuture<DexBackedDexFile[]> loadedDexFiles = DexFileCache.getInstance().getDexFiles(myDexFiles);
+    ListenableFuture<Map<Path, DexBackedDexFile>> dexFileFuture =
+      Futures.transform(loadedDexFiles, new Function<DexBackedDexFile[], Map<Path, DexBackedDexFile>>() {
+        @NotNull
+        @Override
+        public Map<Path, DexBackedDexFile> apply(@Nullable DexBackedDexFile[] input) {
+          assert input != null;
+          Map<Path, DexBackedDexFile> dexFiles = Maps.newHashMapWithExpectedSize(myDexFiles.length);
+          for (int i = 0; i < myDexFiles.length; i++) {
+            dexFiles.put(myDexFiles[i], input[i]);
+          }
+          return dexFiles;
+        }
+      }, pooledThreadExecutor);
 
     ListenableFuture<DexPackageNode> treeNodeFuture =
       Futures.transform(dexFileFuture, new Function<Map<Path, DexBackedDexFile>, DexPackageNode>() {
@@ -395,21 +402,7 @@ public class DexFileViewer implements ApkFileEditorComponent {
   @Nullable
   ListenableFuture<DexReferences> getDexReferences() {
     if (myDexReferences == null) {
-      ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
-      ListenableFuture<DexBackedDexFile[]> dexFileFuture = pooledThreadExecutor.submit(() -> {
-        DexBackedDexFile[] files = new DexBackedDexFile[myDexFiles.length];
-        for (int i = 0; i < files.length; i++) {
-          files[i] = DexFiles.getDexFile(myDexFiles[i]);
-        }
-        return files;
-      });
-      myDexReferences = Futures.transform(dexFileFuture, new Function<DexBackedDexFile[], DexReferences>() {
-        @Override
-        public DexReferences apply(@Nullable DexBackedDexFile[] inputs) {
-          assert inputs != null;
-          return new DexReferences(inputs);
-        }
-      }, pooledThreadExecutor);
+      myDexReferences = DexFileCache.getInstance().getReferences(myDexFiles);
     }
 
     return myDexReferences;
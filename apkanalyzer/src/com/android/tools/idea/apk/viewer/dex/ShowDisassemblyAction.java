@@ -17,7 +17,6 @@ package com.android.tools.idea.apk.viewer.dex;
 
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.apk.analyzer.dex.DexDisassembler;
-import com.android.tools.apk.analyzer.dex.DexFiles;
 import com.android.tools.apk.analyzer.dex.tree.DexClassNode;
 import com.android.tools.apk.analyzer.dex.tree.DexElementNode;
 import com.android.tools.apk.analyzer.dex.tree.DexMethodNode;
@@ -37,7 +36,6 @@ import com.intellij.openapi.util.Disposer;
 import com.intellij.ui.treeStructure.Tree;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.ide.PooledThreadExecutor;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.iface.reference.MethodReference;
 import org.jf.dexlib2.util.ReferenceUtil;
@@ -102,9 +100,8 @@ public class ShowDisassemblyAction extends AnAction implements DumbAware {
 
     Project project = getEventProject(e);
     assert project != null;
-    ListeningExecutorService pooledThreadExecutor = MoreExecutors.listeningDecorator(PooledThreadExecutor.INSTANCE);
     Path dexPath = (Path)node.getUserObject();
-    ListenableFuture<DexBackedDexFile> dexFileFuture = pooledThreadExecutor.submit(() -> DexFiles.getDexFile(dexPath));
+    ListenableFuture<DexBackedDexFile> dexFileFuture = DexFileCache.getInstance().getDexFile(dexPath);
     Futures.addCallback(dexFileFuture, new FutureCallback<DexBackedDexFile>() {
       @Override
       public void onSuccess(@Nullable DexBackedDexFile dexBackedDexFile) {
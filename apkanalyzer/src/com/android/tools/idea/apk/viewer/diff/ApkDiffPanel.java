@@ -20,7 +20,6 @@ import com.android.tools.adtui.common.ColumnTreeBuilder;
 import com.android.tools.apk.analyzer.ArchiveContext;
 import com.android.tools.apk.analyzer.Archives;
 import com.android.tools.apk.analyzer.internal.ApkDiffEntry;
-import com.android.tools.apk.analyzer.internal.ApkDiffParser;
 import com.android.tools.apk.analyzer.internal.ApkEntry;
 import com.android.tools.apk.analyzer.internal.ApkFileByFileDiffParser;
 import com.android.tools.idea.apk.viewer.ApkViewPanel.FutureCallBackAdapter;
@@ -33,6 +32,7 @@ import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.ColoredTreeCellRenderer;
 import com.intellij.ui.LoadingNode;
+import com.intellij.ui.SimpleTextAttributes;
 import com.intellij.ui.TreeSpeedSearch;
 import com.intellij.ui.treeStructure.Tree;
 import com.intellij.util.Function;
@@ -106,12 +106,9 @@ public class ApkDiffPanel {
 
   private void constructDiffTree(){
     // construct the main tree
-    ListenableFuture<DefaultMutableTreeNode> treeStructureFuture = ourExecutorService.submit(() -> {
-      try (ArchiveContext archiveContext1 = Archives.open(VfsUtilCore.virtualToIoFile(myOldApk).toPath());
-           ArchiveContext archiveContext2 = Archives.open(VfsUtilCore.virtualToIoFile(myNewApk).toPath())) {
-        return ApkDiffParser.createTreeNode(archiveContext1, archiveContext2);
-      }
-    });
+    ListenableFuture<DefaultMutableTreeNode> treeStructureFuture = ourExecutorService.submit(
+      () -> ArchiveDiffParser.createTreeNode(VfsUtilCore.virtualToIoFile(myOldApk), VfsUtilCore.virtualToIoFile(myNewApk),
+                                             ourExecutorService));
     FutureCallBackAdapter<DefaultMutableTreeNode> setRootNode = new FutureCallBackAdapter<DefaultMutableTreeNode>() {
       @Override
       public void onSuccess(DefaultMutableTreeNode result) {
@@ -132,6 +129,10 @@ public class ApkDiffPanel {
     Convertor<TreePath, String> convertor = new Convertor<TreePath, String>() {
       @Override
       public String convert(TreePath path) {
+        ArchiveDiffEntry diffEntry = ArchiveDiffEntry.fromNode(path.getLastPathComponent());
+        if (diffEntry != null) {
+          return diffEntry.getPath();
+        }
         ApkEntry e = ApkEntry.fromNode(path.getLastPathComponent());
         if (e == null) {
           return null;
@@ -153,17 +154,17 @@ public class ApkDiffPanel {
                    .setName("Old Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkDiffEntry::getOldSize)))
+                   .setRenderer(new SizeRenderer(ApkDiffEntry::getOldSize, ArchiveDiffEntry::getOldSize)))
       .addColumn(new ColumnTreeBuilder.ColumnBuilder()
                    .setName("New Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkDiffEntry::getNewSize)))
+                   .setRenderer(new SizeRenderer(ApkDiffEntry::getNewSize, ArchiveDiffEntry::getNewSize)))
       .addColumn(new ColumnTreeBuilder.ColumnBuilder()
                    .setName("Diff Size")
                    .setPreferredWidth(150)
                    .setHeaderAlignment(SwingConstants.TRAILING)
-                   .setRenderer(new SizeRenderer(ApkEntry::getSize)));
+                   .setRenderer(new SizeRenderer(ApkEntry::getSize, ArchiveDiffEntry::getDiffSize)));
     myColumnTreePane = builder.build();
   }
 
@@ -180,8 +181,7 @@ public class ApkDiffPanel {
   private void setRootNode(@NotNull DefaultMutableTreeNode root) {
     myTreeModel = new DefaultTreeModel(root);
 
-    ApkEntry entry = ApkEntry.fromNode(root);
-    assert entry != null;
+    assert ApkEntry.fromNode(root) != null || ArchiveDiffEntry.fromNode(root) != null;
 
     myTree.setPaintBusy(false);
     myTree.setRootVisible(true);
@@ -189,12 +189,22 @@ public class ApkDiffPanel {
     myTree.setModel(myTreeModel);
   }
 
+  /**
+   * Entries with the same contents in both archives are grayed out, so the ones that changed stand out.
+   */
+  @NotNull
+  private static SimpleTextAttributes getAttributes(@NotNull ArchiveDiffEntry entry) {
+    return entry.isChanged() ? SimpleTextAttributes.REGULAR_ATTRIBUTES : SimpleTextAttributes.GRAYED_ATTRIBUTES;
+  }
+
   // Duplicated from ApkViewPanel.SizeRenderer until the diff entries are unified into the ArchiveEntry data class.
   public static class SizeRenderer extends ColoredTreeCellRenderer {
     private Function<ApkEntry, Long> mySizeMapper;
+    private Function<ArchiveDiffEntry, Long> myDiffSizeMapper;
 
-    public SizeRenderer(Function<ApkEntry, Long> sizeMapper) {
+    public SizeRenderer(Function<ApkEntry, Long> sizeMapper, Function<ArchiveDiffEntry, Long> diffSizeMapper) {
       mySizeMapper = sizeMapper;
+      myDiffSizeMapper = diffSizeMapper;
       setTextAlign(SwingConstants.RIGHT);
     }
 
@@ -206,6 +216,12 @@ public class ApkDiffPanel {
                                       boolean leaf,
                                       int row,
                                       boolean hasFocus) {
+      ArchiveDiffEntry diffEntry = ArchiveDiffEntry.fromNode(value);
+      if (diffEntry != null) {
+        append(getHumanizedSize(myDiffSizeMapper.fun(diffEntry)), getAttributes(diffEntry));
+        return;
+      }
+
       ApkEntry entry = ApkEntry.fromNode(value);
       ApkEntry root = ApkEntry.fromNode(tree.getModel().getRoot());
 
@@ -229,6 +245,12 @@ public class ApkDiffPanel {
                                       boolean leaf,
                                       int row,
                                       boolean hasFocus) {
+      ArchiveDiffEntry diffEntry = ArchiveDiffEntry.fromNode(value);
+      if (diffEntry != null) {
+        append(diffEntry.getName(), getAttributes(diffEntry));
+        return;
+      }
+
       ApkEntry entry = ApkEntry.fromNode(value);
       ApkEntry root = ApkEntry.fromNode(tree.getModel().getRoot());
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * An entry of the tree created by {@link ArchiveDiffParser}: a file or directory in either of the compared archives, with its
+ * uncompressed size in each of them.
+ */
+public final class ArchiveDiffEntry {
+  @NotNull private final String myName;
+  @NotNull private final String myPath;
+  private final long myOldSize;
+  private final long myNewSize;
+  private final boolean myChanged;
+
+  ArchiveDiffEntry(@NotNull String name, @NotNull String path, long oldSize, long newSize, boolean changed) {
+    myName = name;
+    myPath = path;
+    myOldSize = oldSize;
+    myNewSize = newSize;
+    myChanged = changed;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  /**
+   * Returns the path of this entry in the archives, e.g. "/res/drawable/icon.png". The root's path is "/".
+   */
+  @NotNull
+  public String getPath() {
+    return myPath;
+  }
+
+  public long getOldSize() {
+    return myOldSize;
+  }
+
+  public long getNewSize() {
+    return myNewSize;
+  }
+
+  public long getDiffSize() {
+    return myNewSize - myOldSize;
+  }
+
+  /**
+   * Returns false if this entry (or, for a directory, every entry under it) has the same contents in both archives.
+   */
+  public boolean isChanged() {
+    return myChanged;
+  }
+
+  @Nullable
+  public static ArchiveDiffEntry fromNode(@Nullable Object node) {
+    if (!(node instanceof DefaultMutableTreeNode)) {
+      return null;
+    }
+    Object entry = ((DefaultMutableTreeNode)node).getUserObject();
+    return entry instanceof ArchiveDiffEntry ? (ArchiveDiffEntry)entry : null;
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Compares two APKs or app bundles entry by entry.
+ * <p>
+ * Only the ZIP central directories of the archives are read, never the contents of their entries: the central directory has the
+ * uncompressed size and the CRC-32 of every entry, which is enough to tell the size difference and whether the contents changed.
+ * This keeps comparing large archives fast, and the memory used proportional to the number of entries rather than to their size.
+ */
+public final class ArchiveDiffParser {
+  private ArchiveDiffParser() {
+  }
+
+  /**
+   * Creates the tree of differences between the two archives, reading their central directories in parallel on the given executor.
+   * The children of each directory are sorted by decreasing size difference.
+   */
+  @NotNull
+  public static DefaultMutableTreeNode createTreeNode(@NotNull File oldArchive,
+                                                      @NotNull File newArchive,
+                                                      @NotNull ListeningExecutorService executor) throws IOException {
+    ListenableFuture<Map<String, EntryInfo>> oldEntries = executor.submit(() -> readCentralDirectory(oldArchive));
+    Map<String, EntryInfo> newEntries = readCentralDirectory(newArchive);
+    try {
+      return createTreeNode(newArchive.getName(), oldEntries.get(), newEntries);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @NotNull
+  static DefaultMutableTreeNode createTreeNode(@NotNull String rootName,
+                                               @NotNull Map<String, EntryInfo> oldEntries,
+                                               @NotNull Map<String, EntryInfo> newEntries) {
+    Node root = new Node(rootName, "/");
+    Set<String> names = new TreeSet<>(oldEntries.keySet());
+    names.addAll(newEntries.keySet());
+    for (String name : names) {
+      EntryInfo oldEntry = oldEntries.get(name);
+      EntryInfo newEntry = newEntries.get(name);
+      // Entries with the same size and CRC are considered identical, without comparing their contents.
+      boolean changed = oldEntry == null || newEntry == null || oldEntry.size != newEntry.size || oldEntry.crc != newEntry.crc;
+      root.add(name.split("/"), 0, oldEntry == null ? 0 : oldEntry.size, newEntry == null ? 0 : newEntry.size, changed);
+    }
+    return root.toTreeNode();
+  }
+
+  /**
+   * Returns the sizes and CRCs of the files in the given archive, by name. Directory entries are skipped, since directories are derived
+   * from the names of the files.
+   */
+  @NotNull
+  static Map<String, EntryInfo> readCentralDirectory(@NotNull File archive) throws IOException {
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      Map<String, EntryInfo> entries = new HashMap<>(zipFile.size());
+      Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry entry = zipEntries.nextElement();
+        if (!entry.isDirectory()) {
+          entries.put(entry.getName(), new EntryInfo(Math.max(entry.getSize(), 0), entry.getCrc()));
+        }
+      }
+      return entries;
+    }
+  }
+
+  static final class EntryInfo {
+    final long size;
+    final long crc;
+
+    EntryInfo(long size, long crc) {
+      this.size = size;
+      this.crc = crc;
+    }
+  }
+
+  private static final class Node {
+    @NotNull private final String myName;
+    @NotNull private final String myPath;
+    @Nullable private Map<String, Node> myChildren;
+    private long myOldSize;
+    private long myNewSize;
+    private boolean myChanged;
+
+    Node(@NotNull String name, @NotNull String path) {
+      myName = name;
+      myPath = path;
+    }
+
+    void add(@NotNull String[] segments, int index, long oldSize, long newSize, boolean changed) {
+      myOldSize += oldSize;
+      myNewSize += newSize;
+      myChanged |= changed;
+      if (index == segments.length) {
+        return;
+      }
+      if (myChildren == null) {
+        myChildren = new HashMap<>();
+      }
+      String segment = segments[index];
+      String path = myPath.endsWith("/") ? myPath + segment : myPath + "/" + segment;
+      myChildren.computeIfAbsent(segment, name -> new Node(name, path)).add(segments, index + 1, oldSize, newSize, changed);
+    }
+
+    @NotNull
+    DefaultMutableTreeNode toTreeNode() {
+      DefaultMutableTreeNode node = new DefaultMutableTreeNode(new ArchiveDiffEntry(myName, myPath, myOldSize, myNewSize, myChanged));
+      if (myChildren != null) {
+        List<Node> children = new ArrayList<>(myChildren.values());
+        children.sort(Comparator.comparingLong((Node child) -> child.myNewSize - child.myOldSize).reversed()
+                        .thenComparing(child -> child.myName));
+        for (Node child : children) {
+          node.add(child.toTreeNode());
+        }
+      }
+      return node;
+    }
+  }
+}
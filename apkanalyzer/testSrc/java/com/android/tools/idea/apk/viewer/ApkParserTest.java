@@ -17,6 +17,7 @@ package com.android.tools.idea.apk.viewer;
 
 import com.android.ide.common.util.PathString;
 import com.android.testutils.TestResources;
+import com.android.tools.apk.analyzer.ApkSizeCalculator;
 import com.android.tools.apk.analyzer.ArchiveContext;
 import com.android.tools.apk.analyzer.ArchiveNode;
 import com.android.tools.apk.analyzer.Archives;
@@ -26,8 +27,12 @@ import com.google.common.util.concurrent.ListenableFuture;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -56,6 +61,29 @@ public class ApkParserTest {
     checkArchive(archivePath);
   }
 
+  @Test
+  public void downloadSizesAreComputedOnce() throws Exception {
+    PathString archivePath = getArchivePath("test.apk");
+    try (ArchiveContext archiveContext = Archives.open(archivePath.toPath(), new StdLogger(StdLogger.Level.VERBOSE))) {
+      AtomicInteger downloadSizeCount = new AtomicInteger();
+      ApkSizeCalculator calculator = new GzipSizeCalculator() {
+        @NotNull
+        @Override
+        public Map<String, Long> getDownloadSizePerFile(@NotNull Path apk) {
+          downloadSizeCount.incrementAndGet();
+          return super.getDownloadSizePerFile(apk);
+        }
+      };
+      ApkParser parser = new ApkParser(archiveContext, calculator);
+
+      ArchiveNode tree = parser.updateTreeWithDownloadSizes().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(tree);
+      assertEquals(1, downloadSizeCount.get());
+
+      parser.cancelAll();
+    }
+  }
+
   private static void checkArchive(@NotNull PathString archivePath) throws Exception {
     try (ArchiveContext archiveContext = Archives.open(archivePath.toPath(), new StdLogger(StdLogger.Level.VERBOSE))) {
       ApkParser parser = new ApkParser(archiveContext, new GzipSizeCalculator());
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer;
+
+import com.android.tools.apk.analyzer.ApkSizeCalculator;
+import com.google.common.collect.ImmutableMap;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingApkSizeCalculatorTest {
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  private File myCacheDirectory;
+  private CountingSizeCalculator myDelegate;
+
+  @Before
+  public void setUp() throws IOException {
+    myCacheDirectory = myTemporaryFolder.newFolder("cache");
+    myDelegate = new CountingSizeCalculator();
+  }
+
+  @Test
+  public void sizesAreComputedOnce() throws IOException {
+    Path apk = createApk("app.apk", "contents");
+    CachingApkSizeCalculator calculator = new CachingApkSizeCalculator(myDelegate, myCacheDirectory);
+    assertEquals(100, calculator.getFullApkDownloadSize(apk));
+    assertEquals(100, calculator.getFullApkDownloadSize(apk));
+    assertEquals(ImmutableMap.of("/classes.dex", 10L), calculator.getDownloadSizePerFile(apk));
+    assertEquals(ImmutableMap.of("/classes.dex", 10L), calculator.getDownloadSizePerFile(apk));
+    assertEquals(2, myDelegate.myCallCount);
+
+    // A new session reads the sizes from disk.
+    CachingApkSizeCalculator newCalculator = new CachingApkSizeCalculator(myDelegate, myCacheDirectory);
+    assertEquals(100, newCalculator.getFullApkDownloadSize(apk));
+    assertEquals(ImmutableMap.of("/classes.dex", 10L), newCalculator.getDownloadSizePerFile(apk));
+    assertEquals(2, myDelegate.myCallCount);
+
+    // Another file with the same contents shares the sizes.
+    assertEquals(100, newCalculator.getFullApkDownloadSize(createApk("copy.apk", "contents")));
+    assertEquals(2, myDelegate.myCallCount);
+  }
+
+  @Test
+  public void sizesAreRecomputedWhenContentsChange() throws IOException {
+    Path apk = createApk("app.apk", "contents");
+    CachingApkSizeCalculator calculator = new CachingApkSizeCalculator(myDelegate, myCacheDirectory);
+    assertEquals(200, calculator.getFullApkRawSize(apk));
+
+    Files.write(apk, "new contents".getBytes());
+    assertEquals(200, calculator.getFullApkRawSize(apk));
+    assertEquals(2, myDelegate.myCallCount);
+  }
+
+  @NotNull
+  private Path createApk(@NotNull String name, @NotNull String contents) throws IOException {
+    Path apk = new File(myTemporaryFolder.getRoot(), name).toPath();
+    Files.write(apk, contents.getBytes());
+    return apk;
+  }
+
+  private static class CountingSizeCalculator implements ApkSizeCalculator {
+    private int myCallCount;
+
+    @Override
+    public long getFullApkDownloadSize(@NotNull Path apk) {
+      myCallCount++;
+      return 100;
+    }
+
+    @Override
+    public long getFullApkRawSize(@NotNull Path apk) {
+      myCallCount++;
+      return 200;
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Long> getDownloadSizePerFile(@NotNull Path apk) {
+      myCallCount++;
+      return ImmutableMap.of("/classes.dex", 10L);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Long> getRawSizePerFile(@NotNull Path apk) {
+      myCallCount++;
+      return ImmutableMap.of("/classes.dex", 20L);
+    }
+  }
+}
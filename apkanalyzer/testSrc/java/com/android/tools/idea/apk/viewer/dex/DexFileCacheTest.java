@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.dex;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class DexFileCacheTest {
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void readSignature() throws IOException {
+    Path first = createHeader(1);
+    Path second = createHeader(2);
+    assertEquals("0102030405060708090A0B0C0D0E0F1011121314", DexFileCache.readSignature(first));
+    assertEquals(DexFileCache.readSignature(first), DexFileCache.readSignature(createHeader(1)));
+    assertNotEquals(DexFileCache.readSignature(first), DexFileCache.readSignature(second));
+  }
+
+  @Test
+  public void readSignatureOfTruncatedFile() throws IOException {
+    Path file = myTemporaryFolder.newFile("truncated.dex").toPath();
+    Files.write(file, new byte[16]);
+    try {
+      DexFileCache.readSignature(file);
+      fail("Expected an IOException");
+    }
+    catch (IOException expected) {
+    }
+  }
+
+  private Path createHeader(int seed) throws IOException {
+    // dex magic (8 bytes), checksum (4 bytes), then the signature (20 bytes.)
+    byte[] header = new byte[0x70];
+    for (int i = 0; i < 20; i++) {
+      header[12 + i] = (byte)(seed * (i + 1));
+    }
+    Path file = myTemporaryFolder.newFile().toPath();
+    Files.write(file, header);
+    return file;
+  }
+}
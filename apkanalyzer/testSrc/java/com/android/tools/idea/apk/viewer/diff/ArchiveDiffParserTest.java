@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.apk.viewer.diff;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ArchiveDiffParserTest {
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void createTreeNode() throws IOException {
+    File oldArchive = createArchive("old.apk", "classes.dex", "0123456789", "res/a.xml", "aaaa", "res/b.xml", "bbbb", "removed.txt", "x");
+    File newArchive = createArchive("new.apk", "classes.dex", "0123456789abcdef", "res/a.xml", "aaaa", "res/b.xml", "cccc", "added.txt", "yy");
+
+    DefaultMutableTreeNode root =
+      ArchiveDiffParser.createTreeNode(oldArchive, newArchive, MoreExecutors.newDirectExecutorService());
+    ArchiveDiffEntry rootEntry = ArchiveDiffEntry.fromNode(root);
+    assertNotNull(rootEntry);
+    assertEquals("/", rootEntry.getPath());
+    assertEquals(19, rootEntry.getOldSize());
+    assertEquals(26, rootEntry.getNewSize());
+    assertTrue(rootEntry.isChanged());
+
+    // Children are sorted by decreasing size difference.
+    assertEquals(4, root.getChildCount());
+    ArchiveDiffEntry dex = getChild(root, 0);
+    assertEquals("classes.dex", dex.getName());
+    assertEquals(6, dex.getDiffSize());
+    assertEquals("added.txt", getChild(root, 1).getName());
+    assertEquals("res", getChild(root, 2).getName());
+    assertEquals("removed.txt", getChild(root, 3).getName());
+    assertEquals(-1, getChild(root, 3).getDiffSize());
+
+    // Same size, but different contents.
+    DefaultMutableTreeNode res = (DefaultMutableTreeNode)root.getChildAt(2);
+    assertTrue(ArchiveDiffEntry.fromNode(res).isChanged());
+    assertEquals("/res/a.xml", getChild(res, 0).getPath());
+    assertFalse(getChild(res, 0).isChanged());
+    assertTrue(getChild(res, 1).isChanged());
+  }
+
+  @NotNull
+  private static ArchiveDiffEntry getChild(@NotNull DefaultMutableTreeNode node, int index) {
+    ArchiveDiffEntry entry = ArchiveDiffEntry.fromNode(node.getChildAt(index));
+    assertNotNull(entry);
+    return entry;
+  }
+
+  @NotNull
+  private File createArchive(@NotNull String name, @NotNull String... namesAndContents) throws IOException {
+    File file = myTemporaryFolder.newFile(name);
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+        zip.write(namesAndContents[i + 1].getBytes());
+        zip.closeEntry();
+      }
+    }
+    return file;
+  }
+}
@@ -100,6 +100,10 @@ public class BuildFailureParser implements PatternAwareOutputParser {
   @Override
   public boolean parse(@NotNull String line, @NotNull OutputLineReader reader, @NotNull List<Message> messages, @NotNull ILogger logger)
     throws ParsingFailedException {
+    if (!line.startsWith("FAILURE: ") && !line.startsWith("* Where:")) {
+      // Only the first line of a build failure report can start the state machine below.
+      return false;
+    }
     State state = State.BEGINNING;
     int pos = 0;
     String currentLine = line;
@@ -38,6 +38,10 @@ public class AndroidPluginOutputParser implements PatternAwareOutputParser {
   @Override
   public boolean parse(@NotNull String line, @NotNull OutputLineReader reader, @NotNull List<Message> messages, @NotNull ILogger logger)
     throws ParsingFailedException {
+    if (line.indexOf('|') < 0) {
+      // Not in the "type|path|message" format. Checked first because it is much cheaper than the patterns below.
+      return false;
+    }
     if (line.contains("[DEBUG] ") || line.contains("[INFO] ")) {
       // Ignore 'debug' and 'info' messages.
       return false;
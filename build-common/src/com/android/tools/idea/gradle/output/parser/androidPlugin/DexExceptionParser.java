@@ -45,6 +45,9 @@ public class DexExceptionParser implements PatternAwareOutputParser {
   @Override
   public boolean parse(@NotNull String line, @NotNull OutputLineReader reader, @NotNull List<Message> messages, @NotNull ILogger logger)
     throws ParsingFailedException {
+    if (!line.startsWith("UNEXPECTED")) {
+      return false;
+    }
     Matcher m1 = ERROR.matcher(line);
     if (!m1.matches()) {
       return false;
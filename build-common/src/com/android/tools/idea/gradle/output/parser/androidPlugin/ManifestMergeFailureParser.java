@@ -48,6 +48,10 @@ public class ManifestMergeFailureParser implements PatternAwareOutputParser {
   @Override
   public boolean parse(@NotNull String line, @NotNull OutputLineReader reader, @NotNull List<Message> messages, @NotNull ILogger logger)
     throws ParsingFailedException {
+    if (!line.startsWith("[") && !line.endsWith(":")) {
+      // Neither pattern can match: skip the regular expressions, which are run against almost every line of the build output.
+      return false;
+    }
     Matcher m = ERROR1.matcher(line);
     if (m.matches()) {
       String sourcePath = m.group(1);
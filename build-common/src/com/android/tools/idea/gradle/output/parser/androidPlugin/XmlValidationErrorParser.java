@@ -48,6 +48,9 @@ public class XmlValidationErrorParser implements PatternAwareOutputParser {
   @Override
   public boolean parse(@NotNull String line, @NotNull OutputLineReader reader, @NotNull List<Message> messages, @NotNull ILogger logger)
     throws ParsingFailedException {
+    if (!line.startsWith("[Fatal Error]") && !line.startsWith("Failed to parse ")) {
+      return false;
+    }
     Matcher m1 = FATAL_ERROR.matcher(line);
     if (!m1.matches()) {
       // Sometimes the parse failure message appears by itself (for example with duplicate resources);
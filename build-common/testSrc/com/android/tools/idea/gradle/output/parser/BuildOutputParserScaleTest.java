@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.gradle.output.parser;
+
+import com.android.ide.common.blame.Message;
+import com.android.ide.common.blame.parser.PatternAwareOutputParser;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.ServiceLoader;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parses a large build output, made of the kinds of messages covered by {@link BuildOutputParserTest} repeated for many tasks, and checks
+ * every message is found. The time taken is logged, so this doubles as a benchmark for the line pre-checks of the output parsers.
+ */
+public class BuildOutputParserScaleTest {
+  private static final Logger LOG = Logger.getInstance(BuildOutputParserScaleTest.class);
+
+  private static final int TASK_COUNT = 20000;
+
+  @Test
+  public void parseLargeOutput() {
+    String output = createOutput();
+
+    BuildOutputParser parser = new BuildOutputParser(ServiceLoader.load(PatternAwareOutputParser.class));
+    long start = System.nanoTime();
+    List<Message> messages = parser.parseGradleOutput(output);
+    long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+    LOG.info(String.format("Parsed %1$d characters in %2$d ms", output.length(), elapsedMs));
+    assertEquals(TASK_COUNT * 4 + 1, messages.size());
+  }
+
+  @NotNull
+  private static String createOutput() {
+    StringBuilder output = new StringBuilder();
+    for (int i = 0; i < TASK_COUNT; i++) {
+      output.append("> Task :module").append(i).append(":processDebugManifest\n")
+            .append("ERROR|:module").append(i).append("|Plugin failure ").append(i).append('\n')
+            .append("[/src/module").append(i).append("/AndroidManifest.xml:").append(i % 100 + 1).append("] Merge failure\n")
+            .append("Some unrecognized output ").append(i).append('\n');
+    }
+    output.append("BUILD FAILED\n");
+    return output.toString();
+  }
+}
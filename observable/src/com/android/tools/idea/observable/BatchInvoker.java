@@ -21,7 +21,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
-import java.util.Queue;
+import java.util.*;
 
 /**
  * A utility class which invokes some logic and, if multiple invocation requests come in at the
@@ -33,6 +33,12 @@ import java.util.Queue;
  * Doing this will allow us to avoid doing expensive updates on redundant, intermediate changes,
  * e.g. if you have five values in a complex mathematical calculation, and all values change in
  * the same frame, you only want to run the calculation once.
+ *
+ * Runnables implementing {@link Ranked} are run in order of rank, so a runnable updating a value
+ * runs before the runnables depending on that value. A runnable enqueued while a batch is running
+ * joins that batch if it is still waiting to run, or if its rank is higher than the rank of the
+ * runnable that enqueued it. As a result, a change propagates through a chain of dependent values
+ * in a single batch, running every runnable once, instead of in one batch per link of the chain.
  */
 public final class BatchInvoker {
   /**
@@ -59,9 +65,20 @@ public final class BatchInvoker {
   private final Strategy myStrategy;
 
   /**
-   * A current batch of runnables that are either running or will run soon.
+   * A current batch of runnables that will run soon, by rank.
+   */
+  private final NavigableMap<Integer, Queue<Runnable>> myRunnables = new TreeMap<>();
+
+  /**
+   * The runnables of the current batch that did not run yet, to collapse redundant runnables.
+   */
+  private final Set<Runnable> myPendingRunnables = new HashSet<>();
+
+  /**
+   * The runnables of the current batch that already ran. If enqueued again, they run in the next
+   * batch.
    */
-  private final Queue<Runnable> myRunnables = Queues.newArrayDeque();
+  private final Set<Runnable> myFinishedRunnables = new HashSet<>();
 
   /**
    * A deferred batch of runnables, for those that are added by {@link #enqueue(Runnable)} while a
@@ -71,6 +88,11 @@ public final class BatchInvoker {
 
   private boolean myUpdateInProgress;
 
+  /**
+   * The rank of the runnable running, while a batch is running.
+   */
+  private int myCurrentRank;
+
   public BatchInvoker() {
     this(ourOverrideStrategy != null ? ourOverrideStrategy : SWING_INVOKE_LATER_STRATEGY);
   }
@@ -86,6 +108,14 @@ public final class BatchInvoker {
    */
   public void enqueue(@NotNull Runnable runnable) {
     if (myUpdateInProgress) {
+      if (myPendingRunnables.contains(runnable)) {
+        return;
+      }
+      // Runnables depending on the one running join the current batch, unless they already ran in it.
+      if (getRank(runnable) > myCurrentRank && !myFinishedRunnables.contains(runnable)) {
+        addRunnable(runnable);
+        return;
+      }
       if (!myDeferredRunnables.contains(runnable)) {
         myDeferredRunnables.add(runnable);
       }
@@ -94,9 +124,9 @@ public final class BatchInvoker {
 
     // Prepare to run an update if we're the first update request. Any other requests that are made
     // before the update runs will get lumped in with it.
-    boolean shouldInvoke = myRunnables.isEmpty();
-    if (!myRunnables.contains(runnable)) {
-      myRunnables.add(runnable);
+    boolean shouldInvoke = myPendingRunnables.isEmpty();
+    if (!myPendingRunnables.contains(runnable)) {
+      addRunnable(runnable);
     }
 
     if (shouldInvoke) {
@@ -104,13 +134,43 @@ public final class BatchInvoker {
     }
   }
 
+  private void addRunnable(@NotNull Runnable runnable) {
+    myRunnables.computeIfAbsent(getRank(runnable), rank -> Queues.newArrayDeque()).add(runnable);
+    myPendingRunnables.add(runnable);
+  }
+
+  /**
+   * Removes the first runnable of the lowest rank from the current batch, or returns null if the
+   * batch is done.
+   */
+  @Nullable
+  private Runnable pollRunnable() {
+    Map.Entry<Integer, Queue<Runnable>> entry = myRunnables.firstEntry();
+    if (entry == null) {
+      return null;
+    }
+    Runnable runnable = entry.getValue().remove();
+    if (entry.getValue().isEmpty()) {
+      myRunnables.remove(entry.getKey());
+    }
+    myPendingRunnables.remove(runnable);
+    return runnable;
+  }
+
+  private static int getRank(@NotNull Runnable runnable) {
+    return runnable instanceof Ranked ? ((Ranked)runnable).getRank() : 0;
+  }
+
   private void enqueueInvoke() {
     myStrategy.invoke(() -> {
       int cycleCount = 0;
       RuntimeException runnableExceptionChain = null;
       while (true) {
         myUpdateInProgress = true;
-        for (Runnable runnable : myRunnables) {
+        Runnable runnable;
+        while ((runnable = pollRunnable()) != null) {
+          myCurrentRank = getRank(runnable);
+          myFinishedRunnables.add(runnable);
           try {
             runnable.run();
           }
@@ -118,7 +178,7 @@ public final class BatchInvoker {
             runnableExceptionChain = addExceptionCause(ex, runnableExceptionChain);
           }
         }
-        myRunnables.clear();
+        myFinishedRunnables.clear();
 
         myUpdateInProgress = false;
 
@@ -129,7 +189,9 @@ public final class BatchInvoker {
             throw new InfiniteCycleException(runnableExceptionChain);
           }
 
-          myRunnables.addAll(myDeferredRunnables);
+          for (Runnable deferredRunnable : myDeferredRunnables) {
+            addRunnable(deferredRunnable);
+          }
           myDeferredRunnables.clear();
         }
         else {
@@ -153,6 +215,16 @@ public final class BatchInvoker {
     void invoke(@NotNull Runnable runnableBatch);
   }
 
+  /**
+   * A runnable which updates values that other runnables may depend on, e.g. a binding.
+   *
+   * The rank of a runnable must be higher than the rank of the runnables updating the values it
+   * depends on. Runnables which don't implement this interface have a rank of 0.
+   */
+  public interface Ranked extends Runnable {
+    int getRank();
+  }
+
   /**
    * Override the default invocation strategy used if one is not provided in the constructor.
    */
@@ -15,11 +15,16 @@
  */
 package com.android.tools.idea.observable;
 
+import com.android.tools.idea.observable.expressions.Expression;
 import com.android.tools.idea.observable.expressions.bool.BooleanExpression;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -30,11 +35,26 @@ import org.jetbrains.annotations.NotNull;
  * {@link #bind(SettableValue, ObservableValue)} and
  * {@link #bindTwoWay(SettableValue, SettableValue)}.
  * <p/>
+ * One-way bindings are ranked by how deep their destination is in the graph of bindings, which
+ * lets {@link BatchInvoker} update all the destinations depending on a change in a single batch,
+ * from the closest to the farthest, updating each one once with its final value.
+ * <p/>
  * Note: This class is currently not thread-safe. You are expected to read, write, and bind
  * values on the dispatch thread to avoid undefined behavior.
  */
 public final class BindingsManager {
 
+  /**
+   * One-way bindings of this manager by destination.
+   */
+  private final Map<ObservableValue<?>, OneWayBinding<?>> myOneWayBindingsByDest = Maps.newHashMap();
+
+  /**
+   * Incremented whenever a one-way binding is added or removed, invalidating the ranks computed
+   * before.
+   */
+  private int myOneWayBindingsModificationCount;
+
   private final List<OneWayBinding<?>> myOneWayBindings = Lists.newArrayList();
   private final List<TwoWayBinding<?>> myTwoWayBindings = Lists.newArrayList();
 
@@ -154,11 +174,18 @@ public final class BindingsManager {
     private final SettableValue<T> myDest;
     private final ObservableValue<T> mySrc;
     private final ObservableValue<Boolean> myEnabled;
+    /**
+     * The values that the source and enabled values are computed from, including themselves.
+     */
+    private final Set<ObservableValue<?>> myDependencies = Sets.newIdentityHashSet();
+    private int myRank;
+    private int myRankModificationCount = -1;
+    private boolean myComputingRank;
 
     @Override
     public void onInvalidated(@NotNull ObservableValue<?> sender) {
       if (myEnabled.get()) {
-        myInvoker.enqueue(new DestUpdater<>(myDest, mySrc));
+        myInvoker.enqueue(new DestUpdater<>(myDest, mySrc, getRank()));
       }
     }
 
@@ -166,6 +193,11 @@ public final class BindingsManager {
       myDest = dest;
       mySrc = src;
       myEnabled = enabled;
+      collectDependencies(src, myDependencies);
+      collectDependencies(enabled, myDependencies);
+
+      myOneWayBindingsByDest.put(dest, this);
+      myOneWayBindingsModificationCount++;
 
       mySrc.addListener(this);
       myEnabled.addListener(this);
@@ -174,25 +206,65 @@ public final class BindingsManager {
       onInvalidated(src);
     }
 
+    /**
+     * Returns 0 if none of the values this binding depends on is the destination of a one-way
+     * binding, or else one more than the highest rank of those bindings.
+     */
+    int getRank() {
+      if (myRankModificationCount != myOneWayBindingsModificationCount) {
+        if (myComputingRank) {
+          // One-way bindings depending on each other, the cycle is broken by BatchInvoker.
+          return 0;
+        }
+        myComputingRank = true;
+        try {
+          int rank = 0;
+          for (ObservableValue<?> dependency : myDependencies) {
+            OneWayBinding<?> binding = myOneWayBindingsByDest.get(dependency);
+            if (binding != null) {
+              rank = Math.max(rank, binding.getRank() + 1);
+            }
+          }
+          myRank = rank;
+          myRankModificationCount = myOneWayBindingsModificationCount;
+        }
+        finally {
+          myComputingRank = false;
+        }
+      }
+      return myRank;
+    }
+
     public void dispose() {
+      myOneWayBindingsByDest.remove(myDest, this);
+      myOneWayBindingsModificationCount++;
+
       mySrc.removeListener(this);
       myEnabled.removeListener(this);
     }
   }
 
+  private static void collectDependencies(@NotNull ObservableValue<?> value, @NotNull Set<ObservableValue<?>> dependencies) {
+    if (dependencies.add(value) && value instanceof Expression) {
+      for (ObservableValue<?> dependency : ((Expression<?>)value).getDependencies()) {
+        collectDependencies(dependency, dependencies);
+      }
+    }
+  }
+
   private final class TwoWayBinding<T> {
     private final SettableValue<T> myLhs;
     private final SettableValue<T> myRhs;
     private final InvalidationListener myLeftChangedListener = new InvalidationListener() {
       @Override
       public void onInvalidated(@NotNull ObservableValue<?> sender) {
-        myInvoker.enqueue(new DestUpdater<>(myRhs, myLhs));
+        myInvoker.enqueue(new DestUpdater<>(myRhs, myLhs, 0));
       }
     };
     private final InvalidationListener myRightChangedListener = new InvalidationListener() {
       @Override
       public void onInvalidated(@NotNull ObservableValue<?> sender) {
-        myInvoker.enqueue(new DestUpdater<>(myLhs, myRhs));
+        myInvoker.enqueue(new DestUpdater<>(myLhs, myRhs, 0));
       }
     };
 
@@ -217,13 +289,15 @@ public final class BindingsManager {
    * value on request. This class is used by both {@link OneWayBinding} and {@link TwoWayBinding}
    * to enqueue an update after they detect a change.
    */
-  private static final class DestUpdater<T> implements Runnable {
+  private static final class DestUpdater<T> implements BatchInvoker.Ranked {
     private final SettableValue<T> myDest;
     private final ObservableValue<T> mySrc;
+    private final int myRank;
 
-    DestUpdater(SettableValue<T> dest, ObservableValue<T> src) {
+    DestUpdater(SettableValue<T> dest, ObservableValue<T> src, int rank) {
       myDest = dest;
       mySrc = src;
+      myRank = rank;
     }
 
     @Override
@@ -231,6 +305,11 @@ public final class BindingsManager {
       myDest.set(mySrc.get());
     }
 
+    @Override
+    public int getRank() {
+      return myRank;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) return true;
@@ -18,6 +18,10 @@ package com.android.tools.idea.observable.expressions;
 import com.android.tools.idea.observable.AbstractObservableValue;
 import com.android.tools.idea.observable.ObservableValue;
 import com.android.tools.idea.observable.InvalidationListener;
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
 
 /**
  * An expression is an observable value that wraps another observable value, modifying the result
@@ -31,6 +35,8 @@ public abstract class Expression<T> extends AbstractObservableValue<T> implement
   @SuppressWarnings("FieldCanBeLocal") // must be local to avoid weak garbage collection
   private final InvalidationListener myListener = sender -> notifyInvalidated();
 
+  @NotNull private final List<ObservableValue<?>> myDependencies;
+
   protected Expression(ObservableValue... values) {
     if (values.length == 0) {
       throw new IllegalArgumentException("Can't create an expression without any target observables");
@@ -39,5 +45,14 @@ public abstract class Expression<T> extends AbstractObservableValue<T> implement
     for (ObservableValue value : values) {
       value.addWeakListener(myListener);
     }
+    myDependencies = ImmutableList.copyOf((ObservableValue<?>[])values);
+  }
+
+  /**
+   * Returns the observable values this expression is computed from.
+   */
+  @NotNull
+  public final List<ObservableValue<?>> getDependencies() {
+    return myDependencies;
   }
 }
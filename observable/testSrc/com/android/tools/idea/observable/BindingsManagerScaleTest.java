@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.observable;
+
+import com.android.tools.idea.observable.core.IntValueProperty;
+import com.android.tools.idea.observable.expressions.integer.IntExpression;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Updates deep graphs of one-way bindings many times, and checks every binding is evaluated once per update. The time taken by the
+ * updates is logged, so this doubles as a benchmark for the ordering of bindings by {@link BindingsManager}.
+ */
+public final class BindingsManagerScaleTest {
+  private static final Logger LOG = Logger.getInstance(BindingsManagerScaleTest.class);
+
+  private static final int CHAIN_LENGTH = 2000;
+  private static final int UPDATE_COUNT = 20;
+
+  @Test
+  public void updateDeepChain() {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BindingsManager bindings = new BindingsManager(testStrategy);
+    IntValueProperty[] properties = new IntValueProperty[CHAIN_LENGTH];
+    int[] evaluationCounts = new int[CHAIN_LENGTH];
+
+    properties[0] = new IntValueProperty(0);
+    for (int i = 1; i < CHAIN_LENGTH; i++) {
+      int index = i;
+      properties[i] = new IntValueProperty();
+      bindings.bind(properties[i], properties[i - 1].transform(value -> {
+        evaluationCounts[index]++;
+        return value + 1;
+      }));
+    }
+    testStrategy.updateAllSteps();
+
+    long elapsedNs = 0;
+    for (int update = 1; update <= UPDATE_COUNT; update++) {
+      Arrays.fill(evaluationCounts, 0);
+      long start = System.nanoTime();
+      properties[0].set(update * CHAIN_LENGTH);
+      testStrategy.updateAllSteps();
+      elapsedNs += System.nanoTime() - start;
+
+      assertThat(properties[CHAIN_LENGTH - 1].get()).isEqualTo(update * CHAIN_LENGTH + CHAIN_LENGTH - 1);
+      assertEvaluatedOnce(evaluationCounts, 1);
+    }
+    logTime("chain", elapsedNs);
+  }
+
+  @Test
+  public void updateDeepLadder() {
+    // Every property depends on the two previous ones, so a property is reachable through many paths of different lengths.
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BindingsManager bindings = new BindingsManager(testStrategy);
+    IntValueProperty[] properties = new IntValueProperty[CHAIN_LENGTH];
+    int[] evaluationCounts = new int[CHAIN_LENGTH];
+
+    properties[0] = new IntValueProperty(0);
+    properties[1] = new IntValueProperty();
+    bindings.bind(properties[1], properties[0]);
+    for (int i = 2; i < CHAIN_LENGTH; i++) {
+      int index = i;
+      IntValueProperty first = properties[i - 2];
+      IntValueProperty second = properties[i - 1];
+      properties[i] = new IntValueProperty();
+      bindings.bind(properties[i], new IntExpression(first, second) {
+        @NotNull
+        @Override
+        public Integer get() {
+          evaluationCounts[index]++;
+          return Math.max(first.get(), second.get());
+        }
+      });
+    }
+    testStrategy.updateAllSteps();
+
+    long elapsedNs = 0;
+    for (int update = 1; update <= UPDATE_COUNT; update++) {
+      Arrays.fill(evaluationCounts, 0);
+      long start = System.nanoTime();
+      properties[0].set(update);
+      testStrategy.updateAllSteps();
+      elapsedNs += System.nanoTime() - start;
+
+      assertThat(properties[CHAIN_LENGTH - 1].get()).isEqualTo(update);
+      assertEvaluatedOnce(evaluationCounts, 2);
+    }
+    logTime("ladder", elapsedNs);
+  }
+
+  private static void assertEvaluatedOnce(@NotNull int[] evaluationCounts, int firstCountedIndex) {
+    for (int i = firstCountedIndex; i < evaluationCounts.length; i++) {
+      assertThat(evaluationCounts[i]).named("evaluations of binding " + i).isEqualTo(1);
+    }
+  }
+
+  private static void logTime(@NotNull String graph, long elapsedNs) {
+    LOG.info(String.format("Updated a %1$s of %2$d bindings %3$d times in %4$d ms", graph, CHAIN_LENGTH - 1, UPDATE_COUNT,
+                           elapsedNs / 1000000));
+  }
+}
@@ -18,6 +18,7 @@ package com.android.tools.idea.observable;
 import com.android.tools.idea.observable.core.BoolValueProperty;
 import com.android.tools.idea.observable.core.IntValueProperty;
 import com.android.tools.idea.observable.core.StringValueProperty;
+import com.android.tools.idea.observable.expressions.integer.IntExpression;
 import com.android.tools.idea.observable.expressions.list.MapExpression;
 import com.android.tools.idea.observable.collections.ObservableList;
 import org.jetbrains.annotations.NotNull;
@@ -283,4 +284,63 @@ public final class BindingsManagerTest {
     srcProperty.set(50);
     assertThat(destProperty.get()).isEqualTo(50);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void deepOneWayBindingChainsUpdateInOneBatch() {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BindingsManager bindings = new BindingsManager(testStrategy);
+    int chainLength = 100;
+    IntValueProperty[] properties = new IntValueProperty[chainLength];
+    int[] evaluationCounts = new int[chainLength];
+
+    properties[0] = new IntValueProperty(0);
+    for (int i = 1; i < chainLength; i++) {
+      int index = i;
+      properties[i] = new IntValueProperty();
+      bindings.bind(properties[i], properties[i - 1].transform(value -> {
+        evaluationCounts[index]++;
+        return value + 1;
+      }));
+    }
+    testStrategy.updateAllSteps();
+    assertThat(properties[chainLength - 1].get()).isEqualTo(chainLength - 1);
+
+    Arrays.fill(evaluationCounts, 0);
+    properties[0].set(100);
+    testStrategy.updateOneStep();
+    assertThat(testStrategy.myBatchQueue).isEmpty();
+    assertThat(properties[chainLength - 1].get()).isEqualTo(100 + chainLength - 1);
+    for (int i = 1; i < chainLength; i++) {
+      assertThat(evaluationCounts[i]).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void oneWayBindingsAreUpdatedOnceWhenDependenciesChangeTogether() {
+    TestInvokeStrategy testStrategy = new TestInvokeStrategy();
+    BindingsManager bindings = new BindingsManager(testStrategy);
+    IntValueProperty srcProperty = new IntValueProperty(1);
+    IntValueProperty lhsProperty = new IntValueProperty();
+    IntValueProperty rhsProperty = new IntValueProperty();
+    IntValueProperty sumProperty = new IntValueProperty();
+    CountListener listener = new CountListener();
+
+    bindings.bind(lhsProperty, srcProperty.transform(value -> value * 10));
+    bindings.bind(rhsProperty, lhsProperty.transform(value -> value * 10));
+    bindings.bind(sumProperty, new IntExpression(srcProperty, lhsProperty, rhsProperty) {
+      @NotNull
+      @Override
+      public Integer get() {
+        return srcProperty.get() + lhsProperty.get() + rhsProperty.get();
+      }
+    });
+    testStrategy.updateAllSteps();
+    assertThat(sumProperty.get()).isEqualTo(111);
+
+    sumProperty.addListener(listener);
+    srcProperty.set(2);
+    testStrategy.updateAllSteps();
+    assertThat(sumProperty.get()).isEqualTo(222);
+    assertThat(listener.getCount()).isEqualTo(1);
+  }
+}
@@ -54,6 +54,9 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   private static final long REPORT_INITIAL_DELAY = TimeUnit.MINUTES.toMillis(15);
   private static final long REPORT_PERIOD = TimeUnit.HOURS.toMillis(1);
 
+  // Directory, relative to the datastore directory, where large payloads (e.g. network bodies) are kept instead of in the database.
+  private static final String PAYLOAD_DIRECTORY_NAME = "payloads";
+
   public static class BackingNamespace {
     public static final BackingNamespace DEFAULT_SHARED_NAMESPACE = new BackingNamespace("default.sql", DURABLE);
 
@@ -155,7 +158,8 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
    * and registered as the set of features the datastore supports.
    */
   public void createPollers() {
-    myProfilerService = new ProfilerService(this, myFetchExecutor, myLogService);
+    PayloadStore payloadStore = new PayloadStore(new File(myDatastoreDirectory, PAYLOAD_DIRECTORY_NAME), PayloadStore.DEFAULT_MAX_SIZE_BYTES);
+    myProfilerService = new ProfilerService(this, myFetchExecutor, myLogService, payloadStore);
     registerService(myProfilerService);
     registerService(new EventService(this, myFetchExecutor));
     registerService(new CpuService(this, myFetchExecutor, myLogService));
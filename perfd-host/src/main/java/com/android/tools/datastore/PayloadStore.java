@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import com.google.common.io.BaseEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A disk-backed, content-addressed store for large binary payloads (e.g. network request and response bodies), so they do not need to be
+ * kept in the database or in memory. Payloads are keyed by the SHA-256 of their contents, so identical payloads are only stored once.
+ * The total size of the store is capped: when it is exceeded, the least recently accessed payloads are evicted, and callers are expected
+ * to treat a missing payload the same way as one that was never stored. Payloads that can no longer be fetched again (e.g. the ones of a
+ * session that has ended) should be {@link #pin(String) pinned}, so they are kept regardless of the cap.
+ * <p>
+ * Payloads are only read back whole, as {@code getBytes} returns the whole body to the UI in a single response.
+ * TODO: Add ranged/streaming byte RPCs so the UI can page through large bodies instead of receiving them in one response.
+ */
+public class PayloadStore {
+  public static final long DEFAULT_MAX_SIZE_BYTES = 512L * 1024 * 1024;
+
+  @NotNull private final File myDirectory;
+  private final long myMaxSizeBytes;
+  // Payload sizes by hash, in access order so the eldest entry is the least recently used one.
+  @NotNull private final LinkedHashMap<String, Long> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+  // Hashes of the payloads that are never evicted.
+  @NotNull private final Set<String> myPinnedHashes = new HashSet<>();
+  private long myTotalSizeBytes;
+
+  /**
+   * @param directory    the directory the payloads are written to. Any content left in it by a previous run is discarded, similar to
+   *                     how {@link DataStoreDatabase} discards its previous database file.
+   * @param maxSizeBytes the maximum total size of the payloads kept on disk.
+   */
+  public PayloadStore(@NotNull File directory, long maxSizeBytes) {
+    myDirectory = directory;
+    myMaxSizeBytes = maxSizeBytes;
+    File[] staleFiles = myDirectory.listFiles();
+    if (staleFiles != null) {
+      for (File file : staleFiles) {
+        file.delete();
+      }
+    }
+    myDirectory.mkdirs();
+  }
+
+  /**
+   * Writes {@code contents} to the store if it is not already there, and returns the key to read it back with.
+   */
+  @NotNull
+  public String put(@NotNull ByteString contents) throws IOException {
+    String hash = computeHash(contents);
+    synchronized (myEntries) {
+      if (myEntries.get(hash) != null) {
+        return hash;
+      }
+
+      // Write to a temporary file first, so a partially written payload can never be read back.
+      File tempFile = File.createTempFile(hash, ".tmp", myDirectory);
+      try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+        contents.writeTo(output);
+      }
+      catch (IOException e) {
+        tempFile.delete();
+        throw e;
+      }
+      Files.move(tempFile.toPath(), getFile(hash).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+      myEntries.put(hash, (long)contents.size());
+      myTotalSizeBytes += contents.size();
+      evict(hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Keeps the payload stored under {@code hash} in the store for as long as it exists, as it cannot be fetched again once evicted.
+   * Pinned payloads still count towards the size cap, so the other payloads are evicted sooner.
+   */
+  public void pin(@NotNull String hash) {
+    synchronized (myEntries) {
+      if (myEntries.containsKey(hash)) {
+        myPinnedHashes.add(hash);
+      }
+    }
+  }
+
+  /**
+   * Returns the size of the payload stored under {@code hash}, or -1 if it is not (or no longer) in the store.
+   */
+  public long getSize(@NotNull String hash) {
+    synchronized (myEntries) {
+      Long size = myEntries.get(hash);
+      return size == null ? -1 : size;
+    }
+  }
+
+  /**
+   * Reads the whole payload stored under {@code hash}, or returns null if it is not (or no longer) in the store.
+   */
+  @Nullable
+  public ByteString read(@NotNull String hash) throws IOException {
+    if (getSize(hash) < 0) {
+      return null;
+    }
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(getFile(hash).toPath()))) {
+      return ByteString.readFrom(input);
+    }
+    catch (NoSuchFileException e) {
+      // The payload was evicted after its size was looked up.
+      return null;
+    }
+  }
+
+  public long getTotalSizeBytes() {
+    synchronized (myEntries) {
+      return myTotalSizeBytes;
+    }
+  }
+
+  /**
+   * Evicts the least recently used payloads until the store fits within its size cap. The payload that was just added is never evicted,
+   * even if it alone exceeds the cap, and neither are the pinned ones.
+   */
+  private void evict(@NotNull String addedHash) {
+    Iterator<Map.Entry<String, Long>> iterator = myEntries.entrySet().iterator();
+    while (myTotalSizeBytes > myMaxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      if (entry.getKey().equals(addedHash) || myPinnedHashes.contains(entry.getKey())) {
+        continue;
+      }
+      iterator.remove();
+      myTotalSizeBytes -= entry.getValue();
+      getFile(entry.getKey()).delete();
+    }
+  }
+
+  @NotNull
+  private static String computeHash(@NotNull ByteString contents) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(contents.asReadOnlyByteBuffer());
+      return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+    catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @NotNull
+  private File getFile(@NotNull String hash) {
+    return new File(myDirectory, hash);
+  }
+}
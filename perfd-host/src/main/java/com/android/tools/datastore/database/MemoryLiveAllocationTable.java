@@ -23,19 +23,26 @@ import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.protobuf3jarjar.InvalidProtocolBufferException;
 import gnu.trove.TLongHashSet;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayOutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import static com.android.tools.datastore.database.MemoryLiveAllocationTable.MemoryStatements.*;
 
 public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocationTable.MemoryStatements> {
+  // Number of tags looked up per QUERY_SNAPSHOT_BY_TAGS statement, kept below SQLite's default limit of 999 host parameters.
+  private static final int TAG_QUERY_BATCH_SIZE = 500;
+
   @NotNull private final LogService myLogService;
 
   public enum MemoryStatements {
@@ -53,6 +60,18 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     QUERY_SNAPSHOT(
       "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
       "WHERE Session = ? AND AllocTime < ? AND FreeTime > ?"),
+    QUERY_SNAPSHOT_DELTA(
+      "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
+      "WHERE Session = ? AND AllocTime >= ? AND AllocTime < ? AND FreeTime > ?"),
+    QUERY_SNAPSHOT_BY_TAGS(
+      "SELECT Tag, ClassTag, AllocTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
+      "WHERE Session = ? AND FreeTime > ? AND Tag IN (" + String.join(", ", Collections.nCopies(TAG_QUERY_BATCH_SIZE, "?")) + ")"),
+    QUERY_LIVE_TAGS_BY_ALLOC_TIME(
+      "SELECT Tag FROM Memory_AllocationEvents WHERE Session = ? AND AllocTime >= ? AND AllocTime < ? AND FreeTime > ?"),
+    QUERY_TAGS_BY_FREE_TIME("SELECT Tag FROM Memory_AllocationEvents WHERE Session = ? AND FreeTime > ? AND FreeTime <= ?"),
+    INSERT_LIVE_SET_CHECKPOINT("INSERT OR REPLACE INTO Memory_LiveSetCheckpoints (Session, Timestamp, LiveTags) VALUES (?, ?, ?)"),
+    QUERY_LIVE_SET_CHECKPOINT(
+      "SELECT Timestamp, LiveTags FROM Memory_LiveSetCheckpoints WHERE Session = ? AND Timestamp <= ? ORDER BY Timestamp DESC LIMIT 1"),
     QUERY_ALLOC_BY_ALLOC_TIME(
       "SELECT Tag, ClassTag, AllocTime, FreeTime, Size, Length, ThreadId, StackId, HeapId FROM Memory_AllocationEvents " +
       "WHERE Session = ? AND AllocTime >= ? AND AllocTime < ?"),
@@ -136,6 +155,12 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   private int myAllocationCountLimit = 5000000;
   private final static byte[] EMPTY_BYTE_ARRAY = new byte[0];
 
+  // How often a bitmap of the live allocation tags is stored, so that snapshot queries only need to scan the events recorded since the
+  // closest checkpoint instead of every allocation since the beginning of the session.
+  private long myCheckpointIntervalNs = TimeUnit.SECONDS.toNanos(10);
+  // Accessed from the pollers inserting data and from the service when a session stops being monitored.
+  @NotNull private final Map<Long, CheckpointState> myCheckpointStates = new ConcurrentHashMap<>();
+
   @NotNull
   private LogService.Logger getLogger() {
     return myLogService.getLogger(MemoryLiveAllocationTable.class);
@@ -169,6 +194,8 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
                   "AllocBacktrace BLOB", "FreeBacktrace BLOB", "PRIMARY KEY(Session, Tag, RefValue)");
       createTable("Memory_AllocationSamplingRateEvent", "Session INTEGER NOT NULL", "Timestamp INTEGER", "Data BLOB",
                   "PRIMARY KEY(Session, Timestamp)");
+      createTable("Memory_LiveSetCheckpoints", "Session INTEGER NOT NULL", "Timestamp INTEGER", "LiveTags BLOB",
+                  "PRIMARY KEY(Session, Timestamp)");
 
       createIndex("Memory_AllocationEvents", 0, "Session", "AllocTime");
       createIndex("Memory_AllocationEvents", 1, "Session", "FreeTime");
@@ -190,6 +217,11 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     myAllocationCountLimit = allocationCountLimit;
   }
 
+  @VisibleForTesting
+  void setCheckpointIntervalNs(long checkpointIntervalNs) {
+    myCheckpointIntervalNs = checkpointIntervalNs;
+  }
+
   @Override
   public void prepareStatements() {
     try {
@@ -205,21 +237,32 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
   public MemoryProfiler.BatchAllocationSample getSnapshot(Common.Session session, long endTime) {
     MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
     try {
-      ResultSet allocResult = executeQuery(QUERY_SNAPSHOT, session.getSessionId(), endTime, endTime);
       long timestamp = Long.MIN_VALUE;
-      while (allocResult.next()) {
-        long allocTime = allocResult.getLong(3);
-        MemoryProfiler.AllocationEvent event = MemoryProfiler.AllocationEvent
-          .newBuilder()
-          .setAllocData(
-            MemoryProfiler.AllocationEvent.Allocation
-              .newBuilder().setTag(allocResult.getInt(1)).setClassTag(allocResult.getInt(2))
-              .setSize(allocResult.getLong(4)).setLength(allocResult.getInt(5))
-              .setThreadId(allocResult.getInt(6)).setStackId(allocResult.getInt(7))
-              .setHeapId(allocResult.getInt(8)).build())
-          .setTimestamp(allocTime).build();
-        sampleBuilder.addEvents(event);
-        timestamp = Math.max(timestamp, allocTime);
+      LiveSetCheckpoint checkpoint = queryCheckpoint(session, endTime);
+      if (checkpoint == null) {
+        ResultSet allocResult = executeQuery(QUERY_SNAPSHOT, session.getSessionId(), endTime, endTime);
+        timestamp = Math.max(timestamp, addSnapshotEvents(allocResult, sampleBuilder));
+      }
+      else {
+        // Objects alive at endTime were either alive at the checkpoint and not freed since, or allocated after the checkpoint.
+        Object[] params = new Object[TAG_QUERY_BATCH_SIZE + 2];
+        params[0] = session.getSessionId();
+        params[1] = endTime;
+        int paramIndex = 2;
+        for (int tag = checkpoint.myLiveTags.nextSetBit(0); tag >= 0; tag = checkpoint.myLiveTags.nextSetBit(tag + 1)) {
+          params[paramIndex++] = tag;
+          if (paramIndex == params.length) {
+            timestamp = Math.max(timestamp, addSnapshotEvents(executeQuery(QUERY_SNAPSHOT_BY_TAGS, params), sampleBuilder));
+            paramIndex = 2;
+          }
+        }
+        if (paramIndex > 2) {
+          // Pad the last batch by repeating a tag of the batch, which does not add any row.
+          Arrays.fill(params, paramIndex, params.length, params[2]);
+          timestamp = Math.max(timestamp, addSnapshotEvents(executeQuery(QUERY_SNAPSHOT_BY_TAGS, params), sampleBuilder));
+        }
+        ResultSet deltaResult = executeQuery(QUERY_SNAPSHOT_DELTA, session.getSessionId(), checkpoint.myTimestamp, endTime, endTime);
+        timestamp = Math.max(timestamp, addSnapshotEvents(deltaResult, sampleBuilder));
       }
       sampleBuilder.setTimestamp(timestamp);
     }
@@ -230,6 +273,31 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     return sampleBuilder.build();
   }
 
+  /**
+   * Converts the rows of one of the QUERY_SNAPSHOT* statements into allocation events.
+   *
+   * @return the latest allocation time encountered, or Long.MIN_VALUE if the result set is empty.
+   */
+  private static long addSnapshotEvents(@NotNull ResultSet allocResult, @NotNull MemoryProfiler.BatchAllocationSample.Builder sampleBuilder)
+    throws SQLException {
+    long timestamp = Long.MIN_VALUE;
+    while (allocResult.next()) {
+      long allocTime = allocResult.getLong(3);
+      MemoryProfiler.AllocationEvent event = MemoryProfiler.AllocationEvent
+        .newBuilder()
+        .setAllocData(
+          MemoryProfiler.AllocationEvent.Allocation
+            .newBuilder().setTag(allocResult.getInt(1)).setClassTag(allocResult.getInt(2))
+            .setSize(allocResult.getLong(4)).setLength(allocResult.getInt(5))
+            .setThreadId(allocResult.getInt(6)).setStackId(allocResult.getInt(7))
+            .setHeapId(allocResult.getInt(8)).build())
+        .setTimestamp(allocTime).build();
+      sampleBuilder.addEvents(event);
+      timestamp = Math.max(timestamp, allocTime);
+    }
+    return timestamp;
+  }
+
   public MemoryProfiler.BatchAllocationSample getAllocations(Common.Session session, long startTime, long endTime) {
     MemoryProfiler.BatchAllocationSample.Builder sampleBuilder = MemoryProfiler.BatchAllocationSample.newBuilder();
     try {
@@ -643,6 +711,7 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
 
       if (allocAndFreeCount > 0) {
         pruneAllocations(session);
+        updateCheckpoints(session, sample.getEventsList().stream().mapToLong(AllocationEvent::getTimestamp).max().getAsLong());
       }
     }
     catch (SQLException ex) {
@@ -739,6 +808,107 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     return results;
   }
 
+  /**
+   * Stores live set checkpoints for every interval that ended before {@code latestTimestamp}. A checkpoint is only written once the data
+   * is a full interval past it, so late-arriving events of a batch are accounted for. Each checkpoint is derived from the previous one by
+   * applying the allocations and deallocations in between, which keeps the cost proportional to the events of a single interval.
+   */
+  private void updateCheckpoints(@NotNull Common.Session session, long latestTimestamp) throws SQLException {
+    CheckpointState state = myCheckpointStates.computeIfAbsent(session.getSessionId(), id -> new CheckpointState(latestTimestamp));
+    while (!state.myDisabled && state.myNextTimestamp + myCheckpointIntervalNs <= latestTimestamp) {
+      long checkpointTime = state.myNextTimestamp;
+      LiveSetCheckpoint previous = state.myLatest;
+      BitSet liveTags = (BitSet)previous.myLiveTags.clone();
+      ResultSet freeResult = executeQuery(QUERY_TAGS_BY_FREE_TIME, session.getSessionId(), previous.myTimestamp, checkpointTime);
+      while (freeResult.next()) {
+        int tag = freeResult.getInt(1);
+        if (tag >= 0) {
+          liveTags.clear(tag);
+        }
+      }
+      ResultSet allocResult =
+        executeQuery(QUERY_LIVE_TAGS_BY_ALLOC_TIME, session.getSessionId(), previous.myTimestamp, checkpointTime, checkpointTime);
+      while (allocResult.next()) {
+        int tag = allocResult.getInt(1);
+        if (tag < 0) {
+          // A bitmap cannot hold this tag. The checkpoints stored so far predate it and stay valid, later snapshots scan from them.
+          getLogger().warn(String.format("Negative allocation tag %d, live set checkpoints disabled for this session.", tag));
+          state.myDisabled = true;
+          return;
+        }
+        liveTags.set(tag);
+      }
+      execute(INSERT_LIVE_SET_CHECKPOINT, session.getSessionId(), checkpointTime, compress(liveTags.toByteArray()));
+
+      state.myLatest = new LiveSetCheckpoint(checkpointTime, liveTags);
+      state.myNextTimestamp = checkpointTime + myCheckpointIntervalNs;
+    }
+  }
+
+  /**
+   * Drops the in-memory checkpoint bookkeeping of a session that stopped being monitored. The stored checkpoints are kept, so snapshots of
+   * the session can still use them.
+   */
+  public void endSession(@NotNull Common.Session session) {
+    myCheckpointStates.remove(session.getSessionId());
+  }
+
+  /**
+   * @return the latest checkpoint at or before {@code time}, or null if there is none.
+   */
+  @Nullable
+  private LiveSetCheckpoint queryCheckpoint(@NotNull Common.Session session, long time) throws SQLException {
+    ResultSet result = executeQuery(QUERY_LIVE_SET_CHECKPOINT, session.getSessionId(), time);
+    if (!result.next()) {
+      return null;
+    }
+    long timestamp = result.getLong(1);
+    byte[] liveTags = decompress(result.getBytes(2));
+    return liveTags == null ? null : new LiveSetCheckpoint(timestamp, BitSet.valueOf(liveTags));
+  }
+
+  @NotNull
+  private static byte[] compress(@NotNull byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, data.length / 8));
+    byte[] buffer = new byte[8192];
+    while (!deflater.finished()) {
+      output.write(buffer, 0, deflater.deflate(buffer));
+    }
+    deflater.end();
+    return output.toByteArray();
+  }
+
+  @Nullable
+  private static byte[] decompress(@Nullable byte[] data) {
+    if (data == null) {
+      return null;
+    }
+    Inflater inflater = new Inflater();
+    inflater.setInput(data);
+    ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 8);
+    byte[] buffer = new byte[8192];
+    try {
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          return null;
+        }
+        output.write(buffer, 0, length);
+      }
+    }
+    catch (DataFormatException ex) {
+      onError(ex);
+      return null;
+    }
+    finally {
+      inflater.end();
+    }
+    return output.toByteArray();
+  }
+
   /**
    * Removes entries from the allocations table so the process (in-memory DB) doesn't run out of memory.
    */
@@ -836,4 +1006,31 @@ public class MemoryLiveAllocationTable extends DataStoreTable<MemoryLiveAllocati
     }
     return javaName;
   }
+
+  /**
+   * The set of allocation tags that are alive at a given time, i.e. allocated before and not freed at or before {@link #myTimestamp}.
+   */
+  private static final class LiveSetCheckpoint {
+    private final long myTimestamp;
+    @NotNull private final BitSet myLiveTags;
+
+    private LiveSetCheckpoint(long timestamp, @NotNull BitSet liveTags) {
+      myTimestamp = timestamp;
+      myLiveTags = liveTags;
+    }
+  }
+
+  /**
+   * Per-session bookkeeping of the most recent checkpoint, which the next one is derived from.
+   */
+  private static final class CheckpointState {
+    // Nothing is alive before the first batch of events, so an empty set is a valid base for the first checkpoint.
+    @NotNull private LiveSetCheckpoint myLatest = new LiveSetCheckpoint(Long.MIN_VALUE, new BitSet());
+    private long myNextTimestamp;
+    private boolean myDisabled;
+
+    private CheckpointState(long firstTimestamp) {
+      myNextTimestamp = firstTimestamp;
+    }
+  }
 }
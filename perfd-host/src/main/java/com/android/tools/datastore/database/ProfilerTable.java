@@ -16,12 +16,15 @@
 package com.android.tools.datastore.database;
 
 import com.android.tools.datastore.DeviceId;
+import com.android.tools.datastore.PayloadStore;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Profiler.*;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profiler.protobuf3jarjar.InvalidProtocolBufferException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -48,7 +51,8 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
     FIND_AGENT_STATUS,
     UPDATE_AGENT_STATUS,
     INSERT_BYTES,
-    GET_BYTES
+    GET_BYTES,
+    GET_BYTES_HASHES_BY_SESSION
   }
 
   // Need to have a lock due to processes being updated and queried at the same time.
@@ -56,11 +60,22 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
   // returned in the query results, this results in the UI flickering.
   private final Object myLock = new Object();
 
+  // When set, the contents of byte responses are kept in this store instead of in the database, and only their hash is stored here.
+  @Nullable private final PayloadStore myPayloadStore;
+
+  public ProfilerTable() {
+    this(null);
+  }
+
+  public ProfilerTable(@Nullable PayloadStore payloadStore) {
+    myPayloadStore = payloadStore;
+  }
+
   @Override
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
     try {
-      createTable("Profiler_Bytes", "Id STRING NOT NULL", "Session INTEGER", "Data BLOB");
+      createTable("Profiler_Bytes", "Id STRING NOT NULL", "Session INTEGER", "Data BLOB", "ContentHash STRING");
       createTable("Profiler_Devices", "DeviceId INTEGER", "LastKnownTime INTEGER", "Data BLOB");
       createTable("Profiler_Processes", "DeviceId INTEGER", "ProcessId INTEGER", "Name STRING NOT NULL", "State INTEGER",
                   "StartTime INTEGER", "Arch STRING NOT NULL", "AgentStatus INTEGER", "IsAgentAttachable INTEGER");
@@ -113,8 +128,10 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
                       "SELECT AgentStatus, IsAgentAttachable from Profiler_Processes WHERE DeviceId = ? AND ProcessId = ?");
       createStatement(ProfilerStatements.UPDATE_AGENT_STATUS,
                       "UPDATE Profiler_Processes SET AgentStatus = ?, IsAgentAttachable = ? WHERE DeviceId = ? AND ProcessId = ?");
-      createStatement(ProfilerStatements.INSERT_BYTES, "INSERT OR REPLACE INTO Profiler_Bytes (Id, Session, Data) VALUES (?, ?, ?)");
-      createStatement(ProfilerStatements.GET_BYTES, "SELECT Data FROM Profiler_Bytes WHERE Id = ? AND Session = ?");
+      createStatement(ProfilerStatements.INSERT_BYTES, "INSERT OR REPLACE INTO Profiler_Bytes (Id, Session, Data, ContentHash) VALUES (?, ?, ?, ?)");
+      createStatement(ProfilerStatements.GET_BYTES, "SELECT Data, ContentHash FROM Profiler_Bytes WHERE Id = ? AND Session = ?");
+      createStatement(ProfilerStatements.GET_BYTES_HASHES_BY_SESSION,
+                      "SELECT ContentHash FROM Profiler_Bytes WHERE Session = ? AND ContentHash IS NOT NULL");
     }
     catch (SQLException ex) {
       onError(ex);
@@ -328,6 +345,7 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
     // Note - this is not being called from multiple threads at the moment.
     // If we ever need to call getSessions and insertOrUpdateSession synchronously, we should protect the logic below.
     execute(ProfilerStatements.UPDATE_SESSION, endTimestampNs, sessionId);
+    pinSessionBytes(sessionId);
   }
 
   /**
@@ -383,22 +401,73 @@ public class ProfilerTable extends DataStoreTable<ProfilerTable.ProfilerStatemen
   }
 
   public void insertOrUpdateBytes(@NotNull String id, @NotNull Common.Session session, @NotNull BytesResponse response) {
-    execute(ProfilerStatements.INSERT_BYTES, id, session.getSessionId(), response.toByteArray());
+    if (myPayloadStore != null && !response.getContents().isEmpty()) {
+      try {
+        String hash = myPayloadStore.put(response.getContents());
+        execute(ProfilerStatements.INSERT_BYTES, id, session.getSessionId(), response.toBuilder().clearContents().build().toByteArray(), hash);
+        if (isSessionEnded(session.getSessionId())) {
+          myPayloadStore.pin(hash);
+        }
+        return;
+      }
+      catch (IOException ex) {
+        // Fall back to keeping the contents in the database.
+        onError(ex);
+      }
+    }
+    execute(ProfilerStatements.INSERT_BYTES, id, session.getSessionId(), response.toByteArray(), null);
   }
 
+  /**
+   * Returns the cached response for the given request, or null if it has not been cached or its contents have since been evicted from
+   * the {@link PayloadStore}, in which case callers should fetch it again from the device.
+   */
   @Nullable
   public BytesResponse getBytes(@NotNull BytesRequest request) {
     try {
       ResultSet results =
         executeQuery(ProfilerStatements.GET_BYTES, request.getId(), request.getSession().getSessionId());
       if (results.next()) {
-        return BytesResponse.parseFrom(results.getBytes(1));
+        BytesResponse response = BytesResponse.parseFrom(results.getBytes(1));
+        String hash = results.getString(2);
+        if (hash == null) {
+          return response;
+        }
+        if (myPayloadStore == null) {
+          return null;
+        }
+        ByteString contents = myPayloadStore.read(hash);
+        return contents == null ? null : response.toBuilder().setContents(contents).build();
       }
     }
-    catch (InvalidProtocolBufferException | SQLException ex) {
+    catch (IOException | SQLException ex) {
       onError(ex);
     }
 
     return null;
   }
+
+  private boolean isSessionEnded(long sessionId) {
+    Common.Session session = getSessionById(sessionId);
+    return session.getSessionId() == sessionId && session.getEndTimestamp() != Long.MAX_VALUE;
+  }
+
+  /**
+   * Pins the contents of the byte responses cached for the given session in the {@link PayloadStore}. Once a session has ended, its
+   * contents can no longer be fetched from the device, so evicting them would lose them for good.
+   */
+  private void pinSessionBytes(long sessionId) {
+    if (myPayloadStore == null) {
+      return;
+    }
+    try {
+      ResultSet results = executeQuery(ProfilerStatements.GET_BYTES_HASHES_BY_SESSION, sessionId);
+      while (results.next()) {
+        myPayloadStore.pin(results.getString(1));
+      }
+    }
+    catch (SQLException ex) {
+      onError(ex);
+    }
+  }
 }
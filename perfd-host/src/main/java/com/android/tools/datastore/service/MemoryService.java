@@ -142,6 +142,7 @@ public class MemoryService extends MemoryServiceGrpc.MemoryServiceImplBase imple
     if (runner != null) {
       runner.stop();
     }
+    myAllocationsTable.endSession(request.getSession());
     // Our polling service can get shutdown if we unplug the device.
     // This should be the only function that gets called as StudioProfilers attempts
     // to stop monitoring the last app it was monitoring.
@@ -18,6 +18,7 @@ package com.android.tools.datastore.service;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.DeviceId;
 import com.android.tools.datastore.LogService;
+import com.android.tools.datastore.PayloadStore;
 import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.datastore.database.DataStoreTable;
 import com.android.tools.datastore.database.ProfilerTable;
@@ -30,6 +31,7 @@ import com.google.common.collect.Maps;
 import io.grpc.Channel;
 import io.grpc.stub.StreamObserver;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
 import java.util.*;
@@ -52,10 +54,21 @@ public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase
   public ProfilerService(@NotNull DataStoreService service,
                          Consumer<Runnable> fetchExecutor,
                          @NotNull LogService logService) {
+    this(service, fetchExecutor, logService, null);
+  }
+
+  /**
+   * @param payloadStore if not null, the store the contents of {@link #getBytes(BytesRequest, StreamObserver)} responses are cached in,
+   *                     instead of the database.
+   */
+  public ProfilerService(@NotNull DataStoreService service,
+                         Consumer<Runnable> fetchExecutor,
+                         @NotNull LogService logService,
+                         @Nullable PayloadStore payloadStore) {
     myService = service;
     myFetchExecutor = fetchExecutor;
     myLogService = logService;
-    myTable = new ProfilerTable();
+    myTable = new ProfilerTable(payloadStore);
     myUnifiedEventsTable = new UnifiedEventsTable();
     mySessionIdToDevice = new HashMap<>();
   }
@@ -230,6 +243,8 @@ public class ProfilerService extends ProfilerServiceGrpc.ProfilerServiceImplBase
       myTable.insertOrUpdateBytes(request.getId(), request.getSession(), response);
     }
     else if (response == null) {
+      // The payload store pins the contents of ended sessions, so this should only happen for contents that were never cached.
+      getLogger().warn("Bytes " + request.getId() + " of session " + request.getSession().getSessionId() + " are not available.");
       response = BytesResponse.getDefaultInstance();
     }
 
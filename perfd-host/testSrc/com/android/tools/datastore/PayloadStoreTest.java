@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore;
+
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PayloadStoreTest {
+  private static final int PAYLOAD_SIZE = 600;
+  private static final long MAX_SIZE = 1000;
+
+  @Rule public TemporaryFolder myTemporaryFolder = new TemporaryFolder();
+
+  private File myDirectory;
+  private PayloadStore myStore;
+
+  @Before
+  public void setUp() throws IOException {
+    myDirectory = myTemporaryFolder.newFolder();
+    myStore = new PayloadStore(myDirectory, MAX_SIZE);
+  }
+
+  @Test
+  public void testReadBack() throws IOException {
+    ByteString contents = createContents(1);
+    String hash = myStore.put(contents);
+    assertThat(myStore.getSize(hash)).isEqualTo(PAYLOAD_SIZE);
+    assertThat(myStore.read(hash)).isEqualTo(contents);
+  }
+
+  @Test
+  public void testMissingPayload() throws IOException {
+    assertThat(myStore.getSize("missing")).isEqualTo(-1);
+    assertThat(myStore.read("missing")).isNull();
+  }
+
+  @Test
+  public void testIdenticalContentsAreStoredOnce() throws IOException {
+    String hash = myStore.put(createContents(1));
+    assertThat(myStore.put(createContents(1))).isEqualTo(hash);
+    assertThat(myStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE);
+    assertThat(myDirectory.listFiles()).hasLength(1);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedPayloadIsEvicted() throws IOException {
+    String hash1 = myStore.put(createContents(1));
+    String hash2 = myStore.put(createContents(2));
+    // Only the newest payload fits, the older one is evicted and its file removed.
+    assertThat(myStore.getSize(hash1)).isEqualTo(-1);
+    assertThat(myStore.read(hash2)).isEqualTo(createContents(2));
+    assertThat(myStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE);
+    assertThat(myDirectory.listFiles()).hasLength(1);
+
+    // A payload larger than the whole store is still kept until something else is added.
+    ByteString large = ByteString.copyFrom(new byte[(int)MAX_SIZE * 2]);
+    String largeHash = myStore.put(large);
+    assertThat(myStore.read(largeHash)).isEqualTo(large);
+    assertThat(myStore.getSize(hash2)).isEqualTo(-1);
+  }
+
+  @Test
+  public void testPinnedPayloadIsNotEvicted() throws IOException {
+    String hash1 = myStore.put(createContents(1));
+    myStore.pin(hash1);
+    String hash2 = myStore.put(createContents(2));
+    // The pinned payload is kept even though the store is over its cap.
+    assertThat(myStore.read(hash1)).isEqualTo(createContents(1));
+    assertThat(myStore.read(hash2)).isEqualTo(createContents(2));
+    assertThat(myStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE * 2);
+
+    // Only the payloads that are not pinned make room for new ones.
+    String hash3 = myStore.put(createContents(3));
+    assertThat(myStore.getSize(hash1)).isEqualTo(PAYLOAD_SIZE);
+    assertThat(myStore.getSize(hash2)).isEqualTo(-1);
+    assertThat(myStore.read(hash3)).isEqualTo(createContents(3));
+
+    // Pinning a payload that is not in the store has no effect.
+    myStore.pin("missing");
+    assertThat(myStore.getSize("missing")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testStaleFilesAreDiscarded() throws IOException {
+    String hash = myStore.put(createContents(1));
+    PayloadStore newStore = new PayloadStore(myDirectory, MAX_SIZE);
+    assertThat(newStore.getSize(hash)).isEqualTo(-1);
+    assertThat(myDirectory.listFiles()).hasLength(0);
+  }
+
+  private static ByteString createContents(int seed) {
+    byte[] bytes = new byte[PAYLOAD_SIZE];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte)(i * seed);
+    }
+    return ByteString.copyFrom(bytes);
+  }
+}
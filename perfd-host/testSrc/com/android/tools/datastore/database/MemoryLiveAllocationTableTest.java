@@ -19,6 +19,7 @@ import com.android.tools.datastore.FakeLogService;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.*;
 import com.android.tools.profiler.proto.MemoryProfiler.AllocationStack.StackFrame;
+import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -513,6 +514,95 @@ public class MemoryLiveAllocationTableTest extends DatabaseTest<MemoryLiveAlloca
     assertThat(querySample.getTimestamp()).isEqualTo(alloc2.getTimestamp());
   }
 
+  @Test
+  public void testSnapshotFromLiveSetCheckpoints() {
+    getTable().setCheckpointIntervalNs(10);
+    int tagA = KLASS1_INSTANCE1_TAG;
+    int tagB = KLASS1_INSTANCE2_TAG;
+    int tagC = KLASS2_INSTANCE1_TAG;
+    int tagD = KLASS2_INSTANCE2_TAG;
+
+    // Before any checkpoint exists, snapshots are computed from the allocation events directly.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(tagA, 0)).addEvents(createAllocation(tagB, 5)).build());
+    assertThat(getSnapshotTags(3)).containsExactly(tagA);
+
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(tagC, 14)).addEvents(createDeallocation(tagA, 12)).build());
+    // Data is now one interval past t = 5, which creates the first checkpoint: {A}.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(tagD, 20)).addEvents(createDeallocation(tagB, 22)).build());
+    // Second checkpoint at t = 15: A was freed, B and C were allocated since the previous checkpoint: {B, C}.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(KLASS2_INSTANCE2_TAG + 1, 30)).build());
+
+    // Checkpoint at t = 5 plus the allocation of B.
+    assertThat(getSnapshotTags(10)).containsExactly(tagA, tagB);
+    // Checkpoint at t = 15 plus the allocation of D.
+    assertThat(getSnapshotTags(21)).containsExactly(tagB, tagC, tagD);
+    // B is part of the checkpoint, but was freed since.
+    assertThat(getSnapshotTags(23)).containsExactly(tagC, tagD);
+    assertThat(getSnapshotTags(15)).containsExactly(tagB, tagC);
+  }
+
+  @Test
+  public void testNegativeTagDisablesLiveSetCheckpoints() {
+    getTable().setCheckpointIntervalNs(10);
+    int tagA = KLASS1_INSTANCE1_TAG;
+    int tagB = KLASS1_INSTANCE2_TAG;
+    int negativeTag = -KLASS2_INSTANCE1_TAG;
+
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(createAllocation(tagA, 0)).build());
+    // Creates the checkpoint at t = 0: {A}.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(createAllocation(negativeTag, 12)).build());
+    // Creates the checkpoint at t = 10: {A}. The one at t = 20 would contain the negative tag, so no checkpoint is created from then on.
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(tagB, 25)).addEvents(createDeallocation(negativeTag, 30)).build());
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(KLASS2_INSTANCE2_TAG, 45)).build());
+
+    assertThat(getSnapshotTags(20)).containsExactly(tagA, negativeTag);
+    assertThat(getSnapshotTags(26)).containsExactly(tagA, negativeTag, tagB);
+    assertThat(getSnapshotTags(35)).containsExactly(tagA, tagB);
+  }
+
+  @Test
+  public void testEndSessionKeepsLiveSetCheckpoints() {
+    getTable().setCheckpointIntervalNs(10);
+    int tagA = KLASS1_INSTANCE1_TAG;
+    int tagB = KLASS1_INSTANCE2_TAG;
+
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder().addEvents(createAllocation(tagA, 0)).build());
+    getTable().insertAllocationData(VALID_SESSION, BatchAllocationSample.newBuilder()
+      .addEvents(createAllocation(tagB, 12)).addEvents(createDeallocation(tagA, 15)).build());
+    getTable().endSession(VALID_SESSION);
+
+    assertThat(getSnapshotTags(5)).containsExactly(tagA);
+    assertThat(getSnapshotTags(20)).containsExactly(tagB);
+  }
+
+  @NotNull
+  private List<Integer> getSnapshotTags(long time) {
+    List<Integer> tags = new ArrayList<>();
+    for (AllocationEvent event : getTable().getSnapshot(VALID_SESSION, time).getEventsList()) {
+      tags.add(event.getAllocData().getTag());
+    }
+    return tags;
+  }
+
+  @NotNull
+  private static AllocationEvent createAllocation(int tag, long timestamp) {
+    return AllocationEvent.newBuilder()
+      .setAllocData(AllocationEvent.Allocation.newBuilder().setTag(tag).setClassTag(CLASS1).setHeapId(HEAP0)).setTimestamp(timestamp).build();
+  }
+
+  @NotNull
+  private static AllocationEvent createDeallocation(int tag, long timestamp) {
+    return AllocationEvent.newBuilder()
+      .setFreeData(AllocationEvent.Deallocation.newBuilder().setTag(tag).setClassTag(CLASS1).setHeapId(HEAP0)).setTimestamp(timestamp)
+      .build();
+  }
+
   @Test
   public void testLatestDataTimestamp() {
     assertThat(getTable().getLatestDataTimestamp(VALID_SESSION).getTimestamp()).isEqualTo(0);
@@ -16,14 +16,19 @@
 package com.android.tools.datastore.database;
 
 import com.android.tools.datastore.DeviceId;
+import com.android.tools.datastore.PayloadStore;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.Profiler;
 import com.android.tools.profiler.proto.Profiler.AgentStatusRequest;
 import com.android.tools.profiler.proto.Profiler.AgentStatusResponse;
 import com.android.tools.profiler.proto.Profiler.GetSessionsResponse;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.function.Consumer;
@@ -32,10 +37,20 @@ import static com.google.common.truth.Truth.assertThat;
 
 public class ProfilerTableTest extends DatabaseTest<ProfilerTable> {
   private static final DeviceId FAKE_DEVICE_ID = DeviceId.of(1);
+  private static final int PAYLOAD_SIZE = 600;
+  private static final long PAYLOAD_STORE_SIZE = 1000;
+
+  private PayloadStore myPayloadStore;
 
   @Override
   protected ProfilerTable createTable() {
-    return new ProfilerTable();
+    try {
+      myPayloadStore = new PayloadStore(Files.createTempDirectory("ProfilerTableTest").toFile(), PAYLOAD_STORE_SIZE);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return new ProfilerTable(myPayloadStore);
   }
 
   @Override
@@ -273,4 +288,61 @@ public class ProfilerTableTest extends DatabaseTest<ProfilerTable> {
     assertThat(processes.getProcess(0)).isEqualTo(process);
     assertThat(getTable().getAgentStatus(request).getStatus()).isEqualTo(AgentStatusResponse.Status.ATTACHED);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testBytesAreKeptInPayloadStore() {
+    Common.Session session = Common.Session.newBuilder().setSessionId(1).build();
+    ByteString contents1 = createContents((byte)1);
+    ByteString contents2 = createContents((byte)2);
+
+    getTable().insertOrUpdateBytes("id1", session, Profiler.BytesResponse.newBuilder().setContents(contents1).build());
+    assertThat(getBytes("id1", session)).isEqualTo(contents1);
+    assertThat(myPayloadStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE);
+
+    // Identical contents are only stored once.
+    getTable().insertOrUpdateBytes("id1-copy", session, Profiler.BytesResponse.newBuilder().setContents(contents1).build());
+    assertThat(getBytes("id1-copy", session)).isEqualTo(contents1);
+    assertThat(myPayloadStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE);
+
+    // Exceeding the store size evicts the oldest contents, which are then reported as missing so they get fetched again.
+    getTable().insertOrUpdateBytes("id2", session, Profiler.BytesResponse.newBuilder().setContents(contents2).build());
+    assertThat(getBytes("id2", session)).isEqualTo(contents2);
+    assertThat(getTable().getBytes(Profiler.BytesRequest.newBuilder().setId("id1").setSession(session).build())).isNull();
+    assertThat(myPayloadStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE);
+  }
+
+  @Test
+  public void testBytesOfEndedSessionsAreNotEvicted() {
+    Common.Session session = Common.Session.newBuilder().setSessionId(1).setEndTimestamp(Long.MAX_VALUE).build();
+    getTable().insertOrUpdateSession(session, "Name", 0, false, false, Common.SessionMetaData.SessionType.FULL);
+    ByteString contents1 = createContents((byte)1);
+    ByteString contents2 = createContents((byte)2);
+    ByteString contents3 = createContents((byte)3);
+
+    getTable().insertOrUpdateBytes("id1", session, Profiler.BytesResponse.newBuilder().setContents(contents1).build());
+    // Once the session ends its contents can no longer be fetched from the device, so they are kept even when the store is full.
+    getTable().updateSessionEndTime(session.getSessionId(), 10);
+    getTable().insertOrUpdateBytes("id2", session, Profiler.BytesResponse.newBuilder().setContents(contents2).build());
+    getTable().insertOrUpdateBytes("id3", session, Profiler.BytesResponse.newBuilder().setContents(contents3).build());
+    assertThat(getBytes("id1", session)).isEqualTo(contents1);
+    assertThat(getBytes("id2", session)).isEqualTo(contents2);
+    assertThat(getBytes("id3", session)).isEqualTo(contents3);
+    assertThat(myPayloadStore.getTotalSizeBytes()).isEqualTo(PAYLOAD_SIZE * 3);
+  }
+
+  private ByteString getBytes(String id, Common.Session session) {
+    Profiler.BytesResponse response = getTable().getBytes(Profiler.BytesRequest.newBuilder().setId(id).setSession(session).build());
+    assertThat(response).isNotNull();
+    return response.getContents();
+  }
+
+  private static ByteString createContents(byte value) {
+    byte[] bytes = new byte[PAYLOAD_SIZE];
+    Arrays.fill(bytes, value);
+    // Make the contents position-dependent, so payloads of different values differ in more than one byte.
+    for (int i = 0; i < bytes.length; i += 7) {
+      bytes[i] = (byte)i;
+    }
+    return ByteString.copyFrom(bytes);
+  }
+}
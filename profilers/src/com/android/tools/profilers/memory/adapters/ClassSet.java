@@ -85,6 +85,12 @@ public class ClassSet extends ClassifierSet {
       return classSet;
     }
 
+    @NotNull
+    @Override
+    protected Object getPartitionKey(@NotNull InstanceObject instance) {
+      return instance.getClassEntry();
+    }
+
     @NotNull
     @Override
     public List<ClassifierSet> getFilteredClassifierSets() {
@@ -24,6 +24,7 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import java.util.*;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -270,6 +271,31 @@ public abstract class ClassifierSet implements MemoryObject {
     return instanceRemoved;
   }
 
+  /**
+   * Adds the instances of a {@link Partition} along with its pre-computed totals. This is only equivalent to adding the instances one by one
+   * if this set has not received any instance yet, otherwise the instances are added individually.
+   */
+  private void addPartition(@NotNull Partition partition) {
+    if (myClassifier != null || !mySnapshotInstances.isEmpty() || !myDeltaInstances.isEmpty() || !isEmpty()) {
+      partition.mySnapshotInstances.forEach(this::addSnapshotInstanceObject);
+      partition.myDeltaAllocations.forEach(this::addDeltaInstanceObject);
+      partition.myDeltaDeallocations.forEach(this::freeDeltaInstanceObject);
+      return;
+    }
+
+    mySnapshotInstances.addAll(partition.mySnapshotInstances);
+    myDeltaInstances.addAll(partition.myDeltaAllocations);
+    myDeltaInstances.addAll(partition.myDeltaDeallocations);
+    mySnapshotObjectCount += partition.mySnapshotInstances.size();
+    myDeltaAllocations += partition.myDeltaAllocations.size();
+    myDeltaDeallocations += partition.myDeltaDeallocations.size();
+    myTotalNativeSize += partition.myTotalNativeSize;
+    myTotalShallowSize += partition.myTotalShallowSize;
+    myTotalRetainedSize += partition.myTotalRetainedSize;
+    myInstancesWithStackInfoCount += partition.myInstancesWithStackInfoCount;
+    myNeedsRefiltering = true;
+  }
+
   public void clearClassifierSets() {
     mySnapshotInstances.clear();
     myDeltaInstances.clear();
@@ -478,6 +504,10 @@ public abstract class ClassifierSet implements MemoryObject {
    */
   @VisibleForTesting(visibility = VisibleForTesting.Visibility.PROTECTED)
   public static abstract class Classifier {
+    // Below this many instances, partitioning is cheaper to do sequentially than to split across threads.
+    @VisibleForTesting static final int PARALLEL_PARTITION_THRESHOLD = 10000;
+    private static final int PARALLEL_PARTITION_CHUNK_SIZE = 4096;
+
     public static final Classifier IDENTITY_CLASSIFIER = new Classifier() {
       @Override
       public boolean isTerminalClassifier() {
@@ -528,6 +558,16 @@ public abstract class ClassifierSet implements MemoryObject {
     @NotNull
     protected abstract List<ClassifierSet> getAllClassifierSets();
 
+    /**
+     * Returns an object identifying the next-level ClassifierSet the given {@code instance} belongs to, without creating it. Instances with
+     * equal keys must be classified into the same ClassifierSet. This is called concurrently from multiple threads, so implementations must
+     * not modify any state. Returning null (the default) means this classifier can only be partitioned sequentially.
+     */
+    @Nullable
+    protected Object getPartitionKey(@NotNull InstanceObject instance) {
+      return null;
+    }
+
     /**
      * Partitions {@link InstanceObject}s in {@code snapshotInstances} and {@code myDeltaInstances} according to the current
      * {@link ClassifierSet}'s strategy. This will consume the instances from the input.
@@ -537,24 +577,149 @@ public abstract class ClassifierSet implements MemoryObject {
         return;
       }
 
-      snapshotInstances.forEach(instance -> getClassifierSet(instance, true).addSnapshotInstanceObject(instance));
-      deltaInstances.forEach(instance -> {
-        if (instance.hasTimeData()) {
-          // Note - we only add the instance allocation to our delta set if it is not already accounted for in the baseline snapshot.
-          // Otherwise we would be double counting allocations.
-          if (instance.hasAllocTime() && !snapshotInstances.contains(instance)) {
+      if (snapshotInstances.size() + deltaInstances.size() >= PARALLEL_PARTITION_THRESHOLD && supportsParallelPartition(snapshotInstances,
+                                                                                                                          deltaInstances)) {
+        parallelPartition(snapshotInstances, deltaInstances);
+      }
+      else {
+        snapshotInstances.forEach(instance -> getClassifierSet(instance, true).addSnapshotInstanceObject(instance));
+        deltaInstances.forEach(instance -> {
+          if (instance.hasTimeData()) {
+            // Note - we only add the instance allocation to our delta set if it is not already accounted for in the baseline snapshot.
+            // Otherwise we would be double counting allocations.
+            if (instance.hasAllocTime() && !snapshotInstances.contains(instance)) {
+              getClassifierSet(instance, true).addDeltaInstanceObject(instance);
+            }
+            if (instance.hasDeallocTime()) {
+              getClassifierSet(instance, true).freeDeltaInstanceObject(instance);
+            }
+          }
+          else {
             getClassifierSet(instance, true).addDeltaInstanceObject(instance);
           }
-          if (instance.hasDeallocTime()) {
-            getClassifierSet(instance, true).freeDeltaInstanceObject(instance);
+        });
+      }
+      snapshotInstances.clear();
+      deltaInstances.clear();
+    }
+
+    private boolean supportsParallelPartition(@NotNull Collection<InstanceObject> snapshotInstances,
+                                              @NotNull Collection<InstanceObject> deltaInstances) {
+      InstanceObject sample = snapshotInstances.isEmpty() ? deltaInstances.iterator().next() : snapshotInstances.iterator().next();
+      return getPartitionKey(sample) != null;
+    }
+
+    /**
+     * Same as the sequential partitioning, but the instances are first grouped by {@link #getPartitionKey(InstanceObject)} and their totals
+     * computed in chunks on the fork-join pool. The per-chunk results are merged in order (so children keep the order in which they are
+     * first encountered), and only the creation of the child ClassifierSets happens on the calling thread.
+     */
+    private void parallelPartition(@NotNull Collection<InstanceObject> snapshotInstances,
+                                   @NotNull Collection<InstanceObject> deltaInstances) {
+      List<InstanceObject> snapshotList = new ArrayList<>(snapshotInstances);
+      List<InstanceObject> deltaList = new ArrayList<>(deltaInstances);
+      int snapshotChunks = (snapshotList.size() + PARALLEL_PARTITION_CHUNK_SIZE - 1) / PARALLEL_PARTITION_CHUNK_SIZE;
+      int deltaChunks = (deltaList.size() + PARALLEL_PARTITION_CHUNK_SIZE - 1) / PARALLEL_PARTITION_CHUNK_SIZE;
+
+      Map<Object, Partition> partitions = IntStream.range(0, snapshotChunks + deltaChunks).parallel().mapToObj(chunk -> {
+        Map<Object, Partition> chunkPartitions = new LinkedHashMap<>();
+        if (chunk < snapshotChunks) {
+          int start = chunk * PARALLEL_PARTITION_CHUNK_SIZE;
+          for (InstanceObject instance : snapshotList.subList(start, Math.min(start + PARALLEL_PARTITION_CHUNK_SIZE, snapshotList.size()))) {
+            chunkPartitions.computeIfAbsent(getPartitionKey(instance), key -> new Partition(instance)).addSnapshot(instance);
           }
         }
         else {
-          getClassifierSet(instance, true).addDeltaInstanceObject(instance);
+          int start = (chunk - snapshotChunks) * PARALLEL_PARTITION_CHUNK_SIZE;
+          for (InstanceObject instance : deltaList.subList(start, Math.min(start + PARALLEL_PARTITION_CHUNK_SIZE, deltaList.size()))) {
+            boolean isAllocation;
+            boolean isDeallocation;
+            if (instance.hasTimeData()) {
+              // See the sequential path: allocations already accounted for in the baseline snapshot are not added to the delta.
+              isAllocation = instance.hasAllocTime() && !snapshotInstances.contains(instance);
+              isDeallocation = instance.hasDeallocTime();
+            }
+            else {
+              isAllocation = true;
+              isDeallocation = false;
+            }
+            if (isAllocation || isDeallocation) {
+              chunkPartitions.computeIfAbsent(getPartitionKey(instance), key -> new Partition(instance))
+                .addDelta(instance, isAllocation, isDeallocation);
+            }
+          }
         }
+        return chunkPartitions;
+      }).collect(LinkedHashMap::new, Partition::mergeInto, Partition::mergeInto);
+
+      partitions.values().forEach(partition -> {
+        ClassifierSet classifierSet = getClassifierSet(partition.myFirstInstance, true);
+        assert classifierSet != null;
+        classifierSet.addPartition(partition);
       });
-      snapshotInstances.clear();
-      deltaInstances.clear();
+    }
+  }
+
+  /**
+   * The instances of a {@link Classifier#partition(Collection, Collection)} chunk that share a partition key, along with their totals.
+   */
+  private static final class Partition {
+    @NotNull private final InstanceObject myFirstInstance;
+    @NotNull private final List<InstanceObject> mySnapshotInstances = new ArrayList<>();
+    @NotNull private final List<InstanceObject> myDeltaAllocations = new ArrayList<>();
+    @NotNull private final List<InstanceObject> myDeltaDeallocations = new ArrayList<>();
+    private long myTotalNativeSize;
+    private long myTotalShallowSize;
+    private long myTotalRetainedSize;
+    private int myInstancesWithStackInfoCount;
+
+    private Partition(@NotNull InstanceObject firstInstance) {
+      myFirstInstance = firstInstance;
+    }
+
+    private void addSnapshot(@NotNull InstanceObject instance) {
+      mySnapshotInstances.add(instance);
+      addSizes(instance, 1);
+      if (instance.getCallStackDepth() > 0) {
+        myInstancesWithStackInfoCount++;
+      }
+    }
+
+    private void addDelta(@NotNull InstanceObject instance, boolean isAllocation, boolean isDeallocation) {
+      if (isAllocation) {
+        myDeltaAllocations.add(instance);
+        addSizes(instance, 1);
+      }
+      if (isDeallocation) {
+        myDeltaDeallocations.add(instance);
+        addSizes(instance, -1);
+      }
+      if (instance.getCallStackDepth() > 0) {
+        myInstancesWithStackInfoCount++;
+      }
+    }
+
+    private void addSizes(@NotNull InstanceObject instance, int sign) {
+      myTotalNativeSize += sign * (instance.getNativeSize() == INVALID_VALUE ? 0 : instance.getNativeSize());
+      myTotalShallowSize += sign * (instance.getShallowSize() == INVALID_VALUE ? 0 : instance.getShallowSize());
+      myTotalRetainedSize += sign * (instance.getRetainedSize() == INVALID_VALUE ? 0 : instance.getRetainedSize());
+    }
+
+    private void merge(@NotNull Partition other) {
+      mySnapshotInstances.addAll(other.mySnapshotInstances);
+      myDeltaAllocations.addAll(other.myDeltaAllocations);
+      myDeltaDeallocations.addAll(other.myDeltaDeallocations);
+      myTotalNativeSize += other.myTotalNativeSize;
+      myTotalShallowSize += other.myTotalShallowSize;
+      myTotalRetainedSize += other.myTotalRetainedSize;
+      myInstancesWithStackInfoCount += other.myInstancesWithStackInfoCount;
+    }
+
+    private static void mergeInto(@NotNull Map<Object, Partition> target, @NotNull Map<Object, Partition> source) {
+      source.forEach((key, partition) -> target.merge(key, partition, (existing, added) -> {
+        existing.merge(added);
+        return existing;
+      }));
     }
   }
 }
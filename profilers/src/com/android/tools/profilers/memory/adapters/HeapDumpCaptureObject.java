@@ -19,31 +19,47 @@ import com.android.tools.adtui.model.Range;
 import com.android.tools.perflib.heap.ClassObj;
 import com.android.tools.perflib.heap.Heap;
 import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.RootObj;
 import com.android.tools.perflib.heap.Snapshot;
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor;
+import com.android.tools.perflib.heap.io.HprofBuffer;
 import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.android.tools.perflib.heap.io.MemoryMappedFileBuffer;
 import com.android.tools.profiler.proto.Common;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataRequest;
 import com.android.tools.profiler.proto.MemoryProfiler.DumpDataResponse;
 import com.android.tools.profiler.proto.MemoryProfiler.HeapDumpInfo;
 import com.android.tools.profiler.proto.MemoryServiceGrpc.MemoryServiceBlockingStub;
+import com.android.tools.profiler.protobuf3jarjar.ByteString;
 import com.android.tools.profilers.analytics.FeatureTracker;
 import com.android.tools.profilers.memory.MemoryProfiler;
 import com.android.tools.profilers.memory.MemoryProfilerStage;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.annotations.VisibleForTesting;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
 import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttribute.*;
 
 public class HeapDumpCaptureObject implements CaptureObject {
+  /**
+   * Heap dumps at or above this size are spooled to a temporary file and parsed from a memory-mapped buffer, so the raw hprof bytes
+   * live outside of the IDE's heap while the {@link Snapshot} is in use.
+   */
+  private static final long DEFAULT_MAPPED_BUFFER_THRESHOLD_BYTES = 16 * 1024 * 1024;
 
   @NotNull
   private final MemoryServiceBlockingStub myClient;
@@ -60,9 +76,6 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @NotNull
   private final Map<ClassObj, InstanceObject> myClassObjectIndex = new HashMap<>();
 
-  @NotNull
-  private final Map<Instance, InstanceObject> myInstanceIndex = new HashMap<>();
-
   @NotNull
   private final ClassDb myClassDb = new ClassDb();
 
@@ -75,10 +88,21 @@ public class HeapDumpCaptureObject implements CaptureObject {
   @Nullable
   private volatile Snapshot mySnapshot;
 
+  @Nullable
+  private HeapDumpDominators myDominators;
+
   private volatile boolean myIsLoadingError = false;
 
   private boolean myHasNativeAllocations;
 
+  private long myMappedBufferThresholdBytes = DEFAULT_MAPPED_BUFFER_THRESHOLD_BYTES;
+
+  @Nullable
+  private File myMappedHprofFile;
+
+  @Nullable
+  private MemoryMappedFileBuffer myMappedBuffer;
+
   @NotNull
   private final MemoryProfilerStage myStage;
 
@@ -164,33 +188,25 @@ public class HeapDumpCaptureObject implements CaptureObject {
     return myHasNativeAllocations;
   }
 
+  @VisibleForTesting
+  void setMappedBufferThresholdBytes(long thresholdBytes) {
+    myMappedBufferThresholdBytes = thresholdBytes;
+  }
+
+  @VisibleForTesting
+  @Nullable
+  File getMappedHprofFile() {
+    return myMappedHprofFile;
+  }
+
   @Override
   public boolean load(@Nullable Range queryRange, @Nullable Executor queryJoiner) {
-    DumpDataResponse response;
-    while (true) {
-      // TODO move this to another thread and complete before we notify
-      response = myClient.getHeapDump(DumpDataRequest.newBuilder()
-                                        .setSession(mySession)
-                                        .setDumpTime(myHeapDumpInfo.getStartTime()).build());
-      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
-        break;
-      }
-      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
-        try {
-          Thread.sleep(50L);
-        }
-        catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          myIsLoadingError = true;
-          return false;
-        }
-        continue;
-      }
+    HprofBuffer buffer = fetchBuffer();
+    if (buffer == null) {
       myIsLoadingError = true;
       return false;
     }
 
-    InMemoryBuffer buffer = new InMemoryBuffer(response.getData().asReadOnlyByteBuffer());
     Snapshot snapshot;
     NativeRegistryPostProcessor nativeRegistryPostProcessor = new NativeRegistryPostProcessor();
     if (myProguardMap != null) {
@@ -199,7 +215,7 @@ public class HeapDumpCaptureObject implements CaptureObject {
     else {
       snapshot = Snapshot.createSnapshot(buffer, new ProguardMap(), Collections.singletonList(nativeRegistryPostProcessor));
     }
-    snapshot.computeDominators();
+    myDominators = computeDominators(snapshot);
     myHasNativeAllocations = nativeRegistryPostProcessor.getHasNativeAllocations();
     mySnapshot = snapshot;
 
@@ -222,7 +238,6 @@ public class HeapDumpCaptureObject implements CaptureObject {
       HeapSet heapSet = heapSets.get(heap);
       heap.getClasses().forEach(classObj -> {
         InstanceObject classObject = createClassObjectInstance(finalJavaLangClassObject, classObj);
-        myInstanceIndex.put(classObj, classObject);
         heapSet.addDeltaInstanceObject(classObject);
       });
     }
@@ -231,12 +246,7 @@ public class HeapDumpCaptureObject implements CaptureObject {
       HeapSet heapSet = heapSets.get(heap);
       heap.forEachInstance(instance -> {
         assert !ClassDb.JAVA_LANG_CLASS.equals(getName());
-        ClassObj classObj = instance.getClassObj();
-        InstanceObject instanceObject =
-          new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance,
-                                     myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()), null);
-        myInstanceIndex.put(instance, instanceObject);
-        heapSet.addDeltaInstanceObject(instanceObject);
+        heapSet.addDeltaInstanceObject(createInstanceObject(instance));
         return true;
       });
     }
@@ -268,7 +278,76 @@ public class HeapDumpCaptureObject implements CaptureObject {
 
   @Override
   public void unload() {
+    // The snapshot, and the instances built from it, read the mapped buffer, so they are released together with it.
+    mySnapshot = null;
+    myDominators = null;
+    myHeapSets.clear();
+    myClassObjectIndex.clear();
+    if (myMappedBuffer != null) {
+      myMappedBuffer.dispose();
+      myMappedBuffer = null;
+    }
+    if (myMappedHprofFile != null) {
+      FileUtil.delete(myMappedHprofFile);
+      myMappedHprofFile = null;
+    }
+  }
+
+  /**
+   * Fetches the heap dump and returns the buffer the {@link Snapshot} is parsed from, or null if the heap dump cannot be retrieved. The
+   * response is only referenced from this method, so that once a large dump is written out its payload can be collected before parsing.
+   */
+  @Nullable
+  private HprofBuffer fetchBuffer() {
+    DumpDataResponse response;
+    while (true) {
+      // TODO move this to another thread and complete before we notify
+      response = myClient.getHeapDump(DumpDataRequest.newBuilder()
+                                        .setSession(mySession)
+                                        .setDumpTime(myHeapDumpInfo.getStartTime()).build());
+      if (response.getStatus() == DumpDataResponse.Status.SUCCESS) {
+        return createBuffer(response.getData());
+      }
+      else if (response.getStatus() == DumpDataResponse.Status.NOT_READY) {
+        try {
+          Thread.sleep(50L);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+        continue;
+      }
+      return null;
+    }
+  }
 
+  /**
+   * Creates the buffer the {@link Snapshot} is parsed from. Large dumps are written out to a temporary file, deleted on {@link #unload()},
+   * and memory-mapped, falling back to an in-memory buffer if the file cannot be created.
+   */
+  @NotNull
+  private HprofBuffer createBuffer(@NotNull ByteString data) {
+    if (data.size() >= myMappedBufferThresholdBytes) {
+      File hprofFile = null;
+      try {
+        hprofFile = FileUtil.createTempFile(String.format("heap_dump_%d", myHeapDumpInfo.getStartTime()), ".hprof", true);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(hprofFile))) {
+          // Writes the payload's chunks directly, without copying it into a single array first.
+          data.writeTo(out);
+        }
+        myMappedBuffer = new MemoryMappedFileBuffer(hprofFile);
+        myMappedHprofFile = hprofFile;
+        return myMappedBuffer;
+      }
+      catch (IOException e) {
+        getLogger().warn("Unable to memory-map heap dump, loading it in memory instead.", e);
+        if (hprofFile != null) {
+          FileUtil.delete(hprofFile);
+        }
+      }
+    }
+    return new InMemoryBuffer(data.asReadOnlyByteBuffer());
   }
 
   @NotNull
@@ -289,13 +368,71 @@ public class HeapDumpCaptureObject implements CaptureObject {
              .asList(InstanceAttribute.LABEL, InstanceAttribute.DEPTH, InstanceAttribute.SHALLOW_SIZE, InstanceAttribute.RETAINED_SIZE);
   }
 
+  /**
+   * Returns the {@link InstanceObject} representing the given {@link Instance}. Since {@link HeapDumpInstanceObject}s compare equal when
+   * they wrap the same {@link Instance}, non-class instances are materialized on demand instead of being kept in an index for the lifetime
+   * of the capture.
+   */
   @Nullable
   public InstanceObject findInstanceObject(@NotNull Instance instance) {
     if (mySnapshot == null) {
       return null;
     }
 
-    return myInstanceIndex.get(instance);
+    if (instance instanceof ClassObj) {
+      return myClassObjectIndex.get(instance);
+    }
+    return createInstanceObject(instance);
+  }
+
+  @NotNull
+  private InstanceObject createInstanceObject(@NotNull Instance instance) {
+    ClassObj classObj = instance.getClassObj();
+    return new HeapDumpInstanceObject(this, getClassObjectInstance(instance), instance,
+                                      myClassDb.registerClass(classObj.getClassLoaderId(), classObj.getClassName()), null);
+  }
+
+  /**
+   * @return true if the heap dump is loaded and not unloaded since, i.e. the {@link Instance}s of its snapshot can still be read.
+   */
+  boolean isSnapshotAvailable() {
+    return mySnapshot != null;
+  }
+
+  /**
+   * @return the distance of {@code instance} to the closest GC root.
+   */
+  int getDepth(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getDistanceToGcRoot() : dominators.getDepth(instance);
+  }
+
+  /**
+   * @return the size of all instances that are only reachable through {@code instance}, including itself.
+   */
+  long getRetainedSize(@NotNull Instance instance) {
+    HeapDumpDominators dominators = myDominators;
+    return dominators == null ? instance.getTotalRetainedSize() : dominators.getRetainedSize(instance);
+  }
+
+  /**
+   * Computes the dominator tree over a primitive-array copy of the object graph instead of perflib's {@link Snapshot#computeDominators()},
+   * which keeps its own per-instance bookkeeping objects alive for the lifetime of the snapshot.
+   */
+  @VisibleForTesting
+  @NotNull
+  static HeapDumpDominators computeDominators(@NotNull Snapshot snapshot) {
+    List<Instance> instances = new ArrayList<>();
+    for (Heap heap : snapshot.getHeaps()) {
+      instances.addAll(heap.getClasses());
+      heap.forEachInstance(instance -> {
+        instances.add(instance);
+        return true;
+      });
+    }
+    List<Instance> roots =
+      snapshot.getGCRoots().stream().map(RootObj::getReferredInstance).filter(Objects::nonNull).collect(Collectors.toList());
+    return HeapDumpDominators.compute(instances, roots);
   }
 
   @NotNull
@@ -323,4 +460,8 @@ public class HeapDumpCaptureObject implements CaptureObject {
     ClassObj classObj = instance.getClassObj();
     return myClassObjectIndex.get(classObj);
   }
+
+  private static Logger getLogger() {
+    return Logger.getInstance(HeapDumpCaptureObject.class);
+  }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.perflib.heap.Instance;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the dominator tree, retained sizes and distances to GC roots of a heap dump. The object graph is flattened into primitive
+ * arrays indexed by the position of each {@link Instance} in the id-sorted instance table, so the computation does not allocate any
+ * objects per instance or per reference. Dominators are computed with the Lengauer-Tarjan algorithm (simple version, with path
+ * compression), and the per-instance graph construction is done in parallel.
+ * <p>
+ * Like perflib's {@link com.android.tools.perflib.heap.Snapshot#computeDominators()}, only hard references are followed: instances that
+ * are only reachable through soft references are not dominated by anything and retain only their own size.
+ */
+final class HeapDumpDominators {
+  static final int UNREACHABLE_DEPTH = Integer.MAX_VALUE;
+
+  @NotNull private final Instance[] myInstances;
+  @NotNull private final long[] myIds;
+  @NotNull private final int[] myDepths;
+  @NotNull private final long[] myRetainedSizes;
+  @NotNull private final int[] myImmediateDominators;
+
+  private HeapDumpDominators(@NotNull Instance[] instances,
+                             @NotNull long[] ids,
+                             @NotNull int[] depths,
+                             @NotNull long[] retainedSizes,
+                             @NotNull int[] immediateDominators) {
+    myInstances = instances;
+    myIds = ids;
+    myDepths = depths;
+    myRetainedSizes = retainedSizes;
+    myImmediateDominators = immediateDominators;
+  }
+
+  /**
+   * @param instances all instances (including class objects) of the heap dump.
+   * @param roots     the instances directly referenced by GC roots.
+   */
+  @NotNull
+  static HeapDumpDominators compute(@NotNull Collection<Instance> instances, @NotNull Collection<Instance> roots) {
+    Instance[] table = instances.toArray(new Instance[0]);
+    Arrays.parallelSort(table, Comparator.comparingLong(Instance::getId));
+    long[] ids = new long[table.length];
+    Arrays.setAll(ids, i -> table[i].getId());
+
+    Graph graph = Graph.build(table, ids, roots);
+    int[] idoms = new LengauerTarjan(graph).run();
+
+    // The virtual root is the last node of the graph and is not exposed.
+    int[] immediateDominators = Arrays.copyOf(idoms, table.length);
+    long[] retainedSizes = computeRetainedSizes(table, graph, idoms);
+    int[] depths = computeDepths(graph, table.length);
+    return new HeapDumpDominators(table, ids, depths, retainedSizes, immediateDominators);
+  }
+
+  /**
+   * @return the number of hops from the closest GC root to the instance, or {@link #UNREACHABLE_DEPTH} if the instance is unknown or
+   * unreachable.
+   */
+  int getDepth(@NotNull Instance instance) {
+    int index = indexOf(instance);
+    return index < 0 ? UNREACHABLE_DEPTH : myDepths[index];
+  }
+
+  /**
+   * @return the total shallow size of all instances dominated by {@code instance}, including itself. Unreachable instances retain only
+   * themselves.
+   */
+  long getRetainedSize(@NotNull Instance instance) {
+    int index = indexOf(instance);
+    return index < 0 ? 0 : myRetainedSizes[index];
+  }
+
+  /**
+   * @return the immediate dominator of {@code instance}, or null if it is only dominated by the GC roots or is unreachable.
+   */
+  @Nullable
+  Instance getImmediateDominator(@NotNull Instance instance) {
+    int index = indexOf(instance);
+    if (index < 0) {
+      return null;
+    }
+    int dominator = myImmediateDominators[index];
+    return dominator < 0 || dominator >= myInstances.length ? null : myInstances[dominator];
+  }
+
+  private int indexOf(@NotNull Instance instance) {
+    int index = Arrays.binarySearch(myIds, instance.getId());
+    return index >= 0 && myInstances[index] == instance ? index : -1;
+  }
+
+  @NotNull
+  private static long[] computeRetainedSizes(@NotNull Instance[] table, @NotNull Graph graph, @NotNull int[] idoms) {
+    long[] retainedSizes = new long[graph.myNodeCount];
+    IntStream.range(0, table.length).parallel().forEach(i -> retainedSizes[i] = table[i].getSize());
+    // Children in the dominator tree always come after their dominator in DFS pre-order, so a single reverse pass accumulates the sizes.
+    int[] preorder = graph.myPreorder;
+    for (int i = graph.myReachableCount - 1; i > 0; i--) {
+      int node = preorder[i];
+      retainedSizes[idoms[node]] += retainedSizes[node];
+    }
+    return Arrays.copyOf(retainedSizes, table.length);
+  }
+
+  @NotNull
+  private static int[] computeDepths(@NotNull Graph graph, int instanceCount) {
+    int[] depths = new int[graph.myNodeCount];
+    Arrays.fill(depths, UNREACHABLE_DEPTH);
+    int[] queue = new int[graph.myNodeCount];
+    int head = 0;
+    int tail = 0;
+    int root = graph.myRoot;
+    for (int e = graph.mySuccessorStarts[root]; e < graph.mySuccessorStarts[root + 1]; e++) {
+      int node = graph.mySuccessors[e];
+      depths[node] = 0;
+      queue[tail++] = node;
+    }
+    while (head < tail) {
+      int node = queue[head++];
+      for (int e = graph.mySuccessorStarts[node]; e < graph.mySuccessorStarts[node + 1]; e++) {
+        int successor = graph.mySuccessors[e];
+        if (depths[successor] == UNREACHABLE_DEPTH) {
+          depths[successor] = depths[node] + 1;
+          queue[tail++] = successor;
+        }
+      }
+    }
+    return Arrays.copyOf(depths, instanceCount);
+  }
+
+  /**
+   * The object graph in compressed sparse row form. Node {@code i < n} is the i-th instance of the id-sorted table, and node {@code n} is a
+   * virtual root pointing at all GC root instances.
+   */
+  private static final class Graph {
+    private final int myNodeCount;
+    private final int myRoot;
+    @NotNull private final int[] myPredecessorStarts;
+    @NotNull private final int[] myPredecessors;
+    @NotNull private final int[] mySuccessorStarts;
+    @NotNull private final int[] mySuccessors;
+    // Filled in by the DFS of the dominator computation.
+    @NotNull private final int[] myPreorder;
+    private int myReachableCount;
+
+    private Graph(int nodeCount, @NotNull int[] predecessorStarts, @NotNull int[] predecessors) {
+      myNodeCount = nodeCount;
+      myRoot = nodeCount - 1;
+      myPredecessorStarts = predecessorStarts;
+      myPredecessors = predecessors;
+      mySuccessorStarts = new int[nodeCount + 1];
+      mySuccessors = new int[predecessors.length];
+      myPreorder = new int[nodeCount];
+
+      // Transpose the predecessor lists into successor lists.
+      for (int edge : predecessors) {
+        mySuccessorStarts[edge + 1]++;
+      }
+      for (int i = 0; i < nodeCount; i++) {
+        mySuccessorStarts[i + 1] += mySuccessorStarts[i];
+      }
+      int[] cursors = Arrays.copyOf(mySuccessorStarts, nodeCount);
+      for (int node = 0; node < nodeCount; node++) {
+        for (int e = predecessorStarts[node]; e < predecessorStarts[node + 1]; e++) {
+          mySuccessors[cursors[predecessors[e]]++] = node;
+        }
+      }
+    }
+
+    @NotNull
+    static Graph build(@NotNull Instance[] table, @NotNull long[] ids, @NotNull Collection<Instance> roots) {
+      int instanceCount = table.length;
+      int root = instanceCount;
+      boolean[] isRoot = new boolean[instanceCount];
+      for (Instance instance : roots) {
+        int index = indexOf(table, ids, instance);
+        if (index >= 0) {
+          isRoot[index] = true;
+        }
+      }
+
+      // First pass counts the resolvable predecessors of each node, second pass fills them in. Both are independent per node.
+      int[] predecessorStarts = new int[instanceCount + 2];
+      IntStream.range(0, instanceCount).parallel().forEach(i -> {
+        int count = isRoot[i] ? 1 : 0;
+        count += countResolved(table, ids, table[i].getHardReverseReferences());
+        predecessorStarts[i + 1] = count;
+      });
+      for (int i = 0; i <= instanceCount; i++) {
+        predecessorStarts[i + 1] += predecessorStarts[i];
+      }
+
+      int[] predecessors = new int[predecessorStarts[instanceCount + 1]];
+      IntStream.range(0, instanceCount).parallel().forEach(i -> {
+        int cursor = predecessorStarts[i];
+        if (isRoot[i]) {
+          predecessors[cursor++] = root;
+        }
+        fillResolved(table, ids, table[i].getHardReverseReferences(), predecessors, cursor);
+      });
+      return new Graph(instanceCount + 1, predecessorStarts, predecessors);
+    }
+
+    private static int countResolved(@NotNull Instance[] table, @NotNull long[] ids, @Nullable List<Instance> references) {
+      if (references == null) {
+        return 0;
+      }
+      int count = 0;
+      for (Instance reference : references) {
+        if (indexOf(table, ids, reference) >= 0) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    private static int fillResolved(@NotNull Instance[] table,
+                                    @NotNull long[] ids,
+                                    @Nullable List<Instance> references,
+                                    @NotNull int[] output,
+                                    int cursor) {
+      if (references == null) {
+        return cursor;
+      }
+      for (Instance reference : references) {
+        int index = indexOf(table, ids, reference);
+        if (index >= 0) {
+          output[cursor++] = index;
+        }
+      }
+      return cursor;
+    }
+
+    private static int indexOf(@NotNull Instance[] table, @NotNull long[] ids, @NotNull Instance instance) {
+      int index = Arrays.binarySearch(ids, instance.getId());
+      return index >= 0 && table[index] == instance ? index : -1;
+    }
+  }
+
+  /**
+   * Lengauer-Tarjan dominator computation over a {@link Graph}. All bookkeeping is kept in int arrays indexed by node (or by DFS number
+   * for {@link #myVertex}); the DFS and the path compression are iterative so deep object chains cannot overflow the stack.
+   */
+  private static final class LengauerTarjan {
+    @NotNull private final Graph myGraph;
+    @NotNull private final int[] myDfsNumber;
+    @NotNull private final int[] myVertex;
+    @NotNull private final int[] myParent;
+    @NotNull private final int[] mySemi;
+    @NotNull private final int[] myAncestor;
+    @NotNull private final int[] myLabel;
+    @NotNull private final int[] myIdom;
+    @NotNull private final int[] myBucketHead;
+    @NotNull private final int[] myBucketNext;
+    @NotNull private final int[] myStack;
+
+    LengauerTarjan(@NotNull Graph graph) {
+      int n = graph.myNodeCount;
+      myGraph = graph;
+      myDfsNumber = new int[n];
+      myVertex = graph.myPreorder;
+      myParent = new int[n];
+      mySemi = new int[n];
+      myAncestor = new int[n];
+      myLabel = new int[n];
+      myIdom = new int[n];
+      myBucketHead = new int[n];
+      myBucketNext = new int[n];
+      myStack = new int[n];
+      Arrays.fill(myDfsNumber, -1);
+      Arrays.fill(myAncestor, -1);
+      Arrays.fill(myIdom, -1);
+      Arrays.fill(myBucketHead, -1);
+    }
+
+    /**
+     * @return the immediate dominator of each node, -1 for the virtual root and for unreachable nodes.
+     */
+    @NotNull
+    int[] run() {
+      int count = depthFirstSearch();
+      for (int i = count - 1; i > 0; i--) {
+        int w = myVertex[i];
+        for (int e = myGraph.myPredecessorStarts[w]; e < myGraph.myPredecessorStarts[w + 1]; e++) {
+          int v = myGraph.myPredecessors[e];
+          if (myDfsNumber[v] < 0) {
+            continue;
+          }
+          int u = eval(v);
+          if (mySemi[u] < mySemi[w]) {
+            mySemi[w] = mySemi[u];
+          }
+        }
+        int semiVertex = myVertex[mySemi[w]];
+        myBucketNext[w] = myBucketHead[semiVertex];
+        myBucketHead[semiVertex] = w;
+
+        int parent = myParent[w];
+        myAncestor[w] = parent;
+        for (int v = myBucketHead[parent]; v >= 0; v = myBucketNext[v]) {
+          int u = eval(v);
+          myIdom[v] = mySemi[u] < mySemi[v] ? u : parent;
+        }
+        myBucketHead[parent] = -1;
+      }
+      for (int i = 1; i < count; i++) {
+        int w = myVertex[i];
+        if (myIdom[w] != myVertex[mySemi[w]]) {
+          myIdom[w] = myIdom[myIdom[w]];
+        }
+      }
+      myGraph.myReachableCount = count;
+      return myIdom;
+    }
+
+    private int depthFirstSearch() {
+      int[] edgeCursors = new int[myGraph.myNodeCount];
+      int root = myGraph.myRoot;
+      int count = 0;
+      int top = 0;
+      myStack[top++] = root;
+      myParent[root] = -1;
+      visit(root, count++);
+      edgeCursors[root] = myGraph.mySuccessorStarts[root];
+      while (top > 0) {
+        int node = myStack[top - 1];
+        if (edgeCursors[node] == myGraph.mySuccessorStarts[node + 1]) {
+          top--;
+          continue;
+        }
+        int successor = myGraph.mySuccessors[edgeCursors[node]++];
+        if (myDfsNumber[successor] < 0) {
+          myParent[successor] = node;
+          visit(successor, count++);
+          edgeCursors[successor] = myGraph.mySuccessorStarts[successor];
+          myStack[top++] = successor;
+        }
+      }
+      return count;
+    }
+
+    private void visit(int node, int dfsNumber) {
+      myDfsNumber[node] = dfsNumber;
+      myVertex[dfsNumber] = node;
+      mySemi[node] = dfsNumber;
+      myLabel[node] = node;
+    }
+
+    private int eval(int v) {
+      if (myAncestor[v] < 0) {
+        return v;
+      }
+      // Iterative equivalent of the recursive path compression: walk up to the forest root, then compress top-down.
+      int top = 0;
+      int x = v;
+      while (myAncestor[myAncestor[x]] >= 0) {
+        myStack[top++] = x;
+        x = myAncestor[x];
+      }
+      while (top > 0) {
+        int y = myStack[--top];
+        int ancestor = myAncestor[y];
+        if (mySemi[myLabel[ancestor]] < mySemi[myLabel[y]]) {
+          myLabel[y] = myLabel[ancestor];
+        }
+        myAncestor[y] = myAncestor[ancestor];
+      }
+      return myLabel[v];
+    }
+  }
+}
@@ -79,8 +79,8 @@ final class HeapDumpFieldObject implements FieldObject {
 
         myNativeSize = instance.getNativeSize();
         myShallowSize = instance.getSize();
-        myRetainedSize = instance.getTotalRetainedSize();
-        myDepth = instance.getDistanceToGcRoot();
+        myRetainedSize = captureObject.getRetainedSize(instance);
+        myDepth = captureObject.getDepth(instance);
       }
     }
     else {
@@ -89,7 +89,7 @@ final class HeapDumpFieldObject implements FieldObject {
       myNativeSize = 0;
       myShallowSize = type.getSize();
       myRetainedSize = type.getSize();
-      myDepth = parentInstance.getDistanceToGcRoot();
+      myDepth = captureObject.getDepth(parentInstance);
     }
 
     myHashCode = Arrays.hashCode(new Object[]{myInstanceObject, getFieldName(), getValueType(), myField.getValue()});
@@ -107,7 +107,7 @@ final class HeapDumpFieldObject implements FieldObject {
     }
 
     HeapDumpFieldObject other = (HeapDumpFieldObject)obj;
-    return other.myInstanceObject == myInstanceObject &&
+    return Objects.equals(other.myInstanceObject, myInstanceObject) &&
            getFieldName().equals(other.getFieldName()) &&
            getValueType() == other.getValueType() &&
            (getAsInstance() == other.getAsInstance() || Objects.equals(myField.getValue(), other.myField.getValue()));
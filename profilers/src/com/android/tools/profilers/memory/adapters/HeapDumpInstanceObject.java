@@ -33,7 +33,6 @@ import static com.android.tools.profilers.memory.adapters.ValueObject.ValueType.
 class HeapDumpInstanceObject implements InstanceObject {
   private static final String NAME_FORMATTER = "%s@%d (0x%x)";
   private static final int MAX_VALUE_TEXT_LENGTH = 1024;
-  private static final Comparator<Instance> DEPTH_COMPARATOR = Comparator.comparingInt(Instance::getDistanceToGcRoot);
   private static final String INVALID_STRING_VALUE = " ...<invalid string value>...";
   private static final Map<Type, ValueType> VALUE_TYPE_MAP = ImmutableMap.<Type, ValueObject.ValueType>builder()
     .put(Type.BOOLEAN, BOOLEAN)
@@ -53,7 +52,8 @@ class HeapDumpInstanceObject implements InstanceObject {
   @Nullable private final InstanceObject myClassInstanceObject;
   @NotNull private final Instance myInstance;
   @NotNull private final ClassDb.ClassEntry myClassEntry;
-  @NotNull private final String myMemoizedLabel;
+  // Lazily created, as most instances of a heap dump are never displayed.
+  @Nullable private String myMemoizedLabel;
 
   @VisibleForTesting(visibility = VisibleForTesting.Visibility.PACKAGE)
   HeapDumpInstanceObject(@NotNull HeapDumpCaptureObject captureObject,
@@ -66,8 +66,6 @@ class HeapDumpInstanceObject implements InstanceObject {
     myInstance = instance;
     myClassEntry = classEntry;
 
-    myMemoizedLabel =
-      String.format(NAME_FORMATTER, myClassEntry.getSimpleClassName(), myInstance.getUniqueId(), myInstance.getUniqueId());
     if (precomputedValueType != null) {
       myValueType = precomputedValueType;
       return;
@@ -113,13 +111,17 @@ class HeapDumpInstanceObject implements InstanceObject {
   @Override
   public String getValueText() {
     // TODO show length of array instance
+    if (myMemoizedLabel == null) {
+      myMemoizedLabel =
+        String.format(NAME_FORMATTER, myClassEntry.getSimpleClassName(), myInstance.getUniqueId(), myInstance.getUniqueId());
+    }
     return myMemoizedLabel;
   }
 
   @NotNull
   @Override
   public String getToStringText() {
-    if (myValueType == STRING) {
+    if (myValueType == STRING && myCaptureObject.isSnapshotAvailable()) {
       String text = ((ClassInstance)myInstance).getAsString(MAX_VALUE_TEXT_LENGTH);
       if (text != null) {
         int textLength = text.length();
@@ -160,7 +162,7 @@ class HeapDumpInstanceObject implements InstanceObject {
 
   @Override
   public int getDepth() {
-    return myInstance.getDistanceToGcRoot();
+    return myCaptureObject.getDepth(myInstance);
   }
 
   @Override
@@ -175,11 +177,15 @@ class HeapDumpInstanceObject implements InstanceObject {
 
   @Override
   public long getRetainedSize() {
-    return myInstance.getTotalRetainedSize();
+    return myCaptureObject.getRetainedSize(myInstance);
   }
 
   @Override
   public int getFieldCount() {
+    if (!myCaptureObject.isSnapshotAvailable()) {
+      // The values of the instance are read from the hprof buffer, which is released when the capture is unloaded.
+      return 0;
+    }
     if (myInstance instanceof ClassInstance) {
       ClassInstance classInstance = (ClassInstance)myInstance;
       return classInstance.getValues().size();
@@ -199,6 +205,9 @@ class HeapDumpInstanceObject implements InstanceObject {
   @Override
   public List<FieldObject> getFields() {
     List<FieldObject> fields = new ArrayList<>();
+    if (!myCaptureObject.isSnapshotAvailable()) {
+      return fields;
+    }
     if (myInstance instanceof ClassInstance) {
       ClassInstance classInstance = (ClassInstance)myInstance;
       for (FieldValue field : classInstance.getValues()) {
@@ -229,7 +238,7 @@ class HeapDumpInstanceObject implements InstanceObject {
   @Nullable
   @Override
   public ArrayObject getArrayObject() {
-    if (!(myInstance instanceof ArrayInstance)) {
+    if (!(myInstance instanceof ArrayInstance) || !myCaptureObject.isSnapshotAvailable()) {
       return null;
     }
 
@@ -244,7 +253,7 @@ class HeapDumpInstanceObject implements InstanceObject {
       @Nullable
       @Override
       public byte[] getAsByteArray() {
-        if (getArrayElementType() == BYTE) {
+        if (getArrayElementType() == BYTE && myCaptureObject.isSnapshotAvailable()) {
           return arrayInstance.asRawByteArray(0, arrayInstance.getLength());
         }
         return null;
@@ -253,7 +262,7 @@ class HeapDumpInstanceObject implements InstanceObject {
       @Nullable
       @Override
       public char[] getAsCharArray() {
-        if (getArrayElementType() == CHAR) {
+        if (getArrayElementType() == CHAR && myCaptureObject.isSnapshotAvailable()) {
           return arrayInstance.asCharArray(0, arrayInstance.getLength());
         }
         return null;
@@ -262,12 +271,12 @@ class HeapDumpInstanceObject implements InstanceObject {
       @NotNull
       @Override
       public Object[] getAsArray() {
-        return arrayInstance.getValues();
+        return myCaptureObject.isSnapshotAvailable() ? arrayInstance.getValues() : new Object[0];
       }
 
       @Override
       public int getArrayLength() {
-        return arrayInstance.getLength();
+        return myCaptureObject.isSnapshotAvailable() ? arrayInstance.getLength() : 0;
       }
     };
   }
@@ -306,20 +315,22 @@ class HeapDumpInstanceObject implements InstanceObject {
   @NotNull
   @Override
   public List<ReferenceObject> getReferences() {
-    return getIsRoot() ? Collections.EMPTY_LIST : extractReferences();
+    return getIsRoot() || !myCaptureObject.isSnapshotAvailable() ? Collections.EMPTY_LIST : extractReferences();
   }
 
   @VisibleForTesting(visibility = VisibleForTesting.Visibility.PRIVATE)
   @NotNull
   public List<ReferenceObject> extractReferences() {
+    Comparator<Instance> depthComparator = Comparator.comparingInt(myCaptureObject::getDepth);
+
     // Sort hard referrers to appear first.
     List<Instance> sortedReferences = new ArrayList<>(myInstance.getHardReverseReferences());
-    sortedReferences.sort(DEPTH_COMPARATOR);
+    sortedReferences.sort(depthComparator);
 
     // Sort soft referrers to appear second.
     if (myInstance.getSoftReverseReferences() != null) {
       List<Instance> sortedSoftReferences = new ArrayList<>(myInstance.getSoftReverseReferences());
-      sortedSoftReferences.sort(DEPTH_COMPARATOR);
+      sortedSoftReferences.sort(depthComparator);
       sortedReferences.addAll(sortedSoftReferences);
     }
 
@@ -100,6 +100,13 @@ public class MethodSet extends ClassifierSet {
       return classSet;
     }
 
+    @NotNull
+    @Override
+    protected Object getPartitionKey(@NotNull InstanceObject instance) {
+      MethodSetInfo methodInfo = getMethodInfo(instance);
+      return methodInfo != null ? methodInfo : instance.getClassEntry();
+    }
+
     @Nullable
     private MethodSetInfo getMethodInfo(@NotNull InstanceObject instance) {
       int stackDepth = instance.getCallStackDepth();
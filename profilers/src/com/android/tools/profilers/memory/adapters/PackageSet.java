@@ -82,6 +82,14 @@ public class PackageSet extends ClassifierSet {
       }
     }
 
+    @NotNull
+    @Override
+    protected Object getPartitionKey(@NotNull InstanceObject instance) {
+      ClassDb.ClassEntry classEntry = instance.getClassEntry();
+      String[] splitPackageName = classEntry.getSplitPackageName();
+      return myPackageNameIndex >= splitPackageName.length ? classEntry : splitPackageName[myPackageNameIndex];
+    }
+
     @NotNull
     @Override
     public List<ClassifierSet> getFilteredClassifierSets() {
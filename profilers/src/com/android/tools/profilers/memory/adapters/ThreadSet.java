@@ -83,6 +83,13 @@ public class ThreadSet extends ClassifierSet {
       }
     }
 
+    @Nullable
+    @Override
+    protected Object getPartitionKey(@NotNull InstanceObject instance) {
+      ThreadId threadId = instance.getAllocationThreadId();
+      return threadId != ThreadId.INVALID_THREAD_ID ? threadId : myMethodSetClassifier.getPartitionKey(instance);
+    }
+
     @NotNull
     @Override
     public List<ClassifierSet> getFilteredClassifierSets() {
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.profilers.memory.adapters.ClassifierSet.Classifier;
+import com.android.tools.profilers.stacktrace.ThreadId;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ClassifierSetTest {
+  private static final int INSTANCE_COUNT = Classifier.PARALLEL_PARTITION_THRESHOLD * 3;
+  private static final int SEQUENTIAL_BATCH_SIZE = Classifier.PARALLEL_PARTITION_THRESHOLD / 2;
+
+  @Test
+  public void testParallelClassPartitionMatchesSequential() {
+    FakeCaptureObject captureObject = new FakeCaptureObject.Builder().build();
+    List<InstanceObject> instances = createInstances(captureObject);
+    assertSamePartitions(partitionAtOnce(ClassSet.createDefaultClassifier(), instances),
+                         partitionInBatches(ClassSet.createDefaultClassifier(), instances));
+  }
+
+  @Test
+  public void testParallelPackagePartitionMatchesSequential() {
+    FakeCaptureObject captureObject = new FakeCaptureObject.Builder().build();
+    List<InstanceObject> instances = createInstances(captureObject);
+    assertSamePartitions(partitionAtOnce(PackageSet.createDefaultClassifier(captureObject), instances),
+                         partitionInBatches(PackageSet.createDefaultClassifier(captureObject), instances));
+  }
+
+  @Test
+  public void testParallelThreadPartitionMatchesSequential() {
+    FakeCaptureObject captureObject = new FakeCaptureObject.Builder().build();
+    List<InstanceObject> instances = createInstances(captureObject);
+    assertSamePartitions(partitionAtOnce(ThreadSet.createDefaultClassifier(captureObject), instances),
+                         partitionInBatches(ThreadSet.createDefaultClassifier(captureObject), instances));
+  }
+
+  @NotNull
+  private static List<InstanceObject> createInstances(@NotNull FakeCaptureObject captureObject) {
+    List<InstanceObject> instances = new ArrayList<>(INSTANCE_COUNT);
+    for (int i = 0; i < INSTANCE_COUNT; i++) {
+      instances.add(new FakeInstanceObject.Builder(captureObject, "com.package" + (i % 3) + ".Class" + (i % 7))
+                      .setAllocationThreadId(new ThreadId("Thread" + (i % 5)))
+                      .setShallowSize(i % 11 + 1)
+                      .setRetainedSize(i % 13 + 1)
+                      .setNativeSize(i % 2)
+                      .build());
+    }
+    return instances;
+  }
+
+  @NotNull
+  private static Classifier partitionAtOnce(@NotNull Classifier classifier, @NotNull List<InstanceObject> instances) {
+    int half = instances.size() / 2;
+    classifier.partition(new LinkedHashSet<>(instances.subList(0, half)), new LinkedHashSet<>(instances.subList(half, instances.size())));
+    return classifier;
+  }
+
+  @NotNull
+  private static Classifier partitionInBatches(@NotNull Classifier classifier, @NotNull List<InstanceObject> instances) {
+    int half = instances.size() / 2;
+    for (int start = 0; start < instances.size(); start += SEQUENTIAL_BATCH_SIZE) {
+      List<InstanceObject> batch = instances.subList(start, Math.min(start + SEQUENTIAL_BATCH_SIZE, instances.size()));
+      if (start < half) {
+        classifier.partition(new LinkedHashSet<>(batch), new LinkedHashSet<>());
+      }
+      else {
+        classifier.partition(new LinkedHashSet<>(), new LinkedHashSet<>(batch));
+      }
+    }
+    return classifier;
+  }
+
+  private static void assertSamePartitions(@NotNull Classifier parallel, @NotNull Classifier sequential) {
+    List<ClassifierSet> parallelSets = parallel.getAllClassifierSets();
+    List<ClassifierSet> sequentialSets = sequential.getAllClassifierSets();
+    assertThat(parallelSets).isNotEmpty();
+    assertThat(parallelSets.size()).isEqualTo(sequentialSets.size());
+    for (int i = 0; i < parallelSets.size(); i++) {
+      ClassifierSet parallelSet = parallelSets.get(i);
+      ClassifierSet sequentialSet = sequentialSets.get(i);
+      assertThat(parallelSet.getName()).isEqualTo(sequentialSet.getName());
+      assertThat(parallelSet.getTotalObjectCount()).isEqualTo(sequentialSet.getTotalObjectCount());
+      assertThat(parallelSet.getDeltaAllocationCount()).isEqualTo(sequentialSet.getDeltaAllocationCount());
+      assertThat(parallelSet.getTotalNativeSize()).isEqualTo(sequentialSet.getTotalNativeSize());
+      assertThat(parallelSet.getTotalShallowSize()).isEqualTo(sequentialSet.getTotalShallowSize());
+      assertThat(parallelSet.getTotalRetainedSize()).isEqualTo(sequentialSet.getTotalRetainedSize());
+      assertThat(parallelSet.getInstancesCount()).isEqualTo(sequentialSet.getInstancesCount());
+      assertThat(parallelSet.getChildrenClassifierSets().size()).isEqualTo(sequentialSet.getChildrenClassifierSets().size());
+    }
+  }
+}
@@ -30,6 +30,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -199,6 +200,60 @@ public class HeapDumpCaptureObjectTest {
     assertEquals(0, capture.getHeapSets().size());
   }
 
+  @Test
+  public void testMemoryMappedHeapDumpObjectsGeneration() throws Exception {
+    MemoryProfiler.HeapDumpInfo dumpInfo = MemoryProfiler.HeapDumpInfo.newBuilder().setStartTime(3).setEndTime(8).build();
+    HeapDumpCaptureObject capture =
+      new HeapDumpCaptureObject(myGrpcChannel.getClient().getMemoryClient(), ProfilersTestData.SESSION_DATA, dumpInfo, null,
+                                myIdeProfilerServices.getFeatureTracker(), myStage);
+    // Force the hprof to be spooled to disk and memory-mapped regardless of its size.
+    capture.setMappedBufferThresholdBytes(0);
+
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(2, 0, 0)
+      .addReferences(1, 2)
+      .addRoot(1);
+    myService.setExplicitSnapshotBuffer(snapshotBuilder.getByteBuffer());
+    myService.setExplicitDumpDataStatus(MemoryProfiler.DumpDataResponse.Status.SUCCESS);
+    assertTrue(capture.load(null, null));
+
+    assertTrue(capture.isDoneLoading());
+    assertFalse(capture.isError());
+    assertNotNull(capture.getMappedHprofFile());
+    assertTrue(capture.getMappedHprofFile().exists());
+
+    HeapSet testHeap = capture.getHeapSets().stream().filter(heap -> "testHeap".equals(heap.getName())).findFirst().orElse(null);
+    assertNotNull(testHeap);
+    assertEquals(6, testHeap.getInstancesCount());
+
+    ClassifierSet.Classifier classClassifier = ClassSet.createDefaultClassifier();
+    classClassifier.partition(
+      Collections.emptyList(), testHeap.getInstancesStream().collect(HashSet::new, HashSet::add, HashSet::addAll));
+    InstanceObject instance0 = findChildClassSetWithName(classClassifier, "Class0").getInstancesStream().findFirst().orElse(null);
+    InstanceObject instance1 = findChildClassSetWithName(classClassifier, "Class1").getInstancesStream().findFirst().orElse(null);
+    verifyInstance(instance0, "Class0@1 (0x1)", 0, 1, 0);
+    verifyInstance(instance1, "Class1@2 (0x2)", 1, 0, 1);
+
+    // Instances looked up through fields and references are materialized on demand, but still match the ones in the heap.
+    assertEquals(instance1, instance0.getFields().get(0).getAsInstance());
+    assertEquals(instance0, instance1.getReferences().get(0).getReferenceInstance());
+
+    // Unloading releases the mapping and removes the spooled hprof.
+    File hprofFile = capture.getMappedHprofFile();
+    capture.unload();
+    assertNull(capture.getMappedHprofFile());
+    assertFalse(hprofFile.exists());
+
+    // The capture and the instances still referenced by the UI no longer read the released buffer.
+    assertFalse(capture.isDoneLoading());
+    assertEquals(0, capture.getHeapSets().size());
+    assertNull(capture.getHeapSet(testHeap.getId()));
+    assertEquals(0, capture.getInstances().count());
+    assertEquals(0, instance0.getFieldCount());
+    assertTrue(instance0.getFields().isEmpty());
+    assertTrue(instance1.getReferences().isEmpty());
+    assertEquals("Class1@2 (0x2)", instance1.getValueText());
+  }
+
   private static void verifyInstance(@NotNull InstanceObject instance,
                                      @NotNull String valueText,
                                      int depth,
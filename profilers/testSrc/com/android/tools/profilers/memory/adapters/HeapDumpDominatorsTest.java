@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters;
+
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.Snapshot;
+import com.android.tools.perflib.heap.SnapshotBuilder;
+import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.android.tools.proguard.ProguardMap;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class HeapDumpDominatorsTest {
+  private static final int INSTANCE_SIZE = 10;
+
+  @Test
+  public void testDiamondGraph() {
+    // root -> 1, 1 -> 2, 1 -> 3, 2 -> 4, 3 -> 4, 4 -> 5, and 6 is unreachable.
+    MockClassInstance instance1 = createInstance(1);
+    MockClassInstance instance2 = createInstance(2);
+    MockClassInstance instance3 = createInstance(3);
+    MockClassInstance instance4 = createInstance(4);
+    MockClassInstance instance5 = createInstance(5);
+    MockClassInstance instance6 = createInstance(6);
+    instance2.addHardReference(instance1);
+    instance3.addHardReference(instance1);
+    instance4.addHardReference(instance2);
+    instance4.addHardReference(instance3);
+    instance5.addHardReference(instance4);
+
+    // Shuffle the input order, as the computation should not depend on it.
+    List<Instance> instances = new ArrayList<>(Arrays.asList(instance5, instance3, instance6, instance1, instance4, instance2));
+    HeapDumpDominators dominators = HeapDumpDominators.compute(instances, Collections.singletonList(instance1));
+
+    assertThat(dominators.getImmediateDominator(instance1)).isNull();
+    assertThat(dominators.getImmediateDominator(instance2)).isSameAs(instance1);
+    assertThat(dominators.getImmediateDominator(instance3)).isSameAs(instance1);
+    assertThat(dominators.getImmediateDominator(instance4)).isSameAs(instance1);
+    assertThat(dominators.getImmediateDominator(instance5)).isSameAs(instance4);
+    assertThat(dominators.getImmediateDominator(instance6)).isNull();
+
+    assertThat(dominators.getRetainedSize(instance1)).isEqualTo(5 * INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance2)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance3)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance4)).isEqualTo(2 * INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance5)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance6)).isEqualTo(INSTANCE_SIZE);
+
+    assertThat(dominators.getDepth(instance1)).isEqualTo(0);
+    assertThat(dominators.getDepth(instance2)).isEqualTo(1);
+    assertThat(dominators.getDepth(instance3)).isEqualTo(1);
+    assertThat(dominators.getDepth(instance4)).isEqualTo(2);
+    assertThat(dominators.getDepth(instance5)).isEqualTo(3);
+    assertThat(dominators.getDepth(instance6)).isEqualTo(HeapDumpDominators.UNREACHABLE_DEPTH);
+  }
+
+  @Test
+  public void testMultipleRootsShareDominatedInstance() {
+    // root -> 1, root -> 2, 1 -> 3, 2 -> 3: only the virtual root dominates 3.
+    MockClassInstance instance1 = createInstance(1);
+    MockClassInstance instance2 = createInstance(2);
+    MockClassInstance instance3 = createInstance(3);
+    instance3.addHardReference(instance1);
+    instance3.addHardReference(instance2);
+
+    HeapDumpDominators dominators =
+      HeapDumpDominators.compute(Arrays.asList(instance1, instance2, instance3), Arrays.asList(instance1, instance2));
+
+    assertThat(dominators.getImmediateDominator(instance3)).isNull();
+    assertThat(dominators.getRetainedSize(instance1)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance2)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance3)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getDepth(instance3)).isEqualTo(1);
+  }
+
+  @Test
+  public void testSoftReferencesDoNotRetain() {
+    // root -> 1, 1 -> 2, 1 ~> 3 (soft), 2 ~> 4 (soft), 3 -> 4: 3 and 4 are only softly reachable.
+    MockClassInstance instance1 = createInstance(1);
+    MockClassInstance instance2 = createInstance(2);
+    MockClassInstance instance3 = createInstance(3);
+    MockClassInstance instance4 = createInstance(4);
+    instance2.addHardReference(instance1);
+    instance3.addSoftReferences(instance1);
+    instance4.addSoftReferences(instance2);
+    instance4.addHardReference(instance3);
+
+    HeapDumpDominators dominators =
+      HeapDumpDominators.compute(Arrays.asList(instance1, instance2, instance3, instance4), Collections.singletonList(instance1));
+
+    assertThat(dominators.getImmediateDominator(instance2)).isSameAs(instance1);
+    assertThat(dominators.getImmediateDominator(instance3)).isNull();
+    assertThat(dominators.getImmediateDominator(instance4)).isNull();
+    assertThat(dominators.getRetainedSize(instance1)).isEqualTo(2 * INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance2)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance3)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getRetainedSize(instance4)).isEqualTo(INSTANCE_SIZE);
+    assertThat(dominators.getDepth(instance3)).isEqualTo(HeapDumpDominators.UNREACHABLE_DEPTH);
+  }
+
+  @Test
+  public void testMatchesPerflibDominators() {
+    // Nodes 1 to 5 are plain instances and node 6 is a SoftReference: 1 -> {2, 3, 6}, 2 -> 4, 3 -> 4, 4 -> 1, 6 ~> 5.
+    SnapshotBuilder snapshotBuilder = new SnapshotBuilder(5, 1, 0)
+      .addReferences(1, 2, 3, 6)
+      .addReferences(2, 4)
+      .addReferences(3, 4)
+      .addReferences(4, 1)
+      .insertSoftReference(6, 5)
+      .addRoot(1);
+    Snapshot snapshot = Snapshot.createSnapshot(new InMemoryBuffer(snapshotBuilder.getByteBuffer()), new ProguardMap(),
+                                                Collections.emptyList());
+    HeapDumpDominators dominators = HeapDumpCaptureObject.computeDominators(snapshot);
+    snapshot.computeDominators();
+
+    List<Instance> instances = new ArrayList<>();
+    for (Heap heap : snapshot.getHeaps()) {
+      instances.addAll(heap.getClasses());
+      heap.forEachInstance(instance -> {
+        instances.add(instance);
+        return true;
+      });
+    }
+    assertThat(instances).isNotEmpty();
+    for (Instance instance : instances) {
+      Instance perflibDominator = instance.getImmediateDominator();
+      assertThat(dominators.getImmediateDominator(instance)).isSameAs(perflibDominator == Snapshot.SENTINEL_ROOT ? null : perflibDominator);
+      assertThat(dominators.getRetainedSize(instance)).isEqualTo(instance.getTotalRetainedSize());
+    }
+  }
+
+  @Test
+  public void testLongChainDoesNotOverflow() {
+    int chainLength = 100000;
+    List<Instance> instances = new ArrayList<>(chainLength);
+    MockClassInstance previous = null;
+    for (int i = 1; i <= chainLength; i++) {
+      MockClassInstance instance = createInstance(i);
+      if (previous != null) {
+        instance.addHardReference(previous);
+      }
+      instances.add(instance);
+      previous = instance;
+    }
+
+    HeapDumpDominators dominators = HeapDumpDominators.compute(instances, Collections.singletonList(instances.get(0)));
+    assertThat(dominators.getRetainedSize(instances.get(0))).isEqualTo((long)chainLength * INSTANCE_SIZE);
+    assertThat(dominators.getDepth(previous)).isEqualTo(chainLength - 1);
+  }
+
+  @NotNull
+  private static MockClassInstance createInstance(int id) {
+    MockClassInstance instance = new MockClassInstance(id, 0, "Class" + id);
+    instance.setSize(INSTANCE_SIZE);
+    return instance;
+  }
+}